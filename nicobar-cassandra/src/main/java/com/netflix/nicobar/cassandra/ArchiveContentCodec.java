@@ -0,0 +1,48 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.nicobar.cassandra;
+
+import java.io.IOException;
+
+/**
+ * Encodes and decodes the archive content stored by the {@link CassandraArchiveRepository}.
+ * The name of the codec is persisted alongside the content so that readers can select the
+ * matching codec, see {@link ArchiveContentCodecs#getCodec(String)}.
+ *
+ * Implementations must be thread safe.
+ */
+public interface ArchiveContentCodec {
+    /**
+     * @return the unique name of this codec, as stored in the {@code archive_content_codec} column.
+     */
+    public String getName();
+
+    /**
+     * Encode the raw archive bytes.
+     * @param content raw jar bytes
+     * @return encoded bytes
+     */
+    public byte[] encode(byte[] content) throws IOException;
+
+    /**
+     * Decode bytes previously produced by {@link #encode(byte[])}.
+     * @param encoded encoded bytes
+     * @return raw jar bytes
+     */
+    public byte[] decode(byte[] encoded) throws IOException;
+}
@@ -0,0 +1,77 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.nicobar.cassandra;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+import org.apache.commons.lang.StringUtils;
+
+import com.netflix.nicobar.cassandra.internal.DeflateArchiveContentCodec;
+import com.netflix.nicobar.cassandra.internal.LZ4ArchiveContentCodec;
+import com.netflix.nicobar.cassandra.internal.NoOpArchiveContentCodec;
+
+/**
+ * The built in {@link ArchiveContentCodec}s.
+ */
+public final class ArchiveContentCodecs {
+    /** Stores the content as-is. Rows written before codecs were introduced are read with this codec. */
+    public static final ArchiveContentCodec NONE = new NoOpArchiveContentCodec();
+
+    /** zlib deflate. Best ratio, moderate decode cost. */
+    public static final ArchiveContentCodec DEFLATE = new DeflateArchiveContentCodec();
+
+    /** LZ4 fast compressor. Lower ratio than deflate, but decodes several times faster. */
+    public static final ArchiveContentCodec LZ4 = new LZ4ArchiveContentCodec();
+
+    private static final Map<String, ArchiveContentCodec> CODECS;
+    static {
+        Map<String, ArchiveContentCodec> codecs = new LinkedHashMap<String, ArchiveContentCodec>();
+        for (ArchiveContentCodec codec : new ArchiveContentCodec[] {NONE, DEFLATE, LZ4}) {
+            codecs.put(codec.getName(), codec);
+        }
+        CODECS = Collections.unmodifiableMap(codecs);
+    }
+
+    private ArchiveContentCodecs() {
+    }
+
+    /**
+     * Look up a built in codec by name.
+     * @param name codec name as stored in the {@code archive_content_codec} column.
+     *        A blank name indicates an uncompressed row.
+     * @return the codec, or null if no codec is registered under the given name.
+     */
+    @Nullable
+    public static ArchiveContentCodec getCodec(@Nullable String name) {
+        if (StringUtils.isBlank(name)) {
+            return NONE;
+        }
+        return CODECS.get(name);
+    }
+
+    /**
+     * @return all of the built in codecs, keyed by name.
+     */
+    public static Map<String, ArchiveContentCodec> getCodecs() {
+        return CODECS;
+    }
+}
@@ -35,19 +35,27 @@ public class BasicCassandraRepositoryConfig implements CassandraArchiveRepositor
     /** default number of shards to separate the archives into */
     public static final int DEFAULT_SHARD_COUNT = 10;
 
+    /** Default shard scan page size. Shards are read in a single query by default */
+    public static final int DEFAULT_SHARD_PAGE_SIZE = 0;
+
     /** Default number of archives to fetch per round-trip */
     public static final int DEFAULT_FETCH_BATCH_SIZE = 10;
 
     /** Default module spec serializer */
     public static final ScriptModuleSpecSerializer DEFAULT_SPEC_SERIALIZER = new GsonScriptModuleSpecSerializer();
 
+    /** Default archive content codec. Content is stored uncompressed so that older readers can consume it */
+    public static final ArchiveContentCodec DEFAULT_CONTENT_CODEC = ArchiveContentCodecs.NONE;
+
     public static class Builder {
         private String repositoryId;
         private int shardCount = DEFAULT_SHARD_COUNT;
+        private int shardPageSize = DEFAULT_SHARD_PAGE_SIZE;
         private int fetchBatchSize = DEFAULT_FETCH_BATCH_SIZE;
         private Path archiveOutputDirectory;
         private ScriptModuleSpecSerializer specSerializer = DEFAULT_SPEC_SERIALIZER;
         private CassandraGateway cassandraGateway;
+        private ArchiveContentCodec contentCodec = DEFAULT_CONTENT_CODEC;
 
         /** Build by constructing a cassandra gateway for the given keyspace and column family */
         public Builder(Keyspace keyspace, String columnFamily) {
@@ -69,6 +77,11 @@ public class BasicCassandraRepositoryConfig implements CassandraArchiveRepositor
             this.shardCount = shardCount;
             return this;
         }
+        /** Number of rows to read per query when scanning a shard. 0 disables paging */
+        public Builder setShardPageSize(int shardPageSize) {
+            this.shardPageSize = shardPageSize;
+            return this;
+        }
         /** Number of archives to fetch per round-trip to the database */
         public Builder setFetchBatchSizeCount(int fetchBatchSize) {
             this.fetchBatchSize = fetchBatchSize;
@@ -84,6 +97,11 @@ public class BasicCassandraRepositoryConfig implements CassandraArchiveRepositor
             this.specSerializer = specSerializer;
             return this;
         }
+        /** Set the codec used to compress archive content on insertion. See {@link ArchiveContentCodecs} */
+        public Builder setArchiveContentCodec(ArchiveContentCodec contentCodec) {
+            this.contentCodec = contentCodec;
+            return this;
+        }
         /** Construct the config with defaults if necessary */
         public CassandraArchiveRepositoryConfig build() throws IOException {
             Keyspace keyspace = cassandraGateway.getKeyspace();
@@ -96,25 +114,30 @@ public class BasicCassandraRepositoryConfig implements CassandraArchiveRepositor
             if (buildArchiveDir == null) {
                 buildArchiveDir = Files.createTempDirectory("ScriptArchiveOutputDir");
             }
-            return new BasicCassandraRepositoryConfig(buildRepositoryId, cassandraGateway, shardCount, fetchBatchSize, buildArchiveDir, specSerializer);
+            return new BasicCassandraRepositoryConfig(buildRepositoryId, cassandraGateway, shardCount, shardPageSize, fetchBatchSize, buildArchiveDir, specSerializer, contentCodec);
         }
     }
 
     private final String repositoryId;
     private final int shardCount;
+    private final int shardPageSize;
     private final int fetchBatchSize;
     private final Path archiveOutputDirectory;
     private final ScriptModuleSpecSerializer moduleSpecSerializer;
     private final CassandraGateway cassandraGateway;
+    private final ArchiveContentCodec contentCodec;
 
     protected BasicCassandraRepositoryConfig(String repositoryId, CassandraGateway gateway, int shardCount,
-            int fetchBatchSize, Path archiveOutputDirectory, ScriptModuleSpecSerializer moduleSpecSerializer) {
+            int shardPageSize, int fetchBatchSize, Path archiveOutputDirectory, ScriptModuleSpecSerializer moduleSpecSerializer,
+            ArchiveContentCodec contentCodec) {
         this.repositoryId =  Objects.requireNonNull(repositoryId, "repositoryId");
         this.cassandraGateway = Objects.requireNonNull(gateway, "cassandraGateway");
         this.shardCount = shardCount;
+        this.shardPageSize = shardPageSize;
         this.fetchBatchSize = fetchBatchSize;
         this.archiveOutputDirectory = Objects.requireNonNull(archiveOutputDirectory, "archiveOutputDirectory");
         this.moduleSpecSerializer = Objects.requireNonNull(moduleSpecSerializer, "moduleSpecSerializer");
+        this.contentCodec = Objects.requireNonNull(contentCodec, "contentCodec");
     }
 
     @Override
@@ -127,6 +150,11 @@ public class BasicCassandraRepositoryConfig implements CassandraArchiveRepositor
         return shardCount;
     }
 
+    @Override
+    public int getShardPageSize() {
+        return shardPageSize;
+    }
+
     @Override
     public int getArchiveFetchBatchSize() {
         return fetchBatchSize;
@@ -142,6 +170,11 @@ public class BasicCassandraRepositoryConfig implements CassandraArchiveRepositor
         return moduleSpecSerializer;
     }
 
+    @Override
+    public ArchiveContentCodec getArchiveContentCodec() {
+        return contentCodec;
+    }
+
     @Override
     public String getRepositoryId() {
         return repositoryId;
@@ -26,8 +26,10 @@ import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.LinkedList;
@@ -35,13 +37,18 @@ import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 
 import org.apache.commons.lang.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.collect.AbstractIterator;
 import com.google.common.collect.Iterables;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 import com.netflix.astyanax.connectionpool.exceptions.ConnectionException;
 import com.netflix.astyanax.model.Column;
 import com.netflix.astyanax.model.ColumnList;
@@ -55,6 +62,7 @@ import com.netflix.nicobar.core.persistence.ArchiveRepository;
 import com.netflix.nicobar.core.persistence.ArchiveSummary;
 import com.netflix.nicobar.core.persistence.RepositorySummary;
 import com.netflix.nicobar.core.persistence.RepositoryView;
+import com.netflix.nicobar.core.persistence.ShardedRepositoryView;
 
 /**
  * Data access object of {@link ScriptArchive}s stored in Cassandra.
@@ -66,7 +74,15 @@ import com.netflix.nicobar.core.persistence.RepositoryView;
  * The shard number is subsequently inserted into a column for which a secondary index has been defined.
  * RepositoryView poller methods will first search each shard for any rows with an update timestamp greater than
  * the last poll time, and if any are found, the contents of those archives are loaded in small batches.
- *
+ * If {@link CassandraArchiveRepositoryConfig#getShardPageSize()} is set, each shard is scanned in pages ordered by
+ * the token of the row key, so that a large shard is streamed rather than materialized in a single result set.
+ * <p>
+ * Archive content may be compressed by configuring an {@link ArchiveContentCodec}. The name of the codec
+ * is stored in the {@code archive_content_codec} column while the content hash is always computed over
+ * the uncompressed jar, so rows written without a codec remain readable. The codec column is only written for
+ * compressed content, so tables created before the column was added keep working as long as no codec is configured.
+ * Re-inserting an uncompressed archive over a compressed one deletes the codec column in the same mutation.
+ * Rows are decoded with the configured codec when it has the recorded name, and with the built in codecs otherwise.
  *
  *<pre>
  * Default Schema:
@@ -80,6 +96,7 @@ import com.netflix.nicobar.core.persistence.RepositoryView;
  *    module_spec varchar,
  *    archive_content_hash blob,
  *    archive_content blob,
+ *    archive_content_codec varchar,
  * PRIMARY KEY (module_id)
  * );
  *
@@ -102,12 +119,15 @@ public class CassandraArchiveRepository implements ArchiveRepository {
         last_update,
         module_spec,
         archive_content_hash,
-        archive_content;
+        archive_content,
+        archive_content_codec;
     }
 
     protected final RepositoryView defaultView;
     private final CassandraArchiveRepositoryConfig config;
     private final CassandraGateway cassandra;
+    /** per-shard select statements of the first and the following pages, keyed by the selected columns */
+    private final ConcurrentMap<EnumSet<?>, String[][]> shardQueries = new ConcurrentHashMap<EnumSet<?>, String[][]>();
 
     /**
      * Construct a instance of the repository with the given configuration
@@ -144,12 +164,13 @@ public class CassandraArchiveRepository implements ArchiveRepository {
     }
 
     /**
-     * No named views supported by this repository!
-     * Throws UnsupportedOperationException.
+     * Supports the sharded views named by {@link ShardedRepositoryView#getViewName(int, int)},
+     * which restrict the default view to the archives owned by a single node of a fleet.
+     * @return the sharded view, or null if the name does not describe one.
      */
     @Override
     public RepositoryView getView(String view) {
-        throw new UnsupportedOperationException();
+        return ShardedRepositoryView.fromViewName(getDefaultView(), view);
     }
 
     /**
@@ -169,6 +190,8 @@ public class CassandraArchiveRepository implements ArchiveRepository {
         int shardNum = calculateShardNum(moduleId);
         byte[] jarBytes = Files.readAllBytes(jarFilePath);
         byte[] hash = calculateHash(jarBytes);
+        ArchiveContentCodec codec = getConfig().getArchiveContentCodec();
+        byte[] content = codec.encode(jarBytes);
         Map<String, Object> columns = new HashMap<String, Object>();
         columns.put(Columns.module_id.name(), moduleId.toString());
         columns.put(Columns.module_name.name(), moduleId.getName());
@@ -176,12 +199,20 @@ public class CassandraArchiveRepository implements ArchiveRepository {
         columns.put(Columns.shard_num.name(), shardNum);
         columns.put(Columns.last_update.name(), jarScriptArchive.getCreateTime());
         columns.put(Columns.archive_content_hash.name(), hash);
-        columns.put(Columns.archive_content.name(), jarBytes);
+        columns.put(Columns.archive_content.name(), content);
+        Set<String> deletedColumns = Collections.emptySet();
+        if (!ArchiveContentCodecs.NONE.getName().equals(codec.getName())) {
+            columns.put(Columns.archive_content_codec.name(), codec.getName());
+        }
 
         String serialized = getConfig().getModuleSpecSerializer().serialize(moduleSpec);
         columns.put(Columns.module_spec.name(), serialized);
         try {
-            cassandra.upsert(moduleId.toString(), columns);
+            if (!columns.containsKey(Columns.archive_content_codec.name()) && hasContentCodec(moduleId)) {
+                // the previous revision was compressed, and upserts merge columns
+                deletedColumns = Collections.singleton(Columns.archive_content_codec.name());
+            }
+            cassandra.upsert(moduleId.toString(), columns, deletedColumns);
         } catch (Exception e) {
             throw new IOException(e);
         }
@@ -233,7 +264,10 @@ public class CassandraArchiveRepository implements ArchiveRepository {
                     ScriptModuleSpec moduleSpec = getModuleSpec(columns);
                     long lastUpdateTime = lastUpdateColumn.getLongValue();
                     byte[] hash = hashColumn.getByteArrayValue();
-                    byte[] content = contentColumn.getByteArrayValue();
+                    byte[] content = decodeContent(moduleId, columns, contentColumn.getByteArrayValue());
+                    if (content == null) {
+                        continue;
+                    }
 
                     // verify the hash
                     if (hash != null && hash.length > 0 && !verifyHash(hash, content)) {
@@ -269,36 +303,90 @@ public class CassandraArchiveRepository implements ArchiveRepository {
     }
 
     /**
-     * Get all of the rows in in the table. Attempts to reduce the load on cassandra by splitting up the query into smaller sub-queries
+     * Get all of the rows in in the table. Attempts to reduce the load on cassandra by splitting up the query into smaller sub-queries.
+     * The first page of every shard is requested up front. When paging is enabled, the remaining pages are fetched as the
+     * result is iterated, and the returned {@link Iterable} may only be iterated once. Failures while fetching later pages
+     * are thrown as {@link UncheckedExecutionException}.
+     *
      * @param columns which columns to select
      * @return result rows
      */
     protected Iterable<Row<String, String>> getRows(EnumSet<?> columns) throws Exception {
         int shardCount = config.getShardCount();
+        int pageSize = config.getShardPageSize();
 
         List<Future<Rows<String, String>>> futures = new ArrayList<Future<Rows<String, String>>>();
         for (int i = 0; i < shardCount; i++) {
             futures.add(cassandra.selectAsync(generateSelectByShardCql(columns, i)));
         }
 
-        List<Row<String, String>> rows = new LinkedList<Row<String, String>>();
-        for (Future<Rows<String, String>> f: futures) {
-            Rows<String, String> shardRows = f.get();
-            Iterables.addAll(rows, shardRows);
+        if (pageSize <= 0) {
+            List<Row<String, String>> rows = new LinkedList<Row<String, String>>();
+            for (Future<Rows<String, String>> f: futures) {
+                Rows<String, String> shardRows = f.get();
+                Iterables.addAll(rows, shardRows);
+            }
+            return rows;
         }
 
-        return rows;
+        List<Iterable<Row<String, String>>> shards = new ArrayList<Iterable<Row<String, String>>>(shardCount);
+        for (int i = 0; i < shardCount; i++) {
+            final ShardPageIterator shardIterator = new ShardPageIterator(columns, i, futures.get(i), pageSize);
+            shards.add(new Iterable<Row<String, String>>() {
+                @Override
+                public Iterator<Row<String, String>> iterator() {
+                    return shardIterator;
+                }
+            });
+        }
+        return Iterables.concat(shards);
     }
 
     /**
-     * Generate the CQL to select specific columns by shard number.
+     * Generate the CQL to select specific columns by shard number. The statements are generated once per
+     * column set and cached. If paging is enabled, this is the query for the first page.
      * <pre>
-     *      SELECT ${columns}... FROM script_repo WHERE shard_num = ?
+     *      SELECT ${columns}... FROM script_repo WHERE shard_num = ? [LIMIT ${pageSize}]
      * </pre>
      */
     protected String generateSelectByShardCql(EnumSet<?> columns, Integer shardNum) {
-        StringBuilder sb = new StringBuilder()
-            .append("SELECT ");
+        return getShardQueries(columns)[shardNum][0];
+    }
+
+    /**
+     * Generate the prepared CQL to select the page of a shard which follows a row key, which is bound to its
+     * bind marker. The statements are generated once per column set and cached.
+     * <pre>
+     *      SELECT ${columns}... FROM script_repo WHERE shard_num = ? AND token(module_id) > token(?) LIMIT ${pageSize}
+     * </pre>
+     */
+    protected String generateSelectByShardPageCql(EnumSet<?> columns, Integer shardNum) {
+        return getShardQueries(columns)[shardNum][1];
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private String[][] getShardQueries(EnumSet<?> columns) {
+        String[][] queries = shardQueries.get(columns);
+        if (queries == null) {
+            queries = new String[getConfig().getShardCount()][];
+            for (int i = 0; i < queries.length; i++) {
+                StringBuilder sb = appendSelectByShard(new StringBuilder(), columns, i);
+                StringBuilder pageSb = appendSelectByShard(new StringBuilder(), columns, i)
+                    .append("AND token(").append(Columns.module_id.name()).append(") > token(?)\n");
+                appendLimit(sb);
+                appendLimit(pageSb);
+                queries[i] = new String[] { sb.toString(), pageSb.toString() };
+            }
+            String[][] existing = shardQueries.putIfAbsent(EnumSet.copyOf((EnumSet)columns), queries);
+            if (existing != null) {
+                queries = existing;
+            }
+        }
+        return queries;
+    }
+
+    private StringBuilder appendSelectByShard(StringBuilder sb, EnumSet<?> columns, Integer shardNum) {
+        sb.append("SELECT ");
         boolean first = true;
         for (Enum<?> column : columns) {
             if (first) {
@@ -312,7 +400,41 @@ public class CassandraArchiveRepository implements ArchiveRepository {
             .append("FROM ").append(cassandra.getColumnFamily())
             .append("\n").append("WHERE ").append(Columns.shard_num.name())
             .append(" = ").append(shardNum).append("\n");
-        return sb.toString();
+        return sb;
+    }
+
+    private void appendLimit(StringBuilder sb) {
+        int pageSize = getConfig().getShardPageSize();
+        if (pageSize > 0) {
+            sb.append("LIMIT ").append(pageSize).append("\n");
+        }
+    }
+
+    /**
+     * Check whether the stored revision of a module records a content codec.
+     */
+    private boolean hasContentCodec(ModuleId moduleId) {
+        ColumnList<String> columns = cassandra.getColumns(moduleId.toString(), Columns.archive_content_codec.name());
+        Column<String> codecColumn = columns != null ? columns.getColumnByName(Columns.archive_content_codec.name()) : null;
+        return codecColumn != null && codecColumn.hasValue();
+    }
+
+    /**
+     * Decode the stored archive content with the codec recorded in the row, which is either the configured
+     * codec or one of the built in codecs.
+     * @return the raw jar bytes, or null if the codec is unknown to this reader.
+     */
+    protected byte[] decodeContent(String moduleId, ColumnList<String> columns, byte[] content) throws IOException {
+        Column<String> codecColumn = columns.getColumnByName(Columns.archive_content_codec.name());
+        String codecName = codecColumn != null && codecColumn.hasValue() ? codecColumn.getStringValue() : null;
+        ArchiveContentCodec configuredCodec = getConfig().getArchiveContentCodec();
+        ArchiveContentCodec codec = configuredCodec.getName().equals(codecName) ? configuredCodec :
+            ArchiveContentCodecs.getCodec(codecName);
+        if (codec == null) {
+            logger.warn("Unknown archive content codec {} for moduleId {}.", codecName, moduleId);
+            return null;
+        }
+        return codec.decode(content);
     }
 
     protected boolean verifyHash(byte[] expectedHashCode, byte[] content) {
@@ -355,6 +477,53 @@ public class CassandraArchiveRepository implements ArchiveRepository {
         return config;
     }
 
+    /**
+     * Iterates over the rows of a single shard, requesting the next page in the background
+     * as soon as the current one is known to be full.
+     */
+    protected class ShardPageIterator extends AbstractIterator<Row<String, String>> {
+        private final EnumSet<?> columns;
+        private final int shardNum;
+        private final int pageSize;
+        private Future<Rows<String, String>> nextPage;
+        private Iterator<Row<String, String>> currentPage;
+
+        protected ShardPageIterator(EnumSet<?> columns, int shardNum, Future<Rows<String, String>> firstPage, int pageSize) {
+            this.columns = columns;
+            this.shardNum = shardNum;
+            this.nextPage = firstPage;
+            this.pageSize = pageSize;
+        }
+
+        @Override
+        protected Row<String, String> computeNext() {
+            while (currentPage == null || !currentPage.hasNext()) {
+                if (nextPage == null) {
+                    return endOfData();
+                }
+                Rows<String, String> page;
+                try {
+                    page = nextPage.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new UncheckedExecutionException(e);
+                } catch (ExecutionException e) {
+                    throw new UncheckedExecutionException(e.getCause());
+                }
+                nextPage = null;
+                if (page == null) {
+                    return endOfData();
+                }
+                if (page.size() >= pageSize) {
+                    Row<String, String> lastRow = page.getRowByIndex(page.size() - 1);
+                    nextPage = cassandra.selectAsync(generateSelectByShardPageCql(columns, shardNum), lastRow.getKey());
+                }
+                currentPage = page.iterator();
+            }
+            return currentPage.next();
+        }
+    }
+
     protected class DefaultView implements RepositoryView {
         @Override
         public String getName() {
@@ -367,21 +536,20 @@ public class CassandraArchiveRepository implements ArchiveRepository {
          */
         @Override
         public Map<ModuleId, Long> getArchiveUpdateTimes() throws IOException {
-            Iterable<Row<String, String>> rows;
+            Map<ModuleId, Long> updateTimes = new LinkedHashMap<ModuleId, Long>();
             try {
-                rows = getRows((EnumSet<?>)EnumSet.of(Columns.module_id, Columns.last_update));
+                Iterable<Row<String, String>> rows = getRows((EnumSet<?>)EnumSet.of(Columns.module_id, Columns.last_update));
+                for (Row<String, String> row : rows) {
+                    String moduleId = row.getKey();
+                    Column<String> lastUpdateColumn = row.getColumns().getColumnByName(Columns.last_update.name());
+                    Long updateTime = lastUpdateColumn != null ? lastUpdateColumn.getLongValue() : null;
+                    if (StringUtils.isNotBlank(moduleId) && updateTime != null) {
+                        updateTimes.put(ModuleId.fromString(moduleId), updateTime);
+                    }
+                }
             } catch (Exception e) {
                 throw new IOException(e);
             }
-            Map<ModuleId, Long> updateTimes = new LinkedHashMap<ModuleId, Long>();
-            for (Row<String, String> row : rows) {
-                String moduleId = row.getKey();
-                Column<String> lastUpdateColumn = row.getColumns().getColumnByName(Columns.last_update.name());
-                Long updateTime = lastUpdateColumn != null ? lastUpdateColumn.getLongValue() : null;
-                if (StringUtils.isNotBlank(moduleId) && updateTime != null) {
-                    updateTimes.put(ModuleId.fromString(moduleId), updateTime);
-                }
-            }
             return updateTimes;
         }
 
@@ -409,22 +577,20 @@ public class CassandraArchiveRepository implements ArchiveRepository {
         @Override
         public List<ArchiveSummary> getArchiveSummaries() throws IOException {
             List<ArchiveSummary> summaries = new LinkedList<ArchiveSummary>();
-            Iterable<Row<String, String>> rows;
             try {
-                    rows = getRows((EnumSet<?>)EnumSet.of(Columns.module_id, Columns.last_update, Columns.module_spec));
+                Iterable<Row<String, String>> rows = getRows((EnumSet<?>)EnumSet.of(Columns.module_id, Columns.last_update, Columns.module_spec));
+                for (Row<String, String> row : rows) {
+                    String moduleId = row.getKey();
+                    ColumnList<String> columns = row.getColumns();
+                    Column<String> lastUpdateColumn = columns.getColumnByName(Columns.last_update.name());
+                    long updateTime = lastUpdateColumn != null ? lastUpdateColumn.getLongValue() : 0;
+                    ScriptModuleSpec moduleSpec = getModuleSpec(columns);
+                    ArchiveSummary summary = new ArchiveSummary(ModuleId.fromString(moduleId), moduleSpec, updateTime, null);
+                    summaries.add(summary);
+                }
             } catch (Exception e) {
                 throw new IOException(e);
             }
-
-            for (Row<String, String> row : rows) {
-                String moduleId = row.getKey();
-                ColumnList<String> columns = row.getColumns();
-                Column<String> lastUpdateColumn = columns.getColumnByName(Columns.last_update.name());
-                long updateTime = lastUpdateColumn != null ? lastUpdateColumn.getLongValue() : 0;
-                ScriptModuleSpec moduleSpec = getModuleSpec(columns);
-                ArchiveSummary summary = new ArchiveSummary(ModuleId.fromString(moduleId), moduleSpec, updateTime, null);
-                summaries.add(summary);
-            }
             return summaries;
         }
     }
@@ -39,6 +39,11 @@ public interface CassandraArchiveRepositoryConfig {
      */
     public int getShardCount();
 
+    /**
+     * @return maximum number of rows to read per query when scanning a shard. 0 or less reads a shard in one query.
+     */
+    public int getShardPageSize();
+
     /**
      * @return how many archives to fetch at a time
      */
@@ -54,6 +59,11 @@ public interface CassandraArchiveRepositoryConfig {
      */
     public ScriptModuleSpecSerializer getModuleSpecSerializer();
 
+    /**
+     * @return codec used to encode the archive content on insertion.
+     */
+    public ArchiveContentCodec getArchiveContentCodec();
+
     /**
      * @return Descriptive string which uniquely identifies the repository. Used for display and reporting.
      */
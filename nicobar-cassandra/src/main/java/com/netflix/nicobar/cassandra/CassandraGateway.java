@@ -16,6 +16,7 @@
 package com.netflix.nicobar.cassandra;
 
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.Future;
 
 import com.netflix.astyanax.Keyspace;
@@ -57,6 +58,15 @@ public interface CassandraGateway {
      */
     public void upsert(String rowKey, Map<String, Object> attributes, int ttlSeconds);
 
+    /**
+     * Performs an insert/update for a row in Cassandra, and deletes columns of the row in the same mutation.
+     *
+     * @param rowKey the row key to use for insertions.
+     * @param attributes map of column names to column values.
+     * @param deletedColumns names of the columns to delete.
+     */
+    public void upsert(String rowKey, Map<String, Object> attributes, Set<String> deletedColumns);
+
     /**
      * Deletes a row in Cassandra.
      * @param rowKey the key of the row to delete.
@@ -108,4 +118,13 @@ public interface CassandraGateway {
      * @return Future containing result row set.
      */
     public Future<Rows<String, String>> selectAsync(String cql);
+
+    /**
+     * Performs a CQL query as a prepared statement asynchronously, binding the given values to its bind markers.
+     *
+     * @param cql the CQL query string, with a {@code ?} bind marker per value.
+     * @param values the values of the bind markers, in order.
+     * @return Future containing result row set.
+     */
+    public Future<Rows<String, String>> selectAsync(String cql, String... values);
 }
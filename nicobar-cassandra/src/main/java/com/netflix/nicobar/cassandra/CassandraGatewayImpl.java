@@ -16,6 +16,7 @@
 package com.netflix.nicobar.cassandra;
 
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.Future;
 
 import com.netflix.astyanax.Keyspace;
@@ -24,6 +25,7 @@ import com.netflix.astyanax.model.Rows;
 import com.netflix.nicobar.cassandra.internal.HystrixCassandraDeleteColumns;
 import com.netflix.nicobar.cassandra.internal.HystrixCassandraDeleteRow;
 import com.netflix.nicobar.cassandra.internal.HystrixCassandraGetRow;
+import com.netflix.nicobar.cassandra.internal.HystrixCassandraGetRowCollapser;
 import com.netflix.nicobar.cassandra.internal.HystrixCassandraGetRowsByKeys;
 import com.netflix.nicobar.cassandra.internal.HystrixCassandraGetRowsByQuery;
 import com.netflix.nicobar.cassandra.internal.HystrixCassandraPut;
@@ -34,6 +36,9 @@ import com.netflix.nicobar.cassandra.internal.HystrixCassandraPut;
  * It is not ideal that this behavior is provided by nicobar-cassandra. Preferably,
  * Astyanax itself should expose hystrix protected cassandra operations that we
  * can directly use.
+ * <p>
+ * Single row reads may optionally be collapsed into batched multi-row reads. This trades a small amount of
+ * latency, bounded by the collapse window, for fewer round trips when many rows are read concurrently.
  *
  * @author Vasanth Asokan
  */
@@ -41,10 +46,22 @@ public class CassandraGatewayImpl implements CassandraGateway {
 
     private final Keyspace keyspace;
     private final String columnFamily;
+    private final int rowCollapseWindowMillis;
 
     public CassandraGatewayImpl(Keyspace keyspace, String cf) {
+        this(keyspace, cf, 0);
+    }
+
+    /**
+     * @param keyspace the keyspace to operate on
+     * @param cf the column family to operate on
+     * @param rowCollapseWindowMillis how long {@link #getRow(String)} waits for concurrent reads to batch with.
+     *        0 disables collapsing.
+     */
+    public CassandraGatewayImpl(Keyspace keyspace, String cf, int rowCollapseWindowMillis) {
         this.keyspace = keyspace;
         this.columnFamily = cf;
+        this.rowCollapseWindowMillis = rowCollapseWindowMillis;
     }
 
     @Override
@@ -67,8 +84,16 @@ public class CassandraGatewayImpl implements CassandraGateway {
         new HystrixCassandraPut<String>(keyspace, columnFamily, rowKey, attributes, ttlSeconds).execute();
     }
 
+    @Override
+    public void upsert(String rowKey, Map<String, Object> attributes, Set<String> deletedColumns) {
+        new HystrixCassandraPut<String>(keyspace, columnFamily, rowKey, attributes, deletedColumns).execute();
+    }
+
     @Override
     public ColumnList<String> getRow(String rowKey) {
+        if (rowCollapseWindowMillis > 0) {
+            return new HystrixCassandraGetRowCollapser<String>(keyspace, columnFamily, rowKey, rowCollapseWindowMillis).execute();
+        }
         return new HystrixCassandraGetRow<String>(keyspace, columnFamily, rowKey).execute();
     }
 
@@ -87,6 +112,11 @@ public class CassandraGatewayImpl implements CassandraGateway {
         return new HystrixCassandraGetRowsByQuery<String>(keyspace, columnFamily, String.class, cql).queue();
     }
 
+    @Override
+    public Future<Rows<String, String>> selectAsync(String cql, String... values) {
+        return new HystrixCassandraGetRowsByQuery<String>(keyspace, columnFamily, String.class, cql, values).queue();
+    }
+
     @Override
     public ColumnList<String> getColumns(String rowKey, String... columns) {
         return new HystrixCassandraGetRow<String>(keyspace, columnFamily, rowKey).withColumns(columns).execute();
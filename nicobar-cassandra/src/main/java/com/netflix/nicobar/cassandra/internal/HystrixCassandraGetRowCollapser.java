@@ -0,0 +1,84 @@
+/*
+ * Copyright 2013 Netflix, Inc.
+ *
+ *      Licensed under the Apache License, Version 2.0 (the "License");
+ *      you may not use this file except in compliance with the License.
+ *      You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *      Unless required by applicable law or agreed to in writing, software
+ *      distributed under the License is distributed on an "AS IS" BASIS,
+ *      WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *      See the License for the specific language governing permissions and
+ *      limitations under the License.
+ */
+package com.netflix.nicobar.cassandra.internal;
+
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import com.netflix.astyanax.Keyspace;
+import com.netflix.astyanax.model.ColumnList;
+import com.netflix.astyanax.model.Row;
+import com.netflix.astyanax.model.Rows;
+import com.netflix.hystrix.HystrixCollapser;
+import com.netflix.hystrix.HystrixCollapserKey;
+import com.netflix.hystrix.HystrixCollapserProperties;
+import com.netflix.hystrix.HystrixCommand;
+
+/**
+ * Hystrix collapser which batches concurrent single row reads against the same column family
+ * into one {@link HystrixCassandraGetRowsByKeys} command.
+ *
+ * Requests are collapsed globally, so no Hystrix request context is required. The collapser key is made of
+ * the keyspace and column family names, so that reads against different keyspaces are never batched together.
+ *
+ * @param <RowKeyType> the row key type - String, Integer etc.
+ */
+public class HystrixCassandraGetRowCollapser<RowKeyType> extends HystrixCollapser<Rows<RowKeyType, String>, ColumnList<String>, RowKeyType> {
+
+    private final Keyspace keyspace;
+    private final String columnFamilyName;
+    private final RowKeyType rowKey;
+
+    /**
+     * @param keyspace keyspace to read from
+     * @param columnFamilyName column family to read from
+     * @param rowKey the row to read
+     * @param timerDelayInMilliseconds how long to wait for other requests to batch with
+     */
+    public HystrixCassandraGetRowCollapser(Keyspace keyspace, String columnFamilyName, RowKeyType rowKey, int timerDelayInMilliseconds) {
+        super(Setter.withCollapserKey(HystrixCollapserKey.Factory.asKey("CassandraGetRow-" + keyspace.getKeyspaceName() + "-" + columnFamilyName))
+            .andScope(Scope.GLOBAL)
+            .andCollapserPropertiesDefaults(HystrixCollapserProperties.Setter()
+                .withTimerDelayInMilliseconds(timerDelayInMilliseconds)));
+        this.keyspace = keyspace;
+        this.columnFamilyName = columnFamilyName;
+        this.rowKey = rowKey;
+    }
+
+    @Override
+    public RowKeyType getRequestArgument() {
+        return rowKey;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    protected HystrixCommand<Rows<RowKeyType, String>> createCommand(Collection<CollapsedRequest<ColumnList<String>, RowKeyType>> requests) {
+        Set<RowKeyType> rowKeys = new LinkedHashSet<RowKeyType>(requests.size() * 2);
+        for (CollapsedRequest<ColumnList<String>, RowKeyType> request : requests) {
+            rowKeys.add(request.getArgument());
+        }
+        return new HystrixCassandraGetRowsByKeys<RowKeyType>(keyspace, columnFamilyName, (RowKeyType[])rowKeys.toArray());
+    }
+
+    @Override
+    protected void mapResponseToRequests(Rows<RowKeyType, String> rows, Collection<CollapsedRequest<ColumnList<String>, RowKeyType>> requests) {
+        for (CollapsedRequest<ColumnList<String>, RowKeyType> request : requests) {
+            Row<RowKeyType, String> row = rows != null ? rows.getRow(request.getArgument()) : null;
+            request.setResponse(row != null ? row.getColumns() : null);
+        }
+    }
+}
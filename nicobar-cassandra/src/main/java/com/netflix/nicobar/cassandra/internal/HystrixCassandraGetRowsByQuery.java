@@ -19,6 +19,8 @@ import com.netflix.astyanax.Keyspace;
 import com.netflix.astyanax.model.ColumnFamily;
 import com.netflix.astyanax.model.CqlResult;
 import com.netflix.astyanax.model.Rows;
+import com.netflix.astyanax.query.CqlQuery;
+import com.netflix.astyanax.query.PreparedCqlQuery;
 
 /**
  * Hystrix command to get rows from Cassandra that match a particular CQL query.
@@ -32,6 +34,7 @@ public class HystrixCassandraGetRowsByQuery<RowKeyType> extends AbstractCassandr
     private final Keyspace keyspace;
     private final ColumnFamily<RowKeyType, String> columnFamily;
     private final String cql;
+    private final String[] values;
 
     /**
      * Get rows specified by their row keys.
@@ -44,6 +47,7 @@ public class HystrixCassandraGetRowsByQuery<RowKeyType> extends AbstractCassandr
         this.keyspace = keyspace;
         this.columnFamily = columnFamily;
         this.cql = cql;
+        this.values = null;
     }
 
     /**
@@ -53,17 +57,39 @@ public class HystrixCassandraGetRowsByQuery<RowKeyType> extends AbstractCassandr
      * @param columnFamilyName
      * @param cql
      */
-    @SuppressWarnings("unchecked")
     public HystrixCassandraGetRowsByQuery(Keyspace keyspace, String columnFamilyName, Class<?> columnFamilyKeyType, String cql) {
+        this(keyspace, columnFamilyName, columnFamilyKeyType, cql, (String[])null);
+    }
+
+    /**
+     * Get rows that match a prepared statement.
+     *
+     * @param keyspace
+     * @param columnFamilyName
+     * @param cql query with a {@code ?} bind marker per value
+     * @param values values of the bind markers, or null to execute the query as a plain statement
+     */
+    @SuppressWarnings("unchecked")
+    public HystrixCassandraGetRowsByQuery(Keyspace keyspace, String columnFamilyName, Class<?> columnFamilyKeyType, String cql, String... values) {
         this.keyspace = keyspace;
         this.columnFamily = getColumnFamilyViaColumnName(columnFamilyName, columnFamilyKeyType);
         this.cql = cql;
+        this.values = values;
     }
 
     @Override
     protected Rows<RowKeyType, String> run() throws Exception {
-        CqlResult<RowKeyType, String> cqlresult = keyspace.prepareQuery(columnFamily).withCql(cql).execute()
-                .getResult();
+        CqlQuery<RowKeyType, String> query = keyspace.prepareQuery(columnFamily).withCql(cql);
+        CqlResult<RowKeyType, String> cqlresult;
+        if (values != null) {
+            PreparedCqlQuery<RowKeyType, String> preparedQuery = query.asPreparedStatement();
+            for (String value : values) {
+                preparedQuery = preparedQuery.withStringValue(value);
+            }
+            cqlresult = preparedQuery.execute().getResult();
+        } else {
+            cqlresult = query.execute().getResult();
+        }
         Rows<RowKeyType, String> result = cqlresult.getRows();
         return result;
     }
@@ -16,8 +16,10 @@
 package com.netflix.nicobar.cassandra.internal;
 
 import java.nio.ByteBuffer;
+import java.util.Collections;
 import java.util.Date;
 import java.util.Map;
+import java.util.Set;
 
 import com.netflix.astyanax.ColumnListMutation;
 import com.netflix.astyanax.Keyspace;
@@ -39,18 +41,33 @@ public class HystrixCassandraPut<RowKeyType> extends AbstractCassandraHystrixCom
     private final ColumnFamily<RowKeyType, String> columnFamily;
     private final RowKeyType rowKey;
     private final Map<String, Object> attributes;
+    private final Set<String> deletedColumns;
     private Integer ttlSeconds = null;
 
     public HystrixCassandraPut(Keyspace keyspace, String columnFamilyName, RowKeyType rowKey, Map<String, Object> attributes) {
         this(keyspace, columnFamilyName, rowKey, attributes, -1);
     }
 
-    @SuppressWarnings("unchecked")
     public HystrixCassandraPut(Keyspace keyspace, String columnFamilyName, RowKeyType rowKey, Map<String, Object> attributes, int ttlSeconds) {
+        this(keyspace, columnFamilyName, rowKey, attributes, Collections.<String>emptySet(), ttlSeconds);
+    }
+
+    /**
+     * @param deletedColumns names of columns of the row to delete in the same mutation
+     */
+    public HystrixCassandraPut(Keyspace keyspace, String columnFamilyName, RowKeyType rowKey, Map<String, Object> attributes,
+            Set<String> deletedColumns) {
+        this(keyspace, columnFamilyName, rowKey, attributes, deletedColumns, -1);
+    }
+
+    @SuppressWarnings("unchecked")
+    private HystrixCassandraPut(Keyspace keyspace, String columnFamilyName, RowKeyType rowKey, Map<String, Object> attributes,
+            Set<String> deletedColumns, int ttlSeconds) {
         this.keyspace = keyspace;
         this.columnFamily = getColumnFamilyViaColumnName(columnFamilyName, rowKey);
         this.rowKey = rowKey;
         this.attributes = attributes;
+        this.deletedColumns = deletedColumns;
         if (ttlSeconds > 0) {
             this.ttlSeconds = ttlSeconds;
         }
@@ -89,6 +106,9 @@ public class HystrixCassandraPut<RowKeyType> extends AbstractCassandraHystrixCom
                 }
             }
         }
+        for (String column : deletedColumns) {
+            cm.deleteColumn(column);
+        }
         m.execute();
         return null;
     }
@@ -0,0 +1,82 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.nicobar.cassandra.internal;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Decompressor;
+import net.jpountz.lz4.LZ4Exception;
+import net.jpountz.lz4.LZ4Factory;
+
+import com.netflix.nicobar.cassandra.ArchiveContentCodec;
+
+/**
+ * {@link ArchiveContentCodec} based on the LZ4 fast compressor.
+ * The encoded form is the 4 byte big-endian length of the raw content followed by a single LZ4 block.
+ */
+public class LZ4ArchiveContentCodec implements ArchiveContentCodec {
+    public static final String NAME = "lz4";
+    private static final int HEADER_SIZE = 4;
+
+    private final LZ4Compressor compressor;
+    private final LZ4Decompressor decompressor;
+
+    public LZ4ArchiveContentCodec() {
+        LZ4Factory factory = LZ4Factory.fastestJavaInstance();
+        this.compressor = factory.fastCompressor();
+        this.decompressor = factory.decompressor();
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public byte[] encode(byte[] content) {
+        byte[] buffer = new byte[HEADER_SIZE + compressor.maxCompressedLength(content.length)];
+        ByteBuffer.wrap(buffer).putInt(content.length);
+        int compressedLength = compressor.compress(content, 0, content.length, buffer, HEADER_SIZE);
+        byte[] encoded = new byte[HEADER_SIZE + compressedLength];
+        System.arraycopy(buffer, 0, encoded, 0, encoded.length);
+        return encoded;
+    }
+
+    @Override
+    public byte[] decode(byte[] encoded) throws IOException {
+        if (encoded.length < HEADER_SIZE) {
+            throw new IOException("Truncated lz4 content");
+        }
+        int rawLength = ByteBuffer.wrap(encoded).getInt();
+        if (rawLength < 0) {
+            throw new IOException("Invalid lz4 content length " + rawLength);
+        }
+        byte[] content = new byte[rawLength];
+        try {
+            int read = decompressor.decompress(encoded, HEADER_SIZE, content, 0, rawLength);
+            if (read != encoded.length - HEADER_SIZE) {
+                throw new IOException("Unexpected lz4 content length. expected: " + (encoded.length - HEADER_SIZE) + " actual: " + read);
+            }
+        } catch (LZ4Exception e) {
+            throw new IOException(e);
+        }
+        return content;
+    }
+}
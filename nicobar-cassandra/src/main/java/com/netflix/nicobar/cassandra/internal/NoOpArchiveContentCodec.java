@@ -0,0 +1,42 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.nicobar.cassandra.internal;
+
+import com.netflix.nicobar.cassandra.ArchiveContentCodec;
+
+/**
+ * {@link ArchiveContentCodec} which leaves the content untouched.
+ */
+public class NoOpArchiveContentCodec implements ArchiveContentCodec {
+    public static final String NAME = "none";
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public byte[] encode(byte[] content) {
+        return content;
+    }
+
+    @Override
+    public byte[] decode(byte[] encoded) {
+        return encoded;
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright 2013 Netflix, Inc.
+ *
+ *      Licensed under the Apache License, Version 2.0 (the "License");
+ *      you may not use this file except in compliance with the License.
+ *      You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *      Unless required by applicable law or agreed to in writing, software
+ *      distributed under the License is distributed on an "AS IS" BASIS,
+ *      WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *      See the License for the specific language governing permissions and
+ *      limitations under the License.
+ */
+package com.netflix.nicobar.cassandra;
+
+import static org.testng.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+
+import org.apache.commons.io.IOUtils;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+/**
+ * Compares the stored size and decode cost of the {@link ArchiveContentCodecs} over a corpus of archives
+ * resembling what is typically deployed: groovy source archives, both stored and deflated, plus a
+ * precompiled jar.
+ *
+ * Run with {@code gradle benchmark}.
+ */
+public class ArchiveContentCodecBenchmark {
+    private static final int SOURCE_ARCHIVE_COUNT = 50;
+    private static final int DECODE_ITERATIONS = 20;
+
+    private final List<byte[]> corpus = new ArrayList<byte[]>();
+
+    @BeforeClass
+    public void setup() throws IOException {
+        Random random = new Random(42);
+        for (int i = 0; i < SOURCE_ARCHIVE_COUNT; i++) {
+            corpus.add(createSourceArchive("module" + i, 5 + random.nextInt(30), random, i % 2 == 0));
+        }
+        InputStream inputStream = getClass().getClassLoader()
+            .getResourceAsStream(CassandraArchiveRepositoryTest.TestResource.TEST_HELLOWORLD_JAR.getResourcePath());
+        try {
+            corpus.add(IOUtils.toByteArray(inputStream));
+        } finally {
+            IOUtils.closeQuietly(inputStream);
+        }
+    }
+
+    @Test(groups = "benchmark")
+    public void benchmarkCodecs() throws IOException {
+        ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        long rawBytes = 0;
+        for (byte[] archive : corpus) {
+            rawBytes += archive.length;
+        }
+        System.out.println(String.format("corpus: %d archives, %d bytes", corpus.size(), rawBytes));
+        System.out.println(String.format("%-8s %12s %8s %14s %14s", "codec", "stored bytes", "ratio", "encode cpu ms", "decode cpu ms"));
+        for (ArchiveContentCodec codec : ArchiveContentCodecs.getCodecs().values()) {
+            // warm up
+            List<byte[]> encoded = new ArrayList<byte[]>(corpus.size());
+            for (byte[] archive : corpus) {
+                codec.decode(codec.encode(archive));
+            }
+
+            long encodeStart = threadBean.getCurrentThreadCpuTime();
+            long storedBytes = 0;
+            for (byte[] archive : corpus) {
+                byte[] bytes = codec.encode(archive);
+                storedBytes += bytes.length;
+                encoded.add(bytes);
+            }
+            long encodeCpu = threadBean.getCurrentThreadCpuTime() - encodeStart;
+
+            long decodeStart = threadBean.getCurrentThreadCpuTime();
+            for (int iteration = 0; iteration < DECODE_ITERATIONS; iteration++) {
+                for (int i = 0; i < encoded.size(); i++) {
+                    byte[] decoded = codec.decode(encoded.get(i));
+                    if (iteration == 0) {
+                        assertTrue(Arrays.equals(decoded, corpus.get(i)));
+                    }
+                }
+            }
+            long decodeCpu = (threadBean.getCurrentThreadCpuTime() - decodeStart) / DECODE_ITERATIONS;
+            System.out.println(String.format("%-8s %12d %8.2f %14.2f %14.2f", codec.getName(), storedBytes,
+                (double)rawBytes / storedBytes, encodeCpu / 1e6, decodeCpu / 1e6));
+        }
+    }
+
+    /**
+     * Generate a jar of groovy sources. Stored (uncompressed) entries are common in archives built by
+     * deployment tooling.
+     */
+    private static byte[] createSourceArchive(String moduleName, int sourceCount, Random random, boolean stored) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        JarOutputStream jarStream = new JarOutputStream(bytes);
+        try {
+            for (int i = 0; i < sourceCount; i++) {
+                byte[] source = createSource(moduleName, "Script" + i, random).getBytes("UTF-8");
+                JarEntry entry = new JarEntry(moduleName + "/Script" + i + ".groovy");
+                if (stored) {
+                    CRC32 crc = new CRC32();
+                    crc.update(source);
+                    entry.setMethod(ZipEntry.STORED);
+                    entry.setSize(source.length);
+                    entry.setCrc(crc.getValue());
+                }
+                jarStream.putNextEntry(entry);
+                jarStream.write(source);
+                jarStream.closeEntry();
+            }
+            byte[] moduleSpec = ("{\"moduleId\":\"" + moduleName + "\",\"compilerPluginIds\":[\"groovy2\"]}").getBytes("UTF-8");
+            jarStream.putNextEntry(new JarEntry("moduleSpec.json"));
+            jarStream.write(moduleSpec);
+            jarStream.closeEntry();
+        } finally {
+            jarStream.close();
+        }
+        return bytes.toByteArray();
+    }
+
+    private static String createSource(String packageName, String className, Random random) {
+        StringBuilder sb = new StringBuilder()
+            .append("package ").append(packageName).append("\n\n")
+            .append("import com.netflix.nicobar.core.archive.ModuleId\n")
+            .append("import java.util.concurrent.ConcurrentHashMap\n\n")
+            .append("class ").append(className).append(" {\n")
+            .append("    private final Map<String, Object> cache = new ConcurrentHashMap<String, Object>()\n\n");
+        int methodCount = 5 + random.nextInt(20);
+        for (int m = 0; m < methodCount; m++) {
+            int field = random.nextInt(1000);
+            sb.append("    /**\n     * Computes the value of attribute ").append(field).append(".\n     */\n")
+                .append("    def computeAttribute").append(m).append("(Map<String, Object> request) {\n")
+                .append("        def value = request.get(\"attribute").append(field).append("\")\n")
+                .append("        if (value == null) {\n")
+                .append("            return cache.get(\"attribute").append(field).append("\")\n")
+                .append("        }\n")
+                .append("        cache.put(\"attribute").append(field).append("\", value)\n")
+                .append("        return value.toString().collect { it.toUpperCase() }.join(\"\")\n")
+                .append("    }\n\n");
+        }
+        return sb.append("}\n").toString();
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright 2013 Netflix, Inc.
+ *
+ *      Licensed under the Apache License, Version 2.0 (the "License");
+ *      you may not use this file except in compliance with the License.
+ *      You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *      Unless required by applicable law or agreed to in writing, software
+ *      distributed under the License is distributed on an "AS IS" BASIS,
+ *      WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *      See the License for the specific language governing permissions and
+ *      limitations under the License.
+ */
+package com.netflix.nicobar.cassandra;
+
+import static org.testng.Assert.assertEquals;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import com.netflix.nicobar.core.archive.JarScriptArchive;
+import com.netflix.nicobar.core.archive.ModuleId;
+import com.netflix.nicobar.core.archive.ScriptArchive;
+import com.netflix.nicobar.core.archive.ScriptModuleSpec;
+
+/**
+ * Measures insert, poll and fetch throughput of the {@link CassandraArchiveRepository}
+ * against the {@link InMemoryCassandraGateway}.
+ * <p>
+ * The injected per-operation latency can be set with {@code -Dnicobar.benchmark.latencyMicros}.
+ * Run with {@code gradle benchmark}.
+ */
+public class CassandraArchiveRepositoryBenchmark {
+    private static final int FETCH_SAMPLE_SIZE = 1000;
+    private static final int POLL_ITERATIONS = 5;
+
+    private Path testArchiveJarFile;
+    private Path outputDirectory;
+
+    @BeforeClass
+    public void setup() throws IOException {
+        InputStream inputStream = getClass().getClassLoader()
+            .getResourceAsStream(CassandraArchiveRepositoryTest.TestResource.TEST_HELLOWORLD_JAR.getResourcePath());
+        testArchiveJarFile = Files.createTempFile("helloworld", ".jar");
+        try {
+            Files.copy(inputStream, testArchiveJarFile, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            IOUtils.closeQuietly(inputStream);
+        }
+        outputDirectory = Files.createTempDirectory(getClass().getSimpleName());
+    }
+
+    @AfterClass
+    public void cleanup() throws IOException {
+        Files.deleteIfExists(testArchiveJarFile);
+        FileUtils.deleteDirectory(outputDirectory.toFile());
+    }
+
+    @DataProvider(name = "moduleCounts")
+    public Object[][] moduleCounts() {
+        return new Object[][] { {1000}, {10000}, {50000} };
+    }
+
+    @Test(groups = "benchmark", dataProvider = "moduleCounts")
+    public void benchmarkRepository(int moduleCount) throws Exception {
+        long latencyMicros = Long.getLong("nicobar.benchmark.latencyMicros", 0);
+        InMemoryCassandraGateway gateway = new InMemoryCassandraGateway.Builder()
+            .setLatency(latencyMicros, latencyMicros, TimeUnit.MICROSECONDS)
+            .build();
+        CassandraArchiveRepositoryConfig config = new BasicCassandraRepositoryConfig.Builder(gateway)
+            .setArchiveOutputDirectory(Files.createTempDirectory(outputDirectory, "archives"))
+            .build();
+        CassandraArchiveRepository repository = new CassandraArchiveRepository(config);
+
+        List<ModuleId> moduleIds = new ArrayList<ModuleId>(moduleCount);
+        long start = System.nanoTime();
+        for (int i = 0; i < moduleCount; i++) {
+            ModuleId moduleId = ModuleId.create("module" + i);
+            JarScriptArchive archive = new JarScriptArchive.Builder(testArchiveJarFile)
+                .setModuleSpec(new ScriptModuleSpec.Builder(moduleId).build())
+                .setCreateTime(i)
+                .build();
+            repository.insertArchive(archive);
+            moduleIds.add(moduleId);
+        }
+        report(moduleCount, "insert", moduleCount, System.nanoTime() - start);
+
+        start = System.nanoTime();
+        for (int i = 0; i < POLL_ITERATIONS; i++) {
+            Map<ModuleId, Long> updateTimes = repository.getDefaultView().getArchiveUpdateTimes();
+            assertEquals(updateTimes.size(), moduleCount);
+        }
+        report(moduleCount, "poll", POLL_ITERATIONS, System.nanoTime() - start);
+
+        int sampleSize = Math.min(FETCH_SAMPLE_SIZE, moduleCount);
+        Set<ModuleId> sample = new LinkedHashSet<ModuleId>();
+        for (int i = 0; i < sampleSize; i++) {
+            sample.add(moduleIds.get((int)((long)i * moduleCount / sampleSize)));
+        }
+        start = System.nanoTime();
+        Set<ScriptArchive> archives = repository.getScriptArchives(sample);
+        report(moduleCount, "fetch", sampleSize, System.nanoTime() - start);
+        assertEquals(archives.size(), sampleSize);
+
+        System.out.println(String.format("modules: %6d operations: %d bytes read: %d", moduleCount,
+            gateway.getOperationCount(), gateway.getBytesRead()));
+        gateway.shutdown();
+    }
+
+    private static void report(int moduleCount, String operation, int count, long elapsedNanos) {
+        double elapsedMillis = elapsedNanos / 1e6;
+        System.out.println(String.format("modules: %6d %-6s %6d ops in %10.1f ms, %10.1f ops/s", moduleCount,
+            operation, count, elapsedMillis, count / (elapsedMillis / 1000)));
+    }
+}
@@ -15,12 +15,16 @@
  */
 package com.netflix.nicobar.cassandra;
 
+import static org.mockito.Matchers.anySetOf;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
 import static org.testng.Assert.assertTrue;
 import static org.testng.Assert.fail;
 
@@ -34,10 +38,13 @@ import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.FutureTask;
@@ -49,12 +56,19 @@ import org.testng.annotations.BeforeClass;
 import org.testng.annotations.Test;
 
 import com.netflix.astyanax.Keyspace;
+import com.netflix.astyanax.model.Column;
+import com.netflix.astyanax.model.ColumnList;
 import com.netflix.astyanax.model.Row;
 import com.netflix.astyanax.model.Rows;
 import com.netflix.nicobar.cassandra.CassandraArchiveRepository.Columns;
 import com.netflix.nicobar.core.archive.JarScriptArchive;
 import com.netflix.nicobar.core.archive.ModuleId;
+import com.netflix.nicobar.core.archive.ScriptArchive;
 import com.netflix.nicobar.core.archive.ScriptModuleSpec;
+import com.netflix.nicobar.core.persistence.ArchiveSummary;
+import com.netflix.nicobar.core.persistence.RepositorySummary;
+import com.netflix.nicobar.core.persistence.RepositoryView;
+import com.netflix.nicobar.core.persistence.ShardedRepositoryView;
 
 /**
  * Tests for {@link CassandraArchiveRepository}
@@ -143,8 +157,9 @@ public class CassandraArchiveRepositoryTest {
 
         ArgumentCaptor<String> argument1 = ArgumentCaptor.forClass(String.class);
         ArgumentCaptor<Map> argument2 = ArgumentCaptor.forClass(Map.class);
+        ArgumentCaptor<Set> argument3 = ArgumentCaptor.forClass(Set.class);
         verify(gateway).upsert(argument1.capture(),
-                argument2.capture());
+                argument2.capture(), argument3.capture());
 
         assertEquals(moduleSpec.getModuleId().toString(), argument1.getValue());
         Map columnMap = argument2.getValue();
@@ -153,6 +168,98 @@ public class CassandraArchiveRepositoryTest {
         assertTrue(Arrays.equals(repository.calculateHash(jarBytes), (byte[])columnMap.get(Columns.archive_content_hash.name())));
         assertEquals(serialized, (String)columnMap.get(Columns.module_spec.name()));
         assertEquals(jarArchive.getCreateTime(), (long)columnMap.get(Columns.last_update.name()));
+        // tables without the codec column keep working as long as no codec is configured
+        assertFalse(columnMap.containsKey(Columns.archive_content_codec.name()));
+        assertTrue(argument3.getValue().isEmpty());
+    }
+
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    @Test
+    public void testArchiveContentCodec() throws Exception {
+        CassandraGateway codecGateway = mock(CassandraGateway.class);
+        CassandraArchiveRepositoryConfig codecConfig = new BasicCassandraRepositoryConfig.Builder(codecGateway)
+            .setRepositoryId("TestCodecRepo")
+            .setArchiveOutputDirectory(Files.createTempDirectory(this.getClass().getSimpleName() + "_"))
+            .setArchiveContentCodec(ArchiveContentCodecs.LZ4)
+            .build();
+        CassandraArchiveRepository codecRepository = new CassandraArchiveRepository(codecConfig);
+
+        JarScriptArchive jarArchive = new JarScriptArchive.Builder(testArchiveJarFile).build();
+        codecRepository.insertArchive(jarArchive);
+        byte[] jarBytes = Files.readAllBytes(testArchiveJarFile);
+
+        ArgumentCaptor<Map> argument = ArgumentCaptor.forClass(Map.class);
+        verify(codecGateway).upsert(anyString(), argument.capture(), anySetOf(String.class));
+        Map columnMap = argument.getValue();
+        byte[] storedContent = (byte[])columnMap.get(Columns.archive_content.name());
+        assertEquals(columnMap.get(Columns.archive_content_codec.name()), ArchiveContentCodecs.LZ4.getName());
+        assertFalse(Arrays.equals(jarBytes, storedContent));
+        assertTrue(Arrays.equals(repository.calculateHash(jarBytes), (byte[])columnMap.get(Columns.archive_content_hash.name())));
+
+        // a compressed row and a row written before codecs existed must both be readable
+        String serialized = (String)columnMap.get(Columns.module_spec.name());
+        ModuleId compressedId = ModuleId.create("compressed");
+        ModuleId legacyId = ModuleId.create("legacy");
+        Row<String, String> compressedRow = mockArchiveRow(compressedId.toString(), jarArchive.getCreateTime(), serialized,
+            repository.calculateHash(jarBytes), storedContent, ArchiveContentCodecs.LZ4.getName());
+        Row<String, String> legacyRow = mockArchiveRow(legacyId.toString(), jarArchive.getCreateTime(), serialized,
+            repository.calculateHash(jarBytes), jarBytes, null);
+        Rows<String, String> rows = mock(Rows.class);
+        when(rows.iterator()).thenReturn(Arrays.asList(compressedRow, legacyRow).iterator());
+        when(codecGateway.getRows(compressedId.toString(), legacyId.toString())).thenReturn(rows);
+
+        Set<ModuleId> moduleIds = new LinkedHashSet<ModuleId>(Arrays.asList(compressedId, legacyId));
+        Set<ScriptArchive> archives = codecRepository.getScriptArchives(moduleIds);
+        assertEquals(archives.size(), 2);
+        for (ScriptArchive archive : archives) {
+            byte[] archiveBytes = Files.readAllBytes(Paths.get(archive.getRootUrl().toURI()));
+            assertTrue(Arrays.equals(jarBytes, archiveBytes));
+        }
+    }
+
+    @Test
+    public void testArchiveContentCodecChanges() throws Exception {
+        InMemoryCassandraGateway memoryGateway = new InMemoryCassandraGateway.Builder().build();
+        ArchiveContentCodec reverseCodec = new ArchiveContentCodec() {
+            @Override
+            public String getName() {
+                return "reverse";
+            }
+            @Override
+            public byte[] encode(byte[] content) {
+                return reverse(content);
+            }
+            @Override
+            public byte[] decode(byte[] encoded) {
+                return reverse(encoded);
+            }
+        };
+        byte[] jarBytes = Files.readAllBytes(testArchiveJarFile);
+        ModuleId moduleId = ModuleId.create("recoded");
+        JarScriptArchive jarArchive = new JarScriptArchive.Builder(testArchiveJarFile)
+            .setModuleSpec(new ScriptModuleSpec.Builder(moduleId).build())
+            .build();
+
+        // each insertion replaces the codec of the previous one, including the custom codec and no codec at all
+        for (ArchiveContentCodec codec : Arrays.asList(ArchiveContentCodecs.LZ4, reverseCodec, ArchiveContentCodecs.NONE)) {
+            CassandraArchiveRepository codecRepository = createInMemoryRepository(memoryGateway, 0, codec);
+            codecRepository.insertArchive(jarArchive);
+            Set<ScriptArchive> archives = codecRepository.getScriptArchives(Collections.singleton(moduleId));
+            assertEquals(archives.size(), 1, codec.getName());
+            byte[] archiveBytes = Files.readAllBytes(Paths.get(archives.iterator().next().getRootUrl().toURI()));
+            assertTrue(Arrays.equals(jarBytes, archiveBytes), codec.getName());
+        }
+        // the uncompressed insertion deleted the codec column instead of writing it
+        assertTrue(memoryGateway.getColumns(moduleId.toString(), Columns.archive_content_codec.name()).isEmpty());
+        memoryGateway.shutdown();
+    }
+
+    private static byte[] reverse(byte[] bytes) {
+        byte[] reversed = new byte[bytes.length];
+        for (int i = 0; i < bytes.length; i++) {
+            reversed[i] = bytes[bytes.length - 1 - i];
+        }
+        return reversed;
     }
 
     @Test(expectedExceptions=UnsupportedOperationException.class)
@@ -161,9 +268,13 @@ public class CassandraArchiveRepositoryTest {
         repository.insertArchive(jarArchive, null);
     }
 
-    @Test(expectedExceptions=UnsupportedOperationException.class)
+    @Test
     public void testGetView() throws IOException {
-        repository.getView("");
+        assertNull(repository.getView(""));
+        assertNull(repository.getView("shard:2/2"));
+        RepositoryView view = repository.getView(ShardedRepositoryView.getViewName(1, 4));
+        assertTrue(view instanceof ShardedRepositoryView);
+        assertEquals(view.getName(), "shard:1/4");
     }
 
     @Test
@@ -205,24 +316,181 @@ public class CassandraArchiveRepositoryTest {
     }
 
     @Test
-    public void testGetArchiveUpdateTimes() {
-        // TODO: Fill out test.
+    @SuppressWarnings("unchecked")
+    public void testGetRowsPaged() throws Exception {
+        CassandraGateway pagedGateway = mock(CassandraGateway.class);
+        when(pagedGateway.getColumnFamily()).thenReturn("testColumnFamily");
+        CassandraArchiveRepositoryConfig pagedConfig = new BasicCassandraRepositoryConfig.Builder(pagedGateway)
+            .setRepositoryId("TestPagedRepo")
+            .setArchiveOutputDirectory(Files.createTempDirectory(this.getClass().getSimpleName() + "_"))
+            .setShardCount(1)
+            .setShardPageSize(2)
+            .build();
+        CassandraArchiveRepository pagedRepository = new CassandraArchiveRepository(pagedConfig);
+        EnumSet<Columns> columns = EnumSet.of(Columns.module_id, Columns.last_update);
+
+        Row<String, String> row1 = mock(Row.class);
+        Row<String, String> row2 = mock(Row.class);
+        Row<String, String> row3 = mock(Row.class);
+        when(row2.getKey()).thenReturn("module2");
+        Rows<String, String> firstPage = mock(Rows.class);
+        when(firstPage.size()).thenReturn(2);
+        when(firstPage.getRowByIndex(1)).thenReturn(row2);
+        when(firstPage.iterator()).thenReturn(Arrays.asList(row1, row2).iterator());
+        Rows<String, String> secondPage = mock(Rows.class);
+        when(secondPage.size()).thenReturn(1);
+        when(secondPage.iterator()).thenReturn(Arrays.asList(row3).iterator());
+
+        String firstPageCql = pagedRepository.generateSelectByShardCql(columns, 0);
+        String secondPageCql = pagedRepository.generateSelectByShardPageCql(columns, 0);
+        assertTrue(firstPageCql.contains("LIMIT 2"));
+        assertTrue(secondPageCql.contains("token(module_id) > token(?)"));
+        assertSame(pagedRepository.generateSelectByShardPageCql(EnumSet.copyOf(columns), 0), secondPageCql);
+        when(pagedGateway.selectAsync(firstPageCql)).thenReturn(completedFuture(firstPage));
+        when(pagedGateway.selectAsync(secondPageCql, "module2")).thenReturn(completedFuture(secondPage));
+
+        List<Row<String, String>> rows = new ArrayList<Row<String, String>>();
+        for (Row<String, String> row : pagedRepository.getRows(columns)) {
+            rows.add(row);
+        }
+        assertEquals(rows, Arrays.asList(row1, row2, row3));
+        InOrder inOrder = inOrder(pagedGateway);
+        inOrder.verify(pagedGateway).selectAsync(firstPageCql);
+        inOrder.verify(pagedGateway).selectAsync(secondPageCql, "module2");
+        inOrder.verifyNoMoreInteractions();
     }
 
     @Test
-    public void testGetArchiveSummaries() {
-        // TODO: Fill out test.
+    public void testGetArchiveUpdateTimes() throws Exception {
+        InMemoryCassandraGateway memoryGateway = new InMemoryCassandraGateway.Builder().build();
+        CassandraArchiveRepository memoryRepository = createInMemoryRepository(memoryGateway, 0);
+        Map<ModuleId, Long> expected = insertTestArchives(memoryRepository, 25);
+
+        assertEquals(memoryRepository.getDefaultView().getArchiveUpdateTimes(), expected);
+        memoryGateway.shutdown();
     }
 
+    @Test
+    public void testGetArchiveUpdateTimesPaged() throws Exception {
+        InMemoryCassandraGateway memoryGateway = new InMemoryCassandraGateway.Builder().build();
+        CassandraArchiveRepository memoryRepository = createInMemoryRepository(memoryGateway, 2);
+        Map<ModuleId, Long> expected = insertTestArchives(memoryRepository, 25);
+
+        assertEquals(memoryRepository.getDefaultView().getArchiveUpdateTimes(), expected);
+        memoryGateway.shutdown();
+    }
+
+    @Test
+    public void testGetArchiveSummaries() throws Exception {
+        InMemoryCassandraGateway memoryGateway = new InMemoryCassandraGateway.Builder().build();
+        CassandraArchiveRepository memoryRepository = createInMemoryRepository(memoryGateway, 0);
+        Map<ModuleId, Long> expected = insertTestArchives(memoryRepository, 5);
+
+        List<ArchiveSummary> summaries = memoryRepository.getDefaultView().getArchiveSummaries();
+        assertEquals(summaries.size(), expected.size());
+        for (ArchiveSummary summary : summaries) {
+            assertEquals(summary.getLastUpdateTime(), (long)expected.get(summary.getModuleId()));
+            assertEquals(summary.getModuleSpec().getModuleId(), summary.getModuleId());
+        }
+        memoryGateway.shutdown();
+    }
 
     @Test
     public void testGetRepositorySummary() throws Exception {
-        // TODO: Fill out test.
+        InMemoryCassandraGateway memoryGateway = new InMemoryCassandraGateway.Builder().build();
+        CassandraArchiveRepository memoryRepository = createInMemoryRepository(memoryGateway, 0);
+        Map<ModuleId, Long> expected = insertTestArchives(memoryRepository, 5);
+
+        RepositorySummary summary = memoryRepository.getDefaultView().getRepositorySummary();
+        assertEquals(summary.getArchiveCount(), expected.size());
+        assertEquals(summary.getLastUpdated(), (long)Collections.max(expected.values()));
+        memoryGateway.shutdown();
     }
 
     @Test
-    public void testGetScriptArchives() {
-        // TODO: Fill out test.
+    public void testGetScriptArchives() throws Exception {
+        InMemoryCassandraGateway memoryGateway = new InMemoryCassandraGateway.Builder().build();
+        CassandraArchiveRepository memoryRepository = createInMemoryRepository(memoryGateway, 0);
+        Map<ModuleId, Long> expected = insertTestArchives(memoryRepository, 15);
+        byte[] jarBytes = Files.readAllBytes(testArchiveJarFile);
+
+        Set<ScriptArchive> archives = memoryRepository.getScriptArchives(expected.keySet());
+        assertEquals(archives.size(), expected.size());
+        for (ScriptArchive archive : archives) {
+            ModuleId moduleId = archive.getModuleSpec().getModuleId();
+            assertEquals(archive.getCreateTime(), (long)expected.get(moduleId));
+            assertTrue(Arrays.equals(Files.readAllBytes(Paths.get(archive.getRootUrl().toURI())), jarBytes));
+        }
+        memoryGateway.shutdown();
+    }
+
+    private CassandraArchiveRepository createInMemoryRepository(CassandraGateway memoryGateway, int pageSize) throws IOException {
+        return createInMemoryRepository(memoryGateway, pageSize, BasicCassandraRepositoryConfig.DEFAULT_CONTENT_CODEC);
+    }
+
+    private CassandraArchiveRepository createInMemoryRepository(CassandraGateway memoryGateway, int pageSize,
+            ArchiveContentCodec codec) throws IOException {
+        CassandraArchiveRepositoryConfig memoryConfig = new BasicCassandraRepositoryConfig.Builder(memoryGateway)
+            .setArchiveOutputDirectory(Files.createTempDirectory(this.getClass().getSimpleName() + "_"))
+            .setShardPageSize(pageSize)
+            .setFetchBatchSizeCount(4)
+            .setArchiveContentCodec(codec)
+            .build();
+        return new CassandraArchiveRepository(memoryConfig);
+    }
+
+    private Map<ModuleId, Long> insertTestArchives(CassandraArchiveRepository targetRepository, int count) throws IOException {
+        Map<ModuleId, Long> updateTimes = new HashMap<ModuleId, Long>();
+        for (int i = 0; i < count; i++) {
+            ModuleId moduleId = ModuleId.create("module" + i, "v" + (i % 3));
+            long updateTime = 1000L + i;
+            JarScriptArchive jarArchive = new JarScriptArchive.Builder(testArchiveJarFile)
+                .setModuleSpec(new ScriptModuleSpec.Builder(moduleId).build())
+                .setCreateTime(updateTime)
+                .build();
+            targetRepository.insertArchive(jarArchive);
+            updateTimes.put(moduleId, updateTime);
+        }
+        return updateTimes;
+    }
+
+    private static <V> FutureTask<V> completedFuture(V value) {
+        FutureTask<V> future = new FutureTask<V>(new Runnable() {
+            @Override
+            public void run() {
+            }
+        }, value);
+        future.run();
+        return future;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Row<String, String> mockArchiveRow(String moduleId, long lastUpdate, String moduleSpec, byte[] hash,
+            byte[] content, String codecName) {
+        ColumnList<String> columns = mock(ColumnList.class);
+        Column<String> lastUpdateColumn = mock(Column.class);
+        when(lastUpdateColumn.getLongValue()).thenReturn(lastUpdate);
+        when(columns.getColumnByName(Columns.last_update.name())).thenReturn(lastUpdateColumn);
+        Column<String> specColumn = mock(Column.class);
+        when(specColumn.hasValue()).thenReturn(true);
+        when(specColumn.getStringValue()).thenReturn(moduleSpec);
+        when(columns.getColumnByName(Columns.module_spec.name())).thenReturn(specColumn);
+        Column<String> hashColumn = mock(Column.class);
+        when(hashColumn.getByteArrayValue()).thenReturn(hash);
+        when(columns.getColumnByName(Columns.archive_content_hash.name())).thenReturn(hashColumn);
+        Column<String> contentColumn = mock(Column.class);
+        when(contentColumn.getByteArrayValue()).thenReturn(content);
+        when(columns.getColumnByName(Columns.archive_content.name())).thenReturn(contentColumn);
+        if (codecName != null) {
+            Column<String> codecColumn = mock(Column.class);
+            when(codecColumn.hasValue()).thenReturn(true);
+            when(codecColumn.getStringValue()).thenReturn(codecName);
+            when(columns.getColumnByName(Columns.archive_content_codec.name())).thenReturn(codecColumn);
+        }
+        Row<String, String> row = mock(Row.class);
+        when(row.getKey()).thenReturn(moduleId);
+        when(row.getColumns()).thenReturn(columns);
+        return row;
     }
 
 }
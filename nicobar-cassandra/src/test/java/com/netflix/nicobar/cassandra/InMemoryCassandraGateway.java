@@ -0,0 +1,638 @@
+/*
+ * Copyright 2013 Netflix, Inc.
+ *
+ *      Licensed under the Apache License, Version 2.0 (the "License");
+ *      you may not use this file except in compliance with the License.
+ *      You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *      Unless required by applicable law or agreed to in writing, software
+ *      distributed under the License is distributed on an "AS IS" BASIS,
+ *      WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *      See the License for the specific language governing permissions and
+ *      limitations under the License.
+ */
+package com.netflix.nicobar.cassandra;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.google.common.base.Ticker;
+import com.google.common.hash.Hashing;
+import com.google.common.primitives.Longs;
+import com.netflix.astyanax.Keyspace;
+import com.netflix.astyanax.Serializer;
+import com.netflix.astyanax.model.AbstractColumnImpl;
+import com.netflix.astyanax.model.AbstractColumnList;
+import com.netflix.astyanax.model.Column;
+import com.netflix.astyanax.model.ColumnList;
+import com.netflix.astyanax.model.Row;
+import com.netflix.astyanax.model.Rows;
+import com.netflix.astyanax.serializers.BooleanSerializer;
+import com.netflix.astyanax.serializers.ByteBufferSerializer;
+import com.netflix.astyanax.serializers.BytesArraySerializer;
+import com.netflix.astyanax.serializers.DateSerializer;
+import com.netflix.astyanax.serializers.DoubleSerializer;
+import com.netflix.astyanax.serializers.IntegerSerializer;
+import com.netflix.astyanax.serializers.LongSerializer;
+import com.netflix.astyanax.serializers.StringSerializer;
+
+/**
+ * In-memory {@link CassandraGateway} for tests and benchmarks.
+ * <p>
+ * Column values are serialized with the same Astyanax serializers as {@link CassandraGatewayImpl}, rows are kept in
+ * token order, and columns written with a TTL expire. The CQL understood by {@link #select(String)} is the subset
+ * generated by {@link CassandraArchiveRepository}, where the token bound may be a bind marker of a prepared statement:
+ * <pre>
+ *      SELECT col1,col2|* FROM cf WHERE col = 1|'value' [AND token(key) &gt; token('value'|?)] [LIMIT n]
+ * </pre>
+ * Every operation can be delayed by an injected latency and fail at an injected rate.
+ */
+public class InMemoryCassandraGateway implements CassandraGateway {
+    private static final Pattern SELECT_PATTERN = Pattern.compile(
+        "\\s*SELECT\\s+(.+?)\\s+FROM\\s+(\\w+)\\s+WHERE\\s+(\\w+)\\s*=\\s*('(?:[^']|'')*'|-?\\d+)" +
+        "(?:\\s+AND\\s+token\\(\\s*(\\w+)\\s*\\)\\s*>\\s*token\\(\\s*(?:'((?:[^']|'')*)'|(\\?))\\s*\\))?" +
+        "(?:\\s+LIMIT\\s+(\\d+))?\\s*;?\\s*",
+        Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+
+    public static class Builder {
+        private String keyspaceName = "InMemoryKeyspace";
+        private String columnFamily = "script_repo";
+        private long minLatencyNanos;
+        private long maxLatencyNanos;
+        private double failureRate;
+        private long seed = System.nanoTime();
+        private Ticker ticker = Ticker.systemTicker();
+        private int asyncThreads = 10;
+
+        public Builder setKeyspaceName(String keyspaceName) {
+            this.keyspaceName = keyspaceName;
+            return this;
+        }
+        public Builder setColumnFamily(String columnFamily) {
+            this.columnFamily = columnFamily;
+            return this;
+        }
+        /** Delay every operation by a uniformly distributed latency in the given range */
+        public Builder setLatency(long min, long max, TimeUnit unit) {
+            this.minLatencyNanos = unit.toNanos(min);
+            this.maxLatencyNanos = unit.toNanos(max);
+            return this;
+        }
+        /** Fraction of operations, between 0 and 1, which fail with an {@link InjectedFailureException} */
+        public Builder setFailureRate(double failureRate) {
+            this.failureRate = failureRate;
+            return this;
+        }
+        /** Seed for latency and failure injection */
+        public Builder setSeed(long seed) {
+            this.seed = seed;
+            return this;
+        }
+        /** Time source used to expire columns */
+        public Builder setTicker(Ticker ticker) {
+            this.ticker = ticker;
+            return this;
+        }
+        /** Number of threads serving {@link CassandraGateway#selectAsync(String)} */
+        public Builder setAsyncThreads(int asyncThreads) {
+            this.asyncThreads = asyncThreads;
+            return this;
+        }
+        public InMemoryCassandraGateway build() {
+            return new InMemoryCassandraGateway(this);
+        }
+    }
+
+    /** Thrown for operations selected to fail by the configured failure rate */
+    public static class InjectedFailureException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+        public InjectedFailureException(String operation) {
+            super("Injected failure: " + operation);
+        }
+    }
+
+    private final Keyspace keyspace;
+    private final String columnFamily;
+    private final long minLatencyNanos;
+    private final long maxLatencyNanos;
+    private final double failureRate;
+    private final Random random;
+    private final Ticker ticker;
+    private final ExecutorService asyncExecutor;
+    private final ConcurrentSkipListMap<RowToken, ConcurrentMap<String, StoredColumn>> table =
+        new ConcurrentSkipListMap<RowToken, ConcurrentMap<String, StoredColumn>>();
+    private final AtomicLong operationCount = new AtomicLong();
+    private final AtomicLong bytesRead = new AtomicLong();
+
+    protected InMemoryCassandraGateway(Builder builder) {
+        this.keyspace = mock(Keyspace.class);
+        when(keyspace.getKeyspaceName()).thenReturn(builder.keyspaceName);
+        this.columnFamily = builder.columnFamily;
+        this.minLatencyNanos = builder.minLatencyNanos;
+        this.maxLatencyNanos = Math.max(builder.minLatencyNanos, builder.maxLatencyNanos);
+        this.failureRate = builder.failureRate;
+        this.random = new Random(builder.seed);
+        this.ticker = builder.ticker;
+        this.asyncExecutor = Executors.newFixedThreadPool(builder.asyncThreads, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "InMemoryCassandraGateway");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    @Override
+    public Keyspace getKeyspace() {
+        return keyspace;
+    }
+
+    @Override
+    public String getColumnFamily() {
+        return columnFamily;
+    }
+
+    @Override
+    public void upsert(String rowKey, Map<String, Object> attributes) {
+        upsert(rowKey, attributes, -1);
+    }
+
+    @Override
+    public void upsert(String rowKey, Map<String, Object> attributes, int ttlSeconds) {
+        simulate("upsert");
+        long now = ticker.read();
+        long expiration = ttlSeconds > 0 ? now + TimeUnit.SECONDS.toNanos(ttlSeconds) : Long.MAX_VALUE;
+        ConcurrentMap<String, StoredColumn> row = getOrCreateRow(rowKey);
+        for (Map.Entry<String, Object> attribute : attributes.entrySet()) {
+            if (attribute.getValue() != null) {
+                ByteBuffer value = serialize(attribute.getValue());
+                row.put(attribute.getKey(), new StoredColumn(attribute.getKey(), value,
+                    TimeUnit.NANOSECONDS.toMicros(now), ttlSeconds > 0 ? ttlSeconds : 0, expiration));
+            }
+        }
+    }
+
+    @Override
+    public void upsert(String rowKey, Map<String, Object> attributes, Set<String> deletedColumns) {
+        upsert(rowKey, attributes, -1);
+        ConcurrentMap<String, StoredColumn> row = getOrCreateRow(rowKey);
+        for (String column : deletedColumns) {
+            row.remove(column);
+        }
+    }
+
+    @Override
+    public void deleteRow(String rowKey) {
+        simulate("deleteRow");
+        table.remove(new RowToken(rowKey));
+    }
+
+    @Override
+    public void deleteColumn(String rowKey, String column) {
+        simulate("deleteColumn");
+        ConcurrentMap<String, StoredColumn> row = table.get(new RowToken(rowKey));
+        if (row != null) {
+            row.remove(column);
+        }
+    }
+
+    @Override
+    public ColumnList<String> getColumns(String rowKey, String... columns) {
+        simulate("getColumns");
+        return readColumns(table.get(new RowToken(rowKey)), columns.length > 0 ? columns : null);
+    }
+
+    @Override
+    public ColumnList<String> getRow(String rowKey) {
+        simulate("getRow");
+        return readColumns(table.get(new RowToken(rowKey)), null);
+    }
+
+    @Override
+    public Rows<String, String> getRows(String... rowKeys) {
+        simulate("getRows");
+        List<Row<String, String>> rows = new ArrayList<Row<String, String>>(rowKeys.length);
+        for (String rowKey : rowKeys) {
+            rows.add(new InMemoryRow(rowKey, readColumns(table.get(new RowToken(rowKey)), null)));
+        }
+        return new InMemoryRows(rows);
+    }
+
+    @Override
+    public Rows<String, String> select(String cql) {
+        return select(cql, new String[0]);
+    }
+
+    private Rows<String, String> select(String cql, String[] values) {
+        simulate("select");
+        Matcher matcher = SELECT_PATTERN.matcher(cql);
+        if (!matcher.matches()) {
+            throw new IllegalArgumentException("Unsupported CQL: " + cql);
+        }
+        if (!matcher.group(2).equals(columnFamily)) {
+            throw new IllegalArgumentException("Unknown column family: " + matcher.group(2));
+        }
+        String[] selection = null;
+        if (!matcher.group(1).trim().equals("*")) {
+            selection = matcher.group(1).split("\\s*,\\s*");
+        }
+        String whereColumn = matcher.group(3);
+        ByteBuffer whereValue = parseLiteral(matcher.group(4));
+        Map<RowToken, ConcurrentMap<String, StoredColumn>> candidates = table;
+        if (matcher.group(6) != null) {
+            candidates = table.tailMap(new RowToken(matcher.group(6).replace("''", "'")), false);
+        } else if (matcher.group(7) != null) {
+            if (values.length != 1) {
+                throw new IllegalArgumentException("Expected one bound value, got " + values.length + ": " + cql);
+            }
+            candidates = table.tailMap(new RowToken(values[0]), false);
+        }
+        int limit = matcher.group(8) != null ? Integer.parseInt(matcher.group(8)) : Integer.MAX_VALUE;
+
+        long now = ticker.read();
+        List<Row<String, String>> rows = new ArrayList<Row<String, String>>();
+        for (Map.Entry<RowToken, ConcurrentMap<String, StoredColumn>> entry : candidates.entrySet()) {
+            if (rows.size() >= limit) {
+                break;
+            }
+            StoredColumn indexed = entry.getValue().get(whereColumn);
+            if (indexed != null && indexed.isLive(now) && indexed.value.equals(whereValue)) {
+                ColumnList<String> columns = readColumns(entry.getValue(), selection);
+                if (!columns.isEmpty()) {
+                    rows.add(new InMemoryRow(entry.getKey().rowKey, columns));
+                }
+            }
+        }
+        return new InMemoryRows(rows);
+    }
+
+    @Override
+    public Future<Rows<String, String>> selectAsync(final String cql) {
+        return asyncExecutor.submit(new Callable<Rows<String, String>>() {
+            @Override
+            public Rows<String, String> call() throws Exception {
+                return select(cql);
+            }
+        });
+    }
+
+    @Override
+    public Future<Rows<String, String>> selectAsync(final String cql, final String... values) {
+        return asyncExecutor.submit(new Callable<Rows<String, String>>() {
+            @Override
+            public Rows<String, String> call() throws Exception {
+                return select(cql, values);
+            }
+        });
+    }
+
+    /**
+     * @return number of operations performed against this gateway, including failed ones.
+     */
+    public long getOperationCount() {
+        return operationCount.get();
+    }
+
+    /**
+     * @return number of column value bytes returned by read operations.
+     */
+    public long getBytesRead() {
+        return bytesRead.get();
+    }
+
+    /**
+     * @return number of rows with at least one live column.
+     */
+    public int getRowCount() {
+        long now = ticker.read();
+        int count = 0;
+        for (ConcurrentMap<String, StoredColumn> row : table.values()) {
+            for (StoredColumn column : row.values()) {
+                if (column.isLive(now)) {
+                    count++;
+                    break;
+                }
+            }
+        }
+        return count;
+    }
+
+    public void shutdown() {
+        asyncExecutor.shutdownNow();
+    }
+
+    private ConcurrentMap<String, StoredColumn> getOrCreateRow(String rowKey) {
+        RowToken token = new RowToken(rowKey);
+        ConcurrentMap<String, StoredColumn> row = table.get(token);
+        if (row == null) {
+            row = new ConcurrentHashMap<String, StoredColumn>();
+            ConcurrentMap<String, StoredColumn> existing = table.putIfAbsent(token, row);
+            if (existing != null) {
+                row = existing;
+            }
+        }
+        return row;
+    }
+
+    private ColumnList<String> readColumns(Map<String, StoredColumn> row, String[] selection) {
+        Map<String, Column<String>> columns = new LinkedHashMap<String, Column<String>>();
+        if (row != null) {
+            long now = ticker.read();
+            Collection<String> names = selection != null ? Arrays.asList(selection) : new TreeSet<String>(row.keySet());
+            for (String name : names) {
+                StoredColumn column = row.get(name);
+                if (column != null && column.isLive(now)) {
+                    bytesRead.addAndGet(column.value.remaining());
+                    columns.put(name, new InMemoryColumn(column));
+                }
+            }
+        }
+        return new InMemoryColumnList(columns);
+    }
+
+    private void simulate(String operation) {
+        operationCount.incrementAndGet();
+        double failureSample;
+        long latency;
+        synchronized (random) {
+            failureSample = random.nextDouble();
+            latency = minLatencyNanos + (long)(random.nextDouble() * (maxLatencyNanos - minLatencyNanos));
+        }
+        if (latency > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(latency);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (failureSample < failureRate) {
+            throw new InjectedFailureException(operation);
+        }
+    }
+
+    private static ByteBuffer parseLiteral(String literal) {
+        if (literal.startsWith("'")) {
+            return StringSerializer.get().toByteBuffer(literal.substring(1, literal.length() - 1).replace("''", "'"));
+        }
+        return IntegerSerializer.get().toByteBuffer(Integer.parseInt(literal));
+    }
+
+    /** serialize values the same way as the Astyanax based put command */
+    private static ByteBuffer serialize(Object value) {
+        if (value instanceof String) {
+            return StringSerializer.get().toByteBuffer((String)value);
+        } else if (value instanceof Boolean) {
+            return BooleanSerializer.get().toByteBuffer((Boolean)value);
+        } else if (value instanceof Integer) {
+            return IntegerSerializer.get().toByteBuffer((Integer)value);
+        } else if (value instanceof Long) {
+            return LongSerializer.get().toByteBuffer((Long)value);
+        } else if (value instanceof Double) {
+            return DoubleSerializer.get().toByteBuffer((Double)value);
+        } else if (value instanceof Date) {
+            return DateSerializer.get().toByteBuffer((Date)value);
+        } else if (value instanceof byte[]) {
+            return BytesArraySerializer.get().toByteBuffer((byte[])value);
+        } else if (value instanceof ByteBuffer) {
+            return ByteBufferSerializer.get().toByteBuffer((ByteBuffer)value);
+        }
+        throw new IllegalArgumentException("Unsupported object instance type: " + value.getClass().getSimpleName());
+    }
+
+    /** Row key ordered by token, then by key */
+    private static class RowToken implements Comparable<RowToken> {
+        private final long token;
+        private final String rowKey;
+
+        private RowToken(String rowKey) {
+            this.rowKey = rowKey;
+            this.token = Hashing.murmur3_128().hashBytes(StringSerializer.get().toBytes(rowKey)).asLong();
+        }
+
+        @Override
+        public int compareTo(RowToken o) {
+            int result = Longs.compare(token, o.token);
+            return result != 0 ? result : rowKey.compareTo(o.rowKey);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof RowToken && ((RowToken)o).rowKey.equals(rowKey);
+        }
+
+        @Override
+        public int hashCode() {
+            return rowKey.hashCode();
+        }
+    }
+
+    private static class StoredColumn {
+        private final String name;
+        private final ByteBuffer value;
+        private final long timestamp;
+        private final int ttl;
+        private final long expiration;
+
+        private StoredColumn(String name, ByteBuffer value, long timestamp, int ttl, long expiration) {
+            this.name = name;
+            this.value = value;
+            this.timestamp = timestamp;
+            this.ttl = ttl;
+            this.expiration = expiration;
+        }
+
+        private boolean isLive(long now) {
+            return now < expiration;
+        }
+    }
+
+    private static class InMemoryColumn extends AbstractColumnImpl<String> {
+        private final StoredColumn column;
+
+        private InMemoryColumn(StoredColumn column) {
+            super(column.name);
+            this.column = column;
+        }
+
+        @Override
+        public ByteBuffer getRawName() {
+            return StringSerializer.get().toByteBuffer(column.name);
+        }
+
+        @Override
+        public long getTimestamp() {
+            return column.timestamp;
+        }
+
+        @Override
+        public <V> V getValue(Serializer<V> valSer) {
+            return valSer.fromByteBuffer(column.value.duplicate());
+        }
+
+        @Override
+        public int getTtl() {
+            return column.ttl;
+        }
+
+        @Override
+        public boolean hasValue() {
+            return column.value.remaining() > 0;
+        }
+    }
+
+    private static class InMemoryColumnList extends AbstractColumnList<String> {
+        private final Map<String, Column<String>> columns;
+        private final List<Column<String>> columnList;
+
+        private InMemoryColumnList(Map<String, Column<String>> columns) {
+            this.columns = columns;
+            this.columnList = new ArrayList<Column<String>>(columns.values());
+        }
+
+        @Override
+        public Iterator<Column<String>> iterator() {
+            return Collections.unmodifiableList(columnList).iterator();
+        }
+
+        @Override
+        public Collection<String> getColumnNames() {
+            return Collections.unmodifiableSet(columns.keySet());
+        }
+
+        @Override
+        public Column<String> getColumnByName(String columnName) {
+            return columns.get(columnName);
+        }
+
+        @Override
+        public Column<String> getColumnByIndex(int idx) {
+            return columnList.get(idx);
+        }
+
+        @Override
+        public <C2> Column<C2> getSuperColumn(String columnName, Serializer<C2> colSer) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public <C2> Column<C2> getSuperColumn(int idx, Serializer<C2> colSer) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return columnList.isEmpty();
+        }
+
+        @Override
+        public int size() {
+            return columnList.size();
+        }
+
+        @Override
+        public boolean isSuperColumn() {
+            return false;
+        }
+    }
+
+    private static class InMemoryRow implements Row<String, String> {
+        private final String key;
+        private final ColumnList<String> columns;
+
+        private InMemoryRow(String key, ColumnList<String> columns) {
+            this.key = key;
+            this.columns = columns;
+        }
+
+        @Override
+        public String getKey() {
+            return key;
+        }
+
+        @Override
+        public ByteBuffer getRawKey() {
+            return StringSerializer.get().toByteBuffer(key);
+        }
+
+        @Override
+        public ColumnList<String> getColumns() {
+            return columns;
+        }
+    }
+
+    private static class InMemoryRows implements Rows<String, String> {
+        private final List<Row<String, String>> rows;
+
+        private InMemoryRows(List<Row<String, String>> rows) {
+            this.rows = rows;
+        }
+
+        @Override
+        public Iterator<Row<String, String>> iterator() {
+            return Collections.unmodifiableList(rows).iterator();
+        }
+
+        @Override
+        public Collection<String> getKeys() {
+            List<String> keys = new ArrayList<String>(rows.size());
+            for (Row<String, String> row : rows) {
+                keys.add(row.getKey());
+            }
+            return keys;
+        }
+
+        @Override
+        public Row<String, String> getRow(String key) {
+            for (Row<String, String> row : rows) {
+                if (row.getKey().equals(key)) {
+                    return row;
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public Row<String, String> getRowByIndex(int i) {
+            return rows.get(i);
+        }
+
+        @Override
+        public int size() {
+            return rows.size();
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return rows.isEmpty();
+        }
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2013 Netflix, Inc.
+ *
+ *      Licensed under the Apache License, Version 2.0 (the "License");
+ *      you may not use this file except in compliance with the License.
+ *      You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *      Unless required by applicable law or agreed to in writing, software
+ *      distributed under the License is distributed on an "AS IS" BASIS,
+ *      WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *      See the License for the specific language governing permissions and
+ *      limitations under the License.
+ */
+package com.netflix.nicobar.cassandra;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.testng.annotations.Test;
+
+import com.google.common.base.Ticker;
+import com.netflix.astyanax.model.ColumnList;
+import com.netflix.astyanax.model.Rows;
+
+/**
+ * Tests for {@link InMemoryCassandraGateway}
+ */
+public class InMemoryCassandraGatewayTest {
+
+    @Test
+    public void testSelectByShard() throws Exception {
+        InMemoryCassandraGateway gateway = new InMemoryCassandraGateway.Builder().setColumnFamily("repo").build();
+        for (int i = 0; i < 10; i++) {
+            Map<String, Object> columns = new HashMap<String, Object>();
+            columns.put("shard_num", i % 2);
+            columns.put("last_update", (long)i);
+            columns.put("module_spec", "spec" + i);
+            gateway.upsert("module" + i, columns);
+        }
+        Rows<String, String> rows = gateway.selectAsync("SELECT last_update FROM repo WHERE shard_num = 1").get();
+        assertEquals(rows.size(), 5);
+        for (int i = 0; i < rows.size(); i++) {
+            ColumnList<String> columns = rows.getRowByIndex(i).getColumns();
+            assertEquals(columns.size(), 1);
+            assertEquals(columns.getColumnByName("last_update").getLongValue() % 2, 1);
+        }
+
+        // page through the shard in token order
+        Rows<String, String> firstPage = gateway.select("SELECT last_update FROM repo WHERE shard_num = 1 LIMIT 3");
+        String lastKey = firstPage.getRowByIndex(firstPage.size() - 1).getKey();
+        Rows<String, String> secondPage = gateway.select("SELECT last_update FROM repo WHERE shard_num = 1 " +
+            "AND token(module_id) > token('" + lastKey + "') LIMIT 3");
+        Rows<String, String> preparedSecondPage = gateway.selectAsync("SELECT last_update FROM repo WHERE shard_num = 1 " +
+            "AND token(module_id) > token(?) LIMIT 3", lastKey).get();
+        assertEquals(firstPage.size(), 3);
+        assertEquals(secondPage.size(), 2);
+        assertEquals(preparedSecondPage.size(), 2);
+        for (int i = 0; i < 3; i++) {
+            assertEquals(firstPage.getRowByIndex(i).getKey(), rows.getRowByIndex(i).getKey());
+        }
+        for (int i = 0; i < 2; i++) {
+            assertEquals(preparedSecondPage.getRowByIndex(i).getKey(), secondPage.getRowByIndex(i).getKey());
+        }
+        gateway.shutdown();
+    }
+
+    @Test
+    public void testTtl() {
+        final AtomicLong time = new AtomicLong();
+        InMemoryCassandraGateway gateway = new InMemoryCassandraGateway.Builder()
+            .setTicker(new Ticker() {
+                @Override
+                public long read() {
+                    return time.get();
+                }
+            })
+            .build();
+        Map<String, Object> columns = new HashMap<String, Object>();
+        columns.put("permanent", "value");
+        gateway.upsert("row", columns);
+        columns.clear();
+        columns.put("expiring", "value");
+        gateway.upsert("row", columns, 10);
+
+        assertEquals(gateway.getRow("row").size(), 2);
+        assertEquals(gateway.getRow("row").getColumnByName("expiring").getTtl(), 10);
+        time.set(TimeUnit.SECONDS.toNanos(11));
+        assertEquals(gateway.getRow("row").size(), 1);
+        assertNull(gateway.getRow("row").getColumnByName("expiring"));
+        gateway.shutdown();
+    }
+
+    @Test
+    public void testInjectedFailures() throws Exception {
+        InMemoryCassandraGateway gateway = new InMemoryCassandraGateway.Builder()
+            .setFailureRate(1.0)
+            .build();
+        try {
+            gateway.getRow("row");
+            fail("expected failure");
+        } catch (InMemoryCassandraGateway.InjectedFailureException e) {
+            // expected
+        }
+        try {
+            gateway.selectAsync("SELECT * FROM script_repo WHERE shard_num = 0").get();
+            fail("expected failure");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof InMemoryCassandraGateway.InjectedFailureException);
+        }
+        assertEquals(gateway.getOperationCount(), 2);
+        gateway.shutdown();
+    }
+}
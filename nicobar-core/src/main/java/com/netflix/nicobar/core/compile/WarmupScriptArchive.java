@@ -0,0 +1,89 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.nicobar.core.compile;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Objects;
+
+import org.apache.commons.io.FileUtils;
+
+import com.netflix.nicobar.core.archive.PathScriptArchive;
+import com.netflix.nicobar.core.archive.ScriptArchive;
+import com.netflix.nicobar.core.archive.ScriptModuleSpec;
+
+/**
+ * Temporary archive of synthetic sources, which a {@link ScriptArchiveCompiler} compiles to warm up.
+ *
+ * The sources are given as strings rather than read from resources, so that they don't depend on the resource
+ * roots of the compiler plugin module. Closing the archive deletes its sources, and the classes compiled into the
+ * directories of {@link #createTargetDir()}.
+ */
+public class WarmupScriptArchive implements Closeable {
+    private final static Charset SOURCE_CHARSET = Charset.forName("UTF-8");
+
+    private final Path rootDir;
+    private final ScriptArchive archive;
+
+    /**
+     * @param moduleSpec module spec of the archive
+     * @param sources map of the relative paths of the sources to their content
+     */
+    public WarmupScriptArchive(ScriptModuleSpec moduleSpec, Map<String, String> sources) throws IOException {
+        Objects.requireNonNull(moduleSpec, "moduleSpec");
+        Objects.requireNonNull(sources, "sources");
+        rootDir = Files.createTempDirectory(WarmupScriptArchive.class.getSimpleName());
+        try {
+            Path sourceDir = Files.createDirectory(rootDir.resolve("sources"));
+            for (Map.Entry<String, String> source : sources.entrySet()) {
+                Path sourcePath = sourceDir.resolve(source.getKey());
+                Files.createDirectories(sourcePath.getParent());
+                Files.write(sourcePath, source.getValue().getBytes(SOURCE_CHARSET));
+            }
+            archive = new PathScriptArchive.Builder(sourceDir)
+                .setModuleSpec(moduleSpec)
+                .build();
+        } catch (IOException e) {
+            FileUtils.deleteQuietly(rootDir.toFile());
+            throw e;
+        }
+    }
+
+    public ScriptArchive getArchive() {
+        return archive;
+    }
+
+    /**
+     * Create an empty directory to compile the archive into.
+     */
+    public Path createTargetDir() throws IOException {
+        return Files.createTempDirectory(rootDir, "classes");
+    }
+
+    /**
+     * Delete the sources and the compiled classes.
+     */
+    @Override
+    public void close() throws IOException {
+        FileUtils.deleteDirectory(rootDir.toFile());
+    }
+}
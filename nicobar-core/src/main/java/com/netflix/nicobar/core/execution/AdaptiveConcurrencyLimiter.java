@@ -0,0 +1,228 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.nicobar.core.execution;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nullable;
+
+import org.apache.commons.lang.builder.ToStringBuilder;
+import org.apache.commons.lang.builder.ToStringStyle;
+
+/**
+ * Limits the number of concurrent executions of a single module, adjusting the limit to the observed latency
+ * with additive increase, multiplicative decrease (AIMD).
+ * <p>
+ * Every completed execution is compared to the baseline latency of the module, a slowly moving average of
+ * its latencies. An execution which took longer than the baseline times the latency tolerance, or which was
+ * dropped because it timed out or was rejected by hystrix, multiplies the limit by the backoff ratio. Any other
+ * execution raises the limit by one, as long as at least half of the limit was in use, so that an idle module
+ * doesn't grow an arbitrarily large limit. The limit always stays between the minimum and maximum limits.
+ * <p>
+ * Executions acquire a {@link Permit} before they start, and release it once they complete.
+ * {@link #tryAcquire()} fails fast once the limit is reached.
+ */
+public class AdaptiveConcurrencyLimiter {
+    public static final int DEFAULT_INITIAL_LIMIT = 20;
+    public static final int DEFAULT_MIN_LIMIT = 1;
+    public static final int DEFAULT_MAX_LIMIT = 200;
+    public static final double DEFAULT_BACKOFF_RATIO = 0.9;
+    public static final double DEFAULT_LATENCY_TOLERANCE = 2.0;
+    /** weight of each sample in the baseline latency */
+    protected static final double BASELINE_SMOOTHING = 0.01;
+
+    /**
+     * Builder used to construct an {@link AdaptiveConcurrencyLimiter}
+     */
+    public static class Builder {
+        private int initialLimit = DEFAULT_INITIAL_LIMIT;
+        private int minLimit = DEFAULT_MIN_LIMIT;
+        private int maxLimit = DEFAULT_MAX_LIMIT;
+        private double backoffRatio = DEFAULT_BACKOFF_RATIO;
+        private double latencyTolerance = DEFAULT_LATENCY_TOLERANCE;
+
+        public Builder() {
+        }
+        /** Set the limit before any execution completed */
+        public Builder setInitialLimit(int initialLimit) {
+            this.initialLimit = initialLimit;
+            return this;
+        }
+        /** Set the lower bound of the limit, at least 1 */
+        public Builder setMinLimit(int minLimit) {
+            this.minLimit = minLimit;
+            return this;
+        }
+        /** Set the upper bound of the limit */
+        public Builder setMaxLimit(int maxLimit) {
+            this.maxLimit = maxLimit;
+            return this;
+        }
+        /** Set the factor applied to the limit when an execution is too slow or dropped, between 0 and 1 */
+        public Builder setBackoffRatio(double backoffRatio) {
+            if (backoffRatio <= 0 || backoffRatio >= 1) {
+                throw new IllegalArgumentException("invalid backoffRatio " + backoffRatio);
+            }
+            this.backoffRatio = backoffRatio;
+            return this;
+        }
+        /** Set how many times longer than the baseline latency an execution can take before the limit backs off */
+        public Builder setLatencyTolerance(double latencyTolerance) {
+            if (latencyTolerance < 1) {
+                throw new IllegalArgumentException("invalid latencyTolerance " + latencyTolerance);
+            }
+            this.latencyTolerance = latencyTolerance;
+            return this;
+        }
+        public AdaptiveConcurrencyLimiter build() {
+            if (minLimit < 1 || maxLimit < minLimit || initialLimit < minLimit || initialLimit > maxLimit) {
+                throw new IllegalArgumentException("invalid limits. initialLimit: " + initialLimit + ", minLimit: " +
+                    minLimit + ", maxLimit: " + maxLimit);
+            }
+            return new AdaptiveConcurrencyLimiter(initialLimit, minLimit, maxLimit, backoffRatio, latencyTolerance);
+        }
+    }
+
+    /**
+     * Permission to run a single execution. Only the first release of a permit has an effect.
+     */
+    public class Permit {
+        private final long startTime = System.nanoTime();
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        protected Permit() {
+        }
+
+        /**
+         * Release the permit of a completed execution, sampling its latency.
+         */
+        public void release() {
+            release(false);
+        }
+
+        /**
+         * Release the permit.
+         * @param dropped true if the execution timed out or never ran, which always backs off the limit
+         */
+        public void release(boolean dropped) {
+            if (released.compareAndSet(false, true)) {
+                int previousInFlight = inFlight.getAndDecrement();
+                onSample(System.nanoTime() - startTime, previousInFlight, dropped);
+            }
+        }
+    }
+
+    protected final int initialLimit;
+    protected final int minLimit;
+    protected final int maxLimit;
+    protected final double backoffRatio;
+    protected final double latencyTolerance;
+    protected final AtomicInteger inFlight = new AtomicInteger();
+    protected volatile int limit;
+    /** guarded by this */
+    protected double baselineNanos = -1;
+
+    protected AdaptiveConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit, double backoffRatio,
+            double latencyTolerance) {
+        this.initialLimit = initialLimit;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.backoffRatio = backoffRatio;
+        this.latencyTolerance = latencyTolerance;
+        this.limit = initialLimit;
+    }
+
+    /**
+     * Create a limiter with the same settings as this one, starting from the initial limit.
+     */
+    public AdaptiveConcurrencyLimiter newInstance() {
+        return new AdaptiveConcurrencyLimiter(initialLimit, minLimit, maxLimit, backoffRatio, latencyTolerance);
+    }
+
+    /**
+     * Acquire a permit for an execution, without waiting.
+     * @return the permit, or null if the limit is reached and the execution should be rejected.
+     */
+    @Nullable
+    public Permit tryAcquire() {
+        while (true) {
+            int current = inFlight.get();
+            if (current >= limit) {
+                return null;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                return new Permit();
+            }
+        }
+    }
+
+    /**
+     * @return the current limit of concurrent executions
+     */
+    public int getLimit() {
+        return limit;
+    }
+
+    /**
+     * @return the number of acquired permits which have not been released
+     */
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    /**
+     * @return the baseline latency in nanoseconds, or -1 if no execution completed yet
+     */
+    public synchronized long getBaselineNanos() {
+        return (long)baselineNanos;
+    }
+
+    /**
+     * Adjust the limit to a completed execution.
+     * @param latencyNanos time between acquiring and releasing the permit
+     * @param previousInFlight number of permits in flight when the permit was released, including itself
+     * @param dropped true if the execution timed out or never ran
+     */
+    protected synchronized void onSample(long latencyNanos, int previousInFlight, boolean dropped) {
+        if (!dropped) {
+            if (baselineNanos < 0) {
+                baselineNanos = latencyNanos;
+            }
+            dropped = latencyNanos > baselineNanos * latencyTolerance;
+            baselineNanos += (latencyNanos - baselineNanos) * BASELINE_SMOOTHING;
+        }
+        if (dropped) {
+            limit = Math.max(minLimit, (int)(limit * backoffRatio));
+        } else if (previousInFlight * 2 >= limit) {
+            limit = Math.min(maxLimit, limit + 1);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return new ToStringBuilder(this, ToStringStyle.SHORT_PREFIX_STYLE)
+            .append("limit", limit)
+            .append("inFlight", inFlight.get())
+            .append("minLimit", minLimit)
+            .append("maxLimit", maxLimit)
+            .append("backoffRatio", backoffRatio)
+            .append("latencyTolerance", latencyTolerance)
+            .toString();
+    }
+}
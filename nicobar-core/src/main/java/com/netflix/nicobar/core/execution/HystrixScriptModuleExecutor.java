@@ -18,39 +18,117 @@
 package com.netflix.nicobar.core.execution;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicLong;
 
 import javax.annotation.Nullable;
 
+import org.jboss.modules.ModuleIdentifier;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import rx.Observable;
+import rx.Observer;
+import rx.schedulers.Schedulers;
+import rx.subjects.ReplaySubject;
+import rx.subscriptions.CompositeSubscription;
+import rx.util.functions.Action0;
+
+import com.netflix.hystrix.HystrixCommand;
+import com.netflix.hystrix.HystrixCommandGroupKey;
+import com.netflix.hystrix.HystrixCommandKey;
+import com.netflix.hystrix.HystrixCommandProperties;
+import com.netflix.hystrix.HystrixCommandProperties.ExecutionIsolationStrategy;
+import com.netflix.hystrix.exception.HystrixRuntimeException;
+import com.netflix.hystrix.exception.HystrixRuntimeException.FailureType;
 import com.netflix.nicobar.core.archive.ModuleId;
+import com.netflix.nicobar.core.archive.ScriptArchive;
+import com.netflix.nicobar.core.execution.AdaptiveConcurrencyLimiter.Permit;
+import com.netflix.nicobar.core.module.ArchiveRejectedReason;
 import com.netflix.nicobar.core.module.ScriptModule;
+import com.netflix.nicobar.core.module.ScriptModuleListener;
 import com.netflix.nicobar.core.module.ScriptModuleLoader;
+import com.netflix.nicobar.core.module.jboss.JBossModuleUtils;
 
 /**
  * Hystrix based executor for {@link ScriptModuleExecutable}s.
+ * <p>
+ * By default every execution is isolated in a hystrix thread pool, which allows hystrix to interrupt executions
+ * which run past their timeout. For short scripts, where the thread hop dominates the cost of an execution, the
+ * executor can instead be created with {@link ExecutionIsolationStrategy#SEMAPHORE} isolation. Executions then
+ * run on the calling thread, and the number of concurrent executions of each module is limited by a semaphore.
+ * Since such executions can't be interrupted, their timeout is enforced cooperatively: results of executions
+ * which ran past their timeout are discarded and reported as timeouts.
+ * <p>
+ * Timeouts are configured through the hystrix properties of the command key, which is the module id.
+ * <p>
+ * The hystrix configuration and statistics of each module revision are cached, so an execution only allocates
+ * its command. The cache follows module updates by itself, but registering the executor as a
+ * {@link ScriptModuleListener} with the {@link ScriptModuleLoader} releases the entries of unloaded revisions.
+ * <p>
+ * With a {@link ShadowExecutionPolicy}, a sample of the executions is mirrored to the staged revisions of the
+ * modules. Shadow executions are always isolated in a separate hystrix thread pool, under the group and command keys
+ * of the primary executions suffixed with {@value #SHADOW_KEY_SUFFIX}, so that they don't affect the primary
+ * executions. Compare the revisions with {@link #getRevisionStatistics(ModuleId, long)}.
+ * <p>
+ * With an {@link AdaptiveConcurrencyLimiter}, each module gets its own limit of concurrent executions, which adapts
+ * to the latency of the module, so that a module whose latency regresses can't occupy the whole thread pool of the
+ * executor. Executions over the limit are rejected without running, and reported as
+ * {@link ScriptModuleExecutionResult.Status#REJECTED} results, as are executions which hystrix rejects. The current
+ * limits are exported through the {@link ExecutionStatistics} of the modules.
  *
  * See {@link ScriptModuleExecutionCommand}.
  *
  * @author James Kojo
  * @author Vasanth Asokan
  */
-public class HystrixScriptModuleExecutor<V> {
+public class HystrixScriptModuleExecutor<V> implements ScriptModuleListener {
     private final static Logger logger = LoggerFactory.getLogger(HystrixScriptModuleExecutor.class);
 
+    /** Default limit of concurrent executions of each module in {@link ExecutionIsolationStrategy#SEMAPHORE} isolation */
+    public static final int DEFAULT_MAX_CONCURRENT_EXECUTIONS = 10;
+    /** Suffix of the hystrix group and command keys of shadow executions */
+    public static final String SHADOW_KEY_SUFFIX = "#shadow";
+
     /**
      * Statistics holder for a given module's executions.
+     * <p>
+     * The execution count and time are updated when an execution is submitted. The latency histogram,
+     * CPU time and allocated bytes describe the run time of the completed executions on the executing thread.
+     * CPU time and allocated bytes are only recorded if the JVM supports measuring them.
      */
     public static class ExecutionStatistics {
+        private final AdaptiveConcurrencyLimiter concurrencyLimiter;
         private final AtomicLong executionCount = new AtomicLong();
         private final AtomicLong lastExecutionTime = new AtomicLong();
+        private final LatencyHistogram latencyHistogram = new LatencyHistogram();
+        private final AtomicLong cpuTimeNanos = new AtomicLong();
+        private final AtomicLong allocatedBytes = new AtomicLong();
+        private final AtomicLong timeoutCount = new AtomicLong();
+        final AtomicLong failureCount = new AtomicLong();
+        private final AtomicLong rejectedCount = new AtomicLong();
+
+        public ExecutionStatistics() {
+            this(null);
+        }
+
+        /**
+         * @param concurrencyLimiter limiter of the concurrent executions of the module, or null if they aren't limited
+         */
+        protected ExecutionStatistics(@Nullable AdaptiveConcurrencyLimiter concurrencyLimiter) {
+            this.concurrencyLimiter = concurrencyLimiter;
+        }
 
         public long getExecutionCount() {
             return executionCount.get();
@@ -58,17 +136,197 @@ public class HystrixScriptModuleExecutor<V> {
         public long getLastExecutionTime() {
             return lastExecutionTime.get();
         }
+        /**
+         * @return histogram of the run time of the executions
+         */
+        public LatencyHistogram getLatencyHistogram() {
+            return latencyHistogram;
+        }
+        /**
+         * @return total CPU time used by the executions, in nanoseconds
+         */
+        public long getCpuTimeNanos() {
+            return cpuTimeNanos.get();
+        }
+        /**
+         * @return total bytes allocated by the executions
+         */
+        public long getAllocatedBytes() {
+            return allocatedBytes.get();
+        }
+        /**
+         * @return number of executions which ran past their timeout
+         */
+        public long getTimeoutCount() {
+            return timeoutCount.get();
+        }
+        /**
+         * @return number of completed executions which threw an exception
+         */
+        public long getFailureCount() {
+            return failureCount.get();
+        }
+        /**
+         * @return number of executions which were rejected without running
+         */
+        public long getRejectedCount() {
+            return rejectedCount.get();
+        }
+        /**
+         * @return current adaptive limit of concurrent executions of the module, or -1 if they aren't limited
+         */
+        public int getConcurrencyLimit() {
+            return concurrencyLimiter != null ? concurrencyLimiter.getLimit() : -1;
+        }
+        /**
+         * @return number of executions of the module which hold a concurrency limiter permit, or -1 if they aren't limited
+         */
+        public int getInFlightExecutions() {
+            return concurrencyLimiter != null ? concurrencyLimiter.getInFlight() : -1;
+        }
+        @Nullable
+        protected AdaptiveConcurrencyLimiter getConcurrencyLimiter() {
+            return concurrencyLimiter;
+        }
+
+        /**
+         * Record a completed execution.
+         * @param runTimeNanos wall clock run time of the execution
+         * @param cpuTimeNanos CPU time used by the execution, or a negative value if unknown
+         * @param allocatedBytes bytes allocated by the execution, or a negative value if unknown
+         */
+        protected void recordRun(long runTimeNanos, long cpuTimeNanos, long allocatedBytes) {
+            latencyHistogram.record(runTimeNanos);
+            if (cpuTimeNanos > 0) {
+                this.cpuTimeNanos.addAndGet(cpuTimeNanos);
+            }
+            if (allocatedBytes > 0) {
+                this.allocatedBytes.addAndGet(allocatedBytes);
+            }
+        }
+    }
+
+    /**
+     * Per revision state which is reused by every execution of the revision.
+     */
+    protected static class RevisionContext {
+        protected final long createTime;
+        protected final HystrixCommand.Setter setter;
+        /** statistics of the module, or null for shadow executions, which only count towards their revision */
+        protected final ExecutionStatistics moduleStatistics;
+        protected final ExecutionStatistics revisionStatistics;
+        /** statistics passed to the commands, in a single array so that it isn't allocated per execution */
+        protected final ExecutionStatistics[] statistics;
+
+        protected RevisionContext(long createTime, HystrixCommand.Setter setter, @Nullable ExecutionStatistics moduleStatistics,
+                ExecutionStatistics revisionStatistics) {
+            this.createTime = createTime;
+            this.setter = Objects.requireNonNull(setter, "setter");
+            this.moduleStatistics = moduleStatistics;
+            this.revisionStatistics = Objects.requireNonNull(revisionStatistics, "revisionStatistics");
+            this.statistics = moduleStatistics != null ? new ExecutionStatistics[] {moduleStatistics, revisionStatistics} :
+                new ExecutionStatistics[] {revisionStatistics};
+        }
     }
 
     private final ConcurrentMap<ModuleId, ExecutionStatistics> statistics = new ConcurrentHashMap<ModuleId, ExecutionStatistics>();
+    private final ConcurrentMap<ModuleIdentifier, ExecutionStatistics> revisionStatistics = new ConcurrentHashMap<ModuleIdentifier, ExecutionStatistics>();
+    private final ConcurrentMap<ModuleId, RevisionContext> revisionContexts = new ConcurrentHashMap<ModuleId, RevisionContext>();
+    private final ConcurrentMap<ModuleId, RevisionContext> shadowContexts = new ConcurrentHashMap<ModuleId, RevisionContext>();
+    private final ConcurrentMap<String, ModuleId> parsedModuleIds = new ConcurrentHashMap<String, ModuleId>();
     private final String executorId;
+    private final ExecutionIsolationStrategy isolationStrategy;
+    private final int maxConcurrentExecutions;
+    private final ShadowExecutionPolicy shadowPolicy;
+    private final AdaptiveConcurrencyLimiter concurrencyLimiter;
 
     /**
-     * Construct an instance of the executor.
+     * Builder used to construct a {@link HystrixScriptModuleExecutor}
+     */
+    public static class Builder<V> {
+        private final String executorId;
+        private ExecutionIsolationStrategy isolationStrategy = ExecutionIsolationStrategy.THREAD;
+        private int maxConcurrentExecutions = DEFAULT_MAX_CONCURRENT_EXECUTIONS;
+        private ShadowExecutionPolicy shadowPolicy;
+        private AdaptiveConcurrencyLimiter concurrencyLimiter;
+
+        /**
+         * @param executorId descriptive name for the executor which will be used for reporting purposes.
+         */
+        public Builder(String executorId) {
+            this.executorId = Objects.requireNonNull(executorId, "executorId");
+        }
+        /** Set whether executions run in a hystrix thread pool, or on the calling thread */
+        public Builder<V> setIsolationStrategy(ExecutionIsolationStrategy isolationStrategy) {
+            this.isolationStrategy = Objects.requireNonNull(isolationStrategy, "isolationStrategy");
+            return this;
+        }
+        /** Set the maximum number of concurrent executions of each module in {@link ExecutionIsolationStrategy#SEMAPHORE} isolation */
+        public Builder<V> setMaxConcurrentExecutions(int maxConcurrentExecutions) {
+            this.maxConcurrentExecutions = maxConcurrentExecutions;
+            return this;
+        }
+        /** Set the configuration of the shadow executions of staged revisions. null to disable them. */
+        public Builder<V> setShadowPolicy(@Nullable ShadowExecutionPolicy shadowPolicy) {
+            this.shadowPolicy = shadowPolicy;
+            return this;
+        }
+        /**
+         * Limit the concurrent executions of each module. Each module gets a new limiter with the settings of
+         * the given one, see {@link AdaptiveConcurrencyLimiter#newInstance()}. null to disable the limits.
+         */
+        public Builder<V> setConcurrencyLimiter(@Nullable AdaptiveConcurrencyLimiter concurrencyLimiter) {
+            this.concurrencyLimiter = concurrencyLimiter;
+            return this;
+        }
+        public HystrixScriptModuleExecutor<V> build() {
+            return new HystrixScriptModuleExecutor<V>(executorId, isolationStrategy, maxConcurrentExecutions, shadowPolicy,
+                concurrencyLimiter);
+        }
+    }
+
+    /**
+     * Construct an instance of the executor, which isolates executions in a hystrix thread pool.
      * @param executorId descriptive name for this executor which will be used for reporting purposes.
      */
     public HystrixScriptModuleExecutor(String executorId) {
+        this(executorId, ExecutionIsolationStrategy.THREAD, DEFAULT_MAX_CONCURRENT_EXECUTIONS);
+    }
+
+    /**
+     * Construct an instance of the executor.
+     * @param executorId descriptive name for this executor which will be used for reporting purposes.
+     * @param isolationStrategy whether executions run in a hystrix thread pool, or on the calling thread
+     * @param maxConcurrentExecutions maximum number of concurrent executions of each module in
+     *        {@link ExecutionIsolationStrategy#SEMAPHORE} isolation. Excess executions are rejected.
+     */
+    public HystrixScriptModuleExecutor(String executorId, ExecutionIsolationStrategy isolationStrategy, int maxConcurrentExecutions) {
+        this(executorId, isolationStrategy, maxConcurrentExecutions, null);
+    }
+
+    /**
+     * Construct an instance of the executor.
+     * @param executorId descriptive name for this executor which will be used for reporting purposes.
+     * @param isolationStrategy whether executions run in a hystrix thread pool, or on the calling thread
+     * @param maxConcurrentExecutions maximum number of concurrent executions of each module in
+     *        {@link ExecutionIsolationStrategy#SEMAPHORE} isolation. Excess executions are rejected.
+     * @param shadowPolicy configuration of the shadow executions of staged revisions. null to disable them.
+     */
+    public HystrixScriptModuleExecutor(String executorId, ExecutionIsolationStrategy isolationStrategy, int maxConcurrentExecutions,
+            @Nullable ShadowExecutionPolicy shadowPolicy) {
+        this(executorId, isolationStrategy, maxConcurrentExecutions, shadowPolicy, null);
+    }
+
+    protected HystrixScriptModuleExecutor(String executorId, ExecutionIsolationStrategy isolationStrategy, int maxConcurrentExecutions,
+            @Nullable ShadowExecutionPolicy shadowPolicy, @Nullable AdaptiveConcurrencyLimiter concurrencyLimiter) {
+        this.shadowPolicy = shadowPolicy;
+        this.concurrencyLimiter = concurrencyLimiter;
         this.executorId = Objects.requireNonNull(executorId, "executorId");
+        this.isolationStrategy = Objects.requireNonNull(isolationStrategy, "isolationStrategy");
+        if (maxConcurrentExecutions <= 0) {
+            throw new IllegalArgumentException("invalid maxConcurrentExecutions " + maxConcurrentExecutions);
+        }
+        this.maxConcurrentExecutions = maxConcurrentExecutions;
     }
 
     /**
@@ -83,15 +341,7 @@ public class HystrixScriptModuleExecutor<V> {
         Objects.requireNonNull(moduleIds, "moduleIds");
         Objects.requireNonNull(executable, "executable");
         Objects.requireNonNull(moduleLoader, "moduleLoader");
-
-        List<ScriptModule> modules = new ArrayList<ScriptModule>(moduleIds.size());
-        for (String moduleId : moduleIds) {
-           ScriptModule module = moduleLoader.getScriptModule(ModuleId.create(moduleId));
-           if (module != null) {
-               modules.add(module);
-           }
-        }
-        return executeModules(modules, executable);
+        return executeModules(getModules(moduleIds, moduleLoader), executable);
     }
 
     /**
@@ -105,14 +355,43 @@ public class HystrixScriptModuleExecutor<V> {
         Objects.requireNonNull(modules, "modules");
         Objects.requireNonNull(executable, "executable");
 
+        if (isolationStrategy == ExecutionIsolationStrategy.SEMAPHORE) {
+            List<V> results = new ArrayList<V>(modules.size());
+            for (ScriptModule module : modules) {
+                ScriptModuleExecutionResult<V> result = executeOnCallingThread(executable, module);
+                if (result.isSuccess()) {
+                    results.add(result.getValue());
+                }
+            }
+            return results;
+        }
+
         List<Future<V>> futureResults = new ArrayList<Future<V>>(modules.size());
+        List<ScriptModule> queuedModules = new ArrayList<ScriptModule>(modules.size());
+        List<Permit> permits = new ArrayList<Permit>(modules.size());
         for (ScriptModule module : modules) {
-           Future<V> future = new ScriptModuleExecutionCommand<V>(executorId, executable, module).queue();
+           AdaptiveConcurrencyLimiter limiter = getRevisionContext(module).moduleStatistics.getConcurrencyLimiter();
+           Permit permit = limiter != null ? limiter.tryAcquire() : null;
+           if (limiter != null && permit == null) {
+               recordRejection(module);
+               continue;
+           }
+           Future<V> future;
+           try {
+               future = newCommand(executable, module, permit).queue();
+           } catch (HystrixRuntimeException e) {
+               releasePermit(permit, true);
+               if (!isRejection(e)) {
+                   throw e;
+               }
+               recordRejection(module);
+               continue;
+           }
            futureResults.add(future);
-
-           ExecutionStatistics moduleStats = getOrCreateModuleStatistics(module.getModuleId());
-           moduleStats.executionCount.incrementAndGet();
-           moduleStats.lastExecutionTime.set(System.currentTimeMillis());
+           queuedModules.add(module);
+           permits.add(permit);
+           recordExecution(module);
+           shadowExecution(executable, module);
         }
 
         List<V> results = new ArrayList<V>(modules.size());
@@ -121,9 +400,19 @@ public class HystrixScriptModuleExecutor<V> {
             try {
                 V result = futureResult.get();
                 results.add(result);
+                releasePermit(permits.get(i), false);
             } catch (Exception e) {
                 // the exception is already logged by the hystrix command, so just add some additional context
-                ScriptModule failedModule = modules.get(i);
+                ScriptModule failedModule = queuedModules.get(i);
+                boolean timeout = isTimeout(e) || isTimeout(e.getCause());
+                boolean rejection = isRejection(e) || isRejection(e.getCause());
+                releasePermit(permits.get(i), timeout || rejection);
+                if (timeout) {
+                    recordTimeout(failedModule);
+                } else if (rejection) {
+                    recordRejection(failedModule);
+                    continue;
+                }
                 logger.error("moduleId {} with creationTime: {} failed execution. see hystrix command log for deatils.",
                     failedModule.getModuleId(), failedModule.getCreateTime());
                 continue;
@@ -132,6 +421,239 @@ public class HystrixScriptModuleExecutor<V> {
         return results;
     }
 
+    /**
+     * Asynchronously execute a collection of ScriptModules identified by moduleId.
+     * See {@link #observeModules(List, ScriptModuleExecutable, long, TimeUnit)}.
+     *
+     * @param moduleIds moduleIds for modules to execute
+     * @param executable execution logic to be performed for each module.
+     * @param moduleLoader loader which manages the modules.
+     * @param timeout deadline for all of the executions to complete
+     * @param timeUnit unit of the timeout param
+     * @return stream of the execution results, in order of completion.
+     */
+    public Observable<ScriptModuleExecutionResult<V>> observeModules(List<String> moduleIds, ScriptModuleExecutable<V> executable,
+            ScriptModuleLoader moduleLoader, long timeout, TimeUnit timeUnit) {
+        Objects.requireNonNull(moduleIds, "moduleIds");
+        Objects.requireNonNull(executable, "executable");
+        Objects.requireNonNull(moduleLoader, "moduleLoader");
+        return observeModules(getModules(moduleIds, moduleLoader), executable, timeout, timeUnit);
+    }
+
+    /**
+     * Asynchronously execute a collection of modules.
+     * <p>
+     * All of the executions are started before this method returns. Results are emitted as soon as each
+     * execution completes, so a slow module does not hold back the others. Every module produces exactly one
+     * result. Modules which have not completed by the deadline are emitted as
+     * {@link ScriptModuleExecutionResult.Status#TIMEOUT} results and the stream then completes.
+     * The returned {@link Observable} replays all of the results to every subscriber. Executions which are
+     * rejected because of the concurrency limits are emitted as {@link ScriptModuleExecutionResult.Status#REJECTED}
+     * results right away.
+     * <p>
+     * In {@link ExecutionIsolationStrategy#SEMAPHORE} isolation, the modules are executed one after the other on
+     * the calling thread before this method returns, and modules which were not started by the deadline are
+     * reported as timeouts.
+     *
+     * @param modules modules to execute.
+     * @param executable execution logic to be performed for each module.
+     * @param timeout deadline for all of the executions to complete
+     * @param timeUnit unit of the timeout param
+     * @return stream of the execution results, in order of completion.
+     */
+    public Observable<ScriptModuleExecutionResult<V>> observeModules(List<ScriptModule> modules, ScriptModuleExecutable<V> executable,
+            long timeout, TimeUnit timeUnit) {
+        Objects.requireNonNull(modules, "modules");
+        Objects.requireNonNull(executable, "executable");
+        Objects.requireNonNull(timeUnit, "timeUnit");
+        if (timeout <= 0) {
+            throw new IllegalArgumentException("invalid timeout " + timeout);
+        }
+
+        final ResultCollector<V> collector = new ResultCollector<V>(modules);
+        if (modules.isEmpty()) {
+            collector.subject.onCompleted();
+            return collector.subject;
+        }
+        if (isolationStrategy == ExecutionIsolationStrategy.SEMAPHORE) {
+            long deadline = System.nanoTime() + timeUnit.toNanos(timeout);
+            for (int i = 0; i < modules.size() && System.nanoTime() < deadline; i++) {
+                collector.complete(i, executeOnCallingThread(executable, modules.get(i)));
+            }
+            collector.expire();
+            return collector.subject;
+        }
+        for (int i = 0; i < modules.size(); i++) {
+            final int index = i;
+            final ScriptModule module = modules.get(i);
+            AdaptiveConcurrencyLimiter limiter = getRevisionContext(module).moduleStatistics.getConcurrencyLimiter();
+            final Permit permit = limiter != null ? limiter.tryAcquire() : null;
+            if (limiter != null && permit == null) {
+                recordRejection(module);
+                collector.complete(index, ScriptModuleExecutionResult.<V>rejected(module, null));
+                continue;
+            }
+            Observable<V> execution;
+            try {
+                execution = newCommand(executable, module, permit).observe();
+            } catch (HystrixRuntimeException e) {
+                releasePermit(permit, true);
+                if (!isRejection(e)) {
+                    throw e;
+                }
+                recordRejection(module);
+                collector.complete(index, ScriptModuleExecutionResult.<V>rejected(module, e));
+                continue;
+            }
+            recordExecution(module);
+            shadowExecution(executable, module);
+            collector.subscriptions.add(execution.subscribe(new Observer<V>() {
+                private volatile V value;
+
+                @Override
+                public void onNext(V value) {
+                    this.value = value;
+                }
+
+                @Override
+                public void onError(Throwable e) {
+                    if (isTimeout(e)) {
+                        releasePermit(permit, true);
+                        recordTimeout(module);
+                        collector.complete(index, ScriptModuleExecutionResult.<V>timeout(module, e));
+                    } else if (isRejection(e)) {
+                        releasePermit(permit, true);
+                        recordRejection(module);
+                        collector.complete(index, ScriptModuleExecutionResult.<V>rejected(module, e));
+                    } else {
+                        releasePermit(permit, false);
+                        logger.error("moduleId {} with creationTime: {} failed execution. see hystrix command log for deatils.",
+                            module.getModuleId(), module.getCreateTime());
+                        collector.complete(index, ScriptModuleExecutionResult.<V>failure(module, e));
+                    }
+                }
+
+                @Override
+                public void onCompleted() {
+                    releasePermit(permit, false);
+                    collector.complete(index, ScriptModuleExecutionResult.success(module, value));
+                }
+            }));
+        }
+        collector.subscriptions.add(Schedulers.computation().schedule(new Action0() {
+            @Override
+            public void call() {
+                collector.expire();
+            }
+        }, timeout, timeUnit));
+        return collector.subject;
+    }
+
+    /**
+     * Execute a module over a list of inputs, in batches.
+     * <p>
+     * The inputs are split into batches of at most maxBatchSize inputs, and each batch runs as a single command,
+     * so it counts as a single execution in the statistics of the module and acquires a single concurrency
+     * limiter permit. In {@link ExecutionIsolationStrategy#THREAD} isolation the batches run concurrently. In
+     * {@link ExecutionIsolationStrategy#SEMAPHORE} isolation they run one after the other on the calling thread,
+     * and batches which were not started by the deadline are reported as timeouts. Batches are not mirrored to
+     * staged revisions.
+     *
+     * @param module module to execute.
+     * @param inputs inputs to execute the module over.
+     * @param executable execution logic to be performed for each batch.
+     * @param maxBatchSize maximum number of inputs passed to a single execution
+     * @param timeout deadline for all of the batches to complete
+     * @param timeUnit unit of the timeout param
+     * @return the result for each input, in the order of the inputs. All of the inputs of a batch share its status.
+     */
+    public <I> List<ScriptModuleExecutionResult<V>> executeBatch(ScriptModule module, List<I> inputs,
+            ScriptModuleBatchExecutable<I, V> executable, int maxBatchSize, long timeout, TimeUnit timeUnit) {
+        Objects.requireNonNull(module, "module");
+        Objects.requireNonNull(inputs, "inputs");
+        Objects.requireNonNull(executable, "executable");
+        Objects.requireNonNull(timeUnit, "timeUnit");
+        if (maxBatchSize <= 0) {
+            throw new IllegalArgumentException("invalid maxBatchSize " + maxBatchSize);
+        }
+        if (timeout <= 0) {
+            throw new IllegalArgumentException("invalid timeout " + timeout);
+        }
+
+        long deadline = System.nanoTime() + timeUnit.toNanos(timeout);
+        List<ScriptModuleExecutionResult<V>> results = new ArrayList<ScriptModuleExecutionResult<V>>(
+            Collections.<ScriptModuleExecutionResult<V>>nCopies(inputs.size(), null));
+        int batchCount = (inputs.size() + maxBatchSize - 1) / maxBatchSize;
+        List<Future<List<V>>> futureResults = new ArrayList<Future<List<V>>>(batchCount);
+        List<Permit> permits = new ArrayList<Permit>(batchCount);
+        for (int from = 0; from < inputs.size(); from += maxBatchSize) {
+            int to = Math.min(inputs.size(), from + maxBatchSize);
+            futureResults.add(null);
+            permits.add(null);
+            if (isolationStrategy == ExecutionIsolationStrategy.SEMAPHORE && System.nanoTime() >= deadline) {
+                fillResults(results, from, to, ScriptModuleExecutionResult.<V>timeout(module, null));
+                continue;
+            }
+            AdaptiveConcurrencyLimiter limiter = getRevisionContext(module).moduleStatistics.getConcurrencyLimiter();
+            Permit permit = limiter != null ? limiter.tryAcquire() : null;
+            if (limiter != null && permit == null) {
+                recordRejection(module);
+                fillResults(results, from, to, ScriptModuleExecutionResult.<V>rejected(module, null));
+                continue;
+            }
+            ScriptModuleExecutionCommand<List<V>> command = newBatchCommand(executable, module, inputs.subList(from, to), permit);
+            recordExecution(module);
+            if (isolationStrategy == ExecutionIsolationStrategy.SEMAPHORE) {
+                try {
+                    List<V> values = command.execute();
+                    if (command.isRunTimedOut()) {
+                        recordTimeout(module);
+                        fillResults(results, from, to, ScriptModuleExecutionResult.<V>timeout(module, null));
+                    } else {
+                        fillResults(results, from, module, values);
+                    }
+                } catch (RuntimeException e) {
+                    fillResults(results, from, to, getBatchFailure(module, e, permit));
+                }
+                continue;
+            }
+            try {
+                // the futures returned by queue() ignore the timeout of get(), unlike those of the observable
+                futureResults.set(futureResults.size() - 1, command.observe().toBlockingObservable().toFuture());
+                permits.set(permits.size() - 1, permit);
+            } catch (HystrixRuntimeException e) {
+                fillResults(results, from, to, getBatchFailure(module, e, permit));
+            }
+        }
+
+        for (int i = 0; i < futureResults.size(); i++) {
+            Future<List<V>> futureResult = futureResults.get(i);
+            if (futureResult == null) {
+                continue;
+            }
+            int from = i * maxBatchSize;
+            int to = Math.min(inputs.size(), from + maxBatchSize);
+            try {
+                List<V> values = futureResult.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+                releasePermit(permits.get(i), false);
+                fillResults(results, from, module, values);
+            } catch (ExecutionException e) {
+                fillResults(results, from, to, getBatchFailure(module, e.getCause(), permits.get(i)));
+            } catch (TimeoutException e) {
+                futureResult.cancel(true);
+                releasePermit(permits.get(i), true);
+                recordTimeout(module);
+                fillResults(results, from, to, ScriptModuleExecutionResult.<V>timeout(module, e));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                futureResult.cancel(true);
+                releasePermit(permits.get(i), true);
+                fillResults(results, from, to, ScriptModuleExecutionResult.<V>timeout(module, e));
+            }
+        }
+        return results;
+    }
+
     /**
      * Get the statistics for the given moduleId
      */
@@ -141,6 +663,318 @@ public class HystrixScriptModuleExecutor<V> {
         return moduleStats;
     }
 
+    /**
+     * Get the statistics for a single revision of the given moduleId
+     * @param moduleId module id
+     * @param createTime create time of the module revision. see {@link ScriptModule#getCreateTime()}
+     */
+    @Nullable
+    public ExecutionStatistics getRevisionStatistics(ModuleId moduleId, long createTime) {
+        return revisionStatistics.get(JBossModuleUtils.createRevisionId(moduleId, createTime));
+    }
+
+    /**
+     * Release the cached state of the old revision of an updated or deleted module.
+     * The statistics of the module itself are kept.
+     */
+    @Override
+    public void moduleUpdated(@Nullable ScriptModule newScriptModule, @Nullable ScriptModule oldScriptModule) {
+        if (oldScriptModule == null) {
+            return;
+        }
+        ModuleId moduleId = oldScriptModule.getModuleId();
+        revisionContexts.remove(moduleId);
+        shadowContexts.remove(moduleId);
+        revisionStatistics.remove(JBossModuleUtils.createRevisionId(moduleId, oldScriptModule.getCreateTime()));
+        if (newScriptModule == null) {
+            Iterator<Map.Entry<String, ModuleId>> iterator = parsedModuleIds.entrySet().iterator();
+            while (iterator.hasNext()) {
+                if (iterator.next().getValue().equals(moduleId)) {
+                    iterator.remove();
+                }
+            }
+        }
+    }
+
+    @Override
+    public void archiveRejected(ScriptArchive scriptArchive, ArchiveRejectedReason reason, @Nullable Throwable cause) {
+        if (reason == ArchiveRejectedReason.STAGED_REVISION_REJECTED) {
+            shadowContexts.remove(scriptArchive.getModuleSpec().getModuleId());
+        }
+    }
+
+    /**
+     * Mirror a sample of the executions of a module to its staged revision, if there is one.
+     * The result of the shadow execution is discarded.
+     */
+    protected void shadowExecution(ScriptModuleExecutable<V> executable, final ScriptModule module) {
+        if (shadowPolicy == null || ThreadLocalRandom.current().nextDouble() >= shadowPolicy.getSampleRate()) {
+            return;
+        }
+        final ScriptModule stagedModule = shadowPolicy.getModuleLoader().getStagedScriptModule(module.getModuleId());
+        if (stagedModule == null) {
+            return;
+        }
+        RevisionContext context = shadowContexts.get(stagedModule.getModuleId());
+        if (context == null || context.createTime != stagedModule.getCreateTime()) {
+            context = new RevisionContext(stagedModule.getCreateTime(), createShadowSetter(stagedModule), null,
+                getOrCreateRevisionStatistics(stagedModule));
+            shadowContexts.put(stagedModule.getModuleId(), context);
+        }
+        Observable<V> execution = new ScriptModuleExecutionCommand<V>(context.setter, executable, stagedModule, context.statistics)
+            .observe();
+        execution.subscribe(new Observer<V>() {
+            @Override
+            public void onNext(V value) {
+            }
+
+            @Override
+            public void onError(Throwable e) {
+                checkShadowRegression(module, stagedModule);
+            }
+
+            @Override
+            public void onCompleted() {
+                checkShadowRegression(module, stagedModule);
+            }
+        });
+    }
+
+    /**
+     * Reject the staged revision of a module if the shadow policy considers it a regression.
+     */
+    protected void checkShadowRegression(ScriptModule publishedModule, ScriptModule stagedModule) {
+        ExecutionStatistics publishedStats = getRevisionStatistics(publishedModule.getModuleId(), publishedModule.getCreateTime());
+        ExecutionStatistics stagedStats = getRevisionStatistics(stagedModule.getModuleId(), stagedModule.getCreateTime());
+        if (publishedStats == null || stagedStats == null || !shadowPolicy.isRegression(publishedStats, stagedStats)) {
+            return;
+        }
+        if (shadowPolicy.getModuleLoader().rejectStagedScriptModule(stagedModule)) {
+            logger.warn("rejected staged moduleId {} with creationTime: {}. p99 latency {} us exceeds {} us of creationTime: {}.",
+                stagedModule.getModuleId(), stagedModule.getCreateTime(),
+                stagedStats.getLatencyHistogram().getP99(TimeUnit.MICROSECONDS), publishedStats.getLatencyHistogram().getP99(TimeUnit.MICROSECONDS),
+                publishedModule.getCreateTime());
+        }
+    }
+
+    /**
+     * Create the hystrix configuration for shadow executions of the given staged module.
+     */
+    protected HystrixCommand.Setter createShadowSetter(ScriptModule stagedModule) {
+        return HystrixCommand.Setter
+            .withGroupKey(HystrixCommandGroupKey.Factory.asKey(executorId + SHADOW_KEY_SUFFIX))
+            .andCommandKey(HystrixCommandKey.Factory.asKey(stagedModule.getModuleId() + SHADOW_KEY_SUFFIX))
+            .andCommandPropertiesDefaults(HystrixCommandProperties.Setter()
+                .withExecutionIsolationStrategy(ExecutionIsolationStrategy.THREAD)
+                .withFallbackEnabled(false));
+    }
+
+    /**
+     * Create the command which executes the module and records its run time into the module's statistics.
+     */
+    protected ScriptModuleExecutionCommand<V> newCommand(ScriptModuleExecutable<V> executable, ScriptModule module) {
+        return newCommand(executable, module, null);
+    }
+
+    /**
+     * Create the command which executes the module, records its run time into the module's statistics
+     * and releases the given concurrency limiter permit.
+     */
+    protected ScriptModuleExecutionCommand<V> newCommand(ScriptModuleExecutable<V> executable, ScriptModule module,
+            @Nullable Permit permit) {
+        RevisionContext context = getRevisionContext(module);
+        return new ScriptModuleExecutionCommand<V>(context.setter, executable, module, permit, context.statistics);
+    }
+
+    /**
+     * Create the command which executes the module over a batch of inputs, checking that it returns a result
+     * for each input.
+     */
+    protected <I> ScriptModuleExecutionCommand<List<V>> newBatchCommand(final ScriptModuleBatchExecutable<I, V> executable,
+            ScriptModule module, final List<I> inputs, @Nullable Permit permit) {
+        RevisionContext context = getRevisionContext(module);
+        ScriptModuleExecutable<List<V>> batchExecutable = new ScriptModuleExecutable<List<V>>() {
+            @Override
+            public List<V> execute(ScriptModule scriptModule) throws Exception {
+                List<V> values = executable.execute(scriptModule, inputs);
+                if (values == null || values.size() != inputs.size()) {
+                    throw new IllegalStateException("expected " + inputs.size() + " results from moduleId " +
+                        scriptModule.getModuleId() + ", but got " + (values == null ? null : values.size()));
+                }
+                return values;
+            }
+        };
+        return new ScriptModuleExecutionCommand<List<V>>(context.setter, batchExecutable, module, permit, context.statistics);
+    }
+
+    /**
+     * Convert the exception of a failed batch into its result, releasing its permit.
+     */
+    protected ScriptModuleExecutionResult<V> getBatchFailure(ScriptModule module, Throwable e, @Nullable Permit permit) {
+        if (isTimeout(e)) {
+            releasePermit(permit, true);
+            recordTimeout(module);
+            return ScriptModuleExecutionResult.timeout(module, e);
+        }
+        if (isRejection(e)) {
+            releasePermit(permit, true);
+            recordRejection(module);
+            return ScriptModuleExecutionResult.rejected(module, e);
+        }
+        releasePermit(permit, false);
+        logger.error("moduleId {} with creationTime: {} failed batch execution. see hystrix command log for deatils.",
+            module.getModuleId(), module.getCreateTime());
+        return ScriptModuleExecutionResult.failure(module, e);
+    }
+
+    private static <V> void fillResults(List<ScriptModuleExecutionResult<V>> results, int from, int to,
+            ScriptModuleExecutionResult<V> result) {
+        for (int i = from; i < to; i++) {
+            results.set(i, result);
+        }
+    }
+
+    private static <V> void fillResults(List<ScriptModuleExecutionResult<V>> results, int from, ScriptModule module,
+            List<V> values) {
+        for (int i = 0; i < values.size(); i++) {
+            results.set(from + i, ScriptModuleExecutionResult.success(module, values.get(i)));
+        }
+    }
+
+    /**
+     * Get the cached state of the given module revision, replacing the state of any other revision of the module.
+     */
+    protected RevisionContext getRevisionContext(ScriptModule module) {
+        ModuleId moduleId = module.getModuleId();
+        RevisionContext context = revisionContexts.get(moduleId);
+        if (context == null || context.createTime != module.getCreateTime()) {
+            context = new RevisionContext(module.getCreateTime(), createSetter(module),
+                getOrCreateModuleStatistics(moduleId), getOrCreateRevisionStatistics(module));
+            revisionContexts.put(moduleId, context);
+        }
+        return context;
+    }
+
+    /**
+     * Create the hystrix configuration for executing the given module. The result is cached per module revision.
+     */
+    protected HystrixCommand.Setter createSetter(ScriptModule module) {
+        HystrixCommandProperties.Setter properties = HystrixCommandProperties.Setter()
+            .withExecutionIsolationStrategy(isolationStrategy);
+        if (isolationStrategy == ExecutionIsolationStrategy.SEMAPHORE) {
+            properties.withExecutionIsolationSemaphoreMaxConcurrentRequests(maxConcurrentExecutions);
+        }
+        return ScriptModuleExecutionCommand.createSetter(executorId, module, properties);
+    }
+
+    /**
+     * Execute a module on the calling thread, enforcing its timeout cooperatively.
+     * @return the result of the execution. Executions which ran past their timeout are reported as timeouts.
+     */
+    protected ScriptModuleExecutionResult<V> executeOnCallingThread(ScriptModuleExecutable<V> executable, ScriptModule module) {
+        AdaptiveConcurrencyLimiter limiter = getRevisionContext(module).moduleStatistics.getConcurrencyLimiter();
+        Permit permit = limiter != null ? limiter.tryAcquire() : null;
+        if (limiter != null && permit == null) {
+            recordRejection(module);
+            return ScriptModuleExecutionResult.rejected(module, null);
+        }
+        ScriptModuleExecutionCommand<V> command = newCommand(executable, module, permit);
+        recordExecution(module);
+        shadowExecution(executable, module);
+        V value;
+        try {
+            value = command.execute();
+        } catch (RuntimeException e) {
+            if (isRejection(e)) {
+                releasePermit(permit, true);
+                recordRejection(module);
+                return ScriptModuleExecutionResult.rejected(module, e);
+            }
+            releasePermit(permit, false);
+            logger.error("moduleId {} with creationTime: {} failed execution. see hystrix command log for deatils.",
+                module.getModuleId(), module.getCreateTime());
+            return ScriptModuleExecutionResult.failure(module, e);
+        }
+        if (command.isRunTimedOut()) {
+            logger.warn("moduleId {} with creationTime: {} ran for {} ms, past its timeout. discarding the result.",
+                module.getModuleId(), module.getCreateTime(), TimeUnit.NANOSECONDS.toMillis(command.getRunTimeNanos()));
+            recordTimeout(module);
+            return ScriptModuleExecutionResult.timeout(module, null);
+        }
+        return ScriptModuleExecutionResult.success(module, value);
+    }
+
+    /**
+     * Update the statistics of a module whose execution ran past its timeout.
+     */
+    protected void recordTimeout(ScriptModule module) {
+        RevisionContext context = getRevisionContext(module);
+        context.moduleStatistics.timeoutCount.incrementAndGet();
+        context.revisionStatistics.timeoutCount.incrementAndGet();
+    }
+
+    /**
+     * Update the statistics of a module whose execution was rejected without running.
+     */
+    protected void recordRejection(ScriptModule module) {
+        RevisionContext context = getRevisionContext(module);
+        context.moduleStatistics.rejectedCount.incrementAndGet();
+        context.revisionStatistics.rejectedCount.incrementAndGet();
+        logger.debug("moduleId {} with creationTime: {} rejected execution. concurrency limit: {}.",
+            module.getModuleId(), module.getCreateTime(), context.moduleStatistics.getConcurrencyLimit());
+    }
+
+    private static void releasePermit(@Nullable Permit permit, boolean dropped) {
+        if (permit != null) {
+            permit.release(dropped);
+        }
+    }
+
+    private static boolean isTimeout(@Nullable Throwable e) {
+        return e instanceof HystrixRuntimeException && ((HystrixRuntimeException)e).getFailureType() == FailureType.TIMEOUT;
+    }
+
+    private static boolean isRejection(@Nullable Throwable e) {
+        if (!(e instanceof HystrixRuntimeException)) {
+            return false;
+        }
+        FailureType failureType = ((HystrixRuntimeException)e).getFailureType();
+        return failureType == FailureType.REJECTED_THREAD_EXECUTION || failureType == FailureType.REJECTED_SEMAPHORE_EXECUTION;
+    }
+
+    /**
+     * Look up the current revision of each of the given modules, skipping unknown modules.
+     * The ids of known modules are only parsed once.
+     */
+    protected List<ScriptModule> getModules(List<String> moduleIds, ScriptModuleLoader moduleLoader) {
+        List<ScriptModule> modules = new ArrayList<ScriptModule>(moduleIds.size());
+        for (String moduleIdString : moduleIds) {
+           ModuleId moduleId = parsedModuleIds.get(moduleIdString);
+           boolean parsed = moduleId == null;
+           if (parsed) {
+               moduleId = ModuleId.create(moduleIdString);
+           }
+           ScriptModule module = moduleLoader.getScriptModule(moduleId);
+           if (module != null) {
+               modules.add(module);
+               if (parsed) {
+                   // only cache the ids of loaded modules, so that unknown ids can't grow the cache
+                   parsedModuleIds.putIfAbsent(moduleIdString, moduleId);
+               }
+           }
+        }
+        return modules;
+    }
+
+    /**
+     * Update the statistics of a module which is about to be executed.
+     */
+    protected void recordExecution(ScriptModule module) {
+        ExecutionStatistics moduleStats = getRevisionContext(module).moduleStatistics;
+        moduleStats.executionCount.incrementAndGet();
+        moduleStats.lastExecutionTime.set(System.currentTimeMillis());
+    }
+
     /**
      * Helper method to get or create a ExecutionStatistics instance
      * @param moduleId
@@ -149,12 +983,65 @@ public class HystrixScriptModuleExecutor<V> {
     protected ExecutionStatistics getOrCreateModuleStatistics(ModuleId moduleId) {
         ExecutionStatistics moduleStats = statistics.get(moduleId);
         if (moduleStats == null) {
-            moduleStats = new ExecutionStatistics();
-            ExecutionStatistics existing = statistics.put(moduleId, moduleStats);
+            moduleStats = new ExecutionStatistics(concurrencyLimiter != null ? concurrencyLimiter.newInstance() : null);
+            ExecutionStatistics existing = statistics.putIfAbsent(moduleId, moduleStats);
             if (existing != null) {
                 moduleStats = existing;
             }
         }
         return moduleStats;
     }
+
+    /**
+     * Helper method to get or create a ExecutionStatistics instance for a single module revision
+     * @param module module revision
+     * @return new or existing revision statistics
+     */
+    protected ExecutionStatistics getOrCreateRevisionStatistics(ScriptModule module) {
+        ModuleIdentifier revisionId = JBossModuleUtils.createRevisionId(module.getModuleId(), module.getCreateTime());
+        ExecutionStatistics revisionStats = revisionStatistics.get(revisionId);
+        if (revisionStats == null) {
+            revisionStats = new ExecutionStatistics();
+            ExecutionStatistics existing = revisionStatistics.putIfAbsent(revisionId, revisionStats);
+            if (existing != null) {
+                revisionStats = existing;
+            }
+        }
+        return revisionStats;
+    }
+
+    /**
+     * Publishes exactly one result per module, either as the executions complete or on expiry of the deadline.
+     */
+    private static class ResultCollector<V> {
+        private final List<ScriptModule> modules;
+        private final boolean[] completed;
+        private final ReplaySubject<ScriptModuleExecutionResult<V>> subject = ReplaySubject.create();
+        private final CompositeSubscription subscriptions = new CompositeSubscription();
+        private int remaining;
+
+        private ResultCollector(List<ScriptModule> modules) {
+            this.modules = modules;
+            this.completed = new boolean[modules.size()];
+            this.remaining = modules.size();
+        }
+
+        private synchronized void complete(int index, ScriptModuleExecutionResult<V> result) {
+            if (completed[index]) {
+                return;
+            }
+            completed[index] = true;
+            subject.onNext(result);
+            if (--remaining == 0) {
+                subject.onCompleted();
+                subscriptions.unsubscribe();
+            }
+        }
+
+        private synchronized void expire() {
+            for (int i = 0; i < completed.length; i++) {
+                complete(i, ScriptModuleExecutionResult.<V>timeout(modules.get(i), null));
+            }
+        }
+    }
 }
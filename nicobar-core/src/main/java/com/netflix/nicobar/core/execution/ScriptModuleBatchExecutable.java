@@ -0,0 +1,43 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.nicobar.core.execution;
+
+import java.util.List;
+
+import com.netflix.nicobar.core.module.ScriptModule;
+
+/**
+ * Interface for executing a ScriptModule over a batch of inputs, so that the per execution overhead
+ * is paid once per batch instead of once per input.
+ *
+ * See {@link HystrixScriptModuleExecutor#executeBatch}.
+ *
+ * @param <I> the input type
+ * @param <V> the result type of each input
+ */
+public interface ScriptModuleBatchExecutable<I, V> {
+
+    /**
+     * Execute the given ScriptModule over a batch of inputs.
+     * @param scriptModule the module to be executed provided by the executor
+     * @param inputs the batch of inputs
+     * @return the output for each of the inputs, in the order of the inputs
+     * @throws Exception on any failures, which fails the whole batch
+     */
+    List<V> execute(ScriptModule scriptModule, List<I> inputs) throws Exception;
+}
@@ -17,12 +17,19 @@
  */
 package com.netflix.nicobar.core.execution;
 
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
 import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nullable;
 
 import com.netflix.hystrix.HystrixCommand;
 import com.netflix.hystrix.HystrixCommandGroupKey;
 import com.netflix.hystrix.HystrixCommandKey;
 import com.netflix.hystrix.HystrixCommandProperties;
+import com.netflix.nicobar.core.execution.AdaptiveConcurrencyLimiter.Permit;
+import com.netflix.nicobar.core.execution.HystrixScriptModuleExecutor.ExecutionStatistics;
 import com.netflix.nicobar.core.module.ScriptModule;
 
 /**
@@ -35,22 +42,127 @@ import com.netflix.nicobar.core.module.ScriptModule;
  * @param <R> Type of return value from the command
  */
 public class ScriptModuleExecutionCommand<R> extends HystrixCommand<R>{
+    private static final ThreadMXBean THREAD_MX_BEAN = ManagementFactory.getThreadMXBean();
+    private static final boolean CPU_TIME_SUPPORTED = THREAD_MX_BEAN.isCurrentThreadCpuTimeSupported();
+    private static final boolean ALLOCATED_BYTES_SUPPORTED = THREAD_MX_BEAN instanceof com.sun.management.ThreadMXBean &&
+        ((com.sun.management.ThreadMXBean)THREAD_MX_BEAN).isThreadAllocatedMemorySupported();
+
     private final  ScriptModuleExecutable<R> executable;
     private final ScriptModule module;
+    private final ExecutionStatistics[] statistics;
+    private final Permit permit;
+    private volatile long runTimeNanos = -1;
 
     public ScriptModuleExecutionCommand(String moduleExecutorId, ScriptModuleExecutable<R> executable, ScriptModule module) {
-        super(HystrixCommand.Setter
-            .withGroupKey(HystrixCommandGroupKey.Factory.asKey(moduleExecutorId))
-            .andCommandKey(HystrixCommandKey.Factory.asKey(module.getModuleId().toString()))
-            .andCommandPropertiesDefaults(HystrixCommandProperties.Setter().withFallbackEnabled(false)));
+        this(moduleExecutorId, executable, module, new ExecutionStatistics[0]);
+    }
 
-        Objects.requireNonNull(moduleExecutorId, "moduleExecutorId");
+    /**
+     * @param statistics statistics to record the run time, CPU time and allocated bytes of the execution into
+     */
+    public ScriptModuleExecutionCommand(String moduleExecutorId, ScriptModuleExecutable<R> executable, ScriptModule module,
+            ExecutionStatistics... statistics) {
+        this(createSetter(moduleExecutorId, module, HystrixCommandProperties.Setter()), executable, module, statistics);
+    }
+
+    /**
+     * @param setter hystrix configuration of the command
+     * @param statistics statistics to record the run time, CPU time and allocated bytes of the execution into
+     */
+    public ScriptModuleExecutionCommand(HystrixCommand.Setter setter, ScriptModuleExecutable<R> executable, ScriptModule module,
+            ExecutionStatistics... statistics) {
+        this(setter, executable, module, null, statistics);
+    }
+
+    /**
+     * @param setter hystrix configuration of the command
+     * @param permit concurrency limiter permit of the execution, which is released once the executable completes
+     * @param statistics statistics to record the run time, CPU time and allocated bytes of the execution into
+     */
+    public ScriptModuleExecutionCommand(HystrixCommand.Setter setter, ScriptModuleExecutable<R> executable, ScriptModule module,
+            @Nullable Permit permit, ExecutionStatistics... statistics) {
+        super(setter);
         this.executable = Objects.requireNonNull(executable, "executable");
         this.module = Objects.requireNonNull(module, "module");
+        this.permit = permit;
+        this.statistics = Objects.requireNonNull(statistics, "statistics");
+    }
+
+    /**
+     * Create the hystrix configuration for executing the given module.
+     * @param moduleExecutorId id of the executor, used as the command group
+     * @param module module to execute, whose id is used as the command key
+     * @param propertiesDefaults default command properties. Fallbacks are always disabled.
+     */
+    public static HystrixCommand.Setter createSetter(String moduleExecutorId, ScriptModule module,
+            HystrixCommandProperties.Setter propertiesDefaults) {
+        Objects.requireNonNull(moduleExecutorId, "moduleExecutorId");
+        return HystrixCommand.Setter
+            .withGroupKey(HystrixCommandGroupKey.Factory.asKey(moduleExecutorId))
+            .andCommandKey(HystrixCommandKey.Factory.asKey(module.getModuleId().toString()))
+            .andCommandPropertiesDefaults(propertiesDefaults.withFallbackEnabled(false));
+    }
+
+    /**
+     * @return the wall clock run time of the executable in nanoseconds, or -1 if it has not completed
+     */
+    public long getRunTimeNanos() {
+        return runTimeNanos;
+    }
+
+    /**
+     * Check whether the executable ran for longer than the configured timeout. Unlike {@link #isResponseTimedOut()},
+     * this also applies to semaphore isolated executions, which hystrix can not interrupt.
+     */
+    public boolean isRunTimedOut() {
+        long timeoutMillis = getProperties().executionIsolationThreadTimeoutInMilliseconds().get();
+        return runTimeNanos > TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
     }
 
     @Override
     protected R run() throws Exception {
-        return executable.execute(module);
+        boolean recordStatistics = statistics.length > 0;
+        long startCpuTime = recordStatistics ? getCurrentThreadCpuTime() : -1;
+        long startAllocatedBytes = recordStatistics ? getCurrentThreadAllocatedBytes() : -1;
+        long startTime = System.nanoTime();
+        boolean failed = true;
+        try {
+            R result = executable.execute(module);
+            failed = false;
+            return result;
+        } finally {
+            long runTime = System.nanoTime() - startTime;
+            runTimeNanos = runTime;
+            if (permit != null) {
+                permit.release();
+            }
+            if (recordStatistics) {
+                long cpuTime = startCpuTime >= 0 ? getCurrentThreadCpuTime() - startCpuTime : -1;
+                long allocatedBytes = startAllocatedBytes >= 0 ? getCurrentThreadAllocatedBytes() - startAllocatedBytes : -1;
+                for (ExecutionStatistics executionStatistics : statistics) {
+                    executionStatistics.recordRun(runTime, cpuTime, allocatedBytes);
+                    if (failed) {
+                        executionStatistics.failureCount.incrementAndGet();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return CPU time of the current thread in nanoseconds, or -1 if it can't be measured
+     */
+    private static long getCurrentThreadCpuTime() {
+        return CPU_TIME_SUPPORTED ? THREAD_MX_BEAN.getCurrentThreadCpuTime() : -1;
+    }
+
+    /**
+     * @return bytes allocated by the current thread, or -1 if they can't be measured
+     */
+    private static long getCurrentThreadAllocatedBytes() {
+        if (!ALLOCATED_BYTES_SUPPORTED) {
+            return -1;
+        }
+        return ((com.sun.management.ThreadMXBean)THREAD_MX_BEAN).getThreadAllocatedBytes(Thread.currentThread().getId());
     }
 }
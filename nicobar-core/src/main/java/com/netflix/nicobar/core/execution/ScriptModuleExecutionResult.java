@@ -0,0 +1,123 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.nicobar.core.execution;
+
+import java.util.Objects;
+
+import javax.annotation.Nullable;
+
+import org.apache.commons.lang.builder.ToStringBuilder;
+import org.apache.commons.lang.builder.ToStringStyle;
+
+import com.netflix.nicobar.core.archive.ModuleId;
+import com.netflix.nicobar.core.module.ScriptModule;
+
+/**
+ * Outcome of executing a {@link ScriptModuleExecutable} against a single {@link ScriptModule}.
+ *
+ * @param <V> the result type of the executable
+ */
+public class ScriptModuleExecutionResult<V> {
+    public static enum Status {
+        /** the executable returned a value */
+        SUCCESS,
+        /** the executable threw an exception */
+        FAILURE,
+        /** the execution did not complete in time */
+        TIMEOUT,
+        /** the execution was rejected without running, because the module reached its concurrency limit */
+        REJECTED
+    }
+
+    private final ModuleId moduleId;
+    private final long moduleCreateTime;
+    private final Status status;
+    private final V value;
+    private final Throwable exception;
+
+    protected ScriptModuleExecutionResult(ScriptModule module, Status status, @Nullable V value, @Nullable Throwable exception) {
+        Objects.requireNonNull(module, "module");
+        this.moduleId = module.getModuleId();
+        this.moduleCreateTime = module.getCreateTime();
+        this.status = Objects.requireNonNull(status, "status");
+        this.value = value;
+        this.exception = exception;
+    }
+
+    public static <V> ScriptModuleExecutionResult<V> success(ScriptModule module, @Nullable V value) {
+        return new ScriptModuleExecutionResult<V>(module, Status.SUCCESS, value, null);
+    }
+
+    public static <V> ScriptModuleExecutionResult<V> failure(ScriptModule module, Throwable exception) {
+        return new ScriptModuleExecutionResult<V>(module, Status.FAILURE, null, exception);
+    }
+
+    public static <V> ScriptModuleExecutionResult<V> timeout(ScriptModule module, @Nullable Throwable exception) {
+        return new ScriptModuleExecutionResult<V>(module, Status.TIMEOUT, null, exception);
+    }
+
+    public static <V> ScriptModuleExecutionResult<V> rejected(ScriptModule module, @Nullable Throwable exception) {
+        return new ScriptModuleExecutionResult<V>(module, Status.REJECTED, null, exception);
+    }
+
+    public ModuleId getModuleId() {
+        return moduleId;
+    }
+
+    /**
+     * @return create time of the module revision which was executed
+     */
+    public long getModuleCreateTime() {
+        return moduleCreateTime;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public boolean isSuccess() {
+        return status == Status.SUCCESS;
+    }
+
+    /**
+     * @return the output of the executable, or null if the execution did not succeed
+     */
+    @Nullable
+    public V getValue() {
+        return value;
+    }
+
+    /**
+     * @return the cause of a failed, timed out or rejected execution, if any
+     */
+    @Nullable
+    public Throwable getException() {
+        return exception;
+    }
+
+    @Override
+    public String toString() {
+        return new ToStringBuilder(this, ToStringStyle.SHORT_PREFIX_STYLE)
+            .append("moduleId", moduleId)
+            .append("moduleCreateTime", moduleCreateTime)
+            .append("status", status)
+            .append("value", value)
+            .append("exception", exception)
+            .toString();
+    }
+}
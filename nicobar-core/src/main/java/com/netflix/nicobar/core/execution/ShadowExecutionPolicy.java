@@ -0,0 +1,148 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.nicobar.core.execution;
+
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang.builder.ToStringBuilder;
+import org.apache.commons.lang.builder.ToStringStyle;
+
+import com.netflix.nicobar.core.execution.HystrixScriptModuleExecutor.ExecutionStatistics;
+import com.netflix.nicobar.core.module.ScriptModuleLoader;
+
+/**
+ * Configuration of the shadow executions of a {@link HystrixScriptModuleExecutor}.
+ * <p>
+ * A sample of the executions of each module is mirrored to the staged revision of the module held by the
+ * {@link ScriptModuleLoader}, if there is one. See {@link ScriptModuleLoader#stageScriptArchive}. The results of
+ * the shadow executions are discarded, so the executables must be free of side effects. Their latencies and failures
+ * are recorded in the revision statistics of the staged revision, next to those of the published revision.
+ * <p>
+ * If a p99 regression threshold is set, a staged revision whose p99 latency exceeds the p99 latency of the
+ * published revision by more than the threshold ratio is rejected, once both revisions have recorded the
+ * minimum number of samples.
+ */
+public class ShadowExecutionPolicy {
+    public static final double DEFAULT_SAMPLE_RATE = 0.1;
+    public static final long DEFAULT_MIN_SAMPLES = 100;
+
+    /**
+     * Builder used to construct a {@link ShadowExecutionPolicy}
+     */
+    public static class Builder {
+        private final ScriptModuleLoader moduleLoader;
+        private double sampleRate = DEFAULT_SAMPLE_RATE;
+        private double p99RegressionThreshold;
+        private long minSamples = DEFAULT_MIN_SAMPLES;
+
+        /**
+         * @param moduleLoader loader which holds the staged revisions
+         */
+        public Builder(ScriptModuleLoader moduleLoader) {
+            this.moduleLoader = Objects.requireNonNull(moduleLoader, "moduleLoader");
+        }
+        /** Set the fraction of executions to mirror, between 0 and 1 */
+        public Builder setSampleRate(double sampleRate) {
+            if (sampleRate < 0 || sampleRate > 1) {
+                throw new IllegalArgumentException("invalid sampleRate " + sampleRate);
+            }
+            this.sampleRate = sampleRate;
+            return this;
+        }
+        /**
+         * Reject staged revisions whose p99 latency exceeds that of the published revision by more than the given
+         * ratio. For example 1.2 rejects a staged revision which is more than 20% slower. 0 disables rejection.
+         */
+        public Builder setP99RegressionThreshold(double p99RegressionThreshold) {
+            if (p99RegressionThreshold != 0 && p99RegressionThreshold < 1) {
+                throw new IllegalArgumentException("invalid p99RegressionThreshold " + p99RegressionThreshold);
+            }
+            this.p99RegressionThreshold = p99RegressionThreshold;
+            return this;
+        }
+        /** Set the number of executions each revision must record before their latencies are compared */
+        public Builder setMinSamples(long minSamples) {
+            if (minSamples <= 0) {
+                throw new IllegalArgumentException("invalid minSamples " + minSamples);
+            }
+            this.minSamples = minSamples;
+            return this;
+        }
+        public ShadowExecutionPolicy build() {
+            return new ShadowExecutionPolicy(moduleLoader, sampleRate, p99RegressionThreshold, minSamples);
+        }
+    }
+
+    private final ScriptModuleLoader moduleLoader;
+    private final double sampleRate;
+    private final double p99RegressionThreshold;
+    private final long minSamples;
+
+    protected ShadowExecutionPolicy(ScriptModuleLoader moduleLoader, double sampleRate, double p99RegressionThreshold,
+            long minSamples) {
+        this.moduleLoader = moduleLoader;
+        this.sampleRate = sampleRate;
+        this.p99RegressionThreshold = p99RegressionThreshold;
+        this.minSamples = minSamples;
+    }
+
+    public ScriptModuleLoader getModuleLoader() {
+        return moduleLoader;
+    }
+
+    public double getSampleRate() {
+        return sampleRate;
+    }
+
+    public double getP99RegressionThreshold() {
+        return p99RegressionThreshold;
+    }
+
+    public long getMinSamples() {
+        return minSamples;
+    }
+
+    /**
+     * Check whether a staged revision should be rejected.
+     * @param publishedStatistics revision statistics of the published revision
+     * @param stagedStatistics revision statistics of the staged revision
+     * @return true if both revisions recorded enough samples, and the p99 latency of the staged revision
+     *         exceeds the threshold.
+     */
+    public boolean isRegression(ExecutionStatistics publishedStatistics, ExecutionStatistics stagedStatistics) {
+        if (p99RegressionThreshold == 0) {
+            return false;
+        }
+        LatencyHistogram published = publishedStatistics.getLatencyHistogram();
+        LatencyHistogram staged = stagedStatistics.getLatencyHistogram();
+        if (published.getCount() < minSamples || staged.getCount() < minSamples) {
+            return false;
+        }
+        return staged.getP99(TimeUnit.NANOSECONDS) > published.getP99(TimeUnit.NANOSECONDS) * p99RegressionThreshold;
+    }
+
+    @Override
+    public String toString() {
+        return new ToStringBuilder(this, ToStringStyle.SHORT_PREFIX_STYLE)
+            .append("sampleRate", sampleRate)
+            .append("p99RegressionThreshold", p99RegressionThreshold)
+            .append("minSamples", minSamples)
+            .toString();
+    }
+}
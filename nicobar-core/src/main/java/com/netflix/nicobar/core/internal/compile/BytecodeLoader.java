@@ -17,9 +17,19 @@ package com.netflix.nicobar.core.internal.compile;
 
 import java.io.IOException;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import javax.annotation.Nullable;
 
 import com.netflix.nicobar.core.archive.ScriptArchive;
 import com.netflix.nicobar.core.compile.ScriptArchiveCompiler;
@@ -29,46 +39,147 @@ import com.netflix.nicobar.core.module.jboss.JBossModuleClassLoader;
 /**
  * A {@link ScriptArchiveCompiler} that loads java bytecode from .class files in a {@link ScriptArchive}.
  *
+ * The classes are loaded from an index of the class entries of the archive, and are added to the module
+ * class loader all at once. Large archives are split into contiguous ranges of the index, which are loaded
+ * concurrently when the module class loader is parallel capable.
+ *
  * @author Vasanth Asokan
  */
 public class BytecodeLoader implements ScriptArchiveCompiler {
+    /** smallest number of classes loaded by a single thread */
+    public final static int MIN_CLASSES_PER_TASK = 256;
+
+    private final static String CLASS_SUFFIX = ".class";
+
+    private final static ThreadFactory LOADER_THREAD_FACTORY = new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, BytecodeLoader.class.getSimpleName() + "-" + "LoaderThread");
+            thread.setDaemon(true);
+            return thread;
+        }
+    };
+
+    /** shared by the loaders which aren't given an executor. Idle threads expire. */
+    private final static ExecutorService DEFAULT_EXECUTOR = Executors.newCachedThreadPool(LOADER_THREAD_FACTORY);
+
+    protected final ExecutorService executor;
+    protected final int parallelism;
+
+    /**
+     * Create a loader which loads large archives with up to one thread per processor.
+     */
+    public BytecodeLoader() {
+        this(DEFAULT_EXECUTOR, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param executor executor of the concurrent loads, or null to always load the classes in the calling thread
+     * @param parallelism maximum number of threads loading the classes of an archive, including the calling thread
+     */
+    public BytecodeLoader(@Nullable ExecutorService executor, int parallelism) {
+        this.executor = executor;
+        this.parallelism = Math.max(parallelism, 1);
+    }
 
     /**
      * Compile (load from) an archive, if it contains any .class files.
      */
     @Override
     public boolean shouldCompile(ScriptArchive archive) {
-
-        Set<String> entries = archive.getArchiveEntryNames();
-        boolean shouldCompile = false;
-        for (String entry: entries) {
-            if (entry.endsWith(".class")) {
-                shouldCompile = true;
+        for (String entry : archive.getArchiveEntryNames()) {
+            if (entry.endsWith(CLASS_SUFFIX)) {
+                return true;
             }
         }
-
-        return shouldCompile;
+        return false;
     }
 
     @Override
     public Set<Class<?>> compile(ScriptArchive archive, JBossModuleClassLoader moduleClassLoader, Path targetDir)
             throws ScriptCompilationException, IOException {
-        HashSet<Class<?>> addedClasses = new HashSet<Class<?>>(archive.getArchiveEntryNames().size());
+        Set<Class<?>> addedClasses = loadClasses(moduleClassLoader, getClassIndex(archive));
+        moduleClassLoader.addClasses(addedClasses);
+        return Collections.unmodifiableSet(addedClasses);
+    }
+
+    /**
+     * Get the index of the classes of an archive. The binary names are sorted, so that the classes of a package,
+     * and the nested classes of a class, are next to each other.
+     * @return the sorted binary names of the .class entries of the archive
+     */
+    protected static List<String> getClassIndex(ScriptArchive archive) {
+        List<String> classNames = new ArrayList<String>();
         for (String entry : archive.getArchiveEntryNames()) {
-            if (!entry.endsWith(".class")) {
-                continue;
+            if (entry.endsWith(CLASS_SUFFIX)) {
+                classNames.add(entry.substring(0, entry.length() - CLASS_SUFFIX.length()).replace('/', '.'));
             }
+        }
+        Collections.sort(classNames);
+        return classNames;
+    }
+
+    /**
+     * Load classes from the module class loader. The classes are split among up to {@link #parallelism} threads
+     * if the class loader is parallel capable, and there are at least {@link #MIN_CLASSES_PER_TASK} classes
+     * per thread.
+     * @param classNames binary names of the classes
+     * @return the loaded classes
+     */
+    protected Set<Class<?>> loadClasses(final JBossModuleClassLoader moduleClassLoader, final List<String> classNames)
+            throws ScriptCompilationException {
+        int taskCount = Math.min(parallelism, classNames.size() / MIN_CLASSES_PER_TASK);
+        if (executor == null || taskCount < 2 || !moduleClassLoader.isParallelCapable()) {
+            return loadClasses(moduleClassLoader, classNames, 0, classNames.size());
+        }
+
+        List<Future<Set<Class<?>>>> futures = new ArrayList<Future<Set<Class<?>>>>(taskCount - 1);
+        int start = 0;
+        try {
+            // the calling thread loads the last range itself
+            for (int task = 0; task < taskCount - 1; task++) {
+                final int from = start;
+                final int to = (int)((long)classNames.size() * (task + 1) / taskCount);
+                futures.add(executor.submit(new Callable<Set<Class<?>>>() {
+                    @Override
+                    public Set<Class<?>> call() throws ScriptCompilationException {
+                        return loadClasses(moduleClassLoader, classNames, from, to);
+                    }
+                }));
+                start = to;
+            }
+            Set<Class<?>> addedClasses = new HashSet<Class<?>>(classNames.size() * 2);
+            addedClasses.addAll(loadClasses(moduleClassLoader, classNames, start, classNames.size()));
+            for (Future<Set<Class<?>>> future : futures) {
+                addedClasses.addAll(future.get());
+            }
+            return addedClasses;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ScriptCompilationException("Interrupted loading classes", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof ScriptCompilationException) {
+                throw (ScriptCompilationException)e.getCause();
+            }
+            throw new ScriptCompilationException("Unable to load classes", e.getCause());
+        } finally {
+            for (Future<Set<Class<?>>> future : futures) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    private static Set<Class<?>> loadClasses(JBossModuleClassLoader moduleClassLoader, List<String> classNames,
+            int from, int to) throws ScriptCompilationException {
+        Set<Class<?>> addedClasses = new HashSet<Class<?>>((to - from) * 2);
+        for (String className : classNames.subList(from, to)) {
             // Load from the underlying archive class resource
-            String entryName = entry.replace(".class", "").replace("/", ".");
             try {
-                Class<?> addedClass = moduleClassLoader.loadClassLocal(entryName, true);
-                addedClasses.add(addedClass);
+                addedClasses.add(moduleClassLoader.loadClassLocal(className, true));
             } catch (Exception e) {
-                throw new ScriptCompilationException("Unable to load class: " + entryName, e);
+                throw new ScriptCompilationException("Unable to load class: " + className, e);
             }
-            moduleClassLoader.addClasses(addedClasses);
         }
-
-        return Collections.unmodifiableSet(addedClasses);
+        return addedClasses;
     }
 }
@@ -25,5 +25,7 @@ package com.netflix.nicobar.core.module;
 public enum ArchiveRejectedReason {
     HIGHER_REVISION_AVAILABLE,
     ARCHIVE_IO_EXCEPTION,
-    COMPILE_FAILURE
+    COMPILE_FAILURE,
+    /** a staged revision was rejected before it was published */
+    STAGED_REVISION_REJECTED
 }
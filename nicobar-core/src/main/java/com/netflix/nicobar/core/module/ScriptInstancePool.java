@@ -0,0 +1,125 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.nicobar.core.module;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.UndeclaredThrowableException;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded pool of instances of a stateless entry class.
+ * <p>
+ * Instances are created on demand when the pool is empty, so acquiring never blocks. At most
+ * {@link #getMaxIdle()} released instances are kept for reuse, the rest are dropped.
+ * Once the pool is drained, released instances are dropped as well, which lets the instances of
+ * a replaced module revision be garbage collected while its in-flight executions complete.
+ */
+public class ScriptInstancePool {
+    private static final MethodType FACTORY_TYPE = MethodType.methodType(Object.class);
+
+    private final MethodHandle factory;
+    private final int maxIdle;
+    private final Queue<Object> idleInstances = new ConcurrentLinkedQueue<Object>();
+    private final AtomicInteger idleCount = new AtomicInteger();
+    private final AtomicLong createdCount = new AtomicLong();
+    private volatile boolean drained;
+
+    /**
+     * @param factory handle which creates a new instance and takes no arguments
+     * @param maxIdle maximum number of idle instances to keep
+     */
+    public ScriptInstancePool(MethodHandle factory, int maxIdle) {
+        Objects.requireNonNull(factory, "factory");
+        if (maxIdle <= 0) {
+            throw new IllegalArgumentException("invalid maxIdle " + maxIdle);
+        }
+        this.factory = factory.asType(FACTORY_TYPE);
+        this.maxIdle = maxIdle;
+    }
+
+    /**
+     * Take an idle instance, or create a new one if there is none.
+     */
+    public Object acquire() throws Exception {
+        Object instance = idleInstances.poll();
+        if (instance != null) {
+            idleCount.decrementAndGet();
+            return instance;
+        }
+        createdCount.incrementAndGet();
+        try {
+            return (Object)factory.invokeExact();
+        } catch (Exception | Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new UndeclaredThrowableException(t);
+        }
+    }
+
+    /**
+     * Return an instance taken from {@link #acquire()} to the pool.
+     */
+    public void release(Object instance) {
+        if (drained) {
+            return;
+        }
+        if (idleCount.incrementAndGet() > maxIdle) {
+            idleCount.decrementAndGet();
+            return;
+        }
+        idleInstances.offer(instance);
+        if (drained) {
+            // raced with drain(), make sure the instance isn't retained
+            drain();
+        }
+    }
+
+    /**
+     * Drop all idle instances, and stop pooling released instances.
+     */
+    public void drain() {
+        drained = true;
+        while (idleInstances.poll() != null) {
+            idleCount.decrementAndGet();
+        }
+    }
+
+    public boolean isDrained() {
+        return drained;
+    }
+
+    public int getMaxIdle() {
+        return maxIdle;
+    }
+
+    public int getIdleCount() {
+        return Math.min(idleCount.get(), maxIdle);
+    }
+
+    /**
+     * @return number of instances created by this pool
+     */
+    public long getCreatedCount() {
+        return createdCount.get();
+    }
+}
@@ -19,6 +19,8 @@ package com.netflix.nicobar.core.module;
 
 import java.util.Set;
 
+import javax.annotation.Nullable;
+
 import com.netflix.nicobar.core.archive.ModuleId;
 import com.netflix.nicobar.core.archive.ScriptArchive;
 import com.netflix.nicobar.core.module.jboss.JBossModuleClassLoader;
@@ -59,4 +61,11 @@ public interface ScriptModule {
      */
     ScriptArchive getSourceArchive();
 
+    /**
+     * @return the entry point declared in the module spec metadata, resolved when the module was loaded.
+     *         NULL if the module doesn't declare an entry point.
+     */
+    @Nullable
+    ScriptModuleEntryPoint getEntryPoint();
+
 }
\ No newline at end of file
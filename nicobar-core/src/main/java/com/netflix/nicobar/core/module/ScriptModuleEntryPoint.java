@@ -0,0 +1,409 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.nicobar.core.module;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Array;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.UndeclaredThrowableException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import javax.annotation.Nullable;
+
+import org.apache.commons.lang.builder.ToStringBuilder;
+import org.apache.commons.lang.builder.ToStringStyle;
+
+import com.netflix.nicobar.core.archive.ScriptModuleSpec;
+import com.netflix.nicobar.core.module.jboss.JBossModuleClassLoader;
+
+/**
+ * Entry point of a {@link ScriptModule}, resolved once when the module is loaded.
+ * <p>
+ * The entry point is declared in the metadata of the {@link ScriptModuleSpec}, either as
+ * <ul>
+ * <li>{@value #METADATA_ENTRY_CLASS} and {@value #METADATA_ENTRY_METHOD}: a public method of a class in the module, or</li>
+ * <li>{@value #METADATA_ENTRY_INTERFACE}: an interface with a single method, implemented by exactly one class in the module.
+ * {@value #METADATA_ENTRY_CLASS} and {@value #METADATA_ENTRY_METHOD} can be added to pick the implementation or the method.</li>
+ * </ul>
+ * The method is looked up among the public methods declared by the entry class or interface, and among the inherited
+ * ones only if it declares none. Synthetic methods, and the methods of {@code Object} and {@code groovy.lang.GroovyObject},
+ * are never entry methods. Overloaded methods are told apart by {@value #METADATA_ENTRY_PARAMETER_TYPES}, the names of the
+ * parameter types like {@code ["java.lang.String", "int[]"]}, or a comma separated string.
+ * <p>
+ * The method is bound into a {@link MethodHandle}, so invocations skip the reflective lookup and access checks
+ * of {@link Method#invoke(Object, Object...)}. Instance methods are invoked on a new instance of the entry class,
+ * which must have a public no-arg constructor.
+ * <p>
+ * Entry classes which keep no per-invocation state can be declared {@value #METADATA_ENTRY_STATELESS}. Their instances
+ * are then reused through a {@link ScriptInstancePool} of up to {@value #METADATA_ENTRY_POOL_SIZE} idle instances,
+ * which is drained when the module is replaced or removed.
+ */
+public class ScriptModuleEntryPoint {
+    /** metadata key of the fully qualified name of the entry class */
+    public static final String METADATA_ENTRY_CLASS = "entryClass";
+    /** metadata key of the name of the entry method */
+    public static final String METADATA_ENTRY_METHOD = "entryMethod";
+    /** metadata key of the names of the parameter types of the entry method */
+    public static final String METADATA_ENTRY_PARAMETER_TYPES = "entryParameterTypes";
+    /** metadata key of the fully qualified name of the interface implemented by the entry class */
+    public static final String METADATA_ENTRY_INTERFACE = "entryInterface";
+    /** metadata key of a boolean flag which allows reusing instances of the entry class across invocations */
+    public static final String METADATA_ENTRY_STATELESS = "entryStateless";
+    /** metadata key of the maximum number of idle instances of a stateless entry class */
+    public static final String METADATA_ENTRY_POOL_SIZE = "entryPoolSize";
+    /** default maximum number of idle instances of a stateless entry class */
+    public static final int DEFAULT_POOL_SIZE = Runtime.getRuntime().availableProcessors();
+
+    private static final MethodType INVOKER_TYPE = MethodType.methodType(Object.class, Object[].class);
+    private static final MethodType INSTANCE_INVOKER_TYPE = MethodType.methodType(Object.class, Object.class, Object[].class);
+    private static final String GROOVY_OBJECT_CLASS_NAME = "groovy.lang.GroovyObject";
+    private static final Map<String, Class<?>> PRIMITIVE_TYPES = new HashMap<String, Class<?>>();
+    static {
+        for (Class<?> type : new Class<?>[] {boolean.class, byte.class, char.class, short.class, int.class, long.class,
+                float.class, double.class}) {
+            PRIMITIVE_TYPES.put(type.getName(), type);
+        }
+    }
+
+    private final Class<?> entryClass;
+    private final Method entryMethod;
+    private final MethodHandle methodHandle;
+    private final MethodHandle invoker;
+    private final MethodHandle instanceInvoker;
+    private final ScriptInstancePool instancePool;
+
+    /**
+     * @param entryClass class to invoke the method on
+     * @param entryMethod public method of the entry class or of one of its supertypes
+     * @throws ReflectiveOperationException if the method or the no-arg constructor of an instance method isn't accessible
+     */
+    public ScriptModuleEntryPoint(Class<?> entryClass, Method entryMethod) throws ReflectiveOperationException {
+        this(entryClass, entryMethod, 0);
+    }
+
+    /**
+     * @param entryClass class to invoke the method on
+     * @param entryMethod public method of the entry class or of one of its supertypes
+     * @param maxPooledInstances maximum number of idle instances of the entry class to reuse for invoking instance
+     *        methods. 0 to create a new instance for every invocation.
+     * @throws ReflectiveOperationException if the method or the no-arg constructor of an instance method isn't accessible
+     */
+    public ScriptModuleEntryPoint(Class<?> entryClass, Method entryMethod, int maxPooledInstances) throws ReflectiveOperationException {
+        this.entryClass = Objects.requireNonNull(entryClass, "entryClass");
+        this.entryMethod = Objects.requireNonNull(entryMethod, "entryMethod");
+        if (!entryMethod.getDeclaringClass().isAssignableFrom(entryClass)) {
+            throw new IllegalArgumentException(entryMethod + " is not a method of " + entryClass.getName());
+        }
+        if (maxPooledInstances < 0) {
+            throw new IllegalArgumentException("invalid maxPooledInstances " + maxPooledInstances);
+        }
+        MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+        MethodHandle handle = lookup.unreflect(entryMethod);
+        if (!Modifier.isStatic(entryMethod.getModifiers())) {
+            if (Modifier.isAbstract(entryClass.getModifiers()) || entryClass.isInterface()) {
+                throw new IllegalArgumentException("can't instantiate entry class " + entryClass.getName());
+            }
+            MethodHandle constructor = lookup.findConstructor(entryClass, MethodType.methodType(void.class))
+                .asType(MethodType.methodType(handle.type().parameterType(0)));
+            if (maxPooledInstances > 0) {
+                this.instanceInvoker = handle.asSpreader(Object[].class, handle.type().parameterCount() - 1)
+                    .asType(INSTANCE_INVOKER_TYPE);
+                this.instancePool = new ScriptInstancePool(constructor, maxPooledInstances);
+            } else {
+                this.instanceInvoker = null;
+                this.instancePool = null;
+            }
+            handle = MethodHandles.foldArguments(handle, constructor);
+        } else {
+            this.instanceInvoker = null;
+            this.instancePool = null;
+        }
+        this.methodHandle = handle;
+        this.invoker = handle.asSpreader(Object[].class, handle.type().parameterCount()).asType(INVOKER_TYPE);
+    }
+
+    /**
+     * Resolve the entry point declared in the metadata of a module.
+     * @param moduleSpec spec of the module
+     * @param moduleClassLoader class loader of the module
+     * @return the entry point, or null if the module doesn't declare one
+     * @throws ReflectiveOperationException if the declared classes or method can't be found or accessed
+     * @throws IllegalArgumentException if the declaration is ambiguous
+     */
+    @Nullable
+    public static ScriptModuleEntryPoint fromModuleSpec(ScriptModuleSpec moduleSpec, JBossModuleClassLoader moduleClassLoader)
+            throws ReflectiveOperationException {
+        Objects.requireNonNull(moduleSpec, "moduleSpec");
+        Objects.requireNonNull(moduleClassLoader, "moduleClassLoader");
+        Map<String, Object> metadata = moduleSpec.getMetadata();
+        String entryClassName = getString(metadata, METADATA_ENTRY_CLASS);
+        String entryMethodName = getString(metadata, METADATA_ENTRY_METHOD);
+        String entryInterfaceName = getString(metadata, METADATA_ENTRY_INTERFACE);
+        if (entryClassName == null && entryInterfaceName == null) {
+            return null;
+        }
+
+        Class<?> entryInterface = entryInterfaceName != null ? moduleClassLoader.loadClass(entryInterfaceName) : null;
+        Class<?> entryClass;
+        if (entryClassName != null) {
+            entryClass = moduleClassLoader.loadClass(entryClassName);
+            if (entryInterface != null && !entryInterface.isAssignableFrom(entryClass)) {
+                throw new IllegalArgumentException(entryClassName + " does not implement " + entryInterfaceName);
+            }
+        } else {
+            entryClass = findImplementation(moduleClassLoader, entryInterface);
+        }
+        Class<?>[] parameterTypes = getParameterTypes(metadata, moduleClassLoader);
+        Method entryMethod = findMethod(entryInterface != null ? entryInterface : entryClass, entryMethodName, parameterTypes);
+        int maxPooledInstances = 0;
+        if (Boolean.parseBoolean(getString(metadata, METADATA_ENTRY_STATELESS))) {
+            String poolSize = getString(metadata, METADATA_ENTRY_POOL_SIZE);
+            // numbers in json metadata are deserialized as doubles
+            maxPooledInstances = poolSize != null ? (int)Double.parseDouble(poolSize) : DEFAULT_POOL_SIZE;
+        }
+        return new ScriptModuleEntryPoint(entryClass, entryMethod, maxPooledInstances);
+    }
+
+    public Class<?> getEntryClass() {
+        return entryClass;
+    }
+
+    public Method getEntryMethod() {
+        return entryMethod;
+    }
+
+    /**
+     * @return handle which takes the parameters of the entry method, and returns its result.
+     *         Instance methods are invoked on a new instance, bypassing the instance pool.
+     */
+    public MethodHandle getMethodHandle() {
+        return methodHandle;
+    }
+
+    /**
+     * Invoke the entry method.
+     * @param args arguments of the entry method
+     * @return result of the entry method, or null if it is void
+     * @throws Exception exception thrown by the entry method
+     */
+    @Nullable
+    public Object invoke(Object... args) throws Exception {
+        if (instancePool != null) {
+            Object instance = instancePool.acquire();
+            try {
+                return (Object)instanceInvoker.invokeExact(instance, args);
+            } catch (Exception | Error e) {
+                throw e;
+            } catch (Throwable t) {
+                throw new UndeclaredThrowableException(t);
+            } finally {
+                instancePool.release(instance);
+            }
+        }
+        try {
+            return (Object)invoker.invokeExact(args);
+        } catch (Exception | Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new UndeclaredThrowableException(t);
+        }
+    }
+
+    /**
+     * @return pool of entry class instances, or null if instances aren't reused
+     */
+    @Nullable
+    public ScriptInstancePool getInstancePool() {
+        return instancePool;
+    }
+
+    /**
+     * Drop the pooled instances of the entry class. Invocations still succeed afterwards, but
+     * don't reuse instances anymore.
+     */
+    public void drain() {
+        if (instancePool != null) {
+            instancePool.drain();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return new ToStringBuilder(this, ToStringStyle.SHORT_PREFIX_STYLE)
+            .append("entryClass", entryClass)
+            .append("entryMethod", entryMethod)
+            .append("instancePool", instancePool != null)
+            .toString();
+    }
+
+    @Nullable
+    private static String getString(Map<String, Object> metadata, String key) {
+        Object value = metadata.get(key);
+        return value != null ? value.toString() : null;
+    }
+
+    private static Class<?> findImplementation(JBossModuleClassLoader moduleClassLoader, Class<?> entryInterface)
+            throws ClassNotFoundException {
+        List<Class<?>> candidates = new ArrayList<Class<?>>();
+        for (Class<?> candidate : moduleClassLoader.getLoadedClasses()) {
+            if (entryInterface.isAssignableFrom(candidate) && !candidate.isInterface() &&
+                !Modifier.isAbstract(candidate.getModifiers())) {
+                candidates.add(candidate);
+            }
+        }
+        if (candidates.isEmpty()) {
+            throw new ClassNotFoundException("no implementation of " + entryInterface.getName());
+        }
+        if (candidates.size() > 1) {
+            throw new IllegalArgumentException("multiple implementations of " + entryInterface.getName() + ": " + candidates +
+                ". declare the " + METADATA_ENTRY_CLASS + " to pick one.");
+        }
+        return candidates.get(0);
+    }
+
+    /**
+     * Resolve the declared parameter types of the entry method.
+     * @return the parameter types, or null if they aren't declared
+     */
+    @Nullable
+    private static Class<?>[] getParameterTypes(Map<String, Object> metadata, ClassLoader classLoader)
+            throws ClassNotFoundException {
+        Object value = metadata.get(METADATA_ENTRY_PARAMETER_TYPES);
+        if (value == null) {
+            return null;
+        }
+        List<String> typeNames = new ArrayList<String>();
+        Iterable<?> values = value instanceof Collection ? (Collection<?>)value : Arrays.asList(value.toString().split(","));
+        for (Object typeName : values) {
+            if (!typeName.toString().trim().isEmpty()) {
+                typeNames.add(typeName.toString().trim());
+            }
+        }
+        Class<?>[] parameterTypes = new Class<?>[typeNames.size()];
+        for (int i = 0; i < parameterTypes.length; i++) {
+            parameterTypes[i] = loadType(typeNames.get(i), classLoader);
+        }
+        return parameterTypes;
+    }
+
+    private static Class<?> loadType(String typeName, ClassLoader classLoader) throws ClassNotFoundException {
+        if (typeName.endsWith("[]")) {
+            Class<?> componentType = loadType(typeName.substring(0, typeName.length() - 2).trim(), classLoader);
+            return Array.newInstance(componentType, 0).getClass();
+        }
+        Class<?> primitiveType = PRIMITIVE_TYPES.get(typeName);
+        return primitiveType != null ? primitiveType : Class.forName(typeName, false, classLoader);
+    }
+
+    /**
+     * Find the entry method of a class or interface. The public methods declared by the type itself are searched
+     * first, and the inherited ones only if none of the declared methods match.
+     * @param type entry class or interface
+     * @param methodName name of the method, or null to accept any name
+     * @param parameterTypes parameter types of the method, or null to accept any parameters
+     */
+    static Method findMethod(Class<?> type, @Nullable String methodName, @Nullable Class<?>[] parameterTypes)
+            throws NoSuchMethodException {
+        List<Method> candidates = findCandidates(type, type.getDeclaredMethods(), methodName, parameterTypes);
+        if (candidates.isEmpty()) {
+            candidates = findCandidates(type, type.getMethods(), methodName, parameterTypes);
+        }
+        String description = (methodName != null ? methodName : "") +
+            (parameterTypes != null ? "(" + getTypeNames(parameterTypes) + ")" : "");
+        if (candidates.isEmpty()) {
+            throw new NoSuchMethodException("no public method " + (description.isEmpty() ? "" : description + " ") + "in " + type.getName());
+        }
+        if (candidates.size() > 1) {
+            throw new IllegalArgumentException("multiple public methods " + (description.isEmpty() ? "" : "matching " + description + " ") +
+                "in " + type.getName() + ": " + candidates + ". declare the " + METADATA_ENTRY_METHOD + " and the " +
+                METADATA_ENTRY_PARAMETER_TYPES + " to pick one.");
+        }
+        return candidates.get(0);
+    }
+
+    private static List<Method> findCandidates(Class<?> type, Method[] methods, @Nullable String methodName,
+            @Nullable Class<?>[] parameterTypes) {
+        Class<?> groovyObject = findInterface(type, GROOVY_OBJECT_CLASS_NAME);
+        List<Method> candidates = new ArrayList<Method>();
+        for (Method method : methods) {
+            if (!Modifier.isPublic(method.getModifiers()) || method.isSynthetic() || method.isBridge() ||
+                method.getDeclaringClass() == Object.class || method.getDeclaringClass() == groovyObject) {
+                continue;
+            }
+            if ((methodName != null && !method.getName().equals(methodName)) ||
+                (parameterTypes != null && !Arrays.equals(method.getParameterTypes(), parameterTypes))) {
+                continue;
+            }
+            if (groovyObject != null && isDeclaredBy(groovyObject, method)) {
+                continue;
+            }
+            candidates.add(method);
+        }
+        return candidates;
+    }
+
+    /**
+     * Find an interface implemented by a type, by name, since the class may not be visible from here.
+     * @return the interface, or null if the type doesn't implement it
+     */
+    @Nullable
+    private static Class<?> findInterface(@Nullable Class<?> type, String interfaceName) {
+        if (type == null) {
+            return null;
+        }
+        if (type.isInterface() && type.getName().equals(interfaceName)) {
+            return type;
+        }
+        for (Class<?> implemented : type.getInterfaces()) {
+            Class<?> found = findInterface(implemented, interfaceName);
+            if (found != null) {
+                return found;
+            }
+        }
+        return findInterface(type.getSuperclass(), interfaceName);
+    }
+
+    private static boolean isDeclaredBy(Class<?> type, Method method) {
+        try {
+            type.getMethod(method.getName(), method.getParameterTypes());
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    private static String getTypeNames(Class<?>[] types) {
+        StringBuilder typeNames = new StringBuilder();
+        for (Class<?> type : types) {
+            if (typeNames.length() > 0) {
+                typeNames.append(", ");
+            }
+            typeNames.append(type.getCanonicalName() != null ? type.getCanonicalName() : type.getName());
+        }
+        return typeNames.toString();
+    }
+}
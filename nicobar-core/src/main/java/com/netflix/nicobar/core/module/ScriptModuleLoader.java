@@ -23,16 +23,25 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
 
 import javax.annotation.Nullable;
 
@@ -47,6 +56,7 @@ import org.jgrapht.graph.DefaultEdge;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.hash.Hashing;
 import com.netflix.nicobar.core.archive.ModuleId;
 import com.netflix.nicobar.core.archive.ScriptArchive;
 import com.netflix.nicobar.core.archive.ScriptModuleSpec;
@@ -58,6 +68,8 @@ import com.netflix.nicobar.core.module.jboss.JBossModuleUtils;
 import com.netflix.nicobar.core.module.jboss.JBossScriptModule;
 import com.netflix.nicobar.core.plugin.ScriptCompilerPlugin;
 import com.netflix.nicobar.core.plugin.ScriptCompilerPluginSpec;
+import com.netflix.nicobar.core.plugin.UnloadAwareScriptCompilerPlugin;
+import com.netflix.nicobar.core.plugin.WarmableScriptCompilerPlugin;
 
 /**
  * Top level API for loading and accessing scripts.
@@ -71,6 +83,16 @@ import com.netflix.nicobar.core.plugin.ScriptCompilerPluginSpec;
  *
  * Support pluggable compilers via the {@link ScriptCompilerPluginSpec}.
  *
+ * The {@link ScriptModuleEntryPoint} declared by an archive is resolved before its module is committed.
+ * Archives whose entry point can't be resolved are rejected like archives which fail to compile.
+ *
+ * The jars bundled in an archive are loaded by the module of the archive. With
+ * {@link Builder#withSharedLibraries(boolean)}, each jar is loaded by a shared library module instead, one per distinct
+ * jar content, which all the modules bundling the jar depend on, so that its classes are loaded once.
+ * A shared library sees the JRE, the application packages of the loader and the libraries of the jars it was first
+ * bundled with, but not the classes of the modules which bundle it. Archives which bundle the same jar should
+ * therefore bundle the same versions of the jars it depends on.
+ *
  * @author James Kojo
  * @author Vasanth Asokan
  * @author Aaron Tull
@@ -87,6 +109,8 @@ public class ScriptModuleLoader {
         private final Set<String> paths = new LinkedHashSet<String>();
         private Path compilationRootDir;
         private ClassLoader appClassLoader = ScriptModuleLoader.class.getClassLoader();
+        private ScriptModuleWarmupRunner warmupRunner;
+        private boolean sharedLibraries;
 
         public Builder() {
         }
@@ -134,18 +158,48 @@ public class ScriptModuleLoader {
             }
             return this;
         }
+        /**
+         * Warm up new module revisions before they are published.
+         * @param warmupRunner runner of the warm-up routines
+         */
+        public Builder withWarmupRunner(ScriptModuleWarmupRunner warmupRunner) {
+            this.warmupRunner = warmupRunner;
+            return this;
+        }
+        /**
+         * Load the jars bundled in archives with shared library modules, or with the module of each archive.
+         * Disabled by default.
+         * @param sharedLibraries true to share the library modules
+         */
+        public Builder withSharedLibraries(boolean sharedLibraries) {
+            this.sharedLibraries = sharedLibraries;
+            return this;
+        }
         public ScriptModuleLoader build() throws ModuleLoadException, IOException {
             if (compilationRootDir == null) {
                 compilationRootDir = Files.createTempDirectory("ScriptModuleLoader");
             }
 
-            return new ScriptModuleLoader(pluginSpecs, appClassLoader, paths, listeners, compilationRootDir);
+            return new ScriptModuleLoader(pluginSpecs, appClassLoader, paths, listeners, compilationRootDir, warmupRunner,
+                sharedLibraries);
         }
     }
 
+    /** Directory of the compilation root which holds the jars of the shared library modules */
+    protected final static String SHARED_LIBRARY_DIR = "shared-libraries";
+
     /** Map of script ModuleId to the loaded ScriptModules */
     protected final Map<ModuleId, ScriptModule> loadedScriptModules = new ConcurrentHashMap<ModuleId, ScriptModule>();
+    /** Map of script ModuleId to the staged revisions, which are compiled but not published */
+    protected final ConcurrentMap<ModuleId, ScriptModule> stagedScriptModules = new ConcurrentHashMap<ModuleId, ScriptModule>();
     protected final Map<String, ClassLoader> compilerClassLoaders = new ConcurrentHashMap<String, ClassLoader>();
+    /** Map of plugin id to the warmup of the compilers of the plugin, for plugins which warm up their compilers */
+    protected final Map<String, Future<?>> compilerWarmups = new ConcurrentHashMap<String, Future<?>>();
+    /** Map of plugin id to the plugins which purge the classes of unloaded modules, and to the compilers of each */
+    protected final Map<String, UnloadAwareScriptCompilerPlugin> unloadAwarePlugins =
+        new ConcurrentHashMap<String, UnloadAwareScriptCompilerPlugin>();
+    protected final Map<String, Set<? extends ScriptArchiveCompiler>> unloadAwarePluginCompilers =
+        new ConcurrentHashMap<String, Set<? extends ScriptArchiveCompiler>>();
     protected final Set<ScriptCompilerPluginSpec> pluginSpecs;
     protected final ClassLoader appClassLoader;
     protected final Set<String> appPackagePaths;
@@ -156,12 +210,35 @@ public class ScriptModuleLoader {
         Collections.newSetFromMap(new ConcurrentHashMap<ScriptModuleListener, Boolean>());
 
     protected final JBossModuleLoader jbossModuleLoader;
+    protected final ScriptModuleWarmupRunner warmupRunner;
+    protected final boolean sharedLibraries;
 
     protected ScriptModuleLoader(final Set<ScriptCompilerPluginSpec> pluginSpecs,
             final ClassLoader appClassLoader,
             final Set<String> appPackagePaths,
             final Set<ScriptModuleListener> listeners,
             final Path compilationRootDir) throws ModuleLoadException {
+        this(pluginSpecs, appClassLoader, appPackagePaths, listeners, compilationRootDir, null);
+    }
+
+    protected ScriptModuleLoader(final Set<ScriptCompilerPluginSpec> pluginSpecs,
+            final ClassLoader appClassLoader,
+            final Set<String> appPackagePaths,
+            final Set<ScriptModuleListener> listeners,
+            final Path compilationRootDir,
+            @Nullable final ScriptModuleWarmupRunner warmupRunner) throws ModuleLoadException {
+        this(pluginSpecs, appClassLoader, appPackagePaths, listeners, compilationRootDir, warmupRunner, false);
+    }
+
+    protected ScriptModuleLoader(final Set<ScriptCompilerPluginSpec> pluginSpecs,
+            final ClassLoader appClassLoader,
+            final Set<String> appPackagePaths,
+            final Set<ScriptModuleListener> listeners,
+            final Path compilationRootDir,
+            @Nullable final ScriptModuleWarmupRunner warmupRunner,
+            final boolean sharedLibraries) throws ModuleLoadException {
+        this.warmupRunner = warmupRunner;
+        this.sharedLibraries = sharedLibraries;
         this.pluginSpecs = Objects.requireNonNull(pluginSpecs);
         this.appClassLoader = Objects.requireNonNull(appClassLoader);
         this.appPackagePaths = Objects.requireNonNull(appPackagePaths);
@@ -178,7 +255,8 @@ public class ScriptModuleLoader {
      * This method will convert the archives to modules and then compile + link them in to the
      * dependency graph. It will then recursively re-link any modules depending on the new modules.
      * If this loader already contains an old version of the module, it will be unloaded on
-     * successful compile of the new module.
+     * successful compile of the new module. If the loader has a {@link ScriptModuleWarmupRunner},
+     * new modules are warmed up before the old version is unloaded and the listeners are notified.
      *
      * @param candidateArchives archives to load or update
      */
@@ -249,36 +327,21 @@ public class ScriptModuleLoader {
                     logger.error("Exception loading archive " +
                         scriptArchive.getModuleSpec().getModuleId(), e);
                     notifyArchiveRejected(scriptArchive, ArchiveRejectedReason.ARCHIVE_IO_EXCEPTION, e);
+                    releaseSharedLibraries(candidateRevisionId);
                     continue;
                 }
 
                 // load and compile the module
                 jbossModuleLoader.addModuleSpec(moduleSpec);
                 Module jbossModule = null;
+                ScriptModuleEntryPoint entryPoint = null;
                 try {
                     jbossModule = jbossModuleLoader.loadModule(candidateRevisionId);
                     compileModule(jbossModule, moduleCompilationRoot);
 
-                    // Now refresh the resource loaders for this module, and load the set of
-                    // compiled classes and populate into the module's local class cache.
-                    jbossModuleLoader.rescanModule(jbossModule);
-
-                    final Set<String> classesToLoad = new LinkedHashSet<String>();
-                    Files.walkFileTree(moduleCompilationRoot, new SimpleFileVisitor<Path>() {
-                        public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
-                            String relativePath = moduleCompilationRoot.relativize(file).toString();
-                            if (relativePath.endsWith(".class")) {
-                                String className = relativePath.replaceAll(".class", "").replace("/", ".");
-                                classesToLoad.add(className);
-                            }
-                            return FileVisitResult.CONTINUE;
-                        };
-                    });
-                    for (String loadClass: classesToLoad) {
-                        Class<?> loadedClass = jbossModule.getClassLoader().loadClassLocal(loadClass, true);
-                        if (loadedClass == null)
-                            throw new ScriptCompilationException("Unable to load compiled class: " + loadClass);
-                    }
+                    loadCompiledClasses(jbossModule, moduleCompilationRoot);
+                    entryPoint = ScriptModuleEntryPoint.fromModuleSpec(scriptArchive.getModuleSpec(),
+                        (JBossModuleClassLoader)jbossModule.getClassLoader());
                 } catch (Exception e) {
                     // rollback
                     logger.error("Exception loading module " + candidateRevisionId, e);
@@ -287,19 +350,33 @@ public class ScriptModuleLoader {
                         notifyArchiveRejected(scriptArchive, ArchiveRejectedReason.COMPILE_FAILURE, e);
                     }
                     if (jbossModule != null) {
-                        jbossModuleLoader.unloadModule(jbossModule);
+                        unloadModule(jbossModule);
+                    } else {
+                        releaseSharedLibraries(candidateRevisionId);
                     }
                     continue;
                 }
 
+                JBossScriptModule scriptModule = new JBossScriptModule(scriptModuleId, jbossModule, scriptArchive, entryPoint);
+                if (warmupRunner != null) {
+                    warmupRunner.warmUp(scriptModule);
+                }
+
                 // commit the change by removing the old module
                 ModuleIdentifier oldRevisionId = oldRevisionIdMap.get(scriptModuleId);
                 if (oldRevisionId != null) {
-                    jbossModuleLoader.unloadModule(oldRevisionId);
+                    Module oldJBossModule = jbossModuleLoader.findLoadedModule(oldRevisionId);
+                    if (oldJBossModule != null) {
+                        unloadModule(oldJBossModule);
+                    }
                 }
 
-                JBossScriptModule scriptModule = new JBossScriptModule(scriptModuleId, jbossModule, scriptArchive);
                 ScriptModule oldModule = loadedScriptModules.put(scriptModuleId, scriptModule);
+                ScriptModule stagedModule = stagedScriptModules.get(scriptModuleId);
+                if (stagedModule != null && stagedModule.getCreateTime() <= scriptModule.getCreateTime()) {
+                    // the staged revision was committed or superseded
+                    discardStagedModule(stagedModule);
+                }
                 notifyModuleUpdate(scriptModule, oldModule);
 
                 // find dependents and add them to the to be compiled set
@@ -321,6 +398,197 @@ public class ScriptModuleLoader {
         }
     }
 
+    /**
+     * Compile an archive into a staged revision of its module, without publishing it. The staged revision is linked
+     * against the currently published revisions of its dependencies, and is not visible to other modules or
+     * through {@link #getScriptModule(ModuleId)}. It replaces any previously staged revision of the module.
+     * <p>
+     * Staged revisions are published with {@link #commitStagedScriptModule(ModuleId)}, or discarded with
+     * {@link #rejectStagedScriptModule(ScriptModule)}. Publishing a revision which is at least as recent through
+     * {@link #updateScriptArchives(Set)} discards the staged revision as well.
+     *
+     * @param scriptArchive archive to stage
+     * @return the staged revision, or null if the archive was rejected
+     */
+    @Nullable
+    public synchronized ScriptModule stageScriptArchive(ScriptArchive scriptArchive) {
+        Objects.requireNonNull(scriptArchive, "scriptArchive");
+        ModuleId scriptModuleId = scriptArchive.getModuleSpec().getModuleId();
+        ScriptModule loadedModule = loadedScriptModules.get(scriptModuleId);
+        if (loadedModule != null && scriptArchive.getCreateTime() < loadedModule.getCreateTime()) {
+            notifyArchiveRejected(scriptArchive, ArchiveRejectedReason.HIGHER_REVISION_AVAILABLE, null);
+            return null;
+        }
+
+        ModuleIdentifier revisionId = JBossModuleUtils.createRevisionId(scriptModuleId, System.currentTimeMillis());
+        Map<ModuleId, ModuleIdentifier> revisionIdMap = new HashMap<ModuleId, ModuleIdentifier>(jbossModuleLoader.getLatestRevisionIds());
+        revisionIdMap.put(scriptModuleId, revisionId);
+        Path moduleCompilationRoot = compilationRootDir.resolve(Paths.get(revisionId.toString()));
+        FileUtils.deleteQuietly(moduleCompilationRoot.toFile());
+        Module jbossModule = null;
+        ScriptModuleEntryPoint entryPoint;
+        try {
+            Files.createDirectories(moduleCompilationRoot);
+            ModuleSpec moduleSpec = createModuleSpec(scriptArchive, revisionId, revisionIdMap, moduleCompilationRoot);
+            jbossModuleLoader.addModuleSpec(moduleSpec);
+            jbossModule = jbossModuleLoader.loadModule(revisionId);
+            compileModule(jbossModule, moduleCompilationRoot);
+            loadCompiledClasses(jbossModule, moduleCompilationRoot);
+            entryPoint = ScriptModuleEntryPoint.fromModuleSpec(scriptArchive.getModuleSpec(),
+                (JBossModuleClassLoader)jbossModule.getClassLoader());
+        } catch (Exception e) {
+            logger.error("Exception staging module " + revisionId, e);
+            notifyArchiveRejected(scriptArchive, ArchiveRejectedReason.COMPILE_FAILURE, e);
+            if (jbossModule != null) {
+                unloadModule(jbossModule);
+            } else {
+                releaseSharedLibraries(revisionId);
+            }
+            return null;
+        }
+        // the loaded classes stay usable, but the staged revision must not be linked by later updates
+        jbossModuleLoader.unloadModule(jbossModule);
+
+        ScriptModule stagedModule = new JBossScriptModule(scriptModuleId, jbossModule, scriptArchive, entryPoint);
+        ScriptModule oldStagedModule = stagedScriptModules.put(scriptModuleId, stagedModule);
+        if (oldStagedModule != null) {
+            releaseStagedModule(oldStagedModule);
+        }
+        return stagedModule;
+    }
+
+    /**
+     * Get the staged revision of a module.
+     * @see #stageScriptArchive(ScriptArchive)
+     */
+    @Nullable
+    public ScriptModule getStagedScriptModule(ModuleId scriptModuleId) {
+        return stagedScriptModules.get(scriptModuleId);
+    }
+
+    /**
+     * Publish the staged revision of a module. The revision is recompiled, so that it and its dependents are
+     * linked like any other update.
+     * @return true if there was a staged revision
+     */
+    public synchronized boolean commitStagedScriptModule(ModuleId scriptModuleId) {
+        ScriptModule stagedModule = stagedScriptModules.get(scriptModuleId);
+        if (stagedModule == null) {
+            return false;
+        }
+        updateScriptArchives(Collections.singleton(stagedModule.getSourceArchive()));
+        // discard the staged revision even if the update failed
+        discardStagedModule(stagedModule);
+        return true;
+    }
+
+    /**
+     * Discard a staged revision, and notify the listeners that its archive was rejected with
+     * {@link ArchiveRejectedReason#STAGED_REVISION_REJECTED}. This doesn't block on concurrent updates.
+     * @param stagedModule the staged revision, as returned by {@link #getStagedScriptModule(ModuleId)}
+     * @return true if the revision was still staged
+     */
+    public boolean rejectStagedScriptModule(ScriptModule stagedModule) {
+        Objects.requireNonNull(stagedModule, "stagedModule");
+        if (!discardStagedModule(stagedModule)) {
+            return false;
+        }
+        notifyArchiveRejected(stagedModule.getSourceArchive(), ArchiveRejectedReason.STAGED_REVISION_REJECTED, null);
+        return true;
+    }
+
+    protected boolean discardStagedModule(ScriptModule stagedModule) {
+        if (!stagedScriptModules.remove(stagedModule.getModuleId(), stagedModule)) {
+            return false;
+        }
+        releaseStagedModule(stagedModule);
+        return true;
+    }
+
+    /**
+     * Drain a staged revision which is no longer staged, and purge its classes from the plugins. The revision was
+     * already unloaded from the module loader when it was staged.
+     */
+    protected void releaseStagedModule(ScriptModule stagedModule) {
+        if (stagedModule.getEntryPoint() != null) {
+            stagedModule.getEntryPoint().drain();
+        }
+        if (stagedModule instanceof JBossScriptModule) {
+            JBossModuleClassLoader moduleClassLoader = ((JBossScriptModule)stagedModule).getModuleClassLoader();
+            releaseSharedLibraries(moduleClassLoader.getModule().getIdentifier());
+            notifyModuleUnloaded(moduleClassLoader);
+        }
+    }
+
+    /**
+     * Unload a revision of a script module from the module loader, and let the
+     * {@link UnloadAwareScriptCompilerPlugin}s purge their references to its classes.
+     */
+    protected void unloadModule(Module jbossModule) {
+        jbossModuleLoader.unloadModule(jbossModule);
+        releaseSharedLibraries(jbossModule.getIdentifier());
+        ModuleClassLoader moduleClassLoader = jbossModule.getClassLoader();
+        if (moduleClassLoader instanceof JBossModuleClassLoader) {
+            notifyModuleUnloaded((JBossModuleClassLoader)moduleClassLoader);
+        }
+    }
+
+    /**
+     * Release the shared library modules used by a module revision which is no longer loaded, and delete the jars
+     * of the libraries which are no longer used.
+     */
+    protected void releaseSharedLibraries(ModuleIdentifier revisionId) {
+        for (ModuleIdentifier libraryId : jbossModuleLoader.releaseSharedLibraries(revisionId)) {
+            FileUtils.deleteQuietly(getSharedLibraryPath(libraryId).toFile());
+        }
+    }
+
+    /**
+     * Notify the {@link UnloadAwareScriptCompilerPlugin}s that a module revision was unloaded. A failing plugin
+     * is logged, and doesn't prevent the other plugins from being notified.
+     */
+    protected void notifyModuleUnloaded(JBossModuleClassLoader moduleClassLoader) {
+        if (unloadAwarePlugins.isEmpty()) {
+            return;
+        }
+        ModuleId scriptModuleId = moduleClassLoader.getScriptArchive().getModuleSpec().getModuleId();
+        Set<Class<?>> unloadedClasses = moduleClassLoader.getLoadedClasses();
+        for (Map.Entry<String, UnloadAwareScriptCompilerPlugin> entry : unloadAwarePlugins.entrySet()) {
+            try {
+                entry.getValue().moduleUnloaded(scriptModuleId, moduleClassLoader, unloadedClasses,
+                    unloadAwarePluginCompilers.get(entry.getKey()));
+            } catch (Exception e) {
+                logger.warn("Exception purging the classes of module " + scriptModuleId + " from plugin " + entry.getKey(), e);
+            }
+        }
+    }
+
+    /**
+     * Load the classes which were compiled into the given directory into the module's local class cache.
+     */
+    protected void loadCompiledClasses(Module jbossModule, final Path moduleCompilationRoot) throws Exception {
+        // Now refresh the resource loaders for this module, and load the set of
+        // compiled classes and populate into the module's local class cache.
+        jbossModuleLoader.rescanModule(jbossModule);
+
+        final Set<String> classesToLoad = new LinkedHashSet<String>();
+        Files.walkFileTree(moduleCompilationRoot, new SimpleFileVisitor<Path>() {
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                String relativePath = moduleCompilationRoot.relativize(file).toString();
+                if (relativePath.endsWith(".class")) {
+                    String className = relativePath.replaceAll(".class", "").replace("/", ".");
+                    classesToLoad.add(className);
+                }
+                return FileVisitResult.CONTINUE;
+            };
+        });
+        for (String loadClass: classesToLoad) {
+            Class<?> loadedClass = jbossModule.getClassLoader().loadClassLocal(loadClass, true);
+            if (loadedClass == null)
+                throw new ScriptCompilationException("Unable to load compiled class: " + loadClass);
+        }
+    }
+
     /**
      * Create a JBoss module spec for an about to be created script module.
      * @param archive the script archive being converted to a module.
@@ -338,9 +606,15 @@ public class ScriptModuleLoader {
         ModuleSpec.Builder moduleSpecBuilder = ModuleSpec.build(moduleId);
 
         JBossModuleUtils.populateModuleSpecWithResources(moduleSpecBuilder, archive);
+        if (!sharedLibraries) {
+            JBossModuleUtils.populateModuleSpecWithNestedJars(moduleSpecBuilder, archive);
+        }
         JBossModuleUtils.populateModuleSpecWithCoreDependencies(moduleSpecBuilder, archive);
         JBossModuleUtils.populateModuleSpecWithAppImports(moduleSpecBuilder,
                 appClassLoader, archiveSpec.getAppImportFilterPaths() == null ? appPackagePaths : archiveSpec.getAppImportFilterPaths());
+        if (sharedLibraries) {
+            populateModuleSpecWithSharedLibraries(moduleSpecBuilder, archive, moduleId);
+        }
         // Allow compiled class files to fetched as resources later on.
         JBossModuleUtils.populateModuleSpecWithCompilationRoot(moduleSpecBuilder, moduleCompilationRoot);
 
@@ -356,6 +630,58 @@ public class ScriptModuleLoader {
         return moduleSpecBuilder.create();
     }
 
+    /**
+     * Populate the spec of a module revision with dependencies on the shared library modules of the jars bundled
+     * in its archive. Each library module loads a single jar, and is identified by the SHA-1 hash of its content,
+     * so that the archives bundling the same jar share it whatever the other jars they bundle. A new library depends
+     * on the libraries of the other jars of the archive, so that the jars can depend on each other.
+     * The libraries are retained for the revision until they are released with
+     * {@link #releaseSharedLibraries(ModuleIdentifier)}. A new library is loaded from a copy of its jar in the
+     * compilation root, which doesn't change with the archive.
+     */
+    protected void populateModuleSpecWithSharedLibraries(ModuleSpec.Builder moduleSpecBuilder, ScriptArchive archive,
+            ModuleIdentifier revisionId) throws ModuleLoadException {
+        List<Path> jarPaths = JBossModuleUtils.findNestedJars(archive);
+        if (jarPaths.isEmpty()) {
+            return;
+        }
+        try {
+            // sorted by hash, so that the libraries don't depend on the names of the jars in the archive
+            SortedMap<String, Path> jarsByHash = new TreeMap<String, Path>();
+            for (Path jarPath : jarPaths) {
+                jarsByHash.put(Hashing.sha1().hashBytes(Files.readAllBytes(jarPath)).toString(), jarPath);
+            }
+            Map<ModuleIdentifier, Path> jarsByLibraryId = new LinkedHashMap<ModuleIdentifier, Path>();
+            for (Map.Entry<String, Path> jar : jarsByHash.entrySet()) {
+                jarsByLibraryId.put(JBossModuleUtils.createSharedLibraryId(jar.getKey()), jar.getValue());
+            }
+            for (Map.Entry<ModuleIdentifier, Path> jar : jarsByLibraryId.entrySet()) {
+                ModuleIdentifier libraryId = jar.getKey();
+                if (!jbossModuleLoader.retainSharedLibrary(libraryId, revisionId)) {
+                    Path libraryDir = Files.createDirectories(getSharedLibraryPath(libraryId));
+                    Path libraryJarPath = libraryDir.resolve(jar.getValue().getFileName());
+                    Files.copy(jar.getValue(), libraryJarPath, StandardCopyOption.REPLACE_EXISTING);
+                    Set<ModuleIdentifier> dependencyLibraryIds = new LinkedHashSet<ModuleIdentifier>(jarsByLibraryId.keySet());
+                    dependencyLibraryIds.remove(libraryId);
+                    ModuleSpec.Builder librarySpecBuilder = ModuleSpec.build(libraryId);
+                    JBossModuleUtils.populateSharedLibraryModuleSpec(librarySpecBuilder, libraryJarPath, dependencyLibraryIds,
+                        appClassLoader, appPackagePaths);
+                    jbossModuleLoader.addSharedLibrary(librarySpecBuilder.create(), revisionId);
+                }
+                JBossModuleUtils.populateModuleSpecWithSharedLibrary(moduleSpecBuilder, libraryId);
+            }
+        } catch (IOException e) {
+            throw new ModuleLoadException(e);
+        }
+    }
+
+    /**
+     * @return the directory of the copy of the jar of a shared library
+     */
+    protected Path getSharedLibraryPath(ModuleIdentifier libraryId) {
+        return compilationRootDir.resolve(SHARED_LIBRARY_DIR).resolve(libraryId.getName());
+    }
+
     /**
      * Compiles and links the scripts within the module by locating the correct compiler
      * and delegating the compilation. the classes will be loaded into the module's classloader
@@ -411,6 +737,17 @@ public class ScriptModuleLoader {
                 ScriptCompilerPlugin pluginBootstrap = (ScriptCompilerPlugin) compilerProviderClass.newInstance();
                 Set<? extends ScriptArchiveCompiler> pluginCompilers = pluginBootstrap.getCompilers(pluginSpec.getCompilerParams());
                 compilers.addAll(pluginCompilers);
+                if (pluginBootstrap instanceof WarmableScriptCompilerPlugin) {
+                    int warmupIterations = getWarmupIterations(pluginSpec);
+                    if (warmupIterations > 0) {
+                        startCompilerWarmup(pluginSpec.getPluginId(), (WarmableScriptCompilerPlugin)pluginBootstrap,
+                            pluginCompilers, warmupIterations, pluginClassLoader);
+                    }
+                }
+                if (pluginBootstrap instanceof UnloadAwareScriptCompilerPlugin) {
+                    unloadAwarePluginCompilers.put(pluginSpec.getPluginId(), pluginCompilers);
+                    unloadAwarePlugins.put(pluginSpec.getPluginId(), (UnloadAwareScriptCompilerPlugin)pluginBootstrap);
+                }
             } catch (Exception e) {
                 throw new ModuleLoadException(e);
             }
@@ -420,14 +757,89 @@ public class ScriptModuleLoader {
         }
     }
 
+    /**
+     * Get the number of warmup iterations of a plugin, from its
+     * {@value WarmableScriptCompilerPlugin#COMPILER_PARAMS_WARMUP_ITERATIONS} compiler param.
+     * @return the number of iterations, 0 if the warmup is disabled
+     * @throws IllegalArgumentException if the param isn't a non-negative integer
+     */
+    protected static int getWarmupIterations(ScriptCompilerPluginSpec pluginSpec) {
+        Object iterations = pluginSpec.getCompilerParams().get(WarmableScriptCompilerPlugin.COMPILER_PARAMS_WARMUP_ITERATIONS);
+        if (iterations == null) {
+            return WarmableScriptCompilerPlugin.DEFAULT_WARMUP_ITERATIONS;
+        }
+        int parsedIterations = -1;
+        if (iterations instanceof Number) {
+            parsedIterations = ((Number)iterations).intValue();
+        } else {
+            try {
+                parsedIterations = Integer.parseInt(iterations.toString().trim());
+            } catch (NumberFormatException e) {
+                // reported below
+            }
+        }
+        if (parsedIterations < 0) {
+            throw new IllegalArgumentException("Invalid " + WarmableScriptCompilerPlugin.COMPILER_PARAMS_WARMUP_ITERATIONS +
+                " compiler param of plugin " + pluginSpec.getPluginId() + ": " + iterations);
+        }
+        return parsedIterations;
+    }
+
+    /**
+     * Warm up the compilers of a plugin on a background daemon thread, with the plugin class loader as its context
+     * class loader. A failed warmup is logged, and leaves the compilers to warm up on the first real compilation.
+     */
+    protected void startCompilerWarmup(final String pluginId, final WarmableScriptCompilerPlugin plugin,
+            final Set<? extends ScriptArchiveCompiler> pluginCompilers, final int iterations, ClassLoader pluginClassLoader) {
+        FutureTask<Void> warmup = new FutureTask<Void>(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                long startTime = System.nanoTime();
+                try {
+                    plugin.warmup(pluginCompilers, iterations);
+                } catch (Exception e) {
+                    logger.warn("Exception warming up the compilers of plugin " + pluginId, e);
+                    throw e;
+                }
+                logger.info("Warmed up the compilers of plugin " + pluginId + " in " +
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime) + " ms");
+                return null;
+            }
+        });
+        compilerWarmups.put(pluginId, warmup);
+        Thread thread = new Thread(warmup, ScriptModuleLoader.class.getSimpleName() + "-CompilerWarmup-" + pluginId);
+        thread.setDaemon(true);
+        thread.setContextClassLoader(pluginClassLoader);
+        thread.start();
+    }
+
+    /**
+     * Get the warmup of the compilers of a plugin, which completes once the compilers are warmed up.
+     * @return the warmup, or null if the plugin doesn't implement {@link WarmableScriptCompilerPlugin} or its warmup
+     *         is disabled
+     */
+    @Nullable
+    public Future<?> getCompilerWarmup(String pluginId) {
+        return compilerWarmups.get(pluginId);
+    }
+
     /**
      * Remove a module from being served by this instance. Note that any
      * instances of the module cached outside of this module loader will remain
      * un-effected and will continue to operate.
      */
     public synchronized void removeScriptModule(ModuleId scriptModuleId) {
-        jbossModuleLoader.unloadAllModuleRevision(scriptModuleId.toString());
+        for (ModuleIdentifier revisionId : jbossModuleLoader.getAllRevisionIds(scriptModuleId.toString())) {
+            Module jbossModule = jbossModuleLoader.findLoadedModule(revisionId);
+            if (jbossModule != null) {
+                unloadModule(jbossModule);
+            }
+        }
         ScriptModule oldScriptModule = loadedScriptModules.remove(scriptModuleId);
+        ScriptModule stagedModule = stagedScriptModules.get(scriptModuleId);
+        if (stagedModule != null) {
+            discardStagedModule(stagedModule);
+        }
         if (oldScriptModule != null) {
             notifyModuleUpdate(null, oldScriptModule);
         }
@@ -488,6 +900,10 @@ public class ScriptModuleLoader {
         for (ScriptModuleListener listener : listeners) {
             listener.moduleUpdated(newModule, oldModule);
         }
+        // the displaced revision is no longer served, so stop reusing its entry class instances
+        if (oldModule != null && oldModule.getEntryPoint() != null) {
+            oldModule.getEntryPoint().drain();
+        }
     }
 
     /**
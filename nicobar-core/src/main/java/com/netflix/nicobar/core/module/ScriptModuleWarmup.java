@@ -0,0 +1,39 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.nicobar.core.module;
+
+/**
+ * Application supplied routine which exercises a new module revision before it is published by the
+ * {@link ScriptModuleLoader}, so that its first requests don't run on cold code.
+ * <p>
+ * Modules can supply their own routine instead, by naming a class which implements {@link Runnable}
+ * in the {@value #METADATA_WARMUP_CLASS} metadata of their module spec.
+ *
+ * See {@link ScriptModuleWarmupRunner}.
+ */
+public interface ScriptModuleWarmup {
+    /** metadata key of the fully qualified name of a {@link Runnable} class in the module, which warms it up */
+    public static final String METADATA_WARMUP_CLASS = "warmupClass";
+
+    /**
+     * Run a single warm-up iteration against the module. This is called repeatedly on a background thread
+     * and should respond to interruption.
+     * @param scriptModule the new module revision, which isn't visible to the rest of the application yet
+     */
+    void warmUp(ScriptModule scriptModule) throws Exception;
+}
@@ -0,0 +1,211 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.nicobar.core.module;
+
+import java.lang.management.CompilationMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import javax.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs the warm-up routine of a new module revision on a background thread, before the {@link ScriptModuleLoader}
+ * publishes the revision.
+ * <p>
+ * The routine is taken from the {@value ScriptModuleWarmup#METADATA_WARMUP_CLASS} metadata of the module, or else
+ * from the application supplied {@link ScriptModuleWarmup}. It is repeated up to the maximum number of iterations,
+ * but stops early once the JIT compiler has settled, which is when the total compilation time reported by the
+ * {@link CompilationMXBean} stopped growing for {@value #SETTLED_SAMPLES} consecutive samples. The module is
+ * published regardless of the outcome. Warm-ups which fail or exceed their timeout are only logged.
+ */
+public class ScriptModuleWarmupRunner {
+    private final static Logger logger = LoggerFactory.getLogger(ScriptModuleWarmupRunner.class);
+
+    public static final int DEFAULT_MAX_ITERATIONS = 10000;
+    public static final long DEFAULT_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(30);
+    /** number of iterations between two samples of the compilation time */
+    public static final int SAMPLE_INTERVAL = 100;
+    /** number of consecutive samples without compilation after which the JIT is considered settled */
+    public static final int SETTLED_SAMPLES = 3;
+
+    private final static ThreadFactory WARMUP_THREAD_FACTORY = new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, ScriptModuleWarmupRunner.class.getSimpleName() + "-" + "WarmupThread");
+            thread.setDaemon(true);
+            return thread;
+        }
+    };
+
+    /**
+     * Builder used to construct a {@link ScriptModuleWarmupRunner}
+     */
+    public static class Builder {
+        private ScriptModuleWarmup warmup;
+        private int maxIterations = DEFAULT_MAX_ITERATIONS;
+        private long timeoutMillis = DEFAULT_TIMEOUT_MILLIS;
+        private boolean stopWhenCompilationSettles = true;
+
+        public Builder() {
+        }
+        /** Set the routine used for modules which don't supply their own */
+        public Builder setWarmup(@Nullable ScriptModuleWarmup warmup) {
+            this.warmup = warmup;
+            return this;
+        }
+        /** Set the maximum number of warm-up iterations of each module */
+        public Builder setMaxIterations(int maxIterations) {
+            if (maxIterations <= 0) {
+                throw new IllegalArgumentException("invalid maxIterations " + maxIterations);
+            }
+            this.maxIterations = maxIterations;
+            return this;
+        }
+        /** Set how long to wait for the warm-up of each module */
+        public Builder setTimeout(long timeout, TimeUnit unit) {
+            if (timeout <= 0) {
+                throw new IllegalArgumentException("invalid timeout " + timeout);
+            }
+            this.timeoutMillis = unit.toMillis(timeout);
+            return this;
+        }
+        /** Set whether to stop before the maximum number of iterations once the JIT compiler has settled */
+        public Builder setStopWhenCompilationSettles(boolean stopWhenCompilationSettles) {
+            this.stopWhenCompilationSettles = stopWhenCompilationSettles;
+            return this;
+        }
+        public ScriptModuleWarmupRunner build() {
+            return new ScriptModuleWarmupRunner(warmup, maxIterations, timeoutMillis, stopWhenCompilationSettles);
+        }
+    }
+
+    protected final ScriptModuleWarmup warmup;
+    protected final int maxIterations;
+    protected final long timeoutMillis;
+    protected final CompilationMXBean compilationBean;
+    protected final ExecutorService executor = Executors.newCachedThreadPool(WARMUP_THREAD_FACTORY);
+
+    protected ScriptModuleWarmupRunner(@Nullable ScriptModuleWarmup warmup, int maxIterations, long timeoutMillis,
+            boolean stopWhenCompilationSettles) {
+        this.warmup = warmup;
+        this.maxIterations = maxIterations;
+        this.timeoutMillis = timeoutMillis;
+        CompilationMXBean compilationBean = ManagementFactory.getCompilationMXBean();
+        this.compilationBean = stopWhenCompilationSettles && compilationBean != null &&
+            compilationBean.isCompilationTimeMonitoringSupported() ? compilationBean : null;
+    }
+
+    /**
+     * Warm up the given module revision, waiting until the warm-up completes or times out.
+     * @param scriptModule module revision to warm up
+     * @return number of completed iterations. 0 if there is no routine for the module.
+     */
+    public int warmUp(final ScriptModule scriptModule) {
+        final ScriptModuleWarmup moduleWarmup = getWarmup(scriptModule);
+        if (moduleWarmup == null) {
+            return 0;
+        }
+        long startTime = System.nanoTime();
+        Future<Integer> future = executor.submit(new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception {
+                return runIterations(moduleWarmup, scriptModule);
+            }
+        });
+        int iterations = 0;
+        try {
+            iterations = future.get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            logger.warn("warm-up of moduleId {} with creationTime: {} did not complete within {} ms.",
+                scriptModule.getModuleId(), scriptModule.getCreateTime(), timeoutMillis);
+        } catch (ExecutionException e) {
+            logger.warn("warm-up of moduleId " + scriptModule.getModuleId() + " with creationTime: " +
+                scriptModule.getCreateTime() + " failed.", e.getCause());
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+        }
+        logger.info("warmed up moduleId {} with creationTime: {} in {} iterations, {} ms.", scriptModule.getModuleId(),
+            scriptModule.getCreateTime(), iterations, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime));
+        return iterations;
+    }
+
+    /**
+     * Stop the warm-up threads.
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    protected int runIterations(ScriptModuleWarmup moduleWarmup, ScriptModule scriptModule) throws Exception {
+        long lastCompilationTime = compilationBean != null ? compilationBean.getTotalCompilationTime() : 0;
+        int settledSamples = 0;
+        int iteration = 0;
+        while (iteration < maxIterations && !Thread.currentThread().isInterrupted()) {
+            moduleWarmup.warmUp(scriptModule);
+            iteration++;
+            if (compilationBean != null && iteration % SAMPLE_INTERVAL == 0) {
+                long compilationTime = compilationBean.getTotalCompilationTime();
+                settledSamples = compilationTime == lastCompilationTime ? settledSamples + 1 : 0;
+                lastCompilationTime = compilationTime;
+                if (settledSamples >= SETTLED_SAMPLES) {
+                    break;
+                }
+            }
+        }
+        return iteration;
+    }
+
+    /**
+     * Get the warm-up routine of the given module.
+     * @return the routine supplied by the module, else the application supplied routine.
+     */
+    @Nullable
+    protected ScriptModuleWarmup getWarmup(ScriptModule scriptModule) {
+        Object warmupClassName = scriptModule.getSourceArchive().getModuleSpec().getMetadata()
+            .get(ScriptModuleWarmup.METADATA_WARMUP_CLASS);
+        if (warmupClassName == null) {
+            return warmup;
+        }
+        final Runnable moduleWarmup;
+        try {
+            Class<?> warmupClass = scriptModule.getModuleClassLoader().loadClass(warmupClassName.toString());
+            moduleWarmup = (Runnable)warmupClass.newInstance();
+        } catch (Exception e) {
+            logger.warn("unable to create warm-up class " + warmupClassName + " of moduleId " + scriptModule.getModuleId(), e);
+            return warmup;
+        }
+        return new ScriptModuleWarmup() {
+            @Override
+            public void warmUp(ScriptModule module) {
+                moduleWarmup.run();
+            }
+        };
+    }
+}
@@ -17,17 +17,26 @@
  */
 package com.netflix.nicobar.core.module.jboss;
 
+import java.io.IOException;
 import java.security.AccessController;
 import java.security.PrivilegedAction;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeSet;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
+import org.jboss.modules.DependencySpec;
 import org.jboss.modules.ModuleClassLoader;
 import org.jboss.modules.ModuleClassLoaderFactory;
+import org.jboss.modules.ModuleDependencySpec;
+import org.jboss.modules.ModuleLoadException;
 import org.jboss.modules.ModuleSpec;
+import org.jboss.modules.Resource;
+import org.jboss.modules.filter.PathFilters;
 
 import com.netflix.nicobar.core.archive.ScriptArchive;
 
@@ -39,8 +48,15 @@ import com.netflix.nicobar.core.archive.ScriptArchive;
  * @author Vasanth Asokan
  */
 public class JBossModuleClassLoader extends ModuleClassLoader {
+    static {
+        // like the module class loaders of JBoss, so that the classes of a module can be loaded concurrently
+        registerAsParallelCapable();
+    }
+
     private final ScriptArchive scriptArchive;
     private final Map<String, Class<?>> localClassCache;
+    /** bytecode of the classes added by {@link #addClassBytes(Map)} which haven't been defined yet */
+    private final ConcurrentMap<String, byte[]> pendingClassBytes = new ConcurrentHashMap<String, byte[]>();
 
     public JBossModuleClassLoader(Configuration moduleClassLoaderContext, ScriptArchive scriptArchive) {
         super(moduleClassLoaderContext);
@@ -89,18 +105,104 @@ public class JBossModuleClassLoader extends ModuleClassLoader {
         return newClass;
     }
 
+    /**
+     * Manually add compiled classes to this classloader. This method will define and resolve the classes,
+     * binding this classloader to them. The classes may extend each other in any order: a class which is needed
+     * to define another one is defined first.
+     *
+     * The package of each class must already be known to the module, through a resource of the module in the
+     * package directory, such as the source of the class. Otherwise the classes of the package can only be
+     * loaded once the module is rescanned.
+     *
+     * @param classBytes map of the binary class names to the bytecode of the classes
+     * @return the loaded classes
+     */
+    public Set<Class<?>> addClassBytes(Map<String, byte[]> classBytes) {
+        pendingClassBytes.putAll(classBytes);
+        Set<Class<?>> addedClasses = new HashSet<Class<?>>(classBytes.size() * 2);
+        for (String name : classBytes.keySet()) {
+            Class<?> addedClass = definePendingClass(name);
+            addedClasses.add(addedClass != null ? addedClass : localClassCache.get(name));
+        }
+        return addedClasses;
+    }
+
+    /**
+     * Define a class added by {@link #addClassBytes(Map)}, unless it is defined already.
+     * @return the class, or null if there was no such class
+     */
+    private Class<?> definePendingClass(String name) {
+        synchronized (getClassLoadingLock(name)) {
+            Class<?> local = localClassCache.get(name);
+            if (local != null) {
+                return local;
+            }
+            byte[] classBytes = pendingClassBytes.remove(name);
+            return classBytes != null ? addClassBytes(name, classBytes) : null;
+        }
+    }
+
     @Override
     public Class<?> loadClassLocal(String className, boolean resolve) throws ClassNotFoundException {
         Class<?> local = localClassCache.get(className);
         if (local != null) {
             return local;
         }
+        if (!pendingClassBytes.isEmpty()) {
+            // superclasses of classes being added, which are defined while the JVM defines the subclass
+            local = definePendingClass(className);
+            if (local != null) {
+                return local;
+            }
+        }
         local = super.loadClassLocal(className, resolve);
         if (local != null)
             localClassCache.put(className, local);
         return local;
     }
 
+    /**
+     * @return true if this class loader loads different classes concurrently, instead of one at a time
+     */
+    public boolean isParallelCapable() {
+        return getClassLoadingLock(getClass().getName()) != this;
+    }
+
+    /**
+     * Get the identifiers of the modules this module depends on. Dependencies on script modules are
+     * on specific revisions, so the identifiers change whenever a dependency is updated.
+     * @return the sorted module identifiers
+     */
+    public Set<String> getModuleDependencyIdentifiers() {
+        Set<String> identifiers = new TreeSet<String>();
+        for (DependencySpec dependency : getModule().getDependencies()) {
+            if (dependency instanceof ModuleDependencySpec) {
+                identifiers.add(((ModuleDependencySpec)dependency).getIdentifier().toString());
+            }
+        }
+        return identifiers;
+    }
+
+    /**
+     * Find the resources of a package directory which this module loads from its own resource roots or from the
+     * modules it depends on. Resources imported from class loaders, such as the JRE and the application classes,
+     * can't be listed.
+     * @param packagePath path of the package, like {@code com/netflix/nicobar}
+     * @return the paths of the resources, like {@code com/netflix/nicobar/Script.class}
+     */
+    public Set<String> getModuleResourcePaths(String packagePath) throws IOException {
+        Set<String> resourcePaths = new TreeSet<String>();
+        try {
+            Iterator<Resource> resources = getModule().iterateResources(PathFilters.is(packagePath));
+            while (resources.hasNext()) {
+                resourcePaths.add(resources.next().getName());
+            }
+        } catch (ModuleLoadException e) {
+            throw new IOException(e);
+        }
+        return resourcePaths;
+    }
+
     public ScriptArchive getScriptArchive() {
         return scriptArchive;
     }
@@ -20,12 +20,15 @@ package com.netflix.nicobar.core.module.jboss;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Objects;
 import java.util.Set;
 import java.util.SortedMap;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentSkipListMap;
 
 import javax.annotation.Nullable;
@@ -83,23 +86,31 @@ public class JBossModuleLoader extends ModuleLoader {
 
     /** Module Spec repo.  Map of the revisionId to the Module specifications. */
     protected final SortedMap<ModuleIdentifier, ModuleSpec> moduleSpecs;
+    /** Shared library repo. Map of the library id to the library module specifications. */
+    protected final Map<ModuleIdentifier, ModuleSpec> sharedLibrarySpecs;
+    /** Map of the library id to the revisionIds of the modules which use the library. Guarded by itself. */
+    protected final Map<ModuleIdentifier, Set<ModuleIdentifier>> sharedLibraryUsers = new HashMap<ModuleIdentifier, Set<ModuleIdentifier>>();
 
     /**
      * Construct a instance with an empty module spec repository.
      */
     public JBossModuleLoader() {
-        this(new ConcurrentSkipListMap<ModuleIdentifier, ModuleSpec>(MODULE_ID_COMPARATOR));
+        this(new ConcurrentSkipListMap<ModuleIdentifier, ModuleSpec>(MODULE_ID_COMPARATOR),
+            new ConcurrentHashMap<ModuleIdentifier, ModuleSpec>());
     }
 
-    private JBossModuleLoader(final SortedMap<ModuleIdentifier, ModuleSpec> moduleSpecs) {
-        // create a finder that is backed by the local module spec map
+    private JBossModuleLoader(final SortedMap<ModuleIdentifier, ModuleSpec> moduleSpecs,
+            final Map<ModuleIdentifier, ModuleSpec> sharedLibrarySpecs) {
+        // create a finder that is backed by the local module spec maps
         super(new ModuleFinder[] { new ModuleFinder() {
             @Override
             public ModuleSpec findModule(ModuleIdentifier revisionId, ModuleLoader delegateLoader) throws ModuleLoadException {
-                return moduleSpecs.get(revisionId);
+                ModuleSpec moduleSpec = moduleSpecs.get(revisionId);
+                return moduleSpec != null ? moduleSpec : sharedLibrarySpecs.get(revisionId);
             }
         }});
         this.moduleSpecs = Objects.requireNonNull(moduleSpecs);
+        this.sharedLibrarySpecs = Objects.requireNonNull(sharedLibrarySpecs);
     }
 
     /**
@@ -176,6 +187,117 @@ public class JBossModuleLoader extends ModuleLoader {
         return moduleSpecs.get(revisionId);
     }
 
+    /**
+     * Retain a shared library module for a module revision. A shared library module is loaded once for all the
+     * revisions which use it, and is unloaded once they are all released. The libraries it depends on are retained
+     * along with it, so that they stay available for as long as it is.
+     * @param libraryId id of the library module. See {@link JBossModuleUtils#createSharedLibraryId(String)}.
+     * @param revisionId revisionId of the module which uses the library
+     * @return true if the library was retained, or false if it isn't available, in which case its spec must be
+     *         added with {@link #addSharedLibrary(ModuleSpec, ModuleIdentifier)}
+     */
+    public boolean retainSharedLibrary(ModuleIdentifier libraryId, ModuleIdentifier revisionId) {
+        Objects.requireNonNull(libraryId, "libraryId");
+        Objects.requireNonNull(revisionId, "revisionId");
+        synchronized (sharedLibraryUsers) {
+            if (!sharedLibraryUsers.containsKey(libraryId)) {
+                return false;
+            }
+            retainSharedLibraryDependencies(libraryId, revisionId, new HashSet<ModuleIdentifier>());
+            return true;
+        }
+    }
+
+    /**
+     * Retain an available library and the libraries it depends on, which may depend on each other in cycles.
+     * Libraries which aren't available yet are being added along with the library.
+     */
+    private void retainSharedLibraryDependencies(ModuleIdentifier libraryId, ModuleIdentifier revisionId,
+            Set<ModuleIdentifier> visited) {
+        Set<ModuleIdentifier> users = sharedLibraryUsers.get(libraryId);
+        if (users == null || !visited.add(libraryId)) {
+            return;
+        }
+        users.add(revisionId);
+        ModuleSpec librarySpec = sharedLibrarySpecs.get(libraryId);
+        if (librarySpec instanceof ConcreteModuleSpec) {
+            for (DependencySpec dependency : ((ConcreteModuleSpec)librarySpec).getDependencies()) {
+                if (dependency instanceof ModuleDependencySpec) {
+                    ModuleIdentifier dependencyId = ((ModuleDependencySpec)dependency).getIdentifier();
+                    if (JBossModuleUtils.isSharedLibraryId(dependencyId)) {
+                        retainSharedLibraryDependencies(dependencyId, revisionId, visited);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Add the spec of a shared library module which isn't available yet, retained for the given module revision.
+     * @param librarySpec spec of the library module
+     * @param revisionId revisionId of the module which uses the library
+     * @return true if the instance was added, or false if it was already available, in which case it was retained
+     */
+    public boolean addSharedLibrary(ModuleSpec librarySpec, ModuleIdentifier revisionId) {
+        Objects.requireNonNull(librarySpec, "librarySpec");
+        Objects.requireNonNull(revisionId, "revisionId");
+        ModuleIdentifier libraryId = librarySpec.getModuleIdentifier();
+        synchronized (sharedLibraryUsers) {
+            if (retainSharedLibrary(libraryId, revisionId)) {
+                return false;
+            }
+            Set<ModuleIdentifier> users = new HashSet<ModuleIdentifier>();
+            users.add(revisionId);
+            sharedLibraryUsers.put(libraryId, users);
+            sharedLibrarySpecs.put(libraryId, librarySpec);
+            return true;
+        }
+    }
+
+    /**
+     * Release the shared library modules used by a module revision, and unload the ones which are no longer used
+     * by any revision. The classes which were already loaded from an unloaded library stay usable.
+     * @param revisionId revisionId of the module
+     * @return the ids of the unloaded libraries
+     */
+    public Set<ModuleIdentifier> releaseSharedLibraries(ModuleIdentifier revisionId) {
+        Objects.requireNonNull(revisionId, "revisionId");
+        Set<ModuleIdentifier> unloadedLibraryIds = new LinkedHashSet<ModuleIdentifier>();
+        synchronized (sharedLibraryUsers) {
+            Iterator<Entry<ModuleIdentifier, Set<ModuleIdentifier>>> iterator = sharedLibraryUsers.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Entry<ModuleIdentifier, Set<ModuleIdentifier>> entry = iterator.next();
+                if (entry.getValue().remove(revisionId) && entry.getValue().isEmpty()) {
+                    iterator.remove();
+                    unloadedLibraryIds.add(entry.getKey());
+                }
+            }
+            for (ModuleIdentifier libraryId : unloadedLibraryIds) {
+                Module libraryModule = findLoadedModuleLocal(libraryId);
+                if (libraryModule != null) {
+                    unloadModuleLocal(libraryModule);
+                }
+                sharedLibrarySpecs.remove(libraryId);
+            }
+        }
+        return unloadedLibraryIds;
+    }
+
+    /**
+     * Get the revisionIds of the modules which use a shared library module
+     * @return immutable snapshot of the revisionIds, which is empty if the library isn't available
+     */
+    public Set<ModuleIdentifier> getSharedLibraryUsers(ModuleIdentifier libraryId) {
+        Objects.requireNonNull(libraryId, "libraryId");
+        synchronized (sharedLibraryUsers) {
+            Set<ModuleIdentifier> users = sharedLibraryUsers.get(libraryId);
+            if (users == null) {
+                return Collections.emptySet();
+            }
+            return Collections.unmodifiableSet(new HashSet<ModuleIdentifier>(users));
+        }
+    }
+
     /**
      * Find the highest revision for the given scriptModuleId
      * @param scriptModuleId name to search for
@@ -285,7 +407,9 @@ public class JBossModuleLoader extends ModuleLoader {
         for (DependencySpec dependencSpec : concreteSpec.getDependencies()) {
             if (dependencSpec instanceof ModuleDependencySpec) {
                 ModuleIdentifier revisionId = ((ModuleDependencySpec)dependencSpec).getIdentifier();
-                dependencyNames.add(ModuleId.fromString(revisionId.getName()));
+                if (!JBossModuleUtils.isSharedLibraryId(revisionId)) {
+                    dependencyNames.add(ModuleId.fromString(revisionId.getName()));
+                }
             }
         }
         return dependencyNames;
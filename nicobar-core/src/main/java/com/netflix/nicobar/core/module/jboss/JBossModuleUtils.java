@@ -20,10 +20,15 @@ package com.netflix.nicobar.core.module.jboss;
 import java.io.File;
 import java.io.IOException;
 import java.net.URL;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Objects;
@@ -63,6 +68,8 @@ public class JBossModuleUtils {
     public static final DependencySpec NICOBAR_CORE_DEPENDENCY_SPEC;
     /** Dependency specification which allows for importing the core JRE classes */
     public static final DependencySpec JRE_DEPENDENCY_SPEC;
+    /** Name prefix of the shared library modules. See {@link #createSharedLibraryId(String)} */
+    public static final String SHARED_LIBRARY_MODULE_PREFIX = "nicobar-shared-library-";
     static {
         // TODO: find a maintainable way to get these values and a better place to store these constants
         Set<String> pathFilter = new HashSet<String>();
@@ -128,6 +135,100 @@ public class JBossModuleUtils {
         moduleSpecBuilder.setModuleClassLoaderFactory(JBossModuleClassLoader.createFactory(scriptArchive));
     }
 
+    /**
+     * Find the jars bundled in a {@link ScriptArchive}. Only archives rooted at a directory can have their
+     * jars read in place, so the jars bundled in a jar archive are ignored.
+     *
+     * @param scriptArchive {@link ScriptArchive} to search
+     * @return the paths of the bundled jars, in archive entry order
+     */
+    public static List<Path> findNestedJars(ScriptArchive scriptArchive) {
+        Objects.requireNonNull(scriptArchive, "scriptArchive");
+        URL url = scriptArchive.getRootUrl();
+        if (url == null) {
+            return Collections.emptyList();
+        }
+        Path rootDir = Paths.get(url.getPath());
+        if (!Files.isDirectory(rootDir)) {
+            return Collections.emptyList();
+        }
+        List<Path> nestedJars = new ArrayList<Path>();
+        for (String entryName : scriptArchive.getArchiveEntryNames()) {
+            if (entryName.endsWith(".jar")) {
+                Path jarPath = rootDir.resolve(entryName);
+                if (Files.isRegularFile(jarPath)) {
+                    nestedJars.add(jarPath);
+                }
+            }
+        }
+        return nestedJars;
+    }
+
+    /**
+     * Populates a module spec builder with the jars bundled in the {@link ScriptArchive}, as additional resource
+     * roots of the module, so that the classes of the bundled libraries are loaded straight from the jars, on
+     * demand. The jars are read in place, and are not filtered by the archive entry names.
+     *
+     * @param moduleSpecBuilder builder to populate
+     * @param scriptArchive {@link ScriptArchive} to copy from
+     * @see #findNestedJars(ScriptArchive)
+     */
+    public static void populateModuleSpecWithNestedJars(ModuleSpec.Builder moduleSpecBuilder, ScriptArchive scriptArchive) throws ModuleLoadException {
+        Objects.requireNonNull(moduleSpecBuilder, "moduleSpecBuilder");
+        for (Path jarPath : findNestedJars(scriptArchive)) {
+            moduleSpecBuilder.addResourceRoot(ResourceLoaderSpec.createResourceLoaderSpec(createJarResourceLoader(jarPath)));
+        }
+    }
+
+    /**
+     * Populates a module spec builder for a library module, which loads a single library jar and is shared by the
+     * script modules bundling the same jar. The library sees the JRE, the given application packages, and the
+     * library modules of the jars it was bundled with, like the jars bundled in a module see each other.
+     *
+     * @param moduleSpecBuilder builder to populate
+     * @param jarPath path to the library jar, which must not change while the module is loaded
+     * @param dependencyLibraryIds ids of the library modules of the jars bundled with the library
+     * @param appClassLoader the application classloader
+     * @param appPackages the global set of application package paths
+     * @see #createSharedLibraryId(String)
+     */
+    public static void populateSharedLibraryModuleSpec(ModuleSpec.Builder moduleSpecBuilder, Path jarPath,
+            Collection<ModuleIdentifier> dependencyLibraryIds, ClassLoader appClassLoader, Set<String> appPackages)
+            throws ModuleLoadException {
+        Objects.requireNonNull(moduleSpecBuilder, "moduleSpecBuilder");
+        Objects.requireNonNull(jarPath, "jarPath");
+        Objects.requireNonNull(dependencyLibraryIds, "dependencyLibraryIds");
+        moduleSpecBuilder.addResourceRoot(ResourceLoaderSpec.createResourceLoaderSpec(createJarResourceLoader(jarPath)));
+        moduleSpecBuilder.addDependency(JRE_DEPENDENCY_SPEC);
+        populateModuleSpecWithAppImports(moduleSpecBuilder, appClassLoader, appPackages);
+        moduleSpecBuilder.addDependency(DependencySpec.createLocalDependencySpec());
+        for (ModuleIdentifier dependencyLibraryId : dependencyLibraryIds) {
+            moduleSpecBuilder.addDependency(DependencySpec.createModuleDependencySpec(dependencyLibraryId, false, false));
+        }
+    }
+
+    /**
+     * Populate a module spec builder with a dependency on a shared library module. The library is re-exported,
+     * so that the modules which depend on the module see the library like they see the jars of a module
+     * which bundles them.
+     *
+     * @param moduleSpecBuilder builder to populate
+     * @param libraryId id of the library module. See {@link #createSharedLibraryId(String)}.
+     */
+    public static void populateModuleSpecWithSharedLibrary(ModuleSpec.Builder moduleSpecBuilder, ModuleIdentifier libraryId) {
+        Objects.requireNonNull(moduleSpecBuilder, "moduleSpecBuilder");
+        Objects.requireNonNull(libraryId, "libraryId");
+        moduleSpecBuilder.addDependency(DependencySpec.createModuleDependencySpec(libraryId, true, false));
+    }
+
+    private static ResourceLoader createJarResourceLoader(Path jarPath) throws ModuleLoadException {
+        try {
+            return ResourceLoaders.createJarResourceLoader(jarPath.toString(), new JarFile(jarPath.toFile()));
+        } catch (IOException e) {
+            throw new ModuleLoadException(e);
+        }
+    }
+
     /**
      * Populates a module spec builder with core dependencies on JRE, Nicobar, itself, and compiler plugins.
      *
@@ -272,6 +373,22 @@ public class JBossModuleUtils {
     public static ModuleIdentifier getPluginModuleId(String pluginId) {
         return ModuleIdentifier.create(pluginId);
     }
+    /**
+     * Create the {@link ModuleIdentifier} of the shared library module of a library jar
+     * @param contentHash hash of the content of the jar
+     */
+    public static ModuleIdentifier createSharedLibraryId(String contentHash) {
+        Objects.requireNonNull(contentHash, "contentHash");
+        return ModuleIdentifier.create(SHARED_LIBRARY_MODULE_PREFIX + contentHash);
+    }
+
+    /**
+     * @return true if the {@link ModuleIdentifier} is the id of a shared library module
+     */
+    public static boolean isSharedLibraryId(ModuleIdentifier moduleIdentifier) {
+        return moduleIdentifier.getName().startsWith(SHARED_LIBRARY_MODULE_PREFIX);
+    }
+
     /**
      * Helper method to create a revisionId in a consistent manner
      */
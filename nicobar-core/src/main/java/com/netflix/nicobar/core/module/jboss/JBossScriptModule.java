@@ -20,6 +20,8 @@ package com.netflix.nicobar.core.module.jboss;
 import java.util.Objects;
 import java.util.Set;
 
+import javax.annotation.Nullable;
+
 import org.apache.commons.lang.builder.ToStringBuilder;
 import org.apache.commons.lang.builder.ToStringStyle;
 import org.jboss.modules.Module;
@@ -27,6 +29,7 @@ import org.jboss.modules.Module;
 import com.netflix.nicobar.core.archive.ModuleId;
 import com.netflix.nicobar.core.archive.ScriptArchive;
 import com.netflix.nicobar.core.module.ScriptModule;
+import com.netflix.nicobar.core.module.ScriptModuleEntryPoint;
 
 /**
  * Encapsulates a the compiled classes and the resources in a {@link ScriptArchive}
@@ -38,12 +41,19 @@ public class JBossScriptModule implements ScriptModule {
     private final Module jbossModule;
     private final long createTime;
     private final ScriptArchive sourceArchive;
+    private final ScriptModuleEntryPoint entryPoint;
 
     public JBossScriptModule(ModuleId moduleId, Module jbossModule, ScriptArchive sourceArchive) {
+        this(moduleId, jbossModule, sourceArchive, null);
+    }
+
+    public JBossScriptModule(ModuleId moduleId, Module jbossModule, ScriptArchive sourceArchive,
+            @Nullable ScriptModuleEntryPoint entryPoint) {
         this.moduleId = Objects.requireNonNull(moduleId, "moduleId");
         this.jbossModule =  Objects.requireNonNull(jbossModule, "jbossModule");
         this.createTime = sourceArchive.getCreateTime();
         this.sourceArchive = Objects.requireNonNull(sourceArchive, "sourceArchive");
+        this.entryPoint = entryPoint;
     }
 
     /**
@@ -79,10 +89,17 @@ public class JBossScriptModule implements ScriptModule {
             .append("jbossModule", jbossModule)
             .append("createTime", createTime)
             .append("sourceArchive", sourceArchive)
+            .append("entryPoint", entryPoint)
             .toString();
     }
 
     public ScriptArchive getSourceArchive() {
         return sourceArchive;
     }
+
+    @Override
+    @Nullable
+    public ScriptModuleEntryPoint getEntryPoint() {
+        return entryPoint;
+    }
 }
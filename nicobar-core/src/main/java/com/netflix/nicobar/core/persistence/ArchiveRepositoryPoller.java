@@ -88,9 +88,13 @@ public class ArchiveRepositoryPoller {
         /** Map of moduleId to last known update time of the archive */
         protected  final Map<ModuleId, Long> lastUpdateTimes = new HashMap<ModuleId, Long>();
 
+        /** View of the repository which is polled */
+        protected final RepositoryView view;
+
         @SuppressFBWarnings(value="URF_UNREAD_PUBLIC_OR_PROTECTED_FIELD", justification="will use later")
         protected volatile ScheduledFuture<?> future;
-        protected RepositoryPollerContext() {
+        protected RepositoryPollerContext(RepositoryView view) {
+            this.view = Objects.requireNonNull(view, "view");
         }
     }
 
@@ -116,11 +120,25 @@ public class ArchiveRepositoryPoller {
      * @return true if the repository was added. false if it already exists
      */
     public boolean addRepository(final ArchiveRepository archiveRepository, final int pollInterval, TimeUnit timeUnit, boolean waitForInitialPoll) {
+        return addRepository(archiveRepository, archiveRepository.getDefaultView(), pollInterval, timeUnit, waitForInitialPoll);
+    }
+
+    /**
+     * Add a repository and schedule polling of one of its views, such as a
+     * {@link ShardedRepositoryView} which restricts each node of a fleet to a subset of the archives.
+     * @param archiveRepository repository to fetch archives from
+     * @param view view of the repository to scan for updates
+     * @param pollInterval how often this repository should be scanned
+     * @param timeUnit unit of the pollInterval param
+     * @param waitForInitialPoll whether or not to block until the initial poll is complete
+     * @return true if the repository was added. false if it already exists
+     */
+    public boolean addRepository(final ArchiveRepository archiveRepository, RepositoryView view, final int pollInterval, TimeUnit timeUnit, boolean waitForInitialPoll) {
         if (pollInterval <= 0) {
             throw new IllegalArgumentException("invalid pollInterval " + pollInterval);
         }
         Objects.requireNonNull(timeUnit, "timeUnit");
-        RepositoryPollerContext pollerContext = new RepositoryPollerContext();
+        RepositoryPollerContext pollerContext = new RepositoryPollerContext(view);
         RepositoryPollerContext oldContext = repositoryContexts.putIfAbsent(archiveRepository, pollerContext);
         if (oldContext != null) {
             return false;
@@ -153,7 +171,7 @@ public class ArchiveRepositoryPoller {
         RepositoryPollerContext context = repositoryContexts.get(archiveRepository);
         Map<ModuleId, Long> repoUpdateTimes;
         try {
-            repoUpdateTimes = archiveRepository.getDefaultView().getArchiveUpdateTimes();
+            repoUpdateTimes = context.view.getArchiveUpdateTimes();
         } catch (IOException e) {
             logger.error("Exception while fetching update times for repository " +
                 archiveRepository.getRepositoryId(), e);
@@ -0,0 +1,631 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.nicobar.core.persistence;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.netflix.nicobar.core.archive.GsonScriptModuleSpecSerializer;
+import com.netflix.nicobar.core.archive.JarScriptArchive;
+import com.netflix.nicobar.core.archive.ModuleId;
+import com.netflix.nicobar.core.archive.ScriptArchive;
+import com.netflix.nicobar.core.archive.ScriptModuleSpec;
+import com.netflix.nicobar.core.archive.ScriptModuleSpecSerializer;
+
+/**
+ * {@link ArchiveRepository} decorator which mirrors the archives of another repository on local disk,
+ * so that restarts and re-fetches of unchanged archives do not have to go to the underlying repository.
+ * <p>
+ * The mirror is content addressed. Archive jars are stored once per SHA-1 content hash in a {@code blobs}
+ * directory, and a small index entry per module in the {@code index} directory records the update time, hash
+ * and {@link ScriptModuleSpec} of the cached revision. {@link #getScriptArchives(Set)} serves an archive from disk
+ * when the update time last reported by this repository's views matches the index entry, and only fetches the
+ * remaining archives from the underlying repository. Fetched archives whose content is already cached are not
+ * written again.
+ * <p>
+ * Files are written to a temporary file, forced to disk and then moved into place, so that a crash never leaves
+ * a partial blob or index entry behind. The content of the blobs is verified against their hash when they are
+ * loaded on startup, and damaged blobs are discarded along with the index entries which refer to them.
+ * The total size of the blobs is bounded, and the least recently used blobs are evicted, along with their index
+ * entries, once it is exceeded. Recency is kept in the blob modification times, so it survives restarts.
+ * <p>
+ * The archives returned by {@link #getScriptArchives(Set)} are backed by the blobs, which the module loader only
+ * opens when it creates the modules. The blobs of a result set are therefore never evicted while it is being
+ * built, and stay pinned until the next result set is returned, on the assumption that the caller loads the
+ * archives of a result set before it asks for the next one, as {@link ArchiveRepositoryPoller} does. The mirror
+ * may exceed its bound while blobs are pinned, and is trimmed back when they are released.
+ * <p>
+ * Only {@link JarScriptArchive}s are cached. Other archive types are passed through from the underlying
+ * repository as is.
+ */
+public class CachingArchiveRepository implements ArchiveRepository {
+    private final static Logger logger = LoggerFactory.getLogger(CachingArchiveRepository.class);
+
+    /** Default bound on the total size of the cached archives */
+    public static final long DEFAULT_MAX_CACHE_BYTES = 1024L * 1024 * 1024;
+
+    private static final ScriptModuleSpecSerializer DEFAULT_SERIALIZER = new GsonScriptModuleSpecSerializer();
+    private static final String BLOB_DIR_NAME = "blobs";
+    private static final String INDEX_DIR_NAME = "index";
+    private static final String BLOB_SUFFIX = ".jar";
+    private static final String INDEX_SUFFIX = ".json";
+    private static final String TEMP_PREFIX = ".tmp-";
+
+    public static class Builder {
+        private final ArchiveRepository delegate;
+        private final Path cacheDir;
+        private long maxCacheBytes = DEFAULT_MAX_CACHE_BYTES;
+        private ScriptModuleSpecSerializer moduleSpecSerializer = DEFAULT_SERIALIZER;
+
+        /**
+         * @param delegate repository to cache
+         * @param cacheDir directory to keep the mirror in. Should not be shared with other repositories.
+         */
+        public Builder(ArchiveRepository delegate, Path cacheDir) {
+            this.delegate = delegate;
+            this.cacheDir = cacheDir;
+        }
+
+        /** Set the bound on the total size of the cached archives. */
+        public Builder setMaxCacheBytes(long maxCacheBytes) {
+            this.maxCacheBytes = maxCacheBytes;
+            return this;
+        }
+
+        /** Set the serializer used to store module specs in the index. */
+        public Builder setModuleSpecSerializer(ScriptModuleSpecSerializer moduleSpecSerializer) {
+            this.moduleSpecSerializer = moduleSpecSerializer;
+            return this;
+        }
+
+        public CachingArchiveRepository build() throws IOException {
+            return new CachingArchiveRepository(delegate, cacheDir, maxCacheBytes, moduleSpecSerializer);
+        }
+    }
+
+    /** Index entry describing the cached revision of a module */
+    protected static class IndexEntry {
+        protected final ModuleId moduleId;
+        protected final long updateTime;
+        protected final String hash;
+        protected final ScriptModuleSpec moduleSpec;
+
+        protected IndexEntry(ModuleId moduleId, long updateTime, String hash, ScriptModuleSpec moduleSpec) {
+            this.moduleId = moduleId;
+            this.updateTime = updateTime;
+            this.hash = hash;
+            this.moduleSpec = moduleSpec;
+        }
+    }
+
+    protected final ArchiveRepository delegate;
+    protected final Path blobDir;
+    protected final Path indexDir;
+    protected final long maxCacheBytes;
+    protected final ScriptModuleSpecSerializer moduleSpecSerializer;
+    protected final RepositoryView defaultView;
+
+    /** update times last reported to callers of this repository's views */
+    protected final ConcurrentMap<ModuleId, Long> knownUpdateTimes = new ConcurrentHashMap<ModuleId, Long>();
+    protected final ConcurrentMap<ModuleId, IndexEntry> index = new ConcurrentHashMap<ModuleId, IndexEntry>();
+
+    /** size of each blob by hash, in least recently used order. Guarded by itself. */
+    private final LinkedHashMap<String, Long> blobSizes = new LinkedHashMap<String, Long>(16, 0.75f, true);
+    private long totalBlobBytes;
+    /** number of result sets which reference each blob. Pinned blobs are never evicted. Guarded by blobSizes. */
+    private final Map<String, Integer> blobPins = new HashMap<String, Integer>();
+    /** blobs of the last returned result set, which stay pinned until the next one is returned. Guarded by blobSizes. */
+    private List<String> lastResultBlobs = Collections.emptyList();
+
+    protected CachingArchiveRepository(ArchiveRepository delegate, Path cacheDir, long maxCacheBytes,
+            ScriptModuleSpecSerializer moduleSpecSerializer) throws IOException {
+        this.delegate = Objects.requireNonNull(delegate, "delegate");
+        Objects.requireNonNull(cacheDir, "cacheDir");
+        if (maxCacheBytes <= 0) {
+            throw new IllegalArgumentException("invalid maxCacheBytes " + maxCacheBytes);
+        }
+        this.maxCacheBytes = maxCacheBytes;
+        this.moduleSpecSerializer = Objects.requireNonNull(moduleSpecSerializer, "moduleSpecSerializer");
+        this.blobDir = Files.createDirectories(cacheDir.resolve(BLOB_DIR_NAME));
+        this.indexDir = Files.createDirectories(cacheDir.resolve(INDEX_DIR_NAME));
+        this.defaultView = new CachingView(delegate.getDefaultView());
+        loadBlobs();
+        loadIndex();
+    }
+
+    @Override
+    public String getRepositoryId() {
+        return delegate.getRepositoryId();
+    }
+
+    /**
+     * The default view reports the archives of the underlying repository, and records
+     * their update times so that cached archives can be validated.
+     */
+    @Override
+    public RepositoryView getDefaultView() {
+        return defaultView;
+    }
+
+    /**
+     * Supports the sharded views named by {@link ShardedRepositoryView#getViewName(int, int)}.
+     * @return the sharded view, or null if the name does not describe one.
+     */
+    @Override
+    public RepositoryView getView(String view) {
+        return ShardedRepositoryView.fromViewName(getDefaultView(), view);
+    }
+
+    @Override
+    public void insertArchive(JarScriptArchive jarScriptArchive) throws IOException {
+        delegate.insertArchive(jarScriptArchive);
+    }
+
+    @Override
+    public void insertArchive(JarScriptArchive jarScriptArchive, Map<String, Object> initialDeploySpecs) throws IOException {
+        delegate.insertArchive(jarScriptArchive, initialDeploySpecs);
+    }
+
+    /**
+     * Get the archives for the given modules, serving them from the local mirror whenever the cached
+     * revision matches the update time last reported by this repository's views. The blobs backing the
+     * returned archives are kept until the next call returns.
+     */
+    @Override
+    public Set<ScriptArchive> getScriptArchives(Set<ModuleId> moduleIds) throws IOException {
+        Objects.requireNonNull(moduleIds, "moduleIds");
+        Set<ScriptArchive> archives = new LinkedHashSet<ScriptArchive>(moduleIds.size() * 2);
+        Set<ModuleId> missingModuleIds = new LinkedHashSet<ModuleId>();
+        List<String> pinnedBlobs = new ArrayList<String>();
+        boolean returned = false;
+        try {
+            for (ModuleId moduleId : moduleIds) {
+                JarScriptArchive cachedArchive = getCachedArchive(moduleId, pinnedBlobs);
+                if (cachedArchive != null) {
+                    archives.add(cachedArchive);
+                } else {
+                    missingModuleIds.add(moduleId);
+                }
+            }
+            if (!missingModuleIds.isEmpty()) {
+                for (ScriptArchive archive : delegate.getScriptArchives(missingModuleIds)) {
+                    if (archive instanceof JarScriptArchive) {
+                        archives.add(cacheArchive((JarScriptArchive) archive, pinnedBlobs));
+                    } else {
+                        archives.add(archive);
+                    }
+                }
+            }
+            returned = true;
+        } finally {
+            List<String> releasedBlobs = pinnedBlobs;
+            if (returned) {
+                synchronized (blobSizes) {
+                    releasedBlobs = lastResultBlobs;
+                    lastResultBlobs = pinnedBlobs;
+                }
+            }
+            releaseBlobs(releasedBlobs);
+        }
+        return archives;
+    }
+
+    @Override
+    public void deleteArchive(ModuleId moduleId) throws IOException {
+        delegate.deleteArchive(moduleId);
+        knownUpdateTimes.remove(moduleId);
+        removeIndexEntry(moduleId);
+    }
+
+    /**
+     * Get the total size of the blobs in the mirror.
+     */
+    public long getCacheBytes() {
+        synchronized (blobSizes) {
+            return totalBlobBytes;
+        }
+    }
+
+    /**
+     * Look up a module in the mirror. Only the update time is compared, since the content hash of a revision
+     * is only known once it is fetched.
+     * @param pinnedBlobs hashes of the blobs pinned for the result set, to add the blob of the archive to
+     * @return the cached archive, or null if the module is not cached or the cached revision is stale.
+     */
+    @Nullable
+    protected JarScriptArchive getCachedArchive(ModuleId moduleId, List<String> pinnedBlobs) throws IOException {
+        IndexEntry entry = index.get(moduleId);
+        Long knownUpdateTime = knownUpdateTimes.get(moduleId);
+        if (entry == null || knownUpdateTime == null || entry.updateTime != knownUpdateTime) {
+            return null;
+        }
+        Path blobPath = getBlobPath(entry.hash);
+        boolean blobCached;
+        synchronized (blobSizes) {
+            blobCached = blobSizes.get(entry.hash) != null;
+            if (blobCached) {
+                pinBlob(entry.hash, pinnedBlobs);
+            }
+        }
+        if (!blobCached) {
+            // evicted, or discarded since the entry was read
+            removeIndexEntries(entry.hash);
+            return null;
+        }
+        try {
+            Files.setLastModifiedTime(blobPath, FileTime.fromMillis(System.currentTimeMillis()));
+            return new JarScriptArchive.Builder(blobPath)
+                .setModuleSpec(entry.moduleSpec)
+                .setCreateTime(entry.updateTime)
+                .build();
+        } catch (IOException e) {
+            // missing or damaged blob, fetch the archive again
+            logger.warn("Discarding unreadable archive blob " + blobPath, e);
+            synchronized (blobSizes) {
+                unpinBlob(entry.hash);
+                pinnedBlobs.remove(entry.hash);
+            }
+            removeBlob(entry.hash);
+            Files.deleteIfExists(blobPath);
+            removeIndexEntries(entry.hash);
+            return null;
+        }
+    }
+
+    /**
+     * Copy an archive fetched from the underlying repository into the mirror. Content which is already
+     * mirrored under the same hash isn't written again.
+     * @param pinnedBlobs hashes of the blobs pinned for the result set, to add the blob of the archive to
+     * @return archive backed by the mirrored copy
+     */
+    protected JarScriptArchive cacheArchive(JarScriptArchive archive, List<String> pinnedBlobs) throws IOException {
+        Path sourcePath;
+        try {
+            sourcePath = Paths.get(archive.getRootUrl().toURI());
+        } catch (URISyntaxException e) {
+            throw new IOException(e);
+        }
+        byte[] content = Files.readAllBytes(sourcePath);
+        String hash = Hashing.sha1().hashBytes(content).toString();
+        Path blobPath = getBlobPath(hash);
+        boolean cached;
+        synchronized (blobSizes) {
+            cached = blobSizes.get(hash) != null && Files.exists(blobPath);
+            // pinned before the blob is written, so that a concurrent eviction doesn't delete it
+            pinBlob(hash, pinnedBlobs);
+        }
+        if (!cached) {
+            writeAtomically(blobPath, content);
+            addBlob(hash, content.length);
+        }
+
+        ScriptModuleSpec moduleSpec = archive.getModuleSpec();
+        IndexEntry entry = new IndexEntry(moduleSpec.getModuleId(), archive.getCreateTime(), hash, moduleSpec);
+        writeIndexEntry(entry);
+        return new JarScriptArchive.Builder(blobPath)
+            .setModuleSpec(moduleSpec)
+            .setCreateTime(archive.getCreateTime())
+            .build();
+    }
+
+    protected Path getBlobPath(String hash) {
+        return blobDir.resolve(hash + BLOB_SUFFIX);
+    }
+
+    protected Path getIndexPath(ModuleId moduleId) {
+        return indexDir.resolve(moduleId + INDEX_SUFFIX);
+    }
+
+    protected void writeIndexEntry(IndexEntry entry) throws IOException {
+        JsonObject json = new JsonObject();
+        json.addProperty("moduleId", entry.moduleId.toString());
+        json.addProperty("updateTime", entry.updateTime);
+        json.addProperty("hash", entry.hash);
+        json.addProperty("moduleSpec", moduleSpecSerializer.serialize(entry.moduleSpec));
+        writeAtomically(getIndexPath(entry.moduleId), json.toString().getBytes(StandardCharsets.UTF_8));
+        index.put(entry.moduleId, entry);
+    }
+
+    protected void removeIndexEntry(ModuleId moduleId) throws IOException {
+        index.remove(moduleId);
+        Files.deleteIfExists(getIndexPath(moduleId));
+    }
+
+    /**
+     * Remove the index entries of the modules cached with the given blob, once the blob is gone.
+     */
+    protected void removeIndexEntries(String hash) {
+        for (IndexEntry entry : index.values()) {
+            if (entry.hash.equals(hash)) {
+                try {
+                    removeIndexEntry(entry.moduleId);
+                } catch (IOException e) {
+                    logger.warn("Failed to delete archive cache index entry " + entry.moduleId, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Write the file to a temporary file in the same directory, force it to disk and move it into place.
+     */
+    protected void writeAtomically(Path path, byte[] content) throws IOException {
+        Path tempPath = Files.createTempFile(path.getParent(), TEMP_PREFIX, null);
+        try {
+            try (FileChannel channel = FileChannel.open(tempPath, StandardOpenOption.WRITE)) {
+                ByteBuffer buffer = ByteBuffer.wrap(content);
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                channel.force(true);
+            }
+            try {
+                Files.move(tempPath, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tempPath);
+        }
+    }
+
+    /**
+     * Pin a blob for a result set. Must be called while holding the lock of {@link #blobSizes}.
+     */
+    private void pinBlob(String hash, List<String> pinnedBlobs) {
+        Integer pins = blobPins.get(hash);
+        blobPins.put(hash, pins != null ? pins + 1 : 1);
+        pinnedBlobs.add(hash);
+    }
+
+    /**
+     * Unpin a blob. Must be called while holding the lock of {@link #blobSizes}.
+     */
+    private void unpinBlob(String hash) {
+        Integer pins = blobPins.get(hash);
+        if (pins == null || pins <= 1) {
+            blobPins.remove(hash);
+        } else {
+            blobPins.put(hash, pins - 1);
+        }
+    }
+
+    /**
+     * Unpin the blobs of a result set, and evict the blobs which were only kept because they were pinned.
+     */
+    protected void releaseBlobs(List<String> pinnedBlobs) {
+        if (pinnedBlobs.isEmpty()) {
+            return;
+        }
+        synchronized (blobSizes) {
+            for (String hash : pinnedBlobs) {
+                unpinBlob(hash);
+            }
+        }
+        evictBlobs(null);
+    }
+
+    /**
+     * Record a new blob and evict the least recently used blobs until the mirror fits its bound.
+     * The new blob itself is never evicted.
+     */
+    protected void addBlob(String hash, long size) {
+        synchronized (blobSizes) {
+            Long oldSize = blobSizes.put(hash, size);
+            totalBlobBytes += size - (oldSize != null ? oldSize : 0);
+        }
+        evictBlobs(hash);
+    }
+
+    /**
+     * Evict the least recently used blobs which aren't pinned, until the mirror fits its bound.
+     * @param keptHash hash of a blob to keep in any case, or null
+     */
+    protected void evictBlobs(@Nullable String keptHash) {
+        List<String> evicted = new ArrayList<String>();
+        synchronized (blobSizes) {
+            Iterator<Entry<String, Long>> iterator = blobSizes.entrySet().iterator();
+            while (totalBlobBytes > maxCacheBytes && iterator.hasNext()) {
+                Entry<String, Long> eldest = iterator.next();
+                if (eldest.getKey().equals(keptHash) || blobPins.containsKey(eldest.getKey())) {
+                    continue;
+                }
+                totalBlobBytes -= eldest.getValue();
+                evicted.add(eldest.getKey());
+                iterator.remove();
+            }
+        }
+        for (String evictedHash : evicted) {
+            try {
+                Files.deleteIfExists(getBlobPath(evictedHash));
+            } catch (IOException e) {
+                logger.warn("Failed to delete evicted archive blob " + evictedHash, e);
+            }
+            removeIndexEntries(evictedHash);
+        }
+    }
+
+    protected void removeBlob(String hash) {
+        synchronized (blobSizes) {
+            Long size = blobSizes.remove(hash);
+            if (size != null) {
+                totalBlobBytes -= size;
+            }
+        }
+    }
+
+    /**
+     * Scan the blob directory, removing leftover temporary files and blobs whose content doesn't match their hash,
+     * and ordering the blobs by modification time.
+     */
+    private void loadBlobs() throws IOException {
+        final Map<Path, Long> modifiedTimes = new LinkedHashMap<Path, Long>();
+        List<Path> blobPaths = new ArrayList<Path>();
+        try (DirectoryStream<Path> paths = Files.newDirectoryStream(blobDir)) {
+            for (Path path : paths) {
+                String fileName = path.getFileName().toString();
+                if (fileName.startsWith(TEMP_PREFIX)) {
+                    Files.deleteIfExists(path);
+                } else if (fileName.endsWith(BLOB_SUFFIX)) {
+                    String hash = fileName.substring(0, fileName.length() - BLOB_SUFFIX.length());
+                    if (!hash.equals(hashFile(path))) {
+                        logger.warn("Discarding damaged archive blob " + path);
+                        Files.deleteIfExists(path);
+                        continue;
+                    }
+                    modifiedTimes.put(path, Files.getLastModifiedTime(path).toMillis());
+                    blobPaths.add(path);
+                }
+            }
+        }
+        Collections.sort(blobPaths, new Comparator<Path>() {
+            @Override
+            public int compare(Path a, Path b) {
+                return Long.compare(modifiedTimes.get(a), modifiedTimes.get(b));
+            }
+        });
+        for (Path blobPath : blobPaths) {
+            String fileName = blobPath.getFileName().toString();
+            addBlob(fileName.substring(0, fileName.length() - BLOB_SUFFIX.length()), Files.size(blobPath));
+        }
+    }
+
+    private static String hashFile(Path path) throws IOException {
+        Hasher hasher = Hashing.sha1().newHasher();
+        try (InputStream in = Files.newInputStream(path)) {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                hasher.putBytes(buffer, 0, read);
+            }
+        }
+        return hasher.hash().toString();
+    }
+
+    /**
+     * Load the index entries, discarding leftover temporary files, entries which can't be read and entries whose
+     * blob is missing.
+     */
+    private void loadIndex() throws IOException {
+        JsonParser parser = new JsonParser();
+        try (DirectoryStream<Path> paths = Files.newDirectoryStream(indexDir)) {
+            for (Path path : paths) {
+                String fileName = path.getFileName().toString();
+                if (fileName.startsWith(TEMP_PREFIX)) {
+                    Files.deleteIfExists(path);
+                    continue;
+                }
+                if (!fileName.endsWith(INDEX_SUFFIX)) {
+                    continue;
+                }
+                try {
+                    String content = new String(Files.readAllBytes(path), StandardCharsets.UTF_8);
+                    JsonObject json = parser.parse(content).getAsJsonObject();
+                    ModuleId moduleId = ModuleId.fromString(json.get("moduleId").getAsString());
+                    String hash = HashCode.fromString(json.get("hash").getAsString()).toString();
+                    ScriptModuleSpec moduleSpec = moduleSpecSerializer.deserialize(json.get("moduleSpec").getAsString());
+                    boolean blobLoaded;
+                    synchronized (blobSizes) {
+                        blobLoaded = blobSizes.containsKey(hash);
+                    }
+                    if (!blobLoaded) {
+                        Files.deleteIfExists(path);
+                        continue;
+                    }
+                    index.put(moduleId, new IndexEntry(moduleId, json.get("updateTime").getAsLong(), hash, moduleSpec));
+                } catch (RuntimeException e) {
+                    logger.warn("Discarding unreadable archive cache index entry " + path, e);
+                    Files.deleteIfExists(path);
+                }
+            }
+        }
+    }
+
+    /**
+     * View which records the update times reported by the underlying view.
+     */
+    protected class CachingView implements RepositoryView {
+        private final RepositoryView view;
+
+        protected CachingView(RepositoryView view) {
+            this.view = Objects.requireNonNull(view, "view");
+        }
+
+        @Override
+        public String getName() {
+            return view.getName();
+        }
+
+        @Override
+        public Map<ModuleId, Long> getArchiveUpdateTimes() throws IOException {
+            Map<ModuleId, Long> updateTimes = view.getArchiveUpdateTimes();
+            knownUpdateTimes.putAll(updateTimes);
+            return updateTimes;
+        }
+
+        @Override
+        public RepositorySummary getRepositorySummary() throws IOException {
+            return view.getRepositorySummary();
+        }
+
+        @Override
+        public List<ArchiveSummary> getArchiveSummaries() throws IOException {
+            List<ArchiveSummary> summaries = view.getArchiveSummaries();
+            for (ArchiveSummary summary : summaries) {
+                knownUpdateTimes.put(summary.getModuleId(), summary.getLastUpdateTime());
+            }
+            return summaries;
+        }
+    }
+}
@@ -130,12 +130,13 @@ public class PathArchiveRepository implements ArchiveRepository {
     }
 
     /**
-     * No named views supported by this repository!
-     * Throws UnsupportedOperationException.
+     * Supports the sharded views named by {@link ShardedRepositoryView#getViewName(int, int)},
+     * which restrict the default view to the archives owned by a single node of a fleet.
+     * @return the sharded view, or null if the name does not describe one.
      */
     @Override
     public RepositoryView getView(String view) {
-        throw new UnsupportedOperationException();
+        return ShardedRepositoryView.fromViewName(getDefaultView(), view);
     }
 
     @Override
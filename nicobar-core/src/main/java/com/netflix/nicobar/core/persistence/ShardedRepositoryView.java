@@ -0,0 +1,239 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.nicobar.core.persistence;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Objects;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.annotation.Nullable;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import com.netflix.nicobar.core.archive.ModuleId;
+import com.netflix.nicobar.core.archive.ScriptModuleSpec;
+
+/**
+ * {@link RepositoryView} decorator which restricts another view to the subset of archives owned by
+ * a single node of a fleet.
+ * <p>
+ * Each module is assigned to exactly one of {@code nodeCount} nodes by consistent hashing over its {@link ModuleId},
+ * so that changing the node count only moves about {@code 1/nodeCount} of the modules. A node's view contains the
+ * modules it owns plus their transitive dependencies, which are required to load the owned modules.
+ * <p>
+ * Module dependencies are read from {@link RepositoryView#getArchiveSummaries()} of the underlying view and are
+ * cached until the update time of an archive changes, so that polling only requires
+ * {@link RepositoryView#getArchiveUpdateTimes()} in the steady state.
+ * <p>
+ * Repositories expose this view through {@link ArchiveRepository#getView(String)} using the name returned
+ * by {@link #getViewName(int, int)}.
+ */
+public class ShardedRepositoryView implements RepositoryView {
+    private static final Pattern VIEW_NAME_PATTERN = Pattern.compile("^shard:(\\d{1,9})/(\\d{1,9})$");
+    private static final HashFunction MODULE_ID_HASH = Hashing.murmur3_128();
+
+    private final RepositoryView delegate;
+    private final int nodeIndex;
+    private final int nodeCount;
+    private final String name;
+
+    /** cached dependencies of each module, along with the update time they were read at */
+    private Map<ModuleId, Long> dependencyUpdateTimes = Collections.emptyMap();
+    private Map<ModuleId, Set<ModuleId>> dependencies = Collections.emptyMap();
+
+    /**
+     * @param delegate the view to restrict
+     * @param nodeIndex index of this node, from 0 to nodeCount - 1
+     * @param nodeCount number of nodes the modules are spread across
+     */
+    public ShardedRepositoryView(RepositoryView delegate, int nodeIndex, int nodeCount) {
+        if (nodeCount <= 0) {
+            throw new IllegalArgumentException("invalid nodeCount " + nodeCount);
+        }
+        if (nodeIndex < 0 || nodeIndex >= nodeCount) {
+            throw new IllegalArgumentException("invalid nodeIndex " + nodeIndex + " for nodeCount " + nodeCount);
+        }
+        this.delegate = Objects.requireNonNull(delegate, "delegate");
+        this.nodeIndex = nodeIndex;
+        this.nodeCount = nodeCount;
+        this.name = getViewName(nodeIndex, nodeCount);
+    }
+
+    /**
+     * Get the name under which repositories expose the sharded view for the given node.
+     * @return view name of the form {@code shard:<nodeIndex>/<nodeCount>}
+     */
+    public static String getViewName(int nodeIndex, int nodeCount) {
+        return "shard:" + nodeIndex + "/" + nodeCount;
+    }
+
+    /**
+     * Create the sharded view described by the given view name.
+     * @param delegate the view to restrict
+     * @param viewName name as produced by {@link #getViewName(int, int)}
+     * @return the sharded view, or null if the name does not describe a sharded view
+     */
+    @Nullable
+    public static ShardedRepositoryView fromViewName(RepositoryView delegate, @Nullable String viewName) {
+        if (viewName == null) {
+            return null;
+        }
+        Matcher matcher = VIEW_NAME_PATTERN.matcher(viewName);
+        if (!matcher.matches()) {
+            return null;
+        }
+        int nodeIndex = Integer.parseInt(matcher.group(1));
+        int nodeCount = Integer.parseInt(matcher.group(2));
+        if (nodeCount <= 0 || nodeIndex >= nodeCount) {
+            return null;
+        }
+        return new ShardedRepositoryView(delegate, nodeIndex, nodeCount);
+    }
+
+    /**
+     * Calculate the node which owns the given module.
+     * @return node index from 0 to nodeCount - 1
+     */
+    public static int getOwningNode(ModuleId moduleId, int nodeCount) {
+        return Hashing.consistentHash(MODULE_ID_HASH.hashString(moduleId.toString(), Charsets.UTF_8), nodeCount);
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    public int getNodeIndex() {
+        return nodeIndex;
+    }
+
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    @Override
+    public Map<ModuleId, Long> getArchiveUpdateTimes() throws IOException {
+        Map<ModuleId, Long> updateTimes = delegate.getArchiveUpdateTimes();
+        Set<ModuleId> members = getMembers(updateTimes);
+        Map<ModuleId, Long> result = new LinkedHashMap<ModuleId, Long>();
+        for (Entry<ModuleId, Long> entry : updateTimes.entrySet()) {
+            if (members.contains(entry.getKey())) {
+                result.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public RepositorySummary getRepositorySummary() throws IOException {
+        Map<ModuleId, Long> updateTimes = getArchiveUpdateTimes();
+        long maxUpdateTime = 0;
+        for (Long updateTime : updateTimes.values()) {
+            if (updateTime > maxUpdateTime) {
+                maxUpdateTime = updateTime;
+            }
+        }
+        RepositorySummary summary = delegate.getRepositorySummary();
+        String description = summary.getDescription() + " (" + name + ")";
+        return new RepositorySummary(summary.getRepositoryId(), description, updateTimes.size(), maxUpdateTime);
+    }
+
+    @Override
+    public List<ArchiveSummary> getArchiveSummaries() throws IOException {
+        List<ArchiveSummary> summaries = delegate.getArchiveSummaries();
+        Map<ModuleId, Long> updateTimes = new HashMap<ModuleId, Long>();
+        for (ArchiveSummary summary : summaries) {
+            updateTimes.put(summary.getModuleId(), summary.getLastUpdateTime());
+        }
+        refreshDependencies(updateTimes, summaries);
+        Set<ModuleId> members = getMembers(updateTimes);
+        List<ArchiveSummary> result = new LinkedList<ArchiveSummary>();
+        for (ArchiveSummary summary : summaries) {
+            if (members.contains(summary.getModuleId())) {
+                result.add(summary);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Calculate the modules owned by this node, plus their dependency closure.
+     * @param updateTimes update times of all of the archives in the underlying view
+     */
+    protected Set<ModuleId> getMembers(Map<ModuleId, Long> updateTimes) throws IOException {
+        Map<ModuleId, Set<ModuleId>> moduleDependencies = getDependencies(updateTimes);
+        Set<ModuleId> members = new LinkedHashSet<ModuleId>();
+        Deque<ModuleId> pending = new ArrayDeque<ModuleId>();
+        for (ModuleId moduleId : updateTimes.keySet()) {
+            if (getOwningNode(moduleId, nodeCount) == nodeIndex) {
+                pending.add(moduleId);
+            }
+        }
+        while (!pending.isEmpty()) {
+            ModuleId moduleId = pending.poll();
+            if (!members.add(moduleId)) {
+                continue;
+            }
+            Set<ModuleId> moduleIdDependencies = moduleDependencies.get(moduleId);
+            if (moduleIdDependencies != null) {
+                for (ModuleId dependency : moduleIdDependencies) {
+                    if (updateTimes.containsKey(dependency) && !members.contains(dependency)) {
+                        pending.add(dependency);
+                    }
+                }
+            }
+        }
+        return members;
+    }
+
+    /**
+     * Get the dependencies of each module, re-reading the archive summaries only if
+     * the update times differ from those the cached dependencies were read at.
+     */
+    protected synchronized Map<ModuleId, Set<ModuleId>> getDependencies(Map<ModuleId, Long> updateTimes) throws IOException {
+        if (!dependencyUpdateTimes.equals(updateTimes)) {
+            refreshDependencies(updateTimes, delegate.getArchiveSummaries());
+        }
+        return dependencies;
+    }
+
+    protected synchronized void refreshDependencies(Map<ModuleId, Long> updateTimes, List<ArchiveSummary> summaries) {
+        Map<ModuleId, Set<ModuleId>> newDependencies = new HashMap<ModuleId, Set<ModuleId>>();
+        for (ArchiveSummary summary : summaries) {
+            ScriptModuleSpec moduleSpec = summary.getModuleSpec();
+            if (moduleSpec != null && !moduleSpec.getModuleDependencies().isEmpty()) {
+                newDependencies.put(summary.getModuleId(), moduleSpec.getModuleDependencies());
+            }
+        }
+        dependencies = newDependencies;
+        dependencyUpdateTimes = updateTimes;
+    }
+}
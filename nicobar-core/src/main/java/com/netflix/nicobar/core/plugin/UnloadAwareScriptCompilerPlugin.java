@@ -0,0 +1,46 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.nicobar.core.plugin;
+
+import java.util.Set;
+
+import com.netflix.nicobar.core.archive.ModuleId;
+import com.netflix.nicobar.core.compile.ScriptArchiveCompiler;
+import com.netflix.nicobar.core.module.ScriptModuleLoader;
+
+/**
+ * Language plugin which is notified when a revision of a script module is unloaded, so that it can purge the
+ * references which its runtime or its compilers keep to the classes of the revision, for example in global
+ * metadata caches. Otherwise such references keep the module class loader, and all of its classes, reachable.
+ *
+ * The {@link ScriptModuleLoader} notifies every such plugin of every unloaded revision, whichever plugin compiled
+ * it, since the runtime of a plugin may cache the classes of any module which its scripts use. Instances of the
+ * unloaded classes may still be in use, so the plugin must only drop caches which are rebuilt on demand.
+ */
+public interface UnloadAwareScriptCompilerPlugin extends ScriptCompilerPlugin {
+
+    /**
+     * Purge the references to the classes of an unloaded module revision.
+     * @param moduleId id of the script module
+     * @param moduleClassLoader class loader of the unloaded revision
+     * @param unloadedClasses the classes loaded by the unloaded revision
+     * @param compilers the compilers returned by {@link #getCompilers}
+     */
+    public void moduleUnloaded(ModuleId moduleId, ClassLoader moduleClassLoader, Set<Class<?>> unloadedClasses,
+        Set<? extends ScriptArchiveCompiler> compilers) throws Exception;
+}
@@ -0,0 +1,49 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.nicobar.core.plugin;
+
+import java.util.Set;
+
+import com.netflix.nicobar.core.compile.ScriptArchiveCompiler;
+import com.netflix.nicobar.core.module.ScriptModuleLoader;
+
+/**
+ * Language plugin which can warm up its compilers before the first real compilation, for example by compiling
+ * synthetic sources, so that the first archive doesn't pay for loading and JIT compiling the whole compiler.
+ *
+ * The {@link ScriptModuleLoader} calls {@link #warmup} on a background thread right after it loads the plugin,
+ * with the plugin class loader as the context class loader. Archives can be compiled while the warmup is running,
+ * so the warmup must only use the compilers in ways which are safe alongside concurrent compilations.
+ *
+ * The warmup is configured by the {@value #COMPILER_PARAMS_WARMUP_ITERATIONS} compiler param of the plugin spec,
+ * which defaults to {@value #DEFAULT_WARMUP_ITERATIONS}. Setting it to 0 disables the warmup.
+ */
+public interface WarmableScriptCompilerPlugin extends ScriptCompilerPlugin {
+
+    /** compiler param with the number of warmup iterations, 0 to disable the warmup */
+    public static final String COMPILER_PARAMS_WARMUP_ITERATIONS = "warmupIterations";
+    /** number of warmup iterations when the compiler params don't configure it */
+    public static final int DEFAULT_WARMUP_ITERATIONS = 5;
+
+    /**
+     * Warm up the compilers of the plugin.
+     * @param compilers the compilers returned by {@link #getCompilers}
+     * @param iterations the configured number of warmup iterations, always positive
+     */
+    public void warmup(Set<? extends ScriptArchiveCompiler> compilers, int iterations) throws Exception;
+}
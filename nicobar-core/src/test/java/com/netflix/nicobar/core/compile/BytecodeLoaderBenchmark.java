@@ -0,0 +1,184 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.nicobar.core.compile;
+
+import static org.testng.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.commons.io.FileUtils;
+import org.jboss.modules.ModuleIdentifier;
+import org.jboss.modules.ModuleSpec;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import com.netflix.nicobar.core.archive.ModuleId;
+import com.netflix.nicobar.core.archive.PathScriptArchive;
+import com.netflix.nicobar.core.archive.ScriptArchive;
+import com.netflix.nicobar.core.archive.ScriptModuleSpec;
+import com.netflix.nicobar.core.internal.compile.BytecodeLoader;
+import com.netflix.nicobar.core.module.jboss.JBossModuleClassLoader;
+import com.netflix.nicobar.core.module.jboss.JBossModuleLoader;
+import com.netflix.nicobar.core.module.jboss.JBossModuleUtils;
+
+/**
+ * Measures how long the {@link BytecodeLoader} takes to load an archive of 10,000 classes into a fresh module,
+ * sequentially and concurrently, against loading the classes one at a time and adding each one to the module
+ * as they are loaded.
+ *
+ * Run with {@code gradle benchmark}.
+ */
+public class BytecodeLoaderBenchmark {
+    private static final int CLASS_COUNT = 10000;
+    private static final int PACKAGE_COUNT = 20;
+    /** length of the chains of classes extending each other */
+    private static final int HIERARCHY_DEPTH = 10;
+    private static final int WARMUP_ITERATIONS = 3;
+    private static final int ITERATIONS = 10;
+
+    private Path rootDir;
+    private ScriptArchive archive;
+
+    @BeforeClass(groups = "benchmark")
+    public void setup() throws Exception {
+        rootDir = Files.createTempDirectory(BytecodeLoaderBenchmark.class.getSimpleName());
+        Path archiveDir = Files.createDirectory(rootDir.resolve("archive"));
+        for (int i = 0; i < CLASS_COUNT; i++) {
+            String packagePath = "benchmark/package" + (i % PACKAGE_COUNT);
+            int index = i / PACKAGE_COUNT;
+            String superName = index % HIERARCHY_DEPTH == 0 ? "java/lang/Object" : packagePath + "/Class" + (index - 1);
+            Path classFile = archiveDir.resolve(packagePath + "/Class" + index + ".class");
+            Files.createDirectories(classFile.getParent());
+            Files.write(classFile, createClassBytes(packagePath + "/Class" + index, superName));
+        }
+        archive = new PathScriptArchive.Builder(archiveDir)
+            .setRecurseRoot(true)
+            .setModuleSpec(new ScriptModuleSpec.Builder(ModuleId.create("bytecodebenchmark")).build())
+            .build();
+    }
+
+    @AfterClass(groups = "benchmark")
+    public void cleanup() {
+        FileUtils.deleteQuietly(rootDir.toFile());
+    }
+
+    @DataProvider(name = "loaders")
+    public Object[][] loaders() {
+        return new Object[][] {
+            { "one-by-one", null },
+            { "sequential", new BytecodeLoader(null, 1) },
+            { "parallel", new BytecodeLoader() }
+        };
+    }
+
+    @Test(groups = "benchmark", dataProvider = "loaders")
+    public void benchmarkLoadArchive(String name, BytecodeLoader loader) throws Exception {
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            load(loader, i);
+        }
+        long best = Long.MAX_VALUE;
+        long total = 0;
+        for (int i = 0; i < ITERATIONS; i++) {
+            long elapsed = load(loader, WARMUP_ITERATIONS + i);
+            best = Math.min(best, elapsed);
+            total += elapsed;
+        }
+        System.out.println(String.format("%-10s %10.2f ms/archive (best %.2f ms) for %d classes, %d processors",
+            name, total / 1e6 / ITERATIONS, best / 1e6, CLASS_COUNT, Runtime.getRuntime().availableProcessors()));
+    }
+
+    /**
+     * Load the archive into a new module.
+     * @param loader loader of the classes, or null to load them one at a time
+     * @return the nanoseconds spent loading the classes
+     */
+    private long load(BytecodeLoader loader, long revision) throws Exception {
+        ModuleIdentifier revisionId = JBossModuleUtils.createRevisionId(archive.getModuleSpec().getModuleId(), revision);
+        ModuleSpec.Builder moduleSpecBuilder = ModuleSpec.build(revisionId);
+        JBossModuleUtils.populateModuleSpecWithCoreDependencies(moduleSpecBuilder, archive);
+        JBossModuleUtils.populateModuleSpecWithResources(moduleSpecBuilder, archive);
+        JBossModuleLoader moduleLoader = new JBossModuleLoader();
+        moduleLoader.addModuleSpec(moduleSpecBuilder.create());
+        JBossModuleClassLoader moduleClassLoader = (JBossModuleClassLoader)moduleLoader.loadModule(revisionId).getClassLoader();
+        Path targetDir = Files.createTempDirectory(rootDir, "classes");
+
+        long start = System.nanoTime();
+        Set<Class<?>> classes = loader != null ? loader.compile(archive, moduleClassLoader, targetDir) :
+            loadOneByOne(archive, moduleClassLoader);
+        long elapsed = System.nanoTime() - start;
+        assertEquals(classes.size(), CLASS_COUNT);
+        return elapsed;
+    }
+
+    /**
+     * Load the classes in the order of the archive entries, adding the classes loaded so far to the module
+     * after each one.
+     */
+    private static Set<Class<?>> loadOneByOne(ScriptArchive archive, JBossModuleClassLoader moduleClassLoader)
+            throws ClassNotFoundException {
+        Set<Class<?>> addedClasses = new HashSet<Class<?>>(archive.getArchiveEntryNames().size());
+        for (String entry : archive.getArchiveEntryNames()) {
+            if (entry.endsWith(".class")) {
+                addedClasses.add(moduleClassLoader.loadClassLocal(entry.replace(".class", "").replace("/", "."), true));
+                moduleClassLoader.addClasses(addedClasses);
+            }
+        }
+        return addedClasses;
+    }
+
+    /**
+     * Create the bytecode of an empty public class.
+     * @param internalName name of the class, like {@code benchmark/package0/Class1}
+     * @param superName name of the superclass, like {@code java/lang/Object}
+     */
+    private static byte[] createClassBytes(String internalName, String superName) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(0xCAFEBABE);
+        out.writeShort(0);
+        out.writeShort(50);
+        // constant pool: the names of the class and of its superclass
+        out.writeShort(5);
+        out.writeByte(1);
+        out.writeUTF(internalName);
+        out.writeByte(7);
+        out.writeShort(1);
+        out.writeByte(1);
+        out.writeUTF(superName);
+        out.writeByte(7);
+        out.writeShort(3);
+        // public super class, no interfaces, fields, methods or attributes
+        out.writeShort(0x0021);
+        out.writeShort(2);
+        out.writeShort(4);
+        out.writeShort(0);
+        out.writeShort(0);
+        out.writeShort(0);
+        out.writeShort(0);
+        out.flush();
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.nicobar.core.execution;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+
+import org.testng.annotations.Test;
+
+import com.netflix.nicobar.core.execution.AdaptiveConcurrencyLimiter.Permit;
+
+/**
+ * Unit tests for {@link AdaptiveConcurrencyLimiter}
+ */
+public class AdaptiveConcurrencyLimiterTest {
+    @Test
+    public void testRejectsOverLimit() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter.Builder()
+            .setInitialLimit(2)
+            .build();
+        Permit first = limiter.tryAcquire();
+        assertNotNull(first);
+        assertNotNull(limiter.tryAcquire());
+        assertNull(limiter.tryAcquire());
+        assertEquals(limiter.getInFlight(), 2);
+
+        // only the first release counts
+        first.release();
+        first.release();
+        assertEquals(limiter.getInFlight(), 1);
+        assertNotNull(limiter.tryAcquire());
+    }
+
+    @Test
+    public void testAdditiveIncrease() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter.Builder()
+            .setInitialLimit(10)
+            .setMaxLimit(12)
+            .build();
+        for (int i = 0; i < 5; i++) {
+            limiter.onSample(1000, 10, false);
+        }
+        assertEquals(limiter.getLimit(), 12);
+
+        // the limit does not grow while most of it is unused
+        limiter = limiter.newInstance();
+        limiter.onSample(1000, 4, false);
+        assertEquals(limiter.getLimit(), 10);
+    }
+
+    @Test
+    public void testMultiplicativeDecrease() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter.Builder()
+            .setInitialLimit(100)
+            .setMinLimit(5)
+            .setBackoffRatio(0.5)
+            .setLatencyTolerance(2)
+            .build();
+        limiter.onSample(1000, 100, false);
+        assertEquals(limiter.getLimit(), 101);
+        assertEquals(limiter.getBaselineNanos(), 1000);
+
+        // a latency regression backs off the limit
+        limiter.onSample(5000, 100, false);
+        assertEquals(limiter.getLimit(), 50);
+        // as do dropped executions, regardless of their latency
+        limiter.onSample(1000, 50, true);
+        assertEquals(limiter.getLimit(), 25);
+        for (int i = 0; i < 10; i++) {
+            limiter.onSample(1000, 1, true);
+        }
+        assertEquals(limiter.getLimit(), 5);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testInvalidLimits() {
+        new AdaptiveConcurrencyLimiter.Builder().setInitialLimit(10).setMaxLimit(5).build();
+    }
+}
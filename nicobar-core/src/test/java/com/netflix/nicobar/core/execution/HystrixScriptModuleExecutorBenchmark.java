@@ -0,0 +1,179 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.nicobar.core.execution;
+
+import static org.testng.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import com.netflix.hystrix.HystrixCommandProperties.ExecutionIsolationStrategy;
+import com.netflix.nicobar.core.archive.ModuleId;
+import com.netflix.nicobar.core.archive.ScriptArchive;
+import com.netflix.nicobar.core.module.ScriptModule;
+import com.netflix.nicobar.core.module.ScriptModuleEntryPoint;
+import com.netflix.nicobar.core.module.jboss.JBossModuleClassLoader;
+
+/**
+ * Compares the per-invocation overhead of the {@link HystrixScriptModuleExecutor} isolation strategies
+ * for a trivial script, against calling the executable directly, and the per-item overhead of batch executions.
+ *
+ * Run with {@code gradle benchmark}.
+ */
+public class HystrixScriptModuleExecutorBenchmark {
+    private static final int WARMUP_ITERATIONS = 20000;
+    private static final int ITERATIONS = 100000;
+    private static final int BATCH_SIZE = 100;
+
+    private static final ScriptModuleExecutable<Integer> TRIVIAL_EXECUTABLE = new ScriptModuleExecutable<Integer>() {
+        @Override
+        public Integer execute(ScriptModule scriptModule) {
+            return scriptModule.getModuleId().getName().length();
+        }
+    };
+
+    private static final ScriptModuleBatchExecutable<Integer, Integer> TRIVIAL_BATCH_EXECUTABLE =
+        new ScriptModuleBatchExecutable<Integer, Integer>() {
+            @Override
+            public List<Integer> execute(ScriptModule scriptModule, List<Integer> inputs) {
+                List<Integer> outputs = new ArrayList<Integer>(inputs.size());
+                for (Integer input : inputs) {
+                    outputs.add(input + 1);
+                }
+                return outputs;
+            }
+        };
+
+    @DataProvider(name = "isolationStrategies")
+    public Object[][] isolationStrategies() {
+        return new Object[][] {
+            { null },
+            { ExecutionIsolationStrategy.THREAD },
+            { ExecutionIsolationStrategy.SEMAPHORE }
+        };
+    }
+
+    @Test(groups = "benchmark", dataProvider = "isolationStrategies")
+    public void benchmarkExecutionOverhead(ExecutionIsolationStrategy isolationStrategy) throws Exception {
+        String name = isolationStrategy == null ? "direct" : isolationStrategy.name().toLowerCase();
+        ScriptModule module = new StubScriptModule(ModuleId.create("benchmark" + name));
+        List<ScriptModule> modules = Collections.singletonList(module);
+        HystrixScriptModuleExecutor<Integer> executor = isolationStrategy == null ? null :
+            new HystrixScriptModuleExecutor<Integer>("benchmark-" + name, isolationStrategy,
+                HystrixScriptModuleExecutor.DEFAULT_MAX_CONCURRENT_EXECUTIONS);
+
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            execute(executor, modules);
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            execute(executor, modules);
+        }
+        long elapsed = System.nanoTime() - start;
+        System.out.println(String.format("%-10s %10.2f us/invocation", name, elapsed / 1e3 / ITERATIONS));
+    }
+
+    @Test(groups = "benchmark", dataProvider = "isolationStrategies")
+    public void benchmarkBatchExecutionOverhead(ExecutionIsolationStrategy isolationStrategy) throws Exception {
+        if (isolationStrategy == null) {
+            return;
+        }
+        String name = isolationStrategy.name().toLowerCase();
+        ScriptModule module = new StubScriptModule(ModuleId.create("batchbenchmark" + name));
+        HystrixScriptModuleExecutor<Integer> executor = new HystrixScriptModuleExecutor.Builder<Integer>("batchbenchmark-" + name)
+            .setIsolationStrategy(isolationStrategy)
+            .build();
+        List<Integer> inputs = new ArrayList<Integer>(BATCH_SIZE);
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            inputs.add(i);
+        }
+
+        for (int i = 0; i < WARMUP_ITERATIONS / BATCH_SIZE; i++) {
+            executeBatch(executor, module, inputs);
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS / BATCH_SIZE; i++) {
+            executeBatch(executor, module, inputs);
+        }
+        long elapsed = System.nanoTime() - start;
+        System.out.println(String.format("%-10s %10.2f us/item in batches of %d", name, elapsed / 1e3 / ITERATIONS, BATCH_SIZE));
+    }
+
+    private static void executeBatch(HystrixScriptModuleExecutor<Integer> executor, ScriptModule module, List<Integer> inputs) {
+        List<ScriptModuleExecutionResult<Integer>> results = executor.executeBatch(module, inputs, TRIVIAL_BATCH_EXECUTABLE,
+            BATCH_SIZE, 10, TimeUnit.SECONDS);
+        assertEquals(results.get(BATCH_SIZE - 1).getValue().intValue(), BATCH_SIZE);
+    }
+
+    private static void execute(HystrixScriptModuleExecutor<Integer> executor, List<ScriptModule> modules) throws Exception {
+        int result;
+        if (executor == null) {
+            result = TRIVIAL_EXECUTABLE.execute(modules.get(0));
+        } else {
+            result = executor.executeModules(modules, TRIVIAL_EXECUTABLE).get(0);
+        }
+        assertEquals(result, modules.get(0).getModuleId().getName().length());
+    }
+
+    /**
+     * Minimal module. Mocks record every invocation, which would dominate the measurement.
+     */
+    private static class StubScriptModule implements ScriptModule {
+        private final ModuleId moduleId;
+
+        private StubScriptModule(ModuleId moduleId) {
+            this.moduleId = moduleId;
+        }
+
+        @Override
+        public ModuleId getModuleId() {
+            return moduleId;
+        }
+
+        @Override
+        public Set<Class<?>> getLoadedClasses() {
+            return Collections.emptySet();
+        }
+
+        @Override
+        public JBossModuleClassLoader getModuleClassLoader() {
+            return null;
+        }
+
+        @Override
+        public long getCreateTime() {
+            return 1;
+        }
+
+        @Override
+        public ScriptArchive getSourceArchive() {
+            return null;
+        }
+
+        @Override
+        public ScriptModuleEntryPoint getEntryPoint() {
+            return null;
+        }
+    }
+}
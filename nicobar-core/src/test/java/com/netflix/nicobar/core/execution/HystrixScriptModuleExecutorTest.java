@@ -0,0 +1,457 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.nicobar.core.execution;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.testng.annotations.Test;
+
+import com.netflix.config.ConfigurationManager;
+import com.netflix.hystrix.HystrixCommandProperties.ExecutionIsolationStrategy;
+import com.netflix.nicobar.core.archive.ModuleId;
+import com.netflix.nicobar.core.execution.HystrixScriptModuleExecutor.ExecutionStatistics;
+import com.netflix.nicobar.core.execution.HystrixScriptModuleExecutor.RevisionContext;
+import com.netflix.nicobar.core.execution.ScriptModuleExecutionResult.Status;
+import com.netflix.nicobar.core.module.ScriptModule;
+import com.netflix.nicobar.core.module.ScriptModuleLoader;
+
+/**
+ * Unit tests for {@link HystrixScriptModuleExecutor}
+ */
+public class HystrixScriptModuleExecutorTest {
+    /**
+     * Executable which sleeps for the number of milliseconds given by the module name,
+     * and fails for modules named "fail".
+     */
+    private static final ScriptModuleExecutable<String> SLEEPING_EXECUTABLE = new ScriptModuleExecutable<String>() {
+        @Override
+        public String execute(ScriptModule scriptModule) throws Exception {
+            String name = scriptModule.getModuleId().getName();
+            if (name.equals("fail")) {
+                throw new IllegalStateException("failed");
+            }
+            Thread.sleep(Long.parseLong(name.substring(1)));
+            return name;
+        }
+    };
+
+    @Test
+    public void testExecuteModules() {
+        HystrixScriptModuleExecutor<String> executor = new HystrixScriptModuleExecutor<String>("testExecuteModules");
+        List<String> results = executor.executeModules(Arrays.asList(createModule("m20"), createModule("fail"), createModule("m1")),
+            SLEEPING_EXECUTABLE);
+        assertEquals(results, Arrays.asList("m20", "m1"));
+        assertEquals(executor.getModuleStatistics(ModuleId.create("m20")).getExecutionCount(), 1);
+        assertEquals(executor.getModuleStatistics(ModuleId.create("m20")).getFailureCount(), 0);
+        assertEquals(executor.getModuleStatistics(ModuleId.create("fail")).getFailureCount(), 1);
+    }
+
+    @Test
+    public void testExecutionStatistics() {
+        HystrixScriptModuleExecutor<String> executor = new HystrixScriptModuleExecutor<String>("testExecutionStatistics");
+        ScriptModule module = createModule("m20");
+        for (int i = 0; i < 3; i++) {
+            executor.executeModules(Collections.singletonList(module), SLEEPING_EXECUTABLE);
+        }
+        ExecutionStatistics moduleStats = executor.getModuleStatistics(module.getModuleId());
+        assertEquals(moduleStats.getExecutionCount(), 3);
+        assertEquals(moduleStats.getLatencyHistogram().getCount(), 3);
+        assertTrue(moduleStats.getLatencyHistogram().getP50(TimeUnit.MILLISECONDS) >= 20);
+        assertTrue(moduleStats.getCpuTimeNanos() >= 0);
+        assertTrue(moduleStats.getAllocatedBytes() >= 0);
+
+        ExecutionStatistics revisionStats = executor.getRevisionStatistics(module.getModuleId(), module.getCreateTime());
+        assertEquals(revisionStats.getLatencyHistogram().getCount(), 3);
+        assertNull(executor.getRevisionStatistics(module.getModuleId(), module.getCreateTime() + 1));
+    }
+
+    @Test
+    public void testObserveModulesInCompletionOrder() {
+        HystrixScriptModuleExecutor<String> executor = new HystrixScriptModuleExecutor<String>("testObserveModulesInCompletionOrder");
+        List<ScriptModuleExecutionResult<String>> results = executor.observeModules(
+            Arrays.asList(createModule("m300"), createModule("fail"), createModule("m1")), SLEEPING_EXECUTABLE, 5, TimeUnit.SECONDS)
+            .toList().toBlockingObservable().single();
+        assertEquals(results.size(), 3);
+        // the slow module is last even though it was first in the list
+        ScriptModuleExecutionResult<String> slowResult = results.get(2);
+        assertEquals(slowResult.getModuleId(), ModuleId.create("m300"));
+        assertEquals(slowResult.getStatus(), Status.SUCCESS);
+        assertEquals(slowResult.getValue(), "m300");
+        for (ScriptModuleExecutionResult<String> result : results.subList(0, 2)) {
+            if (result.getModuleId().getName().equals("fail")) {
+                assertEquals(result.getStatus(), Status.FAILURE);
+                assertNotNull(result.getException());
+            } else {
+                assertEquals(result.getStatus(), Status.SUCCESS);
+                assertEquals(result.getValue(), "m1");
+            }
+        }
+    }
+
+    @Test
+    public void testObserveModulesDeadline() {
+        HystrixScriptModuleExecutor<String> executor = new HystrixScriptModuleExecutor<String>("testObserveModulesDeadline");
+        long start = System.currentTimeMillis();
+        List<ScriptModuleExecutionResult<String>> results = executor.observeModules(
+            Arrays.asList(createModule("m800"), createModule("m1")), SLEEPING_EXECUTABLE, 100, TimeUnit.MILLISECONDS)
+            .toList().toBlockingObservable().single();
+        assertTrue(System.currentTimeMillis() - start < 700);
+        assertEquals(results.size(), 2);
+        assertEquals(results.get(0).getStatus(), Status.SUCCESS);
+        assertEquals(results.get(1).getModuleId(), ModuleId.create("m800"));
+        assertEquals(results.get(1).getStatus(), Status.TIMEOUT);
+    }
+
+    @Test
+    public void testObserveNoModules() {
+        HystrixScriptModuleExecutor<String> executor = new HystrixScriptModuleExecutor<String>("testObserveNoModules");
+        List<ScriptModuleExecutionResult<String>> results = executor.observeModules(Collections.<ScriptModule>emptyList(),
+            SLEEPING_EXECUTABLE, 1, TimeUnit.SECONDS).toList().toBlockingObservable().single();
+        assertTrue(results.isEmpty());
+    }
+
+    @Test
+    public void testSemaphoreIsolation() {
+        HystrixScriptModuleExecutor<String> executor = new HystrixScriptModuleExecutor<String>("testSemaphoreIsolation",
+            ExecutionIsolationStrategy.SEMAPHORE, 5);
+        final Thread callingThread = Thread.currentThread();
+        ScriptModuleExecutable<String> executable = new ScriptModuleExecutable<String>() {
+            @Override
+            public String execute(ScriptModule scriptModule) throws Exception {
+                assertEquals(Thread.currentThread(), callingThread);
+                return SLEEPING_EXECUTABLE.execute(scriptModule);
+            }
+        };
+        List<String> results = executor.executeModules(Arrays.asList(createModule("s5"), createModule("fail"), createModule("s1")),
+            executable);
+        assertEquals(results, Arrays.asList("s5", "s1"));
+        ExecutionStatistics moduleStats = executor.getModuleStatistics(ModuleId.create("s5"));
+        assertEquals(moduleStats.getExecutionCount(), 1);
+        assertEquals(moduleStats.getLatencyHistogram().getCount(), 1);
+    }
+
+    @Test
+    public void testSemaphoreIsolationTimeout() {
+        ConfigurationManager.getConfigInstance()
+            .setProperty("hystrix.command.s200.execution.isolation.thread.timeoutInMilliseconds", 50);
+        HystrixScriptModuleExecutor<String> executor = new HystrixScriptModuleExecutor<String>("testSemaphoreIsolationTimeout",
+            ExecutionIsolationStrategy.SEMAPHORE, 5);
+        assertTrue(executor.executeModules(Arrays.asList(createModule("s200")), SLEEPING_EXECUTABLE).isEmpty());
+        assertEquals(executor.getModuleStatistics(ModuleId.create("s200")).getTimeoutCount(), 1);
+
+        // modules which are not started by the deadline are reported as timeouts
+        List<ScriptModuleExecutionResult<String>> results = executor.observeModules(
+            Arrays.asList(createModule("s200"), createModule("s2")), SLEEPING_EXECUTABLE, 100, TimeUnit.MILLISECONDS)
+            .toList().toBlockingObservable().single();
+        assertEquals(results.size(), 2);
+        assertEquals(results.get(0).getModuleId(), ModuleId.create("s200"));
+        assertEquals(results.get(0).getStatus(), Status.TIMEOUT);
+        assertEquals(results.get(1).getModuleId(), ModuleId.create("s2"));
+        assertEquals(results.get(1).getStatus(), Status.TIMEOUT);
+        assertNull(executor.getModuleStatistics(ModuleId.create("s2")));
+    }
+
+    @Test
+    public void testRevisionContextCached() {
+        HystrixScriptModuleExecutor<String> executor = new HystrixScriptModuleExecutor<String>("testRevisionContextCached");
+        ScriptModule module = createModule("c1");
+        executor.executeModules(Collections.singletonList(module), SLEEPING_EXECUTABLE);
+        RevisionContext context = executor.getRevisionContext(module);
+        executor.executeModules(Collections.singletonList(module), SLEEPING_EXECUTABLE);
+        assertSame(executor.getRevisionContext(module), context);
+        assertEquals(context.revisionStatistics.getExecutionCount(), 0);
+        assertEquals(context.revisionStatistics.getLatencyHistogram().getCount(), 2);
+        assertEquals(context.moduleStatistics.getExecutionCount(), 2);
+
+        // a new revision gets its own context, and shares the module statistics
+        ScriptModule newRevision = createModule("c1", 2);
+        RevisionContext newContext = executor.getRevisionContext(newRevision);
+        assertNotSame(newContext, context);
+        assertNotSame(newContext.setter, context.setter);
+        assertSame(newContext.moduleStatistics, context.moduleStatistics);
+        assertNotSame(newContext.revisionStatistics, context.revisionStatistics);
+    }
+
+    @Test
+    public void testModuleUpdatedReleasesRevision() {
+        HystrixScriptModuleExecutor<String> executor = new HystrixScriptModuleExecutor<String>("testModuleUpdatedReleasesRevision");
+        ScriptModule module = createModule("u1");
+        ScriptModuleLoader moduleLoader = mock(ScriptModuleLoader.class);
+        when(moduleLoader.getScriptModule(ModuleId.create("u1"))).thenReturn(module);
+        List<String> moduleIds = Arrays.asList("u1", "u1", "unknown");
+        assertEquals(executor.executeModules(moduleIds, SLEEPING_EXECUTABLE, moduleLoader), Arrays.asList("u1", "u1"));
+        RevisionContext context = executor.getRevisionContext(module);
+        assertNotNull(executor.getRevisionStatistics(module.getModuleId(), 1));
+
+        ScriptModule newRevision = createModule("u1", 2);
+        executor.moduleUpdated(newRevision, module);
+        assertNull(executor.getRevisionStatistics(module.getModuleId(), 1));
+        assertEquals(executor.getModuleStatistics(module.getModuleId()).getExecutionCount(), 2);
+        assertNotSame(executor.getRevisionContext(module), context);
+
+        // deleted modules are looked up again
+        executor.moduleUpdated(null, newRevision);
+        when(moduleLoader.getScriptModule(ModuleId.create("u1"))).thenReturn(null);
+        assertTrue(executor.executeModules(moduleIds, SLEEPING_EXECUTABLE, moduleLoader).isEmpty());
+        verify(moduleLoader, times(4)).getScriptModule(ModuleId.create("u1"));
+    }
+
+    @Test
+    public void testShadowExecution() throws Exception {
+        ScriptModule module = createModule("shadow1");
+        ScriptModule stagedModule = createModule("shadow1", 2);
+        ScriptModuleLoader moduleLoader = mock(ScriptModuleLoader.class);
+        when(moduleLoader.getStagedScriptModule(module.getModuleId())).thenReturn(stagedModule);
+        HystrixScriptModuleExecutor<String> executor = new HystrixScriptModuleExecutor<String>("testShadowExecution",
+            ExecutionIsolationStrategy.SEMAPHORE, 5, new ShadowExecutionPolicy.Builder(moduleLoader).setSampleRate(1).build());
+        ScriptModuleExecutable<String> executable = new ScriptModuleExecutable<String>() {
+            @Override
+            public String execute(ScriptModule scriptModule) throws Exception {
+                if (scriptModule.getCreateTime() == 2) {
+                    throw new IllegalStateException("staged");
+                }
+                return "published";
+            }
+        };
+        for (int i = 0; i < 5; i++) {
+            assertEquals(executor.executeModules(Collections.singletonList(module), executable), Arrays.asList("published"));
+        }
+
+        // shadow executions are recorded for their revision only, and their results are discarded
+        ExecutionStatistics stagedStats = waitForSamples(executor, stagedModule, 5);
+        assertEquals(stagedStats.getFailureCount(), 5);
+        ExecutionStatistics moduleStats = executor.getModuleStatistics(module.getModuleId());
+        assertEquals(moduleStats.getExecutionCount(), 5);
+        assertEquals(moduleStats.getLatencyHistogram().getCount(), 5);
+        assertEquals(moduleStats.getFailureCount(), 0);
+        verify(moduleLoader, never()).rejectStagedScriptModule(any(ScriptModule.class));
+    }
+
+    @Test
+    public void testShadowRegressionRejected() throws Exception {
+        ScriptModule module = createModule("shadow2");
+        ScriptModule stagedModule = createModule("shadow2", 2);
+        ScriptModuleLoader moduleLoader = mock(ScriptModuleLoader.class);
+        when(moduleLoader.getStagedScriptModule(module.getModuleId())).thenReturn(stagedModule);
+        final CountDownLatch rejected = new CountDownLatch(1);
+        when(moduleLoader.rejectStagedScriptModule(stagedModule)).thenAnswer(new Answer<Boolean>() {
+            @Override
+            public Boolean answer(InvocationOnMock invocation) {
+                rejected.countDown();
+                return true;
+            }
+        });
+        ShadowExecutionPolicy shadowPolicy = new ShadowExecutionPolicy.Builder(moduleLoader)
+            .setSampleRate(1)
+            .setP99RegressionThreshold(1.5)
+            .setMinSamples(3)
+            .build();
+        HystrixScriptModuleExecutor<String> executor = new HystrixScriptModuleExecutor<String>("testShadowRegressionRejected",
+            ExecutionIsolationStrategy.SEMAPHORE, 5, shadowPolicy);
+        ScriptModuleExecutable<String> executable = new ScriptModuleExecutable<String>() {
+            @Override
+            public String execute(ScriptModule scriptModule) throws Exception {
+                Thread.sleep(scriptModule.getCreateTime() == 2 ? 20 : 1);
+                return "done";
+            }
+        };
+        for (int i = 0; i < 5; i++) {
+            executor.executeModules(Collections.singletonList(module), executable);
+        }
+        assertTrue(rejected.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testConcurrencyLimitRejectsFast() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter.Builder()
+            .setInitialLimit(1)
+            .setMaxLimit(1)
+            .build();
+        HystrixScriptModuleExecutor<String> executor = new HystrixScriptModuleExecutor.Builder<String>("testConcurrencyLimitRejectsFast")
+            .setConcurrencyLimiter(limiter)
+            .build();
+        ScriptModule module = createModule("l200");
+        List<ScriptModuleExecutionResult<String>> results = executor.observeModules(Arrays.asList(module, module, createModule("l1")),
+            SLEEPING_EXECUTABLE, 5, TimeUnit.SECONDS).toList().toBlockingObservable().single();
+        assertEquals(results.size(), 3);
+        // the execution over the limit is rejected before the others complete, without running
+        assertEquals(results.get(0).getModuleId(), module.getModuleId());
+        assertEquals(results.get(0).getStatus(), Status.REJECTED);
+        assertEquals(results.get(2).getModuleId(), module.getModuleId());
+        assertEquals(results.get(2).getStatus(), Status.SUCCESS);
+
+        ExecutionStatistics moduleStats = executor.getModuleStatistics(module.getModuleId());
+        assertEquals(moduleStats.getRejectedCount(), 1);
+        assertEquals(moduleStats.getExecutionCount(), 1);
+        assertEquals(moduleStats.getConcurrencyLimit(), 1);
+        assertEquals(moduleStats.getInFlightExecutions(), 0);
+        // each module has its own limit
+        assertEquals(executor.getModuleStatistics(ModuleId.create("l1")).getRejectedCount(), 0);
+        assertEquals(executor.getModuleStatistics(ModuleId.create("l1")).getInFlightExecutions(), 0);
+
+        assertEquals(executor.executeModules(Arrays.asList(module, module), SLEEPING_EXECUTABLE), Arrays.asList("l200"));
+        assertEquals(moduleStats.getRejectedCount(), 2);
+        assertEquals(new HystrixScriptModuleExecutor<String>("unlimited").getOrCreateModuleStatistics(module.getModuleId())
+            .getConcurrencyLimit(), -1);
+    }
+
+    @Test
+    public void testConcurrencyLimitSemaphoreIsolation() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter.Builder()
+            .setInitialLimit(1)
+            .setMaxLimit(1)
+            .build();
+        final HystrixScriptModuleExecutor<String> executor = new HystrixScriptModuleExecutor.Builder<String>("testConcurrencyLimitSemaphoreIsolation")
+            .setIsolationStrategy(ExecutionIsolationStrategy.SEMAPHORE)
+            .setConcurrencyLimiter(limiter)
+            .build();
+        final ScriptModule module = createModule("ls1");
+        final List<ScriptModuleExecutionResult<String>> nestedResults = new ArrayList<ScriptModuleExecutionResult<String>>();
+        ScriptModuleExecutable<String> executable = new ScriptModuleExecutable<String>() {
+            @Override
+            public String execute(ScriptModule scriptModule) throws Exception {
+                if (nestedResults.isEmpty()) {
+                    nestedResults.addAll(executor.observeModules(Collections.singletonList(module), this, 1, TimeUnit.SECONDS)
+                        .toList().toBlockingObservable().single());
+                }
+                return "done";
+            }
+        };
+        assertEquals(executor.executeModules(Collections.singletonList(module), executable), Arrays.asList("done"));
+        assertEquals(nestedResults.size(), 1);
+        assertEquals(nestedResults.get(0).getStatus(), Status.REJECTED);
+        assertEquals(executor.getModuleStatistics(module.getModuleId()).getInFlightExecutions(), 0);
+    }
+
+    @Test
+    public void testExecuteBatch() {
+        HystrixScriptModuleExecutor<String> executor = new HystrixScriptModuleExecutor<String>("testExecuteBatch");
+        ScriptModule module = createModule("b1");
+        final List<Integer> batchSizes = Collections.synchronizedList(new ArrayList<Integer>());
+        ScriptModuleBatchExecutable<String, String> executable = new ScriptModuleBatchExecutable<String, String>() {
+            @Override
+            public List<String> execute(ScriptModule scriptModule, List<String> inputs) {
+                batchSizes.add(inputs.size());
+                if (inputs.contains("fail")) {
+                    throw new IllegalStateException("failed");
+                }
+                List<String> outputs = new ArrayList<String>();
+                for (String input : inputs) {
+                    outputs.add(input.toUpperCase());
+                }
+                return outputs;
+            }
+        };
+        List<ScriptModuleExecutionResult<String>> results = executor.executeBatch(module,
+            Arrays.asList("a", "b", "c", "fail", "e"), executable, 2, 5, TimeUnit.SECONDS);
+        assertEquals(results.size(), 5);
+        assertEquals(results.get(0).getValue(), "A");
+        assertEquals(results.get(1).getValue(), "B");
+        // every input of a failed batch shares its failure
+        assertEquals(results.get(2).getStatus(), Status.FAILURE);
+        assertEquals(results.get(3).getStatus(), Status.FAILURE);
+        assertEquals(results.get(4).getValue(), "E");
+        Collections.sort(batchSizes);
+        assertEquals(batchSizes, Arrays.asList(1, 2, 2));
+        ExecutionStatistics moduleStats = executor.getModuleStatistics(module.getModuleId());
+        assertEquals(moduleStats.getExecutionCount(), 3);
+        assertEquals(moduleStats.getFailureCount(), 1);
+
+        // executables which don't return a result per input fail the batch
+        results = executor.executeBatch(module, Arrays.asList("a", "b"), new ScriptModuleBatchExecutable<String, String>() {
+            @Override
+            public List<String> execute(ScriptModule scriptModule, List<String> inputs) {
+                return Collections.singletonList("a");
+            }
+        }, 10, 5, TimeUnit.SECONDS);
+        assertEquals(results.get(0).getStatus(), Status.FAILURE);
+        assertEquals(results.get(1).getStatus(), Status.FAILURE);
+    }
+
+    @Test
+    public void testExecuteBatchDeadline() {
+        ScriptModuleBatchExecutable<Long, Long> executable = new ScriptModuleBatchExecutable<Long, Long>() {
+            @Override
+            public List<Long> execute(ScriptModule scriptModule, List<Long> inputs) throws Exception {
+                Thread.sleep(inputs.get(0));
+                return inputs;
+            }
+        };
+        HystrixScriptModuleExecutor<Long> executor = new HystrixScriptModuleExecutor<Long>("testExecuteBatchDeadline");
+        long start = System.currentTimeMillis();
+        List<ScriptModuleExecutionResult<Long>> results = executor.executeBatch(createModule("bd1"), Arrays.asList(1L, 800L),
+            executable, 1, 100, TimeUnit.MILLISECONDS);
+        assertTrue(System.currentTimeMillis() - start < 700);
+        assertEquals(results.get(0).getStatus(), Status.SUCCESS);
+        assertEquals(results.get(1).getStatus(), Status.TIMEOUT);
+
+        // on the calling thread, batches which were not started by the deadline time out
+        executor = new HystrixScriptModuleExecutor.Builder<Long>("testExecuteBatchDeadlineSemaphore")
+            .setIsolationStrategy(ExecutionIsolationStrategy.SEMAPHORE)
+            .build();
+        results = executor.executeBatch(createModule("bd2"), Arrays.asList(200L, 1L, 1L), executable, 2, 100, TimeUnit.MILLISECONDS);
+        assertEquals(results.get(0).getStatus(), Status.SUCCESS);
+        assertEquals(results.get(1).getStatus(), Status.SUCCESS);
+        assertEquals(results.get(2).getStatus(), Status.TIMEOUT);
+        assertEquals(executor.getModuleStatistics(ModuleId.create("bd2")).getExecutionCount(), 1);
+    }
+
+    private static ExecutionStatistics waitForSamples(HystrixScriptModuleExecutor<String> executor, ScriptModule module,
+            long samples) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (System.currentTimeMillis() < deadline) {
+            ExecutionStatistics stats = executor.getRevisionStatistics(module.getModuleId(), module.getCreateTime());
+            if (stats != null && stats.getLatencyHistogram().getCount() >= samples) {
+                return stats;
+            }
+            Thread.sleep(10);
+        }
+        throw new AssertionError("timed out waiting for " + samples + " executions of " + module.getModuleId());
+    }
+
+    private static ScriptModule createModule(String name) {
+        return createModule(name, 1);
+    }
+
+    private static ScriptModule createModule(String name, long createTime) {
+        ScriptModule module = mock(ScriptModule.class);
+        when(module.getModuleId()).thenReturn(ModuleId.create(name));
+        when(module.getCreateTime()).thenReturn(createTime);
+        return module;
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.nicobar.core.execution;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for {@link LatencyHistogram}
+ */
+public class LatencyHistogramTest {
+
+    @Test
+    public void testBuckets() {
+        long previousUpperBound = -1;
+        for (int i = 0; i <= LatencyHistogram.getBucketIndex(Long.MAX_VALUE); i++) {
+            long upperBound = LatencyHistogram.getBucketUpperBound(i);
+            assertTrue(upperBound > previousUpperBound);
+            assertEquals(LatencyHistogram.getBucketIndex(previousUpperBound + 1), i);
+            assertEquals(LatencyHistogram.getBucketIndex(upperBound), i);
+            previousUpperBound = upperBound;
+        }
+        assertEquals(previousUpperBound, Long.MAX_VALUE);
+    }
+
+    @Test
+    public void testPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(histogram.getP99(TimeUnit.NANOSECONDS), 0);
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(TimeUnit.MICROSECONDS.toNanos(i));
+        }
+        assertEquals(histogram.getCount(), 1000);
+        assertEquals(histogram.getMax(TimeUnit.MICROSECONDS), 1000);
+        assertEquals(histogram.getMean(TimeUnit.NANOSECONDS), 500500);
+        assertWithin(histogram.getP50(TimeUnit.MICROSECONDS), 500);
+        assertWithin(histogram.getP99(TimeUnit.MICROSECONDS), 990);
+        assertWithin(histogram.getP999(TimeUnit.MICROSECONDS), 999);
+        assertEquals(histogram.getPercentile(100, TimeUnit.MICROSECONDS), 1000);
+    }
+
+    @Test
+    public void testConcurrentRecording() throws Exception {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        int threads = 4;
+        final int iterations = 100000;
+        final CountDownLatch latch = new CountDownLatch(threads);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        for (int t = 0; t < threads; t++) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < iterations; i++) {
+                        histogram.record(i);
+                    }
+                    latch.countDown();
+                }
+            });
+        }
+        latch.await();
+        executor.shutdown();
+        assertEquals(histogram.getCount(), threads * iterations);
+        assertEquals(histogram.getMax(TimeUnit.NANOSECONDS), iterations - 1);
+    }
+
+    /**
+     * Assert that the value is within the relative error of the histogram
+     */
+    private static void assertWithin(long actual, long expected) {
+        assertTrue(actual >= expected && actual <= expected + expected / LatencyHistogram.SUB_BUCKETS,
+            "expected " + expected + " but was " + actual);
+    }
+}
@@ -0,0 +1,282 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.nicobar.core.module;
+
+import static com.netflix.nicobar.core.testutil.CoreTestResourceUtil.TestResource.TEST_DEPENDENCIES_DEPENDENT;
+import static com.netflix.nicobar.core.testutil.CoreTestResourceUtil.TestResource.TEST_DEPENDENCIES_PRIMARY;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.io.File;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.annotations.Test;
+
+import com.netflix.nicobar.core.archive.JarScriptArchive;
+import com.netflix.nicobar.core.archive.ScriptArchive;
+import com.netflix.nicobar.core.archive.ScriptModuleSpec;
+import com.netflix.nicobar.core.plugin.BytecodeLoadingPlugin;
+import com.netflix.nicobar.core.plugin.ScriptCompilerPluginSpec;
+import com.netflix.nicobar.core.testutil.CoreTestResourceUtil;
+
+/**
+ * Unit tests for {@link ScriptModuleEntryPoint}
+ */
+public class ScriptModuleEntryPointTest {
+    public static class Entry {
+        private static final AtomicInteger instances = new AtomicInteger();
+
+        public Entry() {
+            instances.incrementAndGet();
+        }
+
+        public static int add(int a, int b) {
+            return a + b;
+        }
+
+        public String greet(String name) {
+            return "hello " + name;
+        }
+
+        public void fail() throws Exception {
+            throw new Exception("failed");
+        }
+    }
+
+    public static class BaseScript {
+        public void run(File file, String[] args) {
+        }
+
+        public Object run(String name) {
+            return name;
+        }
+    }
+
+    public static class SubScript extends BaseScript {
+        public Object run() {
+            return "run";
+        }
+    }
+
+    public static class Overloaded {
+        public String handle(String value) {
+            return "string";
+        }
+
+        public String handle(int value) {
+            return "int";
+        }
+
+        public String handle(int[] values) {
+            return "int[]";
+        }
+    }
+
+    @Test
+    public void testStaticMethod() throws Throwable {
+        ScriptModuleEntryPoint entryPoint = new ScriptModuleEntryPoint(Entry.class, Entry.class.getMethod("add", int.class, int.class));
+        int instances = Entry.instances.get();
+        assertEquals(entryPoint.invoke(1, 2), 3);
+        assertEquals((int)entryPoint.getMethodHandle().invokeExact(3, 4), 7);
+        assertEquals(Entry.instances.get(), instances);
+    }
+
+    @Test
+    public void testInstanceMethod() throws Exception {
+        ScriptModuleEntryPoint entryPoint = new ScriptModuleEntryPoint(Entry.class, Entry.class.getMethod("greet", String.class));
+        int instances = Entry.instances.get();
+        assertEquals(entryPoint.invoke("world"), "hello world");
+        assertEquals(entryPoint.invoke("again"), "hello again");
+        assertEquals(Entry.instances.get(), instances + 2);
+    }
+
+    @Test(expectedExceptions = Exception.class, expectedExceptionsMessageRegExp = "failed")
+    public void testExceptionPropagated() throws Exception {
+        ScriptModuleEntryPoint entryPoint = new ScriptModuleEntryPoint(Entry.class, Entry.class.getMethod("fail"));
+        entryPoint.invoke();
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testWrongArgumentCount() throws Exception {
+        ScriptModuleEntryPoint entryPoint = new ScriptModuleEntryPoint(Entry.class, Entry.class.getMethod("add", int.class, int.class));
+        entryPoint.invoke(1);
+    }
+
+    @Test
+    public void testStatelessInstancesPooled() throws Exception {
+        ScriptModuleEntryPoint entryPoint = new ScriptModuleEntryPoint(Entry.class, Entry.class.getMethod("greet", String.class), 2);
+        ScriptInstancePool pool = entryPoint.getInstancePool();
+        for (int i = 0; i < 5; i++) {
+            assertEquals(entryPoint.invoke("pool"), "hello pool");
+        }
+        assertEquals(pool.getCreatedCount(), 1);
+        assertEquals(pool.getIdleCount(), 1);
+
+        // only up to the maximum number of idle instances is kept
+        Object[] instances = new Object[3];
+        for (int i = 0; i < instances.length; i++) {
+            instances[i] = pool.acquire();
+        }
+        for (Object instance : instances) {
+            pool.release(instance);
+        }
+        assertEquals(pool.getCreatedCount(), 3);
+        assertEquals(pool.getIdleCount(), 2);
+
+        // a drained pool still serves invocations, but keeps no instances
+        entryPoint.drain();
+        assertEquals(pool.getIdleCount(), 0);
+        assertEquals(entryPoint.invoke("drained"), "hello drained");
+        assertEquals(pool.getCreatedCount(), 4);
+        assertEquals(pool.getIdleCount(), 0);
+    }
+
+    @Test
+    public void testStaticMethodNotPooled() throws Exception {
+        ScriptModuleEntryPoint entryPoint = new ScriptModuleEntryPoint(Entry.class, Entry.class.getMethod("add", int.class, int.class), 2);
+        assertNull(entryPoint.getInstancePool());
+        assertEquals(entryPoint.invoke(1, 2), 3);
+    }
+
+    @Test
+    public void testDeclaredMethodsPreferred() throws Exception {
+        Method run = SubScript.class.getMethod("run");
+        assertEquals(ScriptModuleEntryPoint.findMethod(SubScript.class, "run", null), run);
+        assertEquals(ScriptModuleEntryPoint.findMethod(SubScript.class, null, null), run);
+        // inherited methods are found when the class declares no match
+        assertEquals(ScriptModuleEntryPoint.findMethod(SubScript.class, "run", new Class<?>[] {String.class}),
+            BaseScript.class.getMethod("run", String.class));
+    }
+
+    @Test
+    public void testOverloadsPickedByParameterTypes() throws Exception {
+        try {
+            ScriptModuleEntryPoint.findMethod(Overloaded.class, "handle", null);
+            fail("overloaded methods are ambiguous without parameter types");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains(ScriptModuleEntryPoint.METADATA_ENTRY_PARAMETER_TYPES));
+        }
+        assertEquals(ScriptModuleEntryPoint.findMethod(Overloaded.class, "handle", new Class<?>[] {int.class}),
+            Overloaded.class.getMethod("handle", int.class));
+        assertEquals(ScriptModuleEntryPoint.findMethod(Overloaded.class, null, new Class<?>[] {int[].class}),
+            Overloaded.class.getMethod("handle", int[].class));
+    }
+
+    @Test(expectedExceptions = NoSuchMethodException.class)
+    public void testMissingOverloadRejected() throws Exception {
+        ScriptModuleEntryPoint.findMethod(Overloaded.class, "handle", new Class<?>[] {long.class});
+    }
+
+    @Test
+    public void testResolvedOnModuleLoad() throws Exception {
+        ScriptModuleLoader moduleLoader = createModuleLoader();
+        ScriptModuleSpec spec = new ScriptModuleSpec.Builder(TEST_DEPENDENCIES_DEPENDENT.getModuleId())
+            .addCompilerPluginId(BytecodeLoadingPlugin.PLUGIN_ID)
+            .addModuleDependency(TEST_DEPENDENCIES_PRIMARY.getModuleId())
+            .addMetadata(ScriptModuleEntryPoint.METADATA_ENTRY_INTERFACE, "interfaces.Helper")
+            .addMetadata(ScriptModuleEntryPoint.METADATA_ENTRY_PARAMETER_TYPES, Collections.emptyList())
+            .build();
+        moduleLoader.updateScriptArchives(new HashSet<ScriptArchive>(Arrays.asList(createPrimaryArchive(), createDependentArchive(spec))));
+
+        assertNull(moduleLoader.getScriptModule(TEST_DEPENDENCIES_PRIMARY.getModuleId()).getEntryPoint());
+        ScriptModule module = moduleLoader.getScriptModule(TEST_DEPENDENCIES_DEPENDENT.getModuleId());
+        ScriptModuleEntryPoint entryPoint = module.getEntryPoint();
+        assertNotNull(entryPoint);
+        assertEquals(entryPoint.getEntryClass().getName(), "impl.HelperImpl");
+        assertEquals(entryPoint.getEntryMethod().getName(), "doWork");
+        Object helper = module.getModuleClassLoader().loadClass("impl.HelperImpl").newInstance();
+        assertEquals(entryPoint.invoke(), entryPoint.getEntryMethod().invoke(helper));
+        assertNull(entryPoint.getInstancePool());
+    }
+
+    @Test
+    public void testPoolDrainedOnModuleRemoval() throws Exception {
+        ScriptModuleLoader moduleLoader = createModuleLoader();
+        ScriptModuleSpec spec = new ScriptModuleSpec.Builder(TEST_DEPENDENCIES_DEPENDENT.getModuleId())
+            .addCompilerPluginId(BytecodeLoadingPlugin.PLUGIN_ID)
+            .addModuleDependency(TEST_DEPENDENCIES_PRIMARY.getModuleId())
+            .addMetadata(ScriptModuleEntryPoint.METADATA_ENTRY_INTERFACE, "interfaces.Helper")
+            .addMetadata(ScriptModuleEntryPoint.METADATA_ENTRY_STATELESS, "true")
+            .addMetadata(ScriptModuleEntryPoint.METADATA_ENTRY_POOL_SIZE, 4.0)
+            .build();
+        moduleLoader.updateScriptArchives(new HashSet<ScriptArchive>(Arrays.asList(createPrimaryArchive(), createDependentArchive(spec))));
+        ScriptModuleEntryPoint entryPoint = moduleLoader.getScriptModule(TEST_DEPENDENCIES_DEPENDENT.getModuleId()).getEntryPoint();
+        ScriptInstancePool pool = entryPoint.getInstancePool();
+        assertEquals(pool.getMaxIdle(), 4);
+        entryPoint.invoke();
+        entryPoint.invoke();
+        assertEquals(pool.getCreatedCount(), 1);
+        assertEquals(pool.getIdleCount(), 1);
+
+        moduleLoader.removeScriptModule(TEST_DEPENDENCIES_DEPENDENT.getModuleId());
+        assertTrue(pool.isDrained());
+        assertEquals(pool.getIdleCount(), 0);
+    }
+
+    @Test
+    public void testUnresolvableEntryPointRejected() throws Exception {
+        ScriptModuleListener listener = mock(ScriptModuleListener.class);
+        ScriptModuleLoader moduleLoader = createModuleLoader();
+        moduleLoader.addListeners(new HashSet<ScriptModuleListener>(Arrays.asList(listener)));
+        ScriptModuleSpec spec = new ScriptModuleSpec.Builder(TEST_DEPENDENCIES_DEPENDENT.getModuleId())
+            .addCompilerPluginId(BytecodeLoadingPlugin.PLUGIN_ID)
+            .addModuleDependency(TEST_DEPENDENCIES_PRIMARY.getModuleId())
+            .addMetadata(ScriptModuleEntryPoint.METADATA_ENTRY_CLASS, "impl.HelperImpl")
+            .addMetadata(ScriptModuleEntryPoint.METADATA_ENTRY_METHOD, "missing")
+            .build();
+        ScriptArchive dependentArchive = createDependentArchive(spec);
+        moduleLoader.updateScriptArchives(new HashSet<ScriptArchive>(Arrays.asList(createPrimaryArchive(), dependentArchive)));
+
+        assertNotNull(moduleLoader.getScriptModule(TEST_DEPENDENCIES_PRIMARY.getModuleId()));
+        assertNull(moduleLoader.getScriptModule(TEST_DEPENDENCIES_DEPENDENT.getModuleId()));
+        verify(listener).archiveRejected(eq(dependentArchive), eq(ArchiveRejectedReason.COMPILE_FAILURE), any(NoSuchMethodException.class));
+    }
+
+    private ScriptModuleLoader createModuleLoader() throws Exception {
+        ScriptCompilerPluginSpec pluginSpec = new ScriptCompilerPluginSpec.Builder(BytecodeLoadingPlugin.PLUGIN_ID)
+            .withPluginClassName(BytecodeLoadingPlugin.class.getName())
+            .build();
+        return new ScriptModuleLoader.Builder().addPluginSpec(pluginSpec).build();
+    }
+
+    private ScriptArchive createPrimaryArchive() throws Exception {
+        ScriptModuleSpec spec = new ScriptModuleSpec.Builder(TEST_DEPENDENCIES_PRIMARY.getModuleId())
+            .addCompilerPluginId(BytecodeLoadingPlugin.PLUGIN_ID)
+            .build();
+        return new JarScriptArchive.Builder(CoreTestResourceUtil.getResourceAsPath(TEST_DEPENDENCIES_PRIMARY))
+            .setModuleSpec(spec)
+            .build();
+    }
+
+    private ScriptArchive createDependentArchive(ScriptModuleSpec spec) throws Exception {
+        return new JarScriptArchive.Builder(CoreTestResourceUtil.getResourceAsPath(TEST_DEPENDENCIES_DEPENDENT))
+            .setModuleSpec(spec)
+            .build();
+    }
+}
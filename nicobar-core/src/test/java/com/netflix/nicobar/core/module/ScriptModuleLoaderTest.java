@@ -17,6 +17,8 @@
  */
 package com.netflix.nicobar.core.module;
 
+import static com.netflix.nicobar.core.testutil.CoreTestResourceUtil.TestResource.TEST_DEPENDENCIES_DEPENDENT;
+import static com.netflix.nicobar.core.testutil.CoreTestResourceUtil.TestResource.TEST_DEPENDENCIES_PRIMARY;
 import static com.netflix.nicobar.core.testutil.CoreTestResourceUtil.TestResource.TEST_MODULE_SPEC_JAR;
 import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.mock;
@@ -25,10 +27,17 @@ import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.when;
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
 import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
 
 import java.io.IOException;
 import java.net.URL;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.Collections;
 import java.util.HashSet;
@@ -36,9 +45,12 @@ import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang.builder.ToStringBuilder;
 import org.apache.commons.lang.builder.ToStringStyle;
 import org.hamcrest.Description;
+import org.jboss.modules.ModuleClassLoader;
+import org.jboss.modules.ModuleIdentifier;
 import org.jboss.modules.ModuleLoadException;
 import org.mockito.ArgumentMatcher;
 import org.mockito.InOrder;
@@ -48,14 +60,17 @@ import org.testng.annotations.Test;
 
 import com.netflix.nicobar.core.archive.JarScriptArchive;
 import com.netflix.nicobar.core.archive.ModuleId;
+import com.netflix.nicobar.core.archive.PathScriptArchive;
 import com.netflix.nicobar.core.archive.ScriptArchive;
 import com.netflix.nicobar.core.archive.ScriptModuleSpec;
 import com.netflix.nicobar.core.compile.ScriptArchiveCompiler;
 import com.netflix.nicobar.core.compile.ScriptCompilationException;
 import com.netflix.nicobar.core.module.jboss.JBossModuleClassLoader;
+import com.netflix.nicobar.core.module.jboss.JBossModuleUtils;
 import com.netflix.nicobar.core.plugin.TestCompilerPlugin;
 import com.netflix.nicobar.core.plugin.ScriptCompilerPlugin;
 import com.netflix.nicobar.core.plugin.ScriptCompilerPluginSpec;
+import com.netflix.nicobar.core.plugin.WarmableScriptCompilerPlugin;
 import com.netflix.nicobar.core.testutil.CoreTestResourceUtil;
 
 /**
@@ -352,6 +367,165 @@ public class ScriptModuleLoaderTest {
      * @throws ModuleLoadException
      * @throws ClassNotFoundException
      */
+    @Test
+    public void testStagedRevision() throws Exception {
+        // B->A
+        Set<ScriptArchive> updateArchives = new HashSet<ScriptArchive>();
+        updateArchives.add(new TestDependecyScriptArchive(new ScriptModuleSpec.Builder("A").addCompilerPluginId("mockPlugin").build(), 1000));
+        updateArchives.add(new TestDependecyScriptArchive(new ScriptModuleSpec.Builder("B").addCompilerPluginId("mockPlugin").addModuleDependency("A").build(), 1000));
+        ScriptModuleListener mockListener = createMockListener();
+        ScriptModuleLoader moduleLoader = new ScriptModuleLoader.Builder()
+            .addListener(mockListener)
+            .addPluginSpec(new ScriptCompilerPluginSpec.Builder("mockPlugin")
+                .withPluginClassName(MockScriptCompilerPlugin.class.getName()).build())
+            .build();
+        when(MOCK_COMPILER.shouldCompile(Mockito.any(ScriptArchive.class))).thenReturn(true);
+        when(MOCK_COMPILER.compile(Mockito.any(ScriptArchive.class), Mockito.any(JBossModuleClassLoader.class), Mockito.any(Path.class))).thenReturn(Collections.<Class<?>>emptySet());
+        moduleLoader.updateScriptArchives(updateArchives);
+        reset(mockListener);
+
+        // a staged revision isn't published
+        ScriptArchive stagedArchive = new TestDependecyScriptArchive(new ScriptModuleSpec.Builder("A").addCompilerPluginId("mockPlugin").build(), 2000);
+        ScriptModule stagedModule = moduleLoader.stageScriptArchive(stagedArchive);
+        assertNotNull(stagedModule);
+        assertEquals(stagedModule.getCreateTime(), 2000);
+        assertEquals(moduleLoader.getScriptModule("A").getCreateTime(), 1000);
+        assertSame(moduleLoader.getStagedScriptModule(ModuleId.create("A")), stagedModule);
+        verifyNoMoreInteractions(mockListener);
+
+        // rejecting notifies the listeners
+        assertTrue(moduleLoader.rejectStagedScriptModule(stagedModule));
+        assertFalse(moduleLoader.rejectStagedScriptModule(stagedModule));
+        assertNull(moduleLoader.getStagedScriptModule(ModuleId.create("A")));
+        verify(mockListener).archiveRejected(Mockito.same(stagedArchive), Mockito.same(ArchiveRejectedReason.STAGED_REVISION_REJECTED),
+            (Throwable)Mockito.isNull());
+
+        // committing publishes the revision and relinks its dependents
+        stagedArchive = new TestDependecyScriptArchive(new ScriptModuleSpec.Builder("A").addCompilerPluginId("mockPlugin").build(), 3000);
+        moduleLoader.stageScriptArchive(stagedArchive);
+        assertTrue(moduleLoader.commitStagedScriptModule(ModuleId.create("A")));
+        assertEquals(moduleLoader.getScriptModule("A").getCreateTime(), 3000);
+        assertNull(moduleLoader.getStagedScriptModule(ModuleId.create("A")));
+        InOrder orderVerifier = inOrder(mockListener);
+        orderVerifier.verify(mockListener).moduleUpdated(moduleEquals("A", 3000), moduleEquals("A", 1000));
+        orderVerifier.verify(mockListener).moduleUpdated(moduleEquals("B", 1000), moduleEquals("B", 1000));
+        assertFalse(moduleLoader.commitStagedScriptModule(ModuleId.create("A")));
+    }
+
+    @Test
+    public void testSharedLibraries() throws Exception {
+        Path libraryJarPath = CoreTestResourceUtil.getResourceAsPath(TEST_DEPENDENCIES_PRIMARY);
+        Path rootDir = Files.createTempDirectory(ScriptModuleLoaderTest.class.getSimpleName());
+        try {
+            ScriptModuleLoader moduleLoader = new ScriptModuleLoader.Builder()
+                .addPluginSpec(new ScriptCompilerPluginSpec.Builder("mockPlugin")
+                    .withPluginClassName(MockScriptCompilerPlugin.class.getName()).build())
+                .withSharedLibraries(true)
+                .build();
+            when(MOCK_COMPILER.shouldCompile(Mockito.any(ScriptArchive.class))).thenReturn(true);
+            when(MOCK_COMPILER.compile(Mockito.any(ScriptArchive.class), Mockito.any(JBossModuleClassLoader.class), Mockito.any(Path.class))).thenReturn(Collections.<Class<?>>emptySet());
+
+            // A and B bundle the same library, which is loaded once for both
+            Set<ScriptArchive> updateArchives = new HashSet<ScriptArchive>();
+            updateArchives.add(createLibraryArchive(rootDir.resolve("A"), "A", libraryJarPath, 1000));
+            updateArchives.add(createLibraryArchive(rootDir.resolve("B"), "B", libraryJarPath, 1000));
+            moduleLoader.updateScriptArchives(updateArchives);
+            Class<?> helperClass = moduleLoader.getScriptModule("A").getModuleClassLoader().loadClass("interfaces.Helper");
+            assertSame(moduleLoader.getScriptModule("B").getModuleClassLoader().loadClass("interfaces.Helper"), helperClass);
+            ModuleIdentifier libraryId = ((ModuleClassLoader)helperClass.getClassLoader()).getModule().getIdentifier();
+            assertTrue(JBossModuleUtils.isSharedLibraryId(libraryId));
+            assertEquals(moduleLoader.jbossModuleLoader.getSharedLibraryUsers(libraryId).size(), 2);
+
+            // a new revision keeps using the library
+            moduleLoader.updateScriptArchives(Collections.singleton(createLibraryArchive(rootDir.resolve("A2"), "A", libraryJarPath, 2000)));
+            assertSame(moduleLoader.getScriptModule("A").getModuleClassLoader().loadClass("interfaces.Helper"), helperClass);
+            assertEquals(moduleLoader.jbossModuleLoader.getSharedLibraryUsers(libraryId).size(), 2);
+
+            // the library is unloaded with its last user
+            moduleLoader.removeScriptModule(ModuleId.create("A"));
+            assertEquals(moduleLoader.jbossModuleLoader.getSharedLibraryUsers(libraryId).size(), 1);
+            assertNotNull(moduleLoader.jbossModuleLoader.findLoadedModule(libraryId));
+            moduleLoader.removeScriptModule(ModuleId.create("B"));
+            assertTrue(moduleLoader.jbossModuleLoader.getSharedLibraryUsers(libraryId).isEmpty());
+            assertNull(moduleLoader.jbossModuleLoader.findLoadedModule(libraryId));
+        } finally {
+            FileUtils.deleteQuietly(rootDir.toFile());
+        }
+    }
+
+    @Test
+    public void testLibrariesWithDependentJars() throws Exception {
+        Path interfacesJarPath = CoreTestResourceUtil.getResourceAsPath(TEST_DEPENDENCIES_PRIMARY);
+        Path implJarPath = CoreTestResourceUtil.getResourceAsPath(TEST_DEPENDENCIES_DEPENDENT);
+        Path rootDir = Files.createTempDirectory(ScriptModuleLoaderTest.class.getSimpleName());
+        try {
+            when(MOCK_COMPILER.shouldCompile(Mockito.any(ScriptArchive.class))).thenReturn(true);
+            when(MOCK_COMPILER.compile(Mockito.any(ScriptArchive.class), Mockito.any(JBossModuleClassLoader.class), Mockito.any(Path.class))).thenReturn(Collections.<Class<?>>emptySet());
+            for (boolean sharedLibraries : new boolean[] { false, true }) {
+                ScriptModuleLoader moduleLoader = new ScriptModuleLoader.Builder()
+                    .addPluginSpec(new ScriptCompilerPluginSpec.Builder("mockPlugin")
+                        .withPluginClassName(MockScriptCompilerPlugin.class.getName()).build())
+                    .withSharedLibraries(sharedLibraries)
+                    .build();
+                Set<ScriptArchive> updateArchives = new HashSet<ScriptArchive>();
+                updateArchives.add(createLibraryArchive(rootDir.resolve(sharedLibraries + "A"), "A", 1000, implJarPath, interfacesJarPath));
+                updateArchives.add(createLibraryArchive(rootDir.resolve(sharedLibraries + "B"), "B", 1000, interfacesJarPath));
+                moduleLoader.updateScriptArchives(updateArchives);
+
+                // the bundled implementation links against the interfaces bundled next to it
+                ClassLoader moduleClassLoader = moduleLoader.getScriptModule("A").getModuleClassLoader();
+                Class<?> managerClass = moduleClassLoader.loadClass("impl.ManagerImpl");
+                Class<?> interfaceClass = moduleClassLoader.loadClass("interfaces.Manager");
+                assertTrue(interfaceClass.isAssignableFrom(managerClass));
+                assertSame(managerClass.getMethod("supervise", moduleClassLoader.loadClass("interfaces.Helper")).getDeclaringClass(), managerClass);
+                ModuleIdentifier loaderId = ((ModuleClassLoader)managerClass.getClassLoader()).getModule().getIdentifier();
+                assertEquals(JBossModuleUtils.isSharedLibraryId(loaderId), sharedLibraries);
+                ClassLoader otherClassLoader = moduleLoader.getScriptModule("B").getModuleClassLoader();
+                assertClassNotFound(otherClassLoader, "impl.ManagerImpl");
+                if (sharedLibraries) {
+                    // each jar gets its own library, shared with every archive bundling that jar
+                    assertNotSame(interfaceClass.getClassLoader(), managerClass.getClassLoader());
+                    assertSame(otherClassLoader.loadClass("interfaces.Manager"), interfaceClass);
+
+                    // the interfaces library outlives the removal of one of the archives bundling it
+                    moduleLoader.removeScriptModule(ModuleId.create("A"));
+                    assertSame(otherClassLoader.loadClass("interfaces.Manager"), interfaceClass);
+                    assertSame(moduleLoader.getScriptModule("B").getModuleClassLoader().loadClass("interfaces.Manager"), interfaceClass);
+                } else {
+                    assertSame(interfaceClass.getClassLoader(), managerClass.getClassLoader());
+                    assertNotSame(otherClassLoader.loadClass("interfaces.Manager"), interfaceClass);
+                }
+            }
+        } finally {
+            FileUtils.deleteQuietly(rootDir.toFile());
+        }
+    }
+
+    private static void assertClassNotFound(ClassLoader classLoader, String className) {
+        try {
+            classLoader.loadClass(className);
+            fail("unexpected class " + className);
+        } catch (ClassNotFoundException e) {
+            // expected
+        }
+    }
+
+    private static ScriptArchive createLibraryArchive(Path rootDir, String moduleId, Path libraryJarPath, long createTime) throws IOException {
+        return createLibraryArchive(rootDir, moduleId, createTime, libraryJarPath);
+    }
+
+    private static ScriptArchive createLibraryArchive(Path rootDir, String moduleId, long createTime, Path... libraryJarPaths) throws IOException {
+        Files.createDirectories(rootDir.resolve("lib"));
+        for (Path libraryJarPath : libraryJarPaths) {
+            Files.copy(libraryJarPath, rootDir.resolve("lib").resolve(libraryJarPath.getFileName()));
+        }
+        return new PathScriptArchive.Builder(rootDir)
+            .setRecurseRoot(true)
+            .setCreateTime(createTime)
+            .setModuleSpec(new ScriptModuleSpec.Builder(moduleId).addCompilerPluginId("mockPlugin").build())
+            .build();
+    }
+
     @Test
     public void testCompilerPluginClassloader() throws ModuleLoadException, IOException, ClassNotFoundException {
         ScriptModuleLoader moduleLoader = new ScriptModuleLoader.Builder()
@@ -364,6 +538,25 @@ public class ScriptModuleLoaderTest {
         assertNotNull(pluginClass);
     }
 
+    @Test
+    public void testWarmupIterations() {
+        ScriptCompilerPluginSpec.Builder pluginSpecBuilder = new ScriptCompilerPluginSpec.Builder("mockPlugin");
+        assertEquals(ScriptModuleLoader.getWarmupIterations(pluginSpecBuilder.build()), WarmableScriptCompilerPlugin.DEFAULT_WARMUP_ITERATIONS);
+        pluginSpecBuilder.addCompilerParams(WarmableScriptCompilerPlugin.COMPILER_PARAMS_WARMUP_ITERATIONS, 0);
+        assertEquals(ScriptModuleLoader.getWarmupIterations(pluginSpecBuilder.build()), 0);
+        pluginSpecBuilder.addCompilerParams(WarmableScriptCompilerPlugin.COMPILER_PARAMS_WARMUP_ITERATIONS, " 3 ");
+        assertEquals(ScriptModuleLoader.getWarmupIterations(pluginSpecBuilder.build()), 3);
+        for (Object invalid : new Object[] { -1, "none" }) {
+            pluginSpecBuilder.addCompilerParams(WarmableScriptCompilerPlugin.COMPILER_PARAMS_WARMUP_ITERATIONS, invalid);
+            try {
+                ScriptModuleLoader.getWarmupIterations(pluginSpecBuilder.build());
+                fail("accepted " + invalid);
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+
     /**
      * Custom mockito/hamcrest matcher which will inspect a ScriptModule and see if its moduleId
      * equals the input moduleId and likewise for the creation time
@@ -0,0 +1,174 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.nicobar.core.module;
+
+import static com.netflix.nicobar.core.testutil.CoreTestResourceUtil.TestResource.TEST_DEPENDENCIES_PRIMARY;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nullable;
+
+import org.testng.annotations.Test;
+
+import com.netflix.nicobar.core.archive.JarScriptArchive;
+import com.netflix.nicobar.core.archive.ModuleId;
+import com.netflix.nicobar.core.archive.ScriptArchive;
+import com.netflix.nicobar.core.archive.ScriptModuleSpec;
+import com.netflix.nicobar.core.plugin.BytecodeLoadingPlugin;
+import com.netflix.nicobar.core.plugin.ScriptCompilerPluginSpec;
+import com.netflix.nicobar.core.testutil.CoreTestResourceUtil;
+
+/**
+ * Unit tests for {@link ScriptModuleWarmupRunner}
+ */
+public class ScriptModuleWarmupRunnerTest {
+    /**
+     * Module supplied warm-up routine
+     */
+    public static class CountingWarmup implements Runnable {
+        private static final AtomicInteger iterations = new AtomicInteger();
+
+        @Override
+        public void run() {
+            iterations.incrementAndGet();
+        }
+    }
+
+    @Test
+    public void testWarmedUpBeforePublished() throws Exception {
+        final AtomicInteger iterations = new AtomicInteger();
+        final ModuleId moduleId = TEST_DEPENDENCIES_PRIMARY.getModuleId();
+        final ScriptModuleLoader[] moduleLoader = new ScriptModuleLoader[1];
+        ScriptModuleWarmupRunner warmupRunner = new ScriptModuleWarmupRunner.Builder()
+            .setWarmup(new ScriptModuleWarmup() {
+                @Override
+                public void warmUp(ScriptModule scriptModule) throws Exception {
+                    assertNull(moduleLoader[0].getScriptModule(moduleId));
+                    scriptModule.getModuleClassLoader().loadClass("interfaces.Helper");
+                    iterations.incrementAndGet();
+                }
+            })
+            .setMaxIterations(50)
+            .setStopWhenCompilationSettles(false)
+            .build();
+        final AtomicInteger iterationsWhenPublished = new AtomicInteger(-1);
+        moduleLoader[0] = createModuleLoader(warmupRunner, new BaseScriptModuleListener() {
+            @Override
+            public void moduleUpdated(@Nullable ScriptModule newScriptModule, @Nullable ScriptModule oldScriptModule) {
+                iterationsWhenPublished.set(iterations.get());
+            }
+        });
+        moduleLoader[0].updateScriptArchives(Collections.singleton(createArchive(null)));
+        assertNotNull(moduleLoader[0].getScriptModule(moduleId));
+        assertEquals(iterations.get(), 50);
+        assertEquals(iterationsWhenPublished.get(), 50);
+    }
+
+    @Test
+    public void testModuleSuppliedWarmup() throws Exception {
+        ScriptModuleWarmupRunner warmupRunner = new ScriptModuleWarmupRunner.Builder()
+            .setMaxIterations(10)
+            .setStopWhenCompilationSettles(false)
+            .build();
+        ScriptModuleLoader moduleLoader = createModuleLoader(warmupRunner, null);
+        int start = CountingWarmup.iterations.get();
+        moduleLoader.updateScriptArchives(Collections.singleton(createArchive(CountingWarmup.class.getName())));
+        assertNotNull(moduleLoader.getScriptModule(TEST_DEPENDENCIES_PRIMARY.getModuleId()));
+        assertEquals(CountingWarmup.iterations.get() - start, 10);
+    }
+
+    @Test
+    public void testFailedAndSlowWarmupsStillPublish() throws Exception {
+        ScriptModuleWarmupRunner failingRunner = new ScriptModuleWarmupRunner.Builder()
+            .setWarmup(new ScriptModuleWarmup() {
+                @Override
+                public void warmUp(ScriptModule scriptModule) throws Exception {
+                    throw new IllegalStateException("failed");
+                }
+            })
+            .build();
+        ScriptModuleLoader moduleLoader = createModuleLoader(failingRunner, null);
+        moduleLoader.updateScriptArchives(Collections.singleton(createArchive(null)));
+        assertNotNull(moduleLoader.getScriptModule(TEST_DEPENDENCIES_PRIMARY.getModuleId()));
+
+        ScriptModuleWarmupRunner slowRunner = new ScriptModuleWarmupRunner.Builder()
+            .setWarmup(new ScriptModuleWarmup() {
+                @Override
+                public void warmUp(ScriptModule scriptModule) throws Exception {
+                    Thread.sleep(10000);
+                }
+            })
+            .setTimeout(50, TimeUnit.MILLISECONDS)
+            .build();
+        moduleLoader = createModuleLoader(slowRunner, null);
+        long start = System.currentTimeMillis();
+        moduleLoader.updateScriptArchives(Collections.singleton(createArchive(null)));
+        assertTrue(System.currentTimeMillis() - start < 5000);
+        assertNotNull(moduleLoader.getScriptModule(TEST_DEPENDENCIES_PRIMARY.getModuleId()));
+        slowRunner.shutdown();
+    }
+
+    @Test
+    public void testStopsWhenCompilationSettles() throws Exception {
+        final AtomicInteger counter = new AtomicInteger();
+        ScriptModuleWarmupRunner warmupRunner = new ScriptModuleWarmupRunner.Builder()
+            .setWarmup(new ScriptModuleWarmup() {
+                @Override
+                public void warmUp(ScriptModule scriptModule) {
+                    counter.incrementAndGet();
+                }
+            })
+            .setMaxIterations(Integer.MAX_VALUE)
+            .setTimeout(20, TimeUnit.SECONDS)
+            .build();
+        ScriptModuleLoader moduleLoader = createModuleLoader(warmupRunner, null);
+        moduleLoader.updateScriptArchives(Collections.singleton(createArchive(null)));
+        assertTrue(counter.get() >= ScriptModuleWarmupRunner.SAMPLE_INTERVAL * ScriptModuleWarmupRunner.SETTLED_SAMPLES);
+        assertTrue(counter.get() < Integer.MAX_VALUE);
+    }
+
+    private ScriptModuleLoader createModuleLoader(ScriptModuleWarmupRunner warmupRunner, @Nullable ScriptModuleListener listener)
+            throws Exception {
+        ScriptCompilerPluginSpec pluginSpec = new ScriptCompilerPluginSpec.Builder(BytecodeLoadingPlugin.PLUGIN_ID)
+            .withPluginClassName(BytecodeLoadingPlugin.class.getName())
+            .build();
+        return new ScriptModuleLoader.Builder()
+            .addPluginSpec(pluginSpec)
+            .addAppPackages(Collections.singleton("com/netflix/nicobar/core/module"))
+            .addListener(listener)
+            .withWarmupRunner(warmupRunner)
+            .build();
+    }
+
+    private ScriptArchive createArchive(@Nullable String warmupClass) throws Exception {
+        ScriptModuleSpec.Builder specBuilder = new ScriptModuleSpec.Builder(TEST_DEPENDENCIES_PRIMARY.getModuleId())
+            .addCompilerPluginId(BytecodeLoadingPlugin.PLUGIN_ID);
+        if (warmupClass != null) {
+            specBuilder.addMetadata(ScriptModuleWarmup.METADATA_WARMUP_CLASS, warmupClass);
+        }
+        return new JarScriptArchive.Builder(CoreTestResourceUtil.getResourceAsPath(TEST_DEPENDENCIES_PRIMARY))
+            .setModuleSpec(specBuilder.build())
+            .build();
+    }
+}
@@ -21,11 +21,13 @@ import com.netflix.nicobar.core.archive.*;
 import com.netflix.nicobar.core.plugin.ScriptCompilerPlugin;
 import com.netflix.nicobar.core.plugin.ScriptCompilerPluginSpec;
 import com.netflix.nicobar.core.testutil.CoreTestResourceUtil;
+import org.apache.commons.io.FileUtils;
 import org.jboss.modules.*;
 import org.testng.TestNG;
 import org.testng.annotations.BeforeClass;
 import org.testng.annotations.Test;
 
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.Collections;
 import java.util.HashSet;
@@ -34,6 +36,7 @@ import java.util.Set;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
+import static com.netflix.nicobar.core.testutil.CoreTestResourceUtil.TestResource.TEST_DEPENDENCIES_PRIMARY;
 import static com.netflix.nicobar.core.testutil.CoreTestResourceUtil.TestResource.TEST_TEXT_JAR;
 import static com.netflix.nicobar.core.testutil.CoreTestResourceUtil.TestResource.TEST_TEXT_PATH;
 import static org.testng.Assert.*;
@@ -179,6 +182,41 @@ public class JBossModuleUtilsTest {
         assertEquals(actualPaths, TEST_TEXT_PATH.getContentPaths());
     }
 
+    /**
+     * Verify that the jars bundled in a {@link PathScriptArchive} are loaded in place by the module
+     */
+    @Test
+    public void testPathResourcesWithNestedJar() throws Exception {
+        Path rootDir = Files.createTempDirectory(JBossModuleUtilsTest.class.getSimpleName());
+        try {
+            Path libDir = Files.createDirectory(rootDir.resolve("lib"));
+            Files.copy(CoreTestResourceUtil.getResourceAsPath(TEST_DEPENDENCIES_PRIMARY), libDir.resolve("interfaces-module.jar"));
+            ScriptArchive pathScriptArchive = new PathScriptArchive.Builder(rootDir)
+                .setRecurseRoot(true)
+                .setModuleSpec(new ScriptModuleSpec.Builder(ModuleId.create("testModuleId")).build())
+                .build();
+            ModuleIdentifier revisionId = JBossModuleUtils.createRevisionId(pathScriptArchive.getModuleSpec().getModuleId(), 1);
+            ModuleSpec.Builder moduleSpecBuilder = ModuleSpec.build(revisionId);
+            JBossModuleLoader moduleLoader = new JBossModuleLoader();
+
+            JBossModuleUtils.populateModuleSpecWithCoreDependencies(moduleSpecBuilder, pathScriptArchive);
+            JBossModuleUtils.populateModuleSpecWithResources(moduleSpecBuilder, pathScriptArchive);
+            JBossModuleUtils.populateModuleSpecWithNestedJars(moduleSpecBuilder, pathScriptArchive);
+            moduleLoader.addModuleSpec(moduleSpecBuilder.create());
+
+            Module module = moduleLoader.loadModule(revisionId);
+            ModuleClassLoader moduleClassLoader = module.getClassLoader();
+
+            // the classes of the jar are loaded from the jar itself, which is never extracted
+            Class<?> bundledClass = moduleClassLoader.loadClass("interfaces.Helper");
+            assertEquals(bundledClass.getClassLoader(), moduleClassLoader);
+            assertTrue(moduleClassLoader.getResource("interfaces/Helper.class").toString().contains("interfaces-module.jar"));
+            assertTrue(getResourcePaths(moduleClassLoader).contains("lib/interfaces-module.jar"));
+        } finally {
+            FileUtils.deleteQuietly(rootDir.toFile());
+        }
+    }
+
     private void assertClassNotFound(String className, ModuleClassLoader moduleClassLoader) {
         Class<?> foundClass;
         try {
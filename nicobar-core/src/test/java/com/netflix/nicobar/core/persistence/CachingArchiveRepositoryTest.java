@@ -0,0 +1,324 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.nicobar.core.persistence;
+
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertTrue;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.netflix.nicobar.core.archive.ModuleId;
+import com.netflix.nicobar.core.archive.ScriptArchive;
+
+/**
+ * Unit tests for {@link CachingArchiveRepository}
+ */
+@Test
+public class CachingArchiveRepositoryTest extends ArchiveRepositoryTest {
+    private Path testDirectory;
+    private Path rootArchiveDirectory;
+    private Path cacheDirectory;
+    private JarArchiveRepository delegate;
+
+    @Override
+    @BeforeClass
+    public void setup() throws Exception {
+        testDirectory = Files.createTempDirectory(CachingArchiveRepositoryTest.class.getSimpleName()+"_");
+        FileUtils.forceDeleteOnExit(testDirectory.toFile());
+        super.setup();
+    }
+
+    @BeforeMethod
+    public void setupDirectories() throws IOException {
+        rootArchiveDirectory = Files.createTempDirectory(testDirectory, "archives");
+        cacheDirectory = Files.createTempDirectory(testDirectory, "cache");
+        delegate = spy(new JarArchiveRepository.Builder(rootArchiveDirectory).build());
+    }
+
+    @Override
+    public ArchiveRepository createRepository() {
+        try {
+            return new CachingArchiveRepository.Builder(delegate, cacheDirectory).build();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Verify that unchanged archives are served from disk, including after a restart.
+     */
+    @Test
+    public void testServedFromCache() throws Exception {
+        ModuleId moduleId = ModuleId.create("cached");
+        insertArchive(moduleId, "content", 1000);
+
+        CachingArchiveRepository repository = new CachingArchiveRepository.Builder(delegate, cacheDirectory).build();
+        Set<ModuleId> moduleIds = repository.getDefaultView().getArchiveUpdateTimes().keySet();
+        assertArchive(repository.getScriptArchives(moduleIds), moduleId, 1000);
+        assertArchive(repository.getScriptArchives(moduleIds), moduleId, 1000);
+        verify(delegate, times(1)).getScriptArchives(moduleIds);
+
+        // a new instance on the same directory serves the archive without fetching it again
+        repository = new CachingArchiveRepository.Builder(delegate, cacheDirectory).build();
+        moduleIds = repository.getDefaultView().getArchiveUpdateTimes().keySet();
+        assertArchive(repository.getScriptArchives(moduleIds), moduleId, 1000);
+        verify(delegate, times(1)).getScriptArchives(moduleIds);
+
+        // an updated archive is fetched again
+        insertArchive(moduleId, "updated content", 2000);
+        moduleIds = repository.getDefaultView().getArchiveUpdateTimes().keySet();
+        assertArchive(repository.getScriptArchives(moduleIds), moduleId, 2000);
+        verify(delegate, times(2)).getScriptArchives(moduleIds);
+        // the previous revision stays cached until it is evicted
+        assertEquals(blobCount(), 2);
+        assertTrue(Files.exists(cacheDirectory.resolve("blobs").resolve(blobName(repository, moduleId))));
+    }
+
+    /**
+     * Verify that archives with unknown update times are always fetched.
+     */
+    @Test
+    public void testUnknownUpdateTimeNotCached() throws Exception {
+        ModuleId moduleId = ModuleId.create("unknown");
+        insertArchive(moduleId, "content", 1000);
+        CachingArchiveRepository repository = new CachingArchiveRepository.Builder(delegate, cacheDirectory).build();
+        Set<ModuleId> moduleIds = Collections.singleton(moduleId);
+        repository.getScriptArchives(moduleIds);
+        repository.getScriptArchives(moduleIds);
+        verify(delegate, times(2)).getScriptArchives(moduleIds);
+    }
+
+    /**
+     * Verify that identical content is stored once.
+     */
+    @Test
+    public void testContentDeduplicated() throws Exception {
+        ModuleId moduleId1 = ModuleId.create("dedup1");
+        ModuleId moduleId2 = ModuleId.create("dedup2");
+        insertArchive(moduleId1, "same content", 1000);
+        insertArchive(moduleId2, "same content", 1000);
+        CachingArchiveRepository repository = new CachingArchiveRepository.Builder(delegate, cacheDirectory).build();
+        Set<ModuleId> moduleIds = repository.getDefaultView().getArchiveUpdateTimes().keySet();
+        assertEquals(repository.getScriptArchives(moduleIds).size(), 2);
+        assertEquals(blobCount(), 1);
+        assertEquals(repository.getCacheBytes(), Files.size(rootArchiveDirectory.resolve("dedup1.jar")));
+    }
+
+    /**
+     * Verify that the least recently used archives are evicted once the cache is full.
+     */
+    @Test
+    public void testLeastRecentlyUsedEvicted() throws Exception {
+        ModuleId moduleId1 = ModuleId.create("lru1");
+        ModuleId moduleId2 = ModuleId.create("lru2");
+        ModuleId moduleId3 = ModuleId.create("lru3");
+        insertArchive(moduleId1, "content 1", 1000);
+        insertArchive(moduleId2, "content 2", 1000);
+        insertArchive(moduleId3, "content 3", 1000);
+        long archiveSize = Files.size(rootArchiveDirectory.resolve("lru1.jar"));
+
+        CachingArchiveRepository repository = new CachingArchiveRepository.Builder(delegate, cacheDirectory)
+            .setMaxCacheBytes(archiveSize * 2 + archiveSize / 2)
+            .build();
+        repository.getDefaultView().getArchiveUpdateTimes();
+        repository.getScriptArchives(Collections.singleton(moduleId1));
+        repository.getScriptArchives(Collections.singleton(moduleId2));
+        // use 1 so that 2 is the least recently used
+        repository.getScriptArchives(Collections.singleton(moduleId1));
+        repository.getScriptArchives(Collections.singleton(moduleId3));
+        assertEquals(blobCount(), 2);
+        assertTrue(repository.getCacheBytes() <= archiveSize * 2 + archiveSize / 2);
+
+        repository.getScriptArchives(Collections.singleton(moduleId1));
+        repository.getScriptArchives(Collections.singleton(moduleId3));
+        verify(delegate, times(1)).getScriptArchives(Collections.singleton(moduleId1));
+        verify(delegate, times(1)).getScriptArchives(Collections.singleton(moduleId3));
+        repository.getScriptArchives(Collections.singleton(moduleId2));
+        verify(delegate, times(2)).getScriptArchives(Collections.singleton(moduleId2));
+    }
+
+    /**
+     * Verify that the blobs of a result set which doesn't fit in the cache aren't evicted before the archives
+     * are loaded, and that the cache is trimmed once the next result set is returned.
+     */
+    @Test
+    public void testResultSetNotEvicted() throws Exception {
+        ModuleId moduleId1 = ModuleId.create("pinned1");
+        ModuleId moduleId2 = ModuleId.create("pinned2");
+        ModuleId moduleId3 = ModuleId.create("pinned3");
+        insertArchive(moduleId1, "content 1", 1000);
+        insertArchive(moduleId2, "content 2", 1000);
+        insertArchive(moduleId3, "content 3", 1000);
+        long archiveSize = Files.size(rootArchiveDirectory.resolve("pinned1.jar"));
+
+        CachingArchiveRepository repository = new CachingArchiveRepository.Builder(delegate, cacheDirectory)
+            .setMaxCacheBytes(archiveSize + archiveSize / 2)
+            .build();
+        Set<ModuleId> moduleIds = repository.getDefaultView().getArchiveUpdateTimes().keySet();
+        Set<ScriptArchive> archives = repository.getScriptArchives(moduleIds);
+        assertEquals(archives.size(), 3);
+        for (ScriptArchive archive : archives) {
+            // the module loader opens the jars only when it creates the modules
+            try (JarFile jarFile = new JarFile(Paths.get(archive.getRootUrl().toURI()).toFile())) {
+                assertNotNull(jarFile.getEntry("content.txt"), archive.getModuleSpec().getModuleId().toString());
+            }
+        }
+        assertEquals(blobCount(), 3);
+
+        // the previous result set is released once the next one is returned
+        assertArchive(repository.getScriptArchives(Collections.singleton(moduleId3)), moduleId3, 1000);
+        assertEquals(blobCount(), 1);
+        assertTrue(repository.getCacheBytes() <= archiveSize + archiveSize / 2);
+        assertTrue(repository.index.containsKey(moduleId3));
+    }
+
+    /**
+     * Verify that the index entries of evicted archives are removed along with their blobs.
+     */
+    @Test
+    public void testEvictedIndexEntriesRemoved() throws Exception {
+        ModuleId moduleId1 = ModuleId.create("evicted1");
+        ModuleId moduleId2 = ModuleId.create("evicted2");
+        insertArchive(moduleId1, "content 1", 1000);
+        insertArchive(moduleId2, "content 2", 1000);
+        long archiveSize = Files.size(rootArchiveDirectory.resolve("evicted1.jar"));
+
+        CachingArchiveRepository repository = new CachingArchiveRepository.Builder(delegate, cacheDirectory)
+            .setMaxCacheBytes(archiveSize + archiveSize / 2)
+            .build();
+        repository.getDefaultView().getArchiveUpdateTimes();
+        repository.getScriptArchives(Collections.singleton(moduleId1));
+        Path indexPath = cacheDirectory.resolve("index").resolve(moduleId1 + ".json");
+        assertTrue(Files.exists(indexPath));
+
+        repository.getScriptArchives(Collections.singleton(moduleId2));
+        assertFalse(repository.index.containsKey(moduleId1));
+        assertFalse(Files.exists(indexPath));
+        assertTrue(repository.index.containsKey(moduleId2));
+    }
+
+    /**
+     * Verify that blobs whose content doesn't match their hash are discarded on startup, and fetched again.
+     */
+    @Test
+    public void testDamagedBlobDiscarded() throws Exception {
+        ModuleId moduleId = ModuleId.create("damaged");
+        insertArchive(moduleId, "content", 1000);
+        CachingArchiveRepository repository = new CachingArchiveRepository.Builder(delegate, cacheDirectory).build();
+        Set<ModuleId> moduleIds = repository.getDefaultView().getArchiveUpdateTimes().keySet();
+        repository.getScriptArchives(moduleIds);
+
+        // a blob which was renamed into place before its content reached the disk
+        Path blobPath = cacheDirectory.resolve("blobs").resolve(blobName(repository, moduleId));
+        byte[] content = Files.readAllBytes(blobPath);
+        Files.write(blobPath, Arrays.copyOf(content, content.length / 2));
+
+        repository = new CachingArchiveRepository.Builder(delegate, cacheDirectory).build();
+        assertFalse(Files.exists(blobPath));
+        assertFalse(repository.index.containsKey(moduleId));
+        assertFalse(Files.exists(cacheDirectory.resolve("index").resolve(moduleId + ".json")));
+        moduleIds = repository.getDefaultView().getArchiveUpdateTimes().keySet();
+        assertArchive(repository.getScriptArchives(moduleIds), moduleId, 1000);
+        verify(delegate, times(2)).getScriptArchives(moduleIds);
+        assertTrue(Files.exists(blobPath));
+    }
+
+    /**
+     * Verify that leftovers of interrupted writes and damaged entries are discarded on startup.
+     */
+    @Test
+    public void testRecoverFromInterruptedWrites() throws Exception {
+        ModuleId moduleId = ModuleId.create("recover");
+        insertArchive(moduleId, "content", 1000);
+        CachingArchiveRepository repository = new CachingArchiveRepository.Builder(delegate, cacheDirectory).build();
+        Set<ModuleId> moduleIds = repository.getDefaultView().getArchiveUpdateTimes().keySet();
+        repository.getScriptArchives(moduleIds);
+
+        Path blobDir = cacheDirectory.resolve("blobs");
+        Path indexDir = cacheDirectory.resolve("index");
+        Files.write(blobDir.resolve(".tmp-partial"), "partial".getBytes(StandardCharsets.UTF_8));
+        Files.write(indexDir.resolve("damaged.json"), "{".getBytes(StandardCharsets.UTF_8));
+
+        repository = new CachingArchiveRepository.Builder(delegate, cacheDirectory).build();
+        assertFalse(Files.exists(blobDir.resolve(".tmp-partial")));
+        assertFalse(Files.exists(indexDir.resolve("damaged.json")));
+        moduleIds = repository.getDefaultView().getArchiveUpdateTimes().keySet();
+        assertArchive(repository.getScriptArchives(moduleIds), moduleId, 1000);
+        verify(delegate, times(1)).getScriptArchives(moduleIds);
+        verify(delegate, never()).getScriptArchives(Collections.singleton(ModuleId.create("damaged")));
+    }
+
+    private void assertArchive(Set<ScriptArchive> archives, ModuleId moduleId, long updateTime) throws Exception {
+        assertEquals(archives.size(), 1);
+        ScriptArchive archive = archives.iterator().next();
+        assertEquals(archive.getModuleSpec().getModuleId(), moduleId);
+        assertEquals(archive.getCreateTime(), updateTime);
+        assertTrue(Paths.get(archive.getRootUrl().toURI()).startsWith(cacheDirectory));
+        assertTrue(archive.getArchiveEntryNames().contains("content.txt"));
+    }
+
+    private String blobName(CachingArchiveRepository repository, ModuleId moduleId) {
+        return repository.index.get(moduleId).hash + ".jar";
+    }
+
+    private int blobCount() throws IOException {
+        return cacheDirectory.resolve("blobs").toFile().list().length;
+    }
+
+    /**
+     * Write an archive with a single text entry into the root directory of the jar repository.
+     */
+    private void insertArchive(ModuleId moduleId, String content, long updateTime) throws IOException {
+        Path jarPath = rootArchiveDirectory.resolve(moduleId + ".jar");
+        JarOutputStream jarStream = new JarOutputStream(new FileOutputStream(jarPath.toFile()));
+        try {
+            JarEntry entry = new JarEntry("content.txt");
+            // fixed entry time so that equal content produces equal jars
+            entry.setTime(0);
+            jarStream.putNextEntry(entry);
+            jarStream.write(content.getBytes(StandardCharsets.UTF_8));
+            jarStream.closeEntry();
+        } finally {
+            jarStream.close();
+        }
+        Files.setLastModifiedTime(jarPath, FileTime.fromMillis(updateTime));
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.nicobar.core.persistence;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.testng.annotations.Test;
+
+import com.netflix.nicobar.core.archive.ModuleId;
+import com.netflix.nicobar.core.archive.ScriptModuleSpec;
+
+/**
+ * Unit tests for {@link ShardedRepositoryView}
+ */
+public class ShardedRepositoryViewTest {
+
+    @Test
+    public void testOwnershipIsDisjoint() throws IOException {
+        StubRepositoryView delegate = new StubRepositoryView();
+        for (int i = 0; i < 1000; i++) {
+            delegate.addArchive(ModuleId.create("module" + i), 1);
+        }
+        int nodeCount = 5;
+        Set<ModuleId> allModuleIds = new HashSet<ModuleId>();
+        int total = 0;
+        for (int nodeIndex = 0; nodeIndex < nodeCount; nodeIndex++) {
+            ShardedRepositoryView view = new ShardedRepositoryView(delegate, nodeIndex, nodeCount);
+            Set<ModuleId> moduleIds = view.getArchiveUpdateTimes().keySet();
+            // each node should get a reasonable share of the modules
+            assertTrue(moduleIds.size() > 100, "node " + nodeIndex + " owns " + moduleIds.size());
+            allModuleIds.addAll(moduleIds);
+            total += moduleIds.size();
+        }
+        assertEquals(total, 1000);
+        assertEquals(allModuleIds, delegate.updateTimes.keySet());
+    }
+
+    @Test
+    public void testDependenciesIncluded() throws IOException {
+        StubRepositoryView delegate = new StubRepositoryView();
+        ModuleId common = ModuleId.create("common");
+        ModuleId library = ModuleId.create("library");
+        delegate.addArchive(common, 1);
+        delegate.addArchive(library, 1, common);
+        for (int i = 0; i < 100; i++) {
+            delegate.addArchive(ModuleId.create("module" + i), 1, library);
+        }
+        for (int nodeIndex = 0; nodeIndex < 4; nodeIndex++) {
+            ShardedRepositoryView view = new ShardedRepositoryView(delegate, nodeIndex, 4);
+            Map<ModuleId, Long> updateTimes = view.getArchiveUpdateTimes();
+            assertTrue(updateTimes.containsKey(library));
+            assertTrue(updateTimes.containsKey(common));
+
+            List<ArchiveSummary> summaries = view.getArchiveSummaries();
+            assertEquals(summaries.size(), updateTimes.size());
+            assertEquals(view.getRepositorySummary().getArchiveCount(), updateTimes.size());
+        }
+    }
+
+    @Test
+    public void testDependenciesCachedUntilUpdate() throws IOException {
+        StubRepositoryView delegate = new StubRepositoryView();
+        for (int i = 0; i < 10; i++) {
+            delegate.addArchive(ModuleId.create("module" + i), 1);
+        }
+        ShardedRepositoryView view = new ShardedRepositoryView(delegate, 0, 2);
+        view.getArchiveUpdateTimes();
+        view.getArchiveUpdateTimes();
+        assertEquals(delegate.summaryReads, 1);
+
+        // a new dependency is picked up as soon as the archive update time changes
+        ModuleId dependency = null;
+        ModuleId dependent = null;
+        for (int i = 0; i < 10 && (dependency == null || dependent == null); i++) {
+            ModuleId moduleId = ModuleId.create("module" + i);
+            if (ShardedRepositoryView.getOwningNode(moduleId, 2) == 0) {
+                dependent = moduleId;
+            } else {
+                dependency = moduleId;
+            }
+        }
+        assertNotNull(dependency);
+        assertNotNull(dependent);
+        assertTrue(!view.getArchiveUpdateTimes().containsKey(dependency));
+        delegate.addArchive(dependent, 2, dependency);
+        assertTrue(view.getArchiveUpdateTimes().containsKey(dependency));
+        assertEquals(delegate.summaryReads, 2);
+    }
+
+    @Test
+    public void testMinimalMovementOnResize() throws IOException {
+        int moduleCount = 10000;
+        List<ModuleId> moduleIds = new ArrayList<ModuleId>(moduleCount);
+        for (int i = 0; i < moduleCount; i++) {
+            moduleIds.add(ModuleId.create("module" + i));
+        }
+        int moved = 0;
+        for (ModuleId moduleId : moduleIds) {
+            if (ShardedRepositoryView.getOwningNode(moduleId, 10) != ShardedRepositoryView.getOwningNode(moduleId, 11)) {
+                moved++;
+            }
+        }
+        // adding an 11th node should move about 1/11th of the modules, all of them to the new node
+        assertTrue(moved > moduleCount / 11 / 2 && moved < moduleCount / 11 * 2, "moved " + moved);
+        for (ModuleId moduleId : moduleIds) {
+            int before = ShardedRepositoryView.getOwningNode(moduleId, 10);
+            int after = ShardedRepositoryView.getOwningNode(moduleId, 11);
+            assertTrue(before == after || after == 10);
+        }
+    }
+
+    @Test
+    public void testFromViewName() {
+        StubRepositoryView delegate = new StubRepositoryView();
+        ShardedRepositoryView view = ShardedRepositoryView.fromViewName(delegate, ShardedRepositoryView.getViewName(2, 3));
+        assertNotNull(view);
+        assertEquals(view.getNodeIndex(), 2);
+        assertEquals(view.getNodeCount(), 3);
+        assertEquals(view.getName(), "shard:2/3");
+
+        assertNull(ShardedRepositoryView.fromViewName(delegate, null));
+        assertNull(ShardedRepositoryView.fromViewName(delegate, ""));
+        assertNull(ShardedRepositoryView.fromViewName(delegate, "shard:3/3"));
+        assertNull(ShardedRepositoryView.fromViewName(delegate, "shard:0/0"));
+        assertNull(ShardedRepositoryView.fromViewName(delegate, "shard:-1/3"));
+        assertNull(ShardedRepositoryView.fromViewName(delegate, "shard:99999999999/3"));
+    }
+
+    private static class StubRepositoryView implements RepositoryView {
+        private final Map<ModuleId, Long> updateTimes = new LinkedHashMap<ModuleId, Long>();
+        private final Map<ModuleId, ScriptModuleSpec> moduleSpecs = new LinkedHashMap<ModuleId, ScriptModuleSpec>();
+        private int summaryReads;
+
+        private void addArchive(ModuleId moduleId, long updateTime, ModuleId... dependencies) {
+            ScriptModuleSpec.Builder builder = new ScriptModuleSpec.Builder(moduleId);
+            for (ModuleId dependency : dependencies) {
+                builder.addModuleDependency(dependency);
+            }
+            updateTimes.put(moduleId, updateTime);
+            moduleSpecs.put(moduleId, builder.build());
+        }
+
+        @Override
+        public String getName() {
+            return "stub";
+        }
+
+        @Override
+        public Map<ModuleId, Long> getArchiveUpdateTimes() {
+            return new LinkedHashMap<ModuleId, Long>(updateTimes);
+        }
+
+        @Override
+        public RepositorySummary getRepositorySummary() {
+            return new RepositorySummary("stub", "stub repository", updateTimes.size(), 0);
+        }
+
+        @Override
+        public List<ArchiveSummary> getArchiveSummaries() {
+            summaryReads++;
+            List<ArchiveSummary> summaries = new ArrayList<ArchiveSummary>();
+            for (Map.Entry<ModuleId, Long> entry : updateTimes.entrySet()) {
+                summaries.add(new ArchiveSummary(entry.getKey(), moduleSpecs.get(entry.getKey()), entry.getValue(), null));
+            }
+            return summaries;
+        }
+    }
+}
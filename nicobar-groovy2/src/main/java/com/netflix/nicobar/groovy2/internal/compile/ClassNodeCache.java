@@ -0,0 +1,237 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.nicobar.groovy2.internal.compile;
+
+import groovy.lang.GroovyClassLoader;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.codehaus.groovy.ast.ClassNode;
+import org.codehaus.groovy.control.ClassNodeResolver;
+import org.codehaus.groovy.control.CompilationUnit;
+
+import com.netflix.nicobar.core.archive.ScriptModuleSpec;
+import com.netflix.nicobar.core.module.jboss.JBossModuleClassLoader;
+
+/**
+ * Cache of the {@link ClassNode}s which groovy resolves class names to, shared by many compilations.
+ *
+ * Groovy resolves every class name of a compilation through the {@link ClassNodeResolver} of the compilation, which
+ * loads the named class, or fails to, and caches the result for that compilation only. Compiling many modules
+ * against the same dependencies repeats the same lookups, most of them failures for the default imports, which
+ * are particularly expensive through the module class loaders.
+ *
+ * The cache is split into partitions, each of which caches the lookups of the compilations which see the same
+ * classes. The partition key of a module is made of the revisions of its dependencies and its import filters,
+ * so that a new revision of a dependency starts a new partition. The least recently used partitions are evicted.
+ *
+ * Only lookups which don't depend on the compiled module itself are shared. Classes defined by the module class
+ * loader of the compiled module, or by the class loader of the compilation, are never cached, and a cached failure
+ * is ignored by a compilation which finds the class file in its own class path or module.
+ */
+public class ClassNodeCache {
+    public final static int DEFAULT_MAX_PARTITIONS = 64;
+
+    protected final int maxPartitions;
+    /** guarded by this */
+    private final Map<Object, ConcurrentMap<String, ClassNode>> partitions;
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+
+    public ClassNodeCache() {
+        this(DEFAULT_MAX_PARTITIONS);
+    }
+
+    /**
+     * @param maxPartitions number of partitions to keep before the least recently used one is evicted
+     */
+    public ClassNodeCache(final int maxPartitions) {
+        if (maxPartitions <= 0) {
+            throw new IllegalArgumentException("invalid maxPartitions " + maxPartitions);
+        }
+        this.maxPartitions = maxPartitions;
+        this.partitions = new LinkedHashMap<Object, ConcurrentMap<String, ClassNode>>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Object, ConcurrentMap<String, ClassNode>> eldest) {
+                return size() > maxPartitions;
+            }
+        };
+    }
+
+    /**
+     * Compute the partition key of the compilation of a module.
+     * @param moduleSpec spec of the compiled module
+     * @param moduleClassLoader class loader of the compiled module
+     * @return the key, or null if there is no module class loader, in which case the lookups can't be shared
+     */
+    public static Object getPartitionKey(ScriptModuleSpec moduleSpec, JBossModuleClassLoader moduleClassLoader) {
+        if (moduleClassLoader == null) {
+            return null;
+        }
+        // module dependencies are on specific revisions, while the other dependencies never change
+        List<Object> key = new ArrayList<Object>(3);
+        key.add(moduleClassLoader.getModuleDependencyIdentifiers());
+        key.add(sortedOrNull(moduleSpec.getAppImportFilterPaths()));
+        key.add(sortedOrNull(moduleSpec.getModuleImportFilterPaths()));
+        return key;
+    }
+
+    private static TreeSet<String> sortedOrNull(Collection<String> paths) {
+        return paths != null ? new TreeSet<String>(paths) : null;
+    }
+
+    /**
+     * Get or create the partition with the given key.
+     */
+    public synchronized ConcurrentMap<String, ClassNode> getPartition(Object partitionKey) {
+        Objects.requireNonNull(partitionKey, "partitionKey");
+        ConcurrentMap<String, ClassNode> partition = partitions.get(partitionKey);
+        if (partition == null) {
+            partition = new ConcurrentHashMap<String, ClassNode>();
+            partitions.put(partitionKey, partition);
+        }
+        return partition;
+    }
+
+    /**
+     * Create the resolver of a single compilation, which shares the lookups of the given partition.
+     * @param partitionKey partition key of the compilation. See {@link #getPartitionKey}.
+     * @param moduleClassLoader class loader of the compiled module, whose own classes are never shared, or null
+     */
+    public ClassNodeResolver createResolver(Object partitionKey, JBossModuleClassLoader moduleClassLoader) {
+        return new SharedClassNodeResolver(getPartition(partitionKey), moduleClassLoader);
+    }
+
+    /**
+     * Remove the partitions which cache classes defined by the given class loader, usually the class loader of an
+     * unloaded module revision. Such partitions belong to compilations against the unloaded revision, which later
+     * compilations can't share, and would otherwise keep the class loader reachable until they are evicted.
+     * @return the number of removed partitions
+     */
+    public synchronized int removePartitions(ClassLoader classLoader) {
+        Objects.requireNonNull(classLoader, "classLoader");
+        int removed = 0;
+        Iterator<ConcurrentMap<String, ClassNode>> iterator = partitions.values().iterator();
+        while (iterator.hasNext()) {
+            for (ClassNode classNode : iterator.next().values()) {
+                if (classNode.isResolved() && classNode.getTypeClass().getClassLoader() == classLoader) {
+                    iterator.remove();
+                    removed++;
+                    break;
+                }
+            }
+        }
+        return removed;
+    }
+
+    public synchronized int getPartitionCount() {
+        return partitions.size();
+    }
+
+    /**
+     * @return the number of lookups answered from the cache
+     */
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * @return the number of lookups which had to load the class
+     */
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * Resolver which looks up the shared partition before loading a class, and shares what it loads.
+     */
+    protected class SharedClassNodeResolver extends ClassNodeResolver {
+        private final ConcurrentMap<String, ClassNode> partition;
+        private final JBossModuleClassLoader moduleClassLoader;
+
+        protected SharedClassNodeResolver(ConcurrentMap<String, ClassNode> partition,
+                JBossModuleClassLoader moduleClassLoader) {
+            this.partition = partition;
+            this.moduleClassLoader = moduleClassLoader;
+        }
+
+        @Override
+        public LookupResult findClassNode(String name, CompilationUnit compilationUnit) {
+            ClassNode cached = partition.get(name);
+            if (cached != null) {
+                if (cached != NO_CLASS) {
+                    hitCount.incrementAndGet();
+                    return new LookupResult(null, cached);
+                }
+                if (!isLocalClass(name, compilationUnit)) {
+                    hitCount.incrementAndGet();
+                    return null;
+                }
+            }
+            missCount.incrementAndGet();
+            LookupResult result = super.findClassNode(name, compilationUnit);
+            if (result == null) {
+                if (!isLocalClass(name, compilationUnit)) {
+                    partition.putIfAbsent(name, NO_CLASS);
+                }
+            } else if (result.isClassNode() && isShared(result.getClassNode(), compilationUnit)) {
+                partition.put(name, result.getClassNode());
+            }
+            return result;
+        }
+
+        /**
+         * Check whether a class file is in the class path of the compilation or the compiled module itself.
+         */
+        protected boolean isLocalClass(String name, CompilationUnit compilationUnit) {
+            String path = name.replace('.', '/') + ".class";
+            GroovyClassLoader classLoader = compilationUnit.getClassLoader();
+            if (classLoader.getURLs().length > 0 && classLoader.findResource(path) != null) {
+                return true;
+            }
+            return moduleClassLoader != null && !moduleClassLoader.loadResourceLocal(path).isEmpty();
+        }
+
+        /**
+         * Check whether a resolved class is defined outside of the compiled module and the compilation.
+         */
+        protected boolean isShared(ClassNode classNode, CompilationUnit compilationUnit) {
+            if (!classNode.isResolved()) {
+                return false;
+            }
+            ClassLoader definingClassLoader = classNode.getTypeClass().getClassLoader();
+            if (definingClassLoader == null) {
+                return true;
+            }
+            return definingClassLoader != moduleClassLoader &&
+                definingClassLoader != compilationUnit.getClassLoader() &&
+                !(definingClassLoader instanceof GroovyClassLoader.InnerLoader);
+        }
+    }
+}
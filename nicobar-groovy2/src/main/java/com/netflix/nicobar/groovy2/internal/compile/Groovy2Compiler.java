@@ -17,20 +17,52 @@
  */
 package com.netflix.nicobar.groovy2.internal.compile;
 
+import com.netflix.nicobar.core.archive.ModuleId;
 import com.netflix.nicobar.core.archive.ScriptArchive;
+import com.netflix.nicobar.core.archive.ScriptModuleSpec;
 import com.netflix.nicobar.core.compile.ScriptArchiveCompiler;
 import com.netflix.nicobar.core.compile.ScriptCompilationException;
+import com.netflix.nicobar.core.compile.WarmupScriptArchive;
 import com.netflix.nicobar.core.module.jboss.JBossModuleClassLoader;
+import com.netflix.nicobar.core.plugin.WarmableScriptCompilerPlugin;
+import groovy.transform.CompileStatic;
 import org.codehaus.groovy.control.CompilerConfiguration;
+import org.codehaus.groovy.control.customizers.ASTTransformationCustomizer;
 import org.codehaus.groovy.control.customizers.CompilationCustomizer;
+import org.codehaus.groovy.tools.GroovyClass;
 
 import java.io.IOException;
 import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * Groovy specific implementation of the {@link ScriptArchiveCompiler}
  *
+ * The compiler configuration is built once per compiler, and the customizers are instantiated once per
+ * customizer class, so {@link #compile} can be called from many threads at once. The customizers must therefore
+ * be thread safe.
+ *
+ * Modules can be compiled with {@link CompileStatic} applied to all of their classes, and to invokedynamic
+ * bytecode, either through the {@value #GROOVY2_COMPILER_PARAMS_COMPILE_STATIC} and
+ * {@value #GROOVY2_COMPILER_PARAMS_INDY} compiler params, which apply to all modules, or through the module spec
+ * metadata entries of the same names, which take precedence for their module. Both accept a boolean or "true".
+ * Invokedynamic bytecode requires the indy build of the groovy runtime, without which such modules fail to compile.
+ *
+ * Compilation is incremental by default. The compiler keeps an {@link IncrementalCompilationState} with the source
+ * digests and bytecode of the last compilation of each module, and a new revision of the module only recompiles its
+ * changed sources and the sources which depend on them, reusing the bytecode of all other sources. The state holds the
+ * bytecode of every compiled module in memory, which the {@value #GROOVY2_COMPILER_PARAMS_INCREMENTAL} compiler param
+ * can avoid by disabling incremental compilation.
+ *
+ * The class names which groovy resolves while compiling a module are cached in a {@link ClassNodeCache} shared by all
+ * compilations, partitioned by the revisions of the dependencies of the compiled modules.
+ *
+ * {@link #warmup(int)} compiles synthetic sources, so that the first compilation of a module runs on a warmed up
+ * compiler. The plugin runs it in the background with {@value #GROOVY2_COMPILER_PARAMS_WARMUP_ITERATIONS} iterations,
+ * {@value WarmableScriptCompilerPlugin#DEFAULT_WARMUP_ITERATIONS} unless configured, and 0 disables it.
+ *
  * @author James Kojo
  * @author Vasanth Asokan
  */
@@ -38,11 +70,64 @@ public class Groovy2Compiler implements ScriptArchiveCompiler {
 
     public final static String GROOVY2_COMPILER_ID = "groovy2";
     public final static String GROOVY2_COMPILER_PARAMS_CUSTOMIZERS = "customizerClassNames";
+    public final static String GROOVY2_COMPILER_PARAMS_COMPILE_STATIC = "compileStatic";
+    public final static String GROOVY2_COMPILER_PARAMS_INDY = "indy";
+    public final static String GROOVY2_COMPILER_PARAMS_INCREMENTAL = "incremental";
+    /** number of iterations of the background warmup, 0 to disable it. See {@link WarmableScriptCompilerPlugin}. */
+    public final static String GROOVY2_COMPILER_PARAMS_WARMUP_ITERATIONS = WarmableScriptCompilerPlugin.COMPILER_PARAMS_WARMUP_ITERATIONS;
+
+    /** optimization option of the {@link CompilerConfiguration} which enables invokedynamic bytecode */
+    private final static String INDY_OPTIMIZATION_OPTION = "indy";
+    private final static ModuleId WARMUP_MODULE_ID = ModuleId.create("nicobar-groovy2-warmup");
+
+    /** whether the groovy runtime is the indy build, which can compile to invokedynamic bytecode */
+    public final static boolean INDY_SUPPORTED = isClassPresent("org.codehaus.groovy.vmplugin.v7.IndyInterface");
+
+    protected final List<String> customizerClassNames = new LinkedList<String>();
+    protected boolean compileStatic;
+    protected boolean indy;
+    protected boolean incremental;
 
-    protected List<String> customizerClassNames = new LinkedList<String>();
+    /** state of the last compilation of each module, for incremental compilation */
+    protected final ConcurrentMap<ModuleId, IncrementalCompilationState> compilationStates =
+        new ConcurrentHashMap<ModuleId, IncrementalCompilationState>();
+
+    /** class name lookups shared by the compilations of modules with the same dependencies */
+    protected final ClassNodeCache classNodeCache = new ClassNodeCache();
+
+    /** template of the configuration of each compilation, which is never modified */
+    protected final CompilerConfiguration config;
+    /** template of the configuration of compilations to invokedynamic bytecode, which is never modified */
+    protected final CompilerConfiguration indyConfig;
+
+    /**
+     * customizer instances, cached for as long as their class is loaded. Failures aren't cached, so that the
+     * instantiation is retried by the next compilation.
+     */
+    private final ClassValue<CompilationCustomizer> customizerInstances = new ClassValue<CompilationCustomizer>() {
+        @Override
+        protected CompilationCustomizer computeValue(Class<?> type) {
+            try {
+                return type.asSubclass(CompilationCustomizer.class).getConstructor().newInstance();
+            } catch (ReflectiveOperationException | ClassCastException e) {
+                throw new CustomizerInstantiationException(type, e);
+            }
+        }
+    };
+
+    /** failure to instantiate a customizer, carried out of {@link ClassValue#computeValue(Class)} */
+    private static class CustomizerInstantiationException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        CustomizerInstantiationException(Class<?> type, Throwable cause) {
+            super("Unable to instantiate compilation customizer " + type.getName(), cause);
+        }
+    }
 
     public Groovy2Compiler(Map<String, Object> compilerParams) {
         this.processCompilerParams(compilerParams);
+        this.config = createConfiguration();
+        this.indyConfig = createIndyConfiguration(this.config);
     }
 
     public String getCompilerId(){
@@ -63,9 +148,74 @@ public class Groovy2Compiler implements ScriptArchiveCompiler {
                 }
             }
         }
+        this.compileStatic = isEnabled(compilerParams.get(GROOVY2_COMPILER_PARAMS_COMPILE_STATIC), false);
+        this.indy = isEnabled(compilerParams.get(GROOVY2_COMPILER_PARAMS_INDY), false);
+        this.incremental = isEnabled(compilerParams.get(GROOVY2_COMPILER_PARAMS_INCREMENTAL), true);
+    }
+
+    private static boolean isClassPresent(String className) {
+        try {
+            Class.forName(className, false, Groovy2Compiler.class.getClassLoader());
+            return true;
+        } catch (ClassNotFoundException | LinkageError e) {
+            return false;
+        }
+    }
+
+    /**
+     * Interpret a compiler param or metadata value as a flag.
+     * @return the flag, or the default value if the value is null
+     */
+    protected static boolean isEnabled(Object value, boolean defaultValue) {
+        if (value == null) {
+            return defaultValue;
+        }
+        return value instanceof Boolean ? (Boolean)value : Boolean.parseBoolean(value.toString());
+    }
+
+    /**
+     * Create the template of the configuration of each compilation.
+     */
+    protected CompilerConfiguration createConfiguration() {
+        // start from a fresh configuration rather than CompilerConfiguration.DEFAULT, which is shared and mutable
+        CompilerConfiguration configuration = new CompilerConfiguration();
+        configuration.setTolerance(0);
+        // resolve the script extensions now, since the configuration looks them up lazily on first use
+        configuration.setScriptExtensions(new LinkedHashSet<String>(configuration.getScriptExtensions()));
+        return configuration;
     }
 
-    protected CompilationCustomizer getCustomizerInstanceFromString(String className, JBossModuleClassLoader moduleClassLoader) {
+    /**
+     * Create the template of the configuration of compilations to invokedynamic bytecode.
+     */
+    protected CompilerConfiguration createIndyConfiguration(CompilerConfiguration configuration) {
+        CompilerConfiguration indyConfiguration = new CompilerConfiguration(configuration);
+        indyConfiguration.setScriptExtensions(new LinkedHashSet<String>(configuration.getScriptExtensions()));
+        indyConfiguration.getOptimizationOptions().put(INDY_OPTIMIZATION_OPTION, Boolean.TRUE);
+        return indyConfiguration;
+    }
+
+    /**
+     * Create the helper which compiles a single archive into the given directory.
+     */
+    protected Groovy2CompilerHelper createHelper(Path compilationRootDir) {
+        return new Groovy2CompilerHelper(compilationRootDir);
+    }
+
+    /**
+     * @return true if the compiler keeps the state of each compilation to compile the next revision incrementally
+     */
+    protected boolean isIncremental() {
+        return incremental;
+    }
+
+    /**
+     * Get the shared instance of a customizer class.
+     * @return the customizer, or null if the class can't be found
+     * @throws ScriptCompilationException if the customizer class can't be instantiated
+     */
+    protected CompilationCustomizer getCustomizerInstanceFromString(String className, JBossModuleClassLoader moduleClassLoader)
+            throws ScriptCompilationException {
         CompilationCustomizer instance = null;
 
         try {
@@ -74,12 +224,15 @@ public class Groovy2Compiler implements ScriptArchiveCompiler {
                     moduleClassLoader : Thread.currentThread().getContextClassLoader();
 
             Class<?> klass = classLoader.loadClass(className);
-            instance = (CompilationCustomizer)klass.newInstance();
+            instance = customizerInstances.get(klass);
         } 
-        catch (InstantiationException | IllegalAccessException | ClassNotFoundException | ClassCastException e) {
+        catch (ClassNotFoundException e) {
             e.printStackTrace();
             // TODO: add logger support for compiler (due to a separate class loader logger is not visible)
         }
+        catch (CustomizerInstantiationException e) {
+            throw new ScriptCompilationException(e.getMessage(), e.getCause());
+        }
         return instance;
     }
 
@@ -100,15 +253,120 @@ public class Groovy2Compiler implements ScriptArchiveCompiler {
                 customizers.add(instance);
             }
         }
+        Map<String, Object> metadata = archive.getModuleSpec().getMetadata();
+        boolean moduleCompileStatic = isEnabled(metadata.get(GROOVY2_COMPILER_PARAMS_COMPILE_STATIC), compileStatic);
+        if (moduleCompileStatic) {
+            // created per compilation, since the customizer keeps state while it transforms a class
+            customizers.add(new ASTTransformationCustomizer(CompileStatic.class));
+        }
+        boolean moduleIndy = isEnabled(metadata.get(GROOVY2_COMPILER_PARAMS_INDY), indy);
+        if (moduleIndy && !INDY_SUPPORTED) {
+            throw new ScriptCompilationException("invokedynamic compilation of module " + archive.getModuleSpec().getModuleId() +
+                " requires the indy build of the groovy runtime");
+        }
 
-        CompilerConfiguration config = new CompilerConfiguration(CompilerConfiguration.DEFAULT);
-        config.addCompilationCustomizers(customizers.toArray(new CompilationCustomizer[0]));
-
-         new Groovy2CompilerHelper(compilationRootDir)
+        Groovy2CompilerHelper helper = createHelper(compilationRootDir)
             .addScriptArchive(archive)
             .withParentClassloader(moduleClassLoader) // TODO: replace JBossModuleClassLoader with generic class loader
-            .withConfiguration(config)
-            .compile();
+            .withConfiguration(moduleIndy ? indyConfig : config)
+            .addCustomizers(customizers);
+        Object partitionKey = ClassNodeCache.getPartitionKey(archive.getModuleSpec(), moduleClassLoader);
+        if (partitionKey != null) {
+            helper.withClassNodeResolver(classNodeCache.createResolver(partitionKey, moduleClassLoader));
+        }
+        if (isIncremental()) {
+            compileIncrementally(archive, helper, compilationRootDir,
+                getConfigurationKey(archive.getModuleSpec(), moduleClassLoader, moduleCompileStatic, moduleIndy));
+        } else {
+            helper.compile();
+        }
         return Collections.emptySet();
     }
+
+    /**
+     * Warm up the compiler by compiling synthetic sources, with the customizers and bytecode options of the compiler.
+     * The sources are dynamic groovy, so they are never compiled statically. The compiled classes are discarded.
+     * @param iterations number of times to compile the sources
+     */
+    public void warmup(int iterations) throws ScriptCompilationException, IOException {
+        ScriptModuleSpec moduleSpec = new ScriptModuleSpec.Builder(WARMUP_MODULE_ID)
+            .addCompilerPluginId(getCompilerId())
+            .addMetadata(GROOVY2_COMPILER_PARAMS_COMPILE_STATIC, Boolean.FALSE)
+            .build();
+        try (WarmupScriptArchive warmupArchive = new WarmupScriptArchive(moduleSpec, Groovy2WarmupSources.SOURCES)) {
+            for (int i = 0; i < iterations; i++) {
+                compile(warmupArchive.getArchive(), null, warmupArchive.createTargetDir());
+            }
+        } finally {
+            compilationStates.remove(WARMUP_MODULE_ID);
+        }
+    }
+
+    /**
+     * Drop the references of the compiler to the classes of an unloaded module revision.
+     * @param moduleClassLoader class loader of the unloaded revision
+     */
+    public void purgeClassLoader(ClassLoader moduleClassLoader) {
+        classNodeCache.removePartitions(moduleClassLoader);
+    }
+
+    /**
+     * Compute the key of the compiler configuration of a module compilation. Besides the bytecode options, the key
+     * covers the revisions of the module dependencies and the import filters, like the partition key of the
+     * {@link ClassNodeCache}, since the classes of the module are resolved against them.
+     * @param moduleClassLoader class loader of the compiled module, or null if there is none
+     */
+    public static String getConfigurationKey(ScriptModuleSpec moduleSpec, JBossModuleClassLoader moduleClassLoader,
+            boolean compileStatic, boolean indy) {
+        return compileStatic + ":" + indy + ":" + ClassNodeCache.getPartitionKey(moduleSpec, moduleClassLoader);
+    }
+
+    /**
+     * Compile the stale sources of the archive, write the reused classes of the previous compilation of the module
+     * into the compilation directory, and record the state of the compilation.
+     * @param configurationKey key of the compiler configuration of the archive. The classes of a previous compilation
+     *        with another configuration are never reused.
+     */
+    protected void compileIncrementally(ScriptArchive archive, Groovy2CompilerHelper helper, Path compilationRootDir,
+            String configurationKey) throws ScriptCompilationException, IOException {
+        ModuleId moduleId = archive.getModuleSpec().getModuleId();
+        Map<String, String> entryDigests = new HashMap<String, String>();
+        for (String entryName : archive.getArchiveEntryNames()) {
+            for (String extension : config.getScriptExtensions()) {
+                if (entryName.endsWith(extension)) {
+                    entryDigests.put(entryName, IncrementalCompilationState.getDigest(archive.getEntry(entryName)));
+                }
+            }
+        }
+
+        IncrementalCompilationState.Builder stateBuilder = new IncrementalCompilationState.Builder(archive.getCreateTime(),
+            configurationKey);
+        Set<String> compiledEntries = entryDigests.keySet();
+        IncrementalCompilationState previousState = compilationStates.get(moduleId);
+        if (previousState != null && previousState.isReusableBy(archive.getCreateTime(), configurationKey)) {
+            compiledEntries = previousState.getStaleEntries(entryDigests);
+            Set<String> reusedEntries = new HashSet<String>(entryDigests.keySet());
+            reusedEntries.removeAll(compiledEntries);
+            // the compiled sources resolve the reused classes from the compilation directory
+            previousState.writeClasses(compilationRootDir, reusedEntries);
+            stateBuilder.addEntries(previousState, reusedEntries);
+            helper.withEntryNames(compiledEntries).addClassPath(compilationRootDir);
+        }
+
+        Set<GroovyClass> classes = helper.compile();
+        for (String entryName : compiledEntries) {
+            stateBuilder.addEntry(entryName, entryDigests.get(entryName));
+        }
+        Map<String, String> classEntryNames = helper.getClassEntryNames();
+        for (GroovyClass groovyClass : classes) {
+            String entryName = classEntryNames.get(groovyClass.getName());
+            if (entryName == null) {
+                // the next revision can't tell which source the class belongs to
+                compilationStates.remove(moduleId);
+                return;
+            }
+            stateBuilder.addClass(entryName, groovyClass.getName(), groovyClass.getBytes());
+        }
+        compilationStates.put(moduleId, stateBuilder.build());
+    }
 }
@@ -20,13 +20,18 @@ package com.netflix.nicobar.groovy2.internal.compile;
 import com.netflix.nicobar.core.archive.ScriptArchive;
 import com.netflix.nicobar.core.compile.ScriptCompilationException;
 import groovy.lang.GroovyClassLoader;
+import org.codehaus.groovy.ast.ClassNode;
+import org.codehaus.groovy.control.ClassNodeResolver;
 import org.codehaus.groovy.control.CompilationFailedException;
 import org.codehaus.groovy.control.CompilationUnit;
 import org.codehaus.groovy.control.CompilerConfiguration;
 import org.codehaus.groovy.control.Phases;
+import org.codehaus.groovy.control.SourceUnit;
+import org.codehaus.groovy.control.customizers.CompilationCustomizer;
 import org.codehaus.groovy.tools.GroovyClass;
 
 import java.io.IOException;
+import java.net.MalformedURLException;
 import java.nio.file.Path;
 import java.security.AccessController;
 import java.security.PrivilegedAction;
@@ -37,6 +42,12 @@ import java.util.*;
  * of {@link ScriptArchive}s and outputs a {@link GroovyClassLoader} with the classes pre-loaded into it.
  *
  * If a parent {@link ClassLoader} is not provided, the current thread context classloader is used.
+ * The given {@link CompilerConfiguration} is only used as a template, which is copied for each compilation
+ * and never modified, so a single configuration can be shared by concurrent compilations.
+ *
+ * The compilation can be restricted to some of the entries of the archives, with previously compiled classes of the
+ * other entries on the classpath of the compilation. After the compilation, {@link #getClassEntryNames()} maps each
+ * compiled class to the archive entry it was compiled from.
  *
  * @author James Kojo
  * @author Vasanth Asokan
@@ -48,6 +59,11 @@ public class Groovy2CompilerHelper {
     private final List<ScriptArchive> scriptArchives = new LinkedList<ScriptArchive>();
     private ClassLoader parentClassLoader;
     private CompilerConfiguration compileConfig;
+    private final List<CompilationCustomizer> customizers = new LinkedList<CompilationCustomizer>();
+    private final List<Path> classPath = new LinkedList<Path>();
+    private Set<String> entryNames;
+    private final Map<String, String> classEntryNames = new HashMap<String, String>();
+    private ClassNodeResolver classNodeResolver;
 
     public Groovy2CompilerHelper(Path targetDir) {
         Objects.requireNonNull(targetDir, "targetDir");
@@ -80,6 +96,53 @@ public class Groovy2CompilerHelper {
         return this;
     }
 
+    /**
+     * Add customizers on top of those of the configuration.
+     */
+    public Groovy2CompilerHelper addCustomizers(Collection<? extends CompilationCustomizer> customizers) {
+        if (customizers != null) {
+            this.customizers.addAll(customizers);
+        }
+        return this;
+    }
+
+    /**
+     * Only compile the given entries of the archives, rather than all of their source entries.
+     */
+    public Groovy2CompilerHelper withEntryNames(Collection<String> entryNames) {
+        if (entryNames != null) {
+            this.entryNames = new HashSet<String>(entryNames);
+        }
+        return this;
+    }
+
+    /**
+     * Add a directory or jar of compiled classes which the compiled sources can reference.
+     */
+    public Groovy2CompilerHelper addClassPath(Path classPathEntry) {
+        if (classPathEntry != null) {
+            classPath.add(classPathEntry);
+        }
+        return this;
+    }
+
+    /**
+     * Resolve class names with the given resolver, rather than the default resolver of the compilation.
+     * The resolver must not be used by any other compilation.
+     */
+    public Groovy2CompilerHelper withClassNodeResolver(ClassNodeResolver classNodeResolver) {
+        this.classNodeResolver = classNodeResolver;
+        return this;
+    }
+
+    /**
+     * @return the names of the classes compiled from the archives, mapped to the names of the entries they were
+     *         compiled from. Only populated by {@link #compile()}.
+     */
+    public Map<String, String> getClassEntryNames() {
+        return Collections.unmodifiableMap(classEntryNames);
+    }
+
     protected Path getTargetDir(){
         return this.targetDir;
     }
@@ -100,6 +163,53 @@ public class Groovy2CompilerHelper {
         return this.compileConfig;
     }
 
+    protected List<CompilationCustomizer> getCustomizers(){
+        return this.customizers;
+    }
+
+    protected List<Path> getClassPath(){
+        return this.classPath;
+    }
+
+    protected ClassNodeResolver getClassNodeResolver(){
+        return this.classNodeResolver;
+    }
+
+    /**
+     * Create the compilation unit of the compilation, using the class node resolver if one was set.
+     */
+    protected CompilationUnit createCompilationUnit(CompilerConfiguration conf, GroovyClassLoader groovyClassLoader) {
+        CompilationUnit unit = new CompilationUnit(conf, null, groovyClassLoader);
+        if (this.getClassNodeResolver() != null) {
+            unit.setClassNodeResolver(this.getClassNodeResolver());
+        }
+        return unit;
+    }
+
+    /**
+     * Check whether an entry of an archive should be compiled, given the entry names the compilation is restricted to.
+     */
+    protected boolean isCompiledEntry(String entryName) {
+        return this.entryNames == null || this.entryNames.contains(entryName);
+    }
+
+    /**
+     * Create the configuration of a single compilation from the template configuration, which is left untouched.
+     */
+    protected CompilerConfiguration createCompileConfig() {
+        CompilerConfiguration template = this.getCompileConfig();
+        CompilerConfiguration conf = template != null ? new CompilerConfiguration(template) : new CompilerConfiguration();
+        if (template != null) {
+            // the copy constructor shares the script extensions, and doesn't copy the customizers
+            conf.setScriptExtensions(new LinkedHashSet<String>(template.getScriptExtensions()));
+            conf.addCompilationCustomizers(template.getCompilationCustomizers().toArray(new CompilationCustomizer[0]));
+        }
+        conf.addCompilationCustomizers(this.getCustomizers().toArray(new CompilationCustomizer[0]));
+        conf.setTolerance(0);
+        conf.setTargetDirectory(targetDir.toFile());
+        return conf;
+    }
+
     /**
      * Compile the given source and load the resultant classes into a new {@link ClassNotFoundException}
      * @return initialized and laoded classes
@@ -107,10 +217,7 @@ public class Groovy2CompilerHelper {
      */
     @SuppressWarnings("unchecked")
     public Set<GroovyClass> compile() throws ScriptCompilationException {
-        final CompilerConfiguration conf = this.getCompileConfig() != null ? this.getCompileConfig(): CompilerConfiguration.DEFAULT;
-        conf.setTolerance(0);
-        conf.setVerbose(true);
-        conf.setTargetDirectory(targetDir.toFile());
+        final CompilerConfiguration conf = createCompileConfig();
         final ClassLoader buildParentClassloader = this.getParentClassLoader() != null ?
             this.getParentClassLoader() : Thread.currentThread().getContextClassLoader();
         GroovyClassLoader groovyClassLoader = AccessController.doPrivileged(new PrivilegedAction<GroovyClassLoader>() {
@@ -119,16 +226,25 @@ public class Groovy2CompilerHelper {
             }
         });
 
-        CompilationUnit unit = new CompilationUnit(conf, null, groovyClassLoader);
+        try {
+            for (Path classPathEntry : this.getClassPath()) {
+                groovyClassLoader.addURL(classPathEntry.toUri().toURL());
+            }
+        } catch (MalformedURLException e) {
+            throw new ScriptCompilationException("Invalid class path", e);
+        }
+
+        CompilationUnit unit = createCompilationUnit(conf, groovyClassLoader);
         Set<String> scriptExtensions = conf.getScriptExtensions();
+        Map<SourceUnit, String> sourceEntryNames = new IdentityHashMap<SourceUnit, String>();
         try {
             for (ScriptArchive scriptArchive : this.getScriptArchives()) {
                 Set<String> entryNames = scriptArchive.getArchiveEntryNames();
                 for (String entryName : entryNames) {
                     for (String extension : scriptExtensions) {
-                        if (entryName.endsWith(extension)) {
+                        if (entryName.endsWith(extension) && isCompiledEntry(entryName)) {
                             // identified groovy file
-                            unit.addSource(scriptArchive.getEntry(entryName));
+                            sourceEntryNames.put(unit.addSource(scriptArchive.getEntry(entryName)), entryName);
                         }
                     }
                 }
@@ -144,6 +260,32 @@ public class Groovy2CompilerHelper {
         } catch (CompilationFailedException e) {
            throw new ScriptCompilationException("Exception during script compilation", e);
         }
-        return new HashSet<GroovyClass>(unit.getClasses());
+        Set<GroovyClass> classes = new HashSet<GroovyClass>(unit.getClasses());
+        populateClassEntryNames(sourceEntryNames, classes);
+        return classes;
+    }
+
+    /**
+     * Map the compiled classes to the archive entries of their sources. Classes generated for closures and inner
+     * classes belong to the entry of their outermost class.
+     */
+    protected void populateClassEntryNames(Map<SourceUnit, String> sourceEntryNames, Set<GroovyClass> classes) {
+        Map<String, String> declaredClassEntries = new HashMap<String, String>();
+        for (Map.Entry<SourceUnit, String> source : sourceEntryNames.entrySet()) {
+            for (ClassNode classNode : source.getKey().getAST().getClasses()) {
+                declaredClassEntries.put(classNode.getName(), source.getValue());
+            }
+        }
+        for (GroovyClass groovyClass : classes) {
+            String className = groovyClass.getName();
+            String entryName = declaredClassEntries.get(className);
+            int separator = className.length();
+            while (entryName == null && (separator = className.lastIndexOf('$', separator - 1)) > 0) {
+                entryName = declaredClassEntries.get(className.substring(0, separator));
+            }
+            if (entryName != null) {
+                classEntryNames.put(className, entryName);
+            }
+        }
     }
 }
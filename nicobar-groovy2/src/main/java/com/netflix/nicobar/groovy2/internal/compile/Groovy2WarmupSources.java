@@ -0,0 +1,165 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.nicobar.groovy2.internal.compile;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Synthetic sources compiled by {@link Groovy2Compiler#warmup(int)}, which cover the commonly used language features.
+ * They are kept in the code rather than in resources, so that any compiler plugin module can compile them.
+ */
+final class Groovy2WarmupSources {
+    /** interfaces, enums, classes with AST transformations, generics and closures */
+    private final static String WARMUP_MODEL =
+        "package nicobar.groovy2.warmup\n" +
+        "\n" +
+        "import groovy.transform.EqualsAndHashCode\n" +
+        "import groovy.transform.ToString\n" +
+        "\n" +
+        "interface Shape {\n" +
+        "    double area()\n" +
+        "}\n" +
+        "\n" +
+        "enum Color {\n" +
+        "    RED, GREEN, BLUE\n" +
+        "\n" +
+        "    Color next() {\n" +
+        "        values()[(ordinal() + 1) % values().length]\n" +
+        "    }\n" +
+        "}\n" +
+        "\n" +
+        "@ToString\n" +
+        "@EqualsAndHashCode\n" +
+        "class Circle implements Shape {\n" +
+        "    double radius\n" +
+        "    Color color = Color.RED\n" +
+        "\n" +
+        "    double area() {\n" +
+        "        Math.PI * radius * radius\n" +
+        "    }\n" +
+        "}\n" +
+        "\n" +
+        "abstract class Polygon implements Shape {\n" +
+        "    protected final List<Double> sides = []\n" +
+        "\n" +
+        "    abstract int getCorners()\n" +
+        "\n" +
+        "    double getPerimeter() {\n" +
+        "        sides.sum() as double\n" +
+        "    }\n" +
+        "}\n" +
+        "\n" +
+        "class Square extends Polygon {\n" +
+        "    Square(double side) {\n" +
+        "        4.times { sides << side }\n" +
+        "    }\n" +
+        "\n" +
+        "    int getCorners() {\n" +
+        "        4\n" +
+        "    }\n" +
+        "\n" +
+        "    double area() {\n" +
+        "        sides[0] ** 2\n" +
+        "    }\n" +
+        "}\n" +
+        "\n" +
+        "class ShapeRegistry<T extends Shape> implements Iterable<T> {\n" +
+        "    private final Map<String, T> shapes = new LinkedHashMap<String, T>()\n" +
+        "\n" +
+        "    ShapeRegistry<T> leftShift(T shape) {\n" +
+        "        shapes.put(\"${shape.class.simpleName}-${shapes.size()}\".toString(), shape)\n" +
+        "        this\n" +
+        "    }\n" +
+        "\n" +
+        "    Iterator<T> iterator() {\n" +
+        "        shapes.values().iterator()\n" +
+        "    }\n" +
+        "\n" +
+        "    static <S extends Shape> ShapeRegistry<S> of(S... shapes) {\n" +
+        "        def registry = new ShapeRegistry<S>()\n" +
+        "        shapes.each { registry << it }\n" +
+        "        registry\n" +
+        "    }\n" +
+        "}\n";
+
+    /** script with the dynamic features and the control flow scripts commonly use */
+    private final static String WARMUP_SCRIPT =
+        "package nicobar.groovy2.warmup\n" +
+        "\n" +
+        "def registry = ShapeRegistry.of(new Circle(radius: 1.5d), new Square(2))\n" +
+        "def shapes = registry.toList()\n" +
+        "def totalArea = shapes.sum { it.area() }\n" +
+        "def byType = shapes.groupBy { it.class.simpleName }\n" +
+        "def names = shapes.collect { \"${it.class.simpleName} with area ${String.format('%.2f', it.area())}\" }.join(', ')\n" +
+        "def config = [name: 'warmup', enabled: true, limits: [min: 1, max: 10]]\n" +
+        "config.each { key, value -> assert key }\n" +
+        "def matcher = names =~ /(\\w+) with/\n" +
+        "def words = names.tokenize(', ').findAll { it ==~ /[A-Z]\\w+/ }\n" +
+        "def squares = (1..10).step(2).collectEntries { [(it): it * it] }\n" +
+        "\n" +
+        "String description\n" +
+        "switch (totalArea) {\n" +
+        "    case 0..1:\n" +
+        "        description = 'small'\n" +
+        "        break\n" +
+        "    case { it > 100 }:\n" +
+        "        description = 'large'\n" +
+        "        break\n" +
+        "    default:\n" +
+        "        description = 'medium'\n" +
+        "}\n" +
+        "try {\n" +
+        "    Integer.parseInt(description)\n" +
+        "} catch (NumberFormatException e) {\n" +
+        "    description = description?.toUpperCase() ?: 'unknown'\n" +
+        "} finally {\n" +
+        "    words = words.unique()\n" +
+        "}\n" +
+        "\n" +
+        "def multiply = { int a, int b = 2 -> a * b }\n" +
+        "def triple = multiply.curry(3)\n" +
+        "def text = \"\"\"${description}\n" +
+        "${triple()} ${Color.RED.next()}\"\"\"\n" +
+        "def builder = new StringBuilder()\n" +
+        "for (int i = 0; i < 3; i++) {\n" +
+        "    builder.append(i)\n" +
+        "}\n" +
+        "while (builder.length() < 5) {\n" +
+        "    builder << 'x'\n" +
+        "}\n" +
+        "def sorted = shapes.sort(false) { a, b -> a.area() <=> b.area() }\n" +
+        "def areas = sorted*.area()\n" +
+        "def missing = config.missing?.value\n" +
+        "def (first, second) = [areas[0], areas[-1]]\n" +
+        "\n" +
+        "return [totalArea, byType, names, matcher.find(), squares, text, builder.toString(), areas, missing, first, second]\n";
+
+    /** map of the source file names to their content */
+    final static Map<String, String> SOURCES;
+    static {
+        Map<String, String> sources = new LinkedHashMap<String, String>();
+        sources.put("WarmupModel.groovy", WARMUP_MODEL);
+        sources.put("WarmupScript.groovy", WARMUP_SCRIPT);
+        SOURCES = Collections.unmodifiableMap(sources);
+    }
+
+    private Groovy2WarmupSources() {
+    }
+}
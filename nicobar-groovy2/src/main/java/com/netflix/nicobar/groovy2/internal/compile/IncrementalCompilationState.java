@@ -0,0 +1,320 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.nicobar.groovy2.internal.compile;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Output of the compilation of a single revision of a module archive, used to recompile only part of the next
+ * revision of the module.
+ *
+ * The state records the digest of each source entry of the archive, the classes compiled from each entry along
+ * with their bytecode, and the classes referenced by the bytecode of each class. A source entry of the next revision
+ * is stale if its digest changed, or if it references, directly or transitively, a class compiled from a stale
+ * or removed entry. Added entries make all entries stale. All other entries can reuse their bytecode from this state.
+ *
+ * Dynamic groovy code only references the classes it names in types, constructor calls, static calls and class
+ * literals, which are exactly the references which have to be recompiled when the named class changes.
+ *
+ * Instances are immutable once built, and can be shared by concurrent compilations.
+ */
+public class IncrementalCompilationState {
+    /** matches the class names in field, method and generic signatures */
+    private final static Pattern SIGNATURE_CLASS_NAME = Pattern.compile("L([^;<>()\\[\\.]+)[;<]");
+
+    /**
+     * Builder used to construct an {@link IncrementalCompilationState}
+     */
+    public static class Builder {
+        private final long archiveCreateTime;
+        private final String configurationKey;
+        private final Map<String, String> entryDigests = new HashMap<String, String>();
+        private final Map<String, Set<String>> entryClasses = new HashMap<String, Set<String>>();
+        private final Map<String, byte[]> classBytes = new HashMap<String, byte[]>();
+        private final Map<String, Set<String>> classReferences = new HashMap<String, Set<String>>();
+
+        /**
+         * @param archiveCreateTime create time of the compiled archive
+         * @param configurationKey key of the compiler configuration of the compilation. States are only reused
+         *        by compilations with an equal configuration key.
+         */
+        public Builder(long archiveCreateTime, String configurationKey) {
+            this.archiveCreateTime = archiveCreateTime;
+            this.configurationKey = Objects.requireNonNull(configurationKey, "configurationKey");
+        }
+        /** Add a source entry of the compiled archive */
+        public Builder addEntry(String entryName, String digest) {
+            entryDigests.put(entryName, digest);
+            if (!entryClasses.containsKey(entryName)) {
+                entryClasses.put(entryName, new HashSet<String>());
+            }
+            return this;
+        }
+        /** Add a class compiled from a source entry, which has been added with {@link #addEntry} */
+        public Builder addClass(String entryName, String className, byte[] bytecode) throws IOException {
+            Set<String> classNames = entryClasses.get(entryName);
+            if (classNames == null) {
+                throw new IllegalArgumentException("unknown entry " + entryName);
+            }
+            classNames.add(className);
+            classBytes.put(className, bytecode);
+            classReferences.put(className, getReferencedClassNames(bytecode));
+            return this;
+        }
+        /** Add source entries and their classes from the state of a previous compilation */
+        public Builder addEntries(IncrementalCompilationState previous, Collection<String> entryNames) {
+            for (String entryName : entryNames) {
+                entryDigests.put(entryName, previous.entryDigests.get(entryName));
+                Set<String> classNames = previous.entryClasses.get(entryName);
+                entryClasses.put(entryName, new HashSet<String>(classNames));
+                for (String className : classNames) {
+                    classBytes.put(className, previous.classBytes.get(className));
+                    classReferences.put(className, previous.classReferences.get(className));
+                }
+            }
+            return this;
+        }
+        public IncrementalCompilationState build() {
+            return new IncrementalCompilationState(archiveCreateTime, configurationKey, entryDigests, entryClasses,
+                classBytes, classReferences);
+        }
+    }
+
+    protected final long archiveCreateTime;
+    protected final String configurationKey;
+    protected final Map<String, String> entryDigests;
+    protected final Map<String, Set<String>> entryClasses;
+    protected final Map<String, byte[]> classBytes;
+    protected final Map<String, Set<String>> classReferences;
+
+    protected IncrementalCompilationState(long archiveCreateTime, String configurationKey, Map<String, String> entryDigests,
+            Map<String, Set<String>> entryClasses, Map<String, byte[]> classBytes, Map<String, Set<String>> classReferences) {
+        this.archiveCreateTime = archiveCreateTime;
+        this.configurationKey = configurationKey;
+        this.entryDigests = entryDigests;
+        this.entryClasses = entryClasses;
+        this.classBytes = classBytes;
+        this.classReferences = classReferences;
+    }
+
+    /**
+     * Check whether the compilation of an archive can reuse the classes of this state.
+     *
+     * An archive with the create time of the archive of this state is a recompilation of the same revision, usually
+     * because one of its dependencies changed, which the source digests can't detect. It is always fully recompiled.
+     */
+    public boolean isReusableBy(long archiveCreateTime, String configurationKey) {
+        return this.archiveCreateTime != archiveCreateTime && this.configurationKey.equals(configurationKey);
+    }
+
+    /**
+     * @return the names of the source entries of this state
+     */
+    public Set<String> getEntryNames() {
+        return Collections.unmodifiableSet(entryDigests.keySet());
+    }
+
+    /**
+     * @return the names of the classes compiled from the given source entry, or an empty set if it is unknown
+     */
+    public Set<String> getClassNames(String entryName) {
+        Set<String> classNames = entryClasses.get(entryName);
+        return classNames != null ? Collections.unmodifiableSet(classNames) : Collections.<String>emptySet();
+    }
+
+    /**
+     * Find the source entries of a new revision which have to be recompiled.
+     * @param newEntryDigests digests of the source entries of the new revision
+     * @return the entries of the new revision which changed or depend on changed or removed entries. If any entry
+     *         was added, all entries are stale.
+     */
+    public Set<String> getStaleEntries(Map<String, String> newEntryDigests) {
+        // an added entry may declare a class which shadows a class an unchanged entry resolved to before
+        if (!entryDigests.keySet().containsAll(newEntryDigests.keySet())) {
+            return new HashSet<String>(newEntryDigests.keySet());
+        }
+
+        // owners of the classes which were compiled, and the entries referencing the classes of each entry
+        Map<String, String> classEntries = new HashMap<String, String>();
+        for (Map.Entry<String, Set<String>> entry : entryClasses.entrySet()) {
+            for (String className : entry.getValue()) {
+                classEntries.put(className, entry.getKey());
+            }
+        }
+        Map<String, Set<String>> dependents = new HashMap<String, Set<String>>();
+        for (Map.Entry<String, Set<String>> entry : entryClasses.entrySet()) {
+            for (String className : entry.getValue()) {
+                for (String referencedClassName : classReferences.get(className)) {
+                    String referencedEntry = classEntries.get(referencedClassName);
+                    if (referencedEntry != null && !referencedEntry.equals(entry.getKey())) {
+                        Set<String> entryDependents = dependents.get(referencedEntry);
+                        if (entryDependents == null) {
+                            entryDependents = new HashSet<String>();
+                            dependents.put(referencedEntry, entryDependents);
+                        }
+                        entryDependents.add(entry.getKey());
+                    }
+                }
+            }
+        }
+
+        Set<String> changedEntries = new HashSet<String>();
+        for (Map.Entry<String, String> entry : newEntryDigests.entrySet()) {
+            if (!entry.getValue().equals(entryDigests.get(entry.getKey()))) {
+                changedEntries.add(entry.getKey());
+            }
+        }
+        for (String entryName : entryDigests.keySet()) {
+            if (!newEntryDigests.containsKey(entryName)) {
+                changedEntries.add(entryName);
+            }
+        }
+        Set<String> staleEntries = new HashSet<String>(changedEntries);
+        Deque<String> pending = new ArrayDeque<String>(changedEntries);
+        while (!pending.isEmpty()) {
+            Set<String> entryDependents = dependents.get(pending.poll());
+            if (entryDependents != null) {
+                for (String dependent : entryDependents) {
+                    if (staleEntries.add(dependent)) {
+                        pending.add(dependent);
+                    }
+                }
+            }
+        }
+        staleEntries.retainAll(newEntryDigests.keySet());
+        return staleEntries;
+    }
+
+    /**
+     * Write the class files compiled from the given source entries into a compilation directory.
+     */
+    public void writeClasses(Path targetDir, Collection<String> entryNames) throws IOException {
+        for (String entryName : entryNames) {
+            for (String className : getClassNames(entryName)) {
+                Path classFile = targetDir.resolve(className.replace('.', '/') + ".class");
+                Files.createDirectories(classFile.getParent());
+                Files.write(classFile, classBytes.get(className));
+            }
+        }
+    }
+
+    /**
+     * Compute the digest of the content of an archive entry.
+     * @return the hex encoded SHA-1 digest
+     */
+    public static String getDigest(URL entry) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        try (InputStream in = entry.openStream()) {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        StringBuilder hex = new StringBuilder();
+        for (byte b : digest.digest()) {
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return hex.toString();
+    }
+
+    /**
+     * Find the classes referenced by a class file, from the class entries and signatures of its constant pool.
+     * @return the binary names of the referenced classes. Strings which look like signatures may add classes
+     *         which aren't actually referenced, which only causes extra recompilation.
+     */
+    public static Set<String> getReferencedClassNames(byte[] bytecode) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytecode));
+        if (in.readInt() != 0xCAFEBABE) {
+            throw new IOException("not a class file");
+        }
+        in.readUnsignedShort();
+        in.readUnsignedShort();
+        int constantCount = in.readUnsignedShort();
+        String[] utf8Constants = new String[constantCount];
+        Set<Integer> classNameIndexes = new HashSet<Integer>();
+        for (int i = 1; i < constantCount; i++) {
+            int tag = in.readUnsignedByte();
+            switch (tag) {
+            case 1: // Utf8
+                utf8Constants[i] = in.readUTF();
+                break;
+            case 7: // Class
+                classNameIndexes.add(in.readUnsignedShort());
+                break;
+            case 8: case 16: case 19: case 20: // String, MethodType, Module, Package
+                in.skipBytes(2);
+                break;
+            case 15: // MethodHandle
+                in.skipBytes(3);
+                break;
+            case 3: case 4: case 9: case 10: case 11: case 12: case 17: case 18: // Integer, Float, refs, NameAndType, Dynamic
+                in.skipBytes(4);
+                break;
+            case 5: case 6: // Long, Double take two entries
+                in.skipBytes(8);
+                i++;
+                break;
+            default:
+                throw new IOException("unknown constant pool tag " + tag);
+            }
+        }
+
+        Set<String> classNames = new HashSet<String>();
+        for (int i = 1; i < constantCount; i++) {
+            String constant = utf8Constants[i];
+            if (constant == null) {
+                continue;
+            }
+            if (classNameIndexes.contains(i) && constant.charAt(0) != '[') {
+                classNames.add(constant.replace('/', '.'));
+            } else {
+                // descriptors of array classes, fields and methods, and generic signatures
+                Matcher matcher = SIGNATURE_CLASS_NAME.matcher(constant);
+                while (matcher.find()) {
+                    classNames.add(matcher.group(1).replace('/', '.'));
+                }
+            }
+        }
+        return classNames;
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.nicobar.groovy2.internal.runtime;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Collection;
+import java.util.Objects;
+
+import org.codehaus.groovy.reflection.ClassInfo;
+import org.codehaus.groovy.runtime.InvokerHelper;
+
+/**
+ * Purges classes from the global caches of the groovy runtime.
+ *
+ * The groovy runtime caches the meta class of every class it dispatches calls on in the global
+ * {@link groovy.lang.MetaClassRegistry}, and the reflection metadata of the class in a global {@link ClassInfo}.
+ * Both hold the class, and the {@link ClassInfo} holds the class loader which defines the call site classes of the
+ * class as well. The entries are only softly referenced, so the classes of unloaded modules stay reachable until
+ * the heap runs short, long after Metaspace has filled up with them.
+ *
+ * The caches are rebuilt on demand, so purging a class which is still in use only costs the rebuilding.
+ * Call sites of other classes which cached the purged meta classes are invalidated by the purge, and release the
+ * meta classes along with their own soft call site arrays.
+ */
+public class GroovyClassCaches {
+    /** ClassInfo.remove(Class), which removes a class info from the global set in later groovy versions */
+    private final static Method CLASS_INFO_REMOVE = findClassInfoRemove();
+    /** global set of class infos, whose entries are removed directly in groovy versions without ClassInfo.remove */
+    private final static Field CLASS_INFO_SET = CLASS_INFO_REMOVE == null ? findClassInfoSet() : null;
+    private final static Method CLASS_INFO_SET_REMOVE = CLASS_INFO_SET != null ? findClassInfoSetRemove(CLASS_INFO_SET) : null;
+
+    private GroovyClassCaches() {
+    }
+
+    /**
+     * Remove the given classes from the meta class registry, the class info cache and the bean introspection cache.
+     * @return true if the class infos could be removed as well as the meta classes, which depends on the internals
+     *         of the groovy version
+     * @throws ReflectiveOperationException if the class info cache fails
+     */
+    public static boolean removeClasses(Collection<Class<?>> classes) throws ReflectiveOperationException {
+        Objects.requireNonNull(classes, "classes");
+        boolean removed = true;
+        for (Class<?> clazz : classes) {
+            InvokerHelper.removeClass(clazz);
+            removed &= removeClassInfo(clazz);
+        }
+        return removed;
+    }
+
+    private static boolean removeClassInfo(Class<?> clazz) throws ReflectiveOperationException {
+        if (CLASS_INFO_REMOVE != null) {
+            CLASS_INFO_REMOVE.invoke(null, clazz);
+            return true;
+        }
+        if (CLASS_INFO_SET_REMOVE != null) {
+            CLASS_INFO_SET_REMOVE.invoke(CLASS_INFO_SET.get(null), clazz);
+            return true;
+        }
+        return false;
+    }
+
+    private static Method findClassInfoRemove() {
+        try {
+            Method method = ClassInfo.class.getMethod("remove", Class.class);
+            return Modifier.isStatic(method.getModifiers()) ? method : null;
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    private static Field findClassInfoSet() {
+        try {
+            Field field = ClassInfo.class.getDeclaredField("globalClassSet");
+            field.setAccessible(true);
+            return field;
+        } catch (NoSuchFieldException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    private static Method findClassInfoSetRemove(Field classInfoSet) {
+        try {
+            return classInfoSet.getType().getMethod("remove", Object.class);
+        } catch (NoSuchMethodException | RuntimeException e) {
+            return null;
+        }
+    }
+}
@@ -21,9 +21,12 @@ import java.util.Collections;
 import java.util.Map;
 import java.util.Set;
 
+import com.netflix.nicobar.core.archive.ModuleId;
 import com.netflix.nicobar.core.compile.ScriptArchiveCompiler;
-import com.netflix.nicobar.core.plugin.ScriptCompilerPlugin;
+import com.netflix.nicobar.core.plugin.UnloadAwareScriptCompilerPlugin;
+import com.netflix.nicobar.core.plugin.WarmableScriptCompilerPlugin;
 import com.netflix.nicobar.groovy2.internal.compile.Groovy2Compiler;
+import com.netflix.nicobar.groovy2.internal.runtime.GroovyClassCaches;
 
 /**
  * Factory class for the Groovy 2 language plug-in
@@ -31,7 +34,7 @@ import com.netflix.nicobar.groovy2.internal.compile.Groovy2Compiler;
  * @author James Kojo
  * @author Vasanth Asokan
  */
-public class Groovy2CompilerPlugin implements ScriptCompilerPlugin {
+public class Groovy2CompilerPlugin implements WarmableScriptCompilerPlugin, UnloadAwareScriptCompilerPlugin {
 
     public static final String PLUGIN_ID = "groovy2";
 
@@ -42,4 +45,31 @@ public class Groovy2CompilerPlugin implements ScriptCompilerPlugin {
     public Set<? extends ScriptArchiveCompiler> getCompilers(Map<String, Object> compilerParams) {
         return Collections.singleton(new Groovy2Compiler(compilerParams));
     }
+
+    /**
+     * Compile synthetic sources with each compiler. See {@link Groovy2Compiler#warmup(int)}.
+     */
+    @Override
+    public void warmup(Set<? extends ScriptArchiveCompiler> compilers, int iterations) throws Exception {
+        for (ScriptArchiveCompiler compiler : compilers) {
+            if (compiler instanceof Groovy2Compiler) {
+                ((Groovy2Compiler)compiler).warmup(iterations);
+            }
+        }
+    }
+
+    /**
+     * Purge the unloaded classes from the global caches of the groovy runtime, and from the class name lookups
+     * of each compiler. See {@link GroovyClassCaches}.
+     */
+    @Override
+    public void moduleUnloaded(ModuleId moduleId, ClassLoader moduleClassLoader, Set<Class<?>> unloadedClasses,
+            Set<? extends ScriptArchiveCompiler> compilers) throws Exception {
+        GroovyClassCaches.removeClasses(unloadedClasses);
+        for (ScriptArchiveCompiler compiler : compilers) {
+            if (compiler instanceof Groovy2Compiler) {
+                ((Groovy2Compiler)compiler).purgeClassLoader(moduleClassLoader);
+            }
+        }
+    }
 }
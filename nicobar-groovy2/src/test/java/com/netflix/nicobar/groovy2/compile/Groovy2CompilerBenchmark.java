@@ -0,0 +1,69 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.nicobar.groovy2.compile;
+
+import static org.testng.Assert.assertEquals;
+
+import java.util.HashMap;
+import java.util.concurrent.Callable;
+
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import com.netflix.nicobar.groovy2.internal.compile.Groovy2Compiler;
+
+/**
+ * Compares the execution throughput of a call heavy script compiled with dynamic dispatch, {@code CompileStatic}
+ * and invokedynamic. The invokedynamic modes are skipped unless the groovy runtime is the indy build.
+ *
+ * Run with {@code gradle benchmark}.
+ */
+public class Groovy2CompilerBenchmark {
+    private static final int WARMUP_ITERATIONS = 2000;
+    private static final int ITERATIONS = 10000;
+
+    @DataProvider(name = "compilationModes")
+    public Object[][] compilationModes() {
+        return new Object[][] {
+            { "dynamic", null, null },
+            { "static", "true", null },
+            { "indy", null, "true" },
+            { "static+indy", "true", "true" }
+        };
+    }
+
+    @Test(groups = "benchmark", dataProvider = "compilationModes")
+    public void benchmarkExecution(String mode, String compileStatic, String indy) throws Exception {
+        if (indy != null && !Groovy2Compiler.INDY_SUPPORTED) {
+            System.out.println(String.format("%-12s requires the indy build of the groovy runtime", mode));
+            return;
+        }
+        Class<?> scriptClass = Groovy2CompilerTest.compileFibonacci(new Groovy2Compiler(new HashMap<String, Object>()),
+            compileStatic, indy);
+        Callable<?> script = (Callable<?>)scriptClass.newInstance();
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            script.call();
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            assertEquals(script.call(), 6765);
+        }
+        long elapsed = System.nanoTime() - start;
+        System.out.println(String.format("%-12s %10.0f executions/s", mode, ITERATIONS / (elapsed / 1e9)));
+    }
+}
@@ -23,6 +23,8 @@ import static org.testng.Assert.assertTrue;
 import static org.testng.Assert.assertNotNull;
 
 import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.HashMap;
@@ -41,6 +43,7 @@ import org.codehaus.groovy.tools.GroovyClass;
 import org.testng.annotations.Test;
 
 import com.netflix.nicobar.core.archive.PathScriptArchive;
+import com.netflix.nicobar.groovy2.internal.compile.ClassNodeCache;
 import com.netflix.nicobar.groovy2.internal.compile.Groovy2CompilerHelper;
 import com.netflix.nicobar.groovy2.testutil.GroovyTestResourceUtil;
 import com.netflix.nicobar.groovy2.testutil.GroovyTestResourceUtil.TestScript;
@@ -140,6 +143,61 @@ public class Groovy2CompilerHelperTest {
         assertEquals(message, "Hello, Package!");
     }
 
+    /**
+     * Compile with class name lookups shared through a {@link ClassNodeCache}
+     */
+    @Test
+    public void testSharedClassNodeCache() throws Exception {
+        Path scriptRootPath = GroovyTestResourceUtil.findRootPathForScript(TestScript.HELLO_WORLD);
+        PathScriptArchive scriptArchive = new PathScriptArchive.Builder(scriptRootPath)
+            .setRecurseRoot(false)
+            .addFile(TestScript.HELLO_WORLD.getScriptPath())
+            .build();
+        ClassNodeCache cache = new ClassNodeCache();
+
+        new Groovy2CompilerHelper(Files.createTempDirectory("Groovy2CompilerHelperTest"))
+            .addScriptArchive(scriptArchive)
+            .withClassNodeResolver(cache.createResolver("dependencies", null))
+            .compile();
+        long misses = cache.getMissCount();
+        assertTrue(misses > 0);
+
+        // the second compilation finds all of its lookups in the cache
+        new Groovy2CompilerHelper(Files.createTempDirectory("Groovy2CompilerHelperTest"))
+            .addScriptArchive(scriptArchive)
+            .withClassNodeResolver(cache.createResolver("dependencies", null))
+            .compile();
+        assertEquals(cache.getMissCount(), misses);
+        assertTrue(cache.getHitCount() >= misses);
+        assertEquals(cache.getPartitionCount(), 1);
+
+        // a failed lookup doesn't hide a class on the class path of a later compilation
+        Path sourceDir = Files.createTempDirectory("Groovy2CompilerHelperTest");
+        Path greetingFile = Files.write(sourceDir.resolve("Greeting.groovy"),
+            "class Greeting { static String text() { 'hello' } }".getBytes("UTF-8"));
+        Path lookupFile = Files.write(sourceDir.resolve("Lookup.groovy"), "def greeting = Greeting".getBytes("UTF-8"));
+        Path greeterFile = Files.write(sourceDir.resolve("Greeter.groovy"),
+            "class Greeter { String greet() { Greeting.text() } }".getBytes("UTF-8"));
+        Path libDir = Files.createTempDirectory("Groovy2CompilerHelperTest");
+        new Groovy2CompilerHelper(libDir).addSourceFile(greetingFile).compile();
+        new Groovy2CompilerHelper(Files.createTempDirectory("Groovy2CompilerHelperTest"))
+            .addSourceFile(lookupFile)
+            .withClassNodeResolver(cache.createResolver("dependencies", null))
+            .compile();
+        assertTrue(cache.getPartition("dependencies").containsKey("Greeting"));
+
+        Path targetDir = Files.createTempDirectory("Groovy2CompilerHelperTest");
+        new Groovy2CompilerHelper(targetDir)
+            .addSourceFile(greeterFile)
+            .addClassPath(libDir)
+            .withClassNodeResolver(cache.createResolver("dependencies", null))
+            .compile();
+        URLClassLoader classLoader = new URLClassLoader(new URL[] {targetDir.toUri().toURL(), libDir.toUri().toURL()},
+            getClass().getClassLoader());
+        Class<?> greeterClass = classLoader.loadClass("Greeter");
+        assertEquals(greeterClass.getMethod("greet").invoke(greeterClass.newInstance()), "hello");
+    }
+
     /**
      * Test class loader that can load bytes provided by the groovy compiler
      */
@@ -1,24 +1,59 @@
 package com.netflix.nicobar.groovy2.compile;
 
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
 import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.codehaus.groovy.control.CompilerConfiguration;
 
 import org.codehaus.groovy.control.customizers.CompilationCustomizer;
 import org.testng.annotations.Test;
 
+import groovyjarjarasm.asm.ClassReader;
+import groovyjarjarasm.asm.ClassVisitor;
+import groovyjarjarasm.asm.MethodVisitor;
+import groovyjarjarasm.asm.Opcodes;
+
 import com.netflix.nicobar.core.archive.PathScriptArchive;
+import com.netflix.nicobar.core.archive.ScriptArchive;
+import com.netflix.nicobar.core.archive.ScriptModuleSpec;
+import com.netflix.nicobar.core.compile.ScriptCompilationException;
+import com.netflix.nicobar.core.module.jboss.JBossModuleClassLoader;
 import com.netflix.nicobar.groovy2.internal.compile.Groovy2Compiler;
+import com.netflix.nicobar.groovy2.internal.compile.Groovy2CompilerHelper;
 import com.netflix.nicobar.groovy2.testutil.GroovyTestResourceUtil;
 import com.netflix.nicobar.groovy2.testutil.GroovyTestResourceUtil.TestScript;
 
 
 public class Groovy2CompilerTest {
+    private static final String CALL_SITE_CLASS = "org/codehaus/groovy/runtime/callsite/CallSite";
+
     @SuppressWarnings("unchecked")
     @Test
     public void testCustomiizerParamsProcessing() throws Exception {
@@ -75,6 +110,257 @@ public class Groovy2CompilerTest {
         compilerParams.put(Groovy2Compiler.GROOVY2_COMPILER_PARAMS_CUSTOMIZERS, Arrays.asList(new Object[] {"testmodule.customizers.TestCompilationCustomizer"}));
 
         compiler = new Groovy2Compiler(compilerParams);
-        compiler.compile(scriptArchive, null, scriptRootPath);
+        compiler.compile(scriptArchive, null, Files.createTempDirectory("Groovy2CompilerTest"));
+    }
+
+    @Test
+    public void testUninstantiableCustomizerFailsCompile() throws Exception {
+        Path scriptRootPath = GroovyTestResourceUtil.findRootPathForScript(TestScript.HELLO_WORLD);
+        PathScriptArchive scriptArchive = new PathScriptArchive.Builder(scriptRootPath)
+            .setRecurseRoot(false)
+            .addFile(TestScript.HELLO_WORLD.getScriptPath())
+            .build();
+        Map<String, Object> compilerParams = new HashMap<String, Object>();
+        // not a customizer
+        compilerParams.put(Groovy2Compiler.GROOVY2_COMPILER_PARAMS_CUSTOMIZERS, Arrays.asList("java.lang.String"));
+        Groovy2Compiler compiler = new Groovy2Compiler(compilerParams);
+
+        // the failure is raised by every compilation, rather than cached as a missing customizer
+        for (int i = 0; i < 2; i++) {
+            try {
+                compiler.compile(scriptArchive, null, Files.createTempDirectory("Groovy2CompilerTest"));
+                fail("compilation with an uninstantiable customizer should fail");
+            } catch (ScriptCompilationException e) {
+                assertTrue(e.getMessage().contains("java.lang.String"), e.getMessage());
+                assertTrue(e.getCause() instanceof ClassCastException, String.valueOf(e.getCause()));
+            }
+        }
+    }
+
+    @Test
+    public void testConcurrentCompile() throws Exception {
+        Path scriptRootPath = GroovyTestResourceUtil.findRootPathForScript(TestScript.HELLO_WORLD);
+        final PathScriptArchive scriptArchive = new PathScriptArchive.Builder(scriptRootPath)
+            .setRecurseRoot(false)
+            .addFile(TestScript.HELLO_WORLD.getScriptPath())
+            .build();
+        Map<String, Object> compilerParams = new HashMap<String, Object>();
+        compilerParams.put(Groovy2Compiler.GROOVY2_COMPILER_PARAMS_CUSTOMIZERS,
+            Arrays.asList("org.codehaus.groovy.control.customizers.ImportCustomizer"));
+        final Groovy2Compiler compiler = new Groovy2Compiler(compilerParams);
+
+        // customizers are instantiated once
+        Method getCustomizer = Groovy2Compiler.class.getDeclaredMethod("getCustomizerInstanceFromString", String.class,
+            JBossModuleClassLoader.class);
+        getCustomizer.setAccessible(true);
+        String customizerClassName = "org.codehaus.groovy.control.customizers.ImportCustomizer";
+        assertSame(getCustomizer.invoke(compiler, customizerClassName, null), getCustomizer.invoke(compiler, customizerClassName, null));
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<Path>> futures = new ArrayList<Future<Path>>();
+        for (int i = 0; i < 16; i++) {
+            futures.add(executor.submit(new Callable<Path>() {
+                @Override
+                public Path call() throws Exception {
+                    Path targetDir = Files.createTempDirectory("Groovy2CompilerTest");
+                    compiler.compile(scriptArchive, null, targetDir);
+                    return targetDir;
+                }
+            }));
+        }
+        for (Future<Path> future : futures) {
+            Path targetDir = future.get();
+            assertTrue(Files.exists(targetDir.resolve(TestScript.HELLO_WORLD.getClassName().replace('.', '/') + ".class")));
+        }
+        executor.shutdown();
+
+        // neither the shared default configuration nor the template of the compiler are modified
+        assertNull(CompilerConfiguration.DEFAULT.getTargetDirectory());
+        assertFalse(CompilerConfiguration.DEFAULT.getVerbose());
+        Field configField = Groovy2Compiler.class.getDeclaredField("config");
+        configField.setAccessible(true);
+        CompilerConfiguration config = (CompilerConfiguration)configField.get(compiler);
+        assertNull(config.getTargetDirectory());
+        assertEquals(config.getCompilationCustomizers().size(), 0);
+    }
+
+    @Test
+    public void testCompileStaticAndIndy() throws Exception {
+        Map<String, Object> compilerParams = new HashMap<String, Object>();
+        compilerParams.put(Groovy2Compiler.GROOVY2_COMPILER_PARAMS_COMPILE_STATIC, "true");
+        Groovy2Compiler staticCompiler = new Groovy2Compiler(compilerParams);
+        Groovy2Compiler dynamicCompiler = new Groovy2Compiler(new HashMap<String, Object>());
+
+        // dynamic methods call through call sites, static and invokedynamic methods don't
+        assertTrue(fibCallsThroughCallSites(compileFibonacci(dynamicCompiler, null, null)));
+        assertFalse(fibCallsThroughCallSites(compileFibonacci(staticCompiler, null, null)));
+        assertFalse(fibCallsThroughCallSites(compileFibonacci(dynamicCompiler, "true", null)));
+        // module metadata takes precedence over the compiler params
+        assertTrue(fibCallsThroughCallSites(compileFibonacci(staticCompiler, "false", null)));
+
+        if (Groovy2Compiler.INDY_SUPPORTED) {
+            assertFalse(fibCallsThroughCallSites(compileFibonacci(dynamicCompiler, null, "true")));
+        } else {
+            try {
+                compileFibonacci(dynamicCompiler, null, "true");
+                fail("invokedynamic compilation requires the indy groovy runtime");
+            } catch (ScriptCompilationException e) {
+                assertTrue(e.getMessage().contains("indy"), e.getMessage());
+            }
+        }
+    }
+
+    @Test
+    public void testCompileStaticFailure() throws Exception {
+        Path scriptRootPath = GroovyTestResourceUtil.findRootPathForScript(TestScript.DYNAMIC_DISPATCH);
+        Groovy2Compiler compiler = new Groovy2Compiler(new HashMap<String, Object>());
+        compiler.compile(createArchive(TestScript.DYNAMIC_DISPATCH, null, null), null, Files.createTempDirectory("Groovy2CompilerTest"));
+        try {
+            compiler.compile(createArchive(TestScript.DYNAMIC_DISPATCH, "true", null), null,
+                Files.createTempDirectory("Groovy2CompilerTest"));
+            fail("static compilation of " + scriptRootPath + " should fail");
+        } catch (ScriptCompilationException e) {
+            assertTrue(e.getCause().getMessage().contains("undefinedMethod"), e.getCause().getMessage());
+        }
+    }
+
+    @Test
+    public void testIncrementalCompile() throws Exception {
+        Path sourceDir = Files.createTempDirectory("Groovy2CompilerTest");
+        Files.write(sourceDir.resolve("Greeting.groovy"), "class Greeting { static String text() { 'hello' } }".getBytes("UTF-8"));
+        Files.write(sourceDir.resolve("Greeter.groovy"), "class Greeter { String greet() { Greeting.text() + ' world' } }".getBytes("UTF-8"));
+        Files.write(sourceDir.resolve("Unrelated.groovy"), "class Unrelated { def run() { [1, 2].collect { it * 2 } } }".getBytes("UTF-8"));
+        final Set<String> compiledEntries = new HashSet<String>();
+        Groovy2Compiler compiler = new Groovy2Compiler(new HashMap<String, Object>()) {
+            @Override
+            protected Groovy2CompilerHelper createHelper(Path compilationRootDir) {
+                return new Groovy2CompilerHelper(compilationRootDir) {
+                    @Override
+                    protected boolean isCompiledEntry(String entryName) {
+                        boolean compiled = super.isCompiledEntry(entryName);
+                        if (compiled) {
+                            compiledEntries.add(entryName);
+                        }
+                        return compiled;
+                    }
+                };
+            }
+        };
+
+        // the first revision is fully compiled
+        Path targetDir = compileRevision(compiler, sourceDir, 1);
+        assertEquals(compiledEntries, new HashSet<String>(Arrays.asList("Greeting.groovy", "Greeter.groovy", "Unrelated.groovy")));
+        assertEquals(loadGreeting(targetDir), "hello world");
+
+        // a change recompiles the changed source and its dependents, and reuses the other classes
+        Files.write(sourceDir.resolve("Greeting.groovy"), "class Greeting { static String text() { 'goodbye' } }".getBytes("UTF-8"));
+        compiledEntries.clear();
+        targetDir = compileRevision(compiler, sourceDir, 2);
+        assertEquals(compiledEntries, new HashSet<String>(Arrays.asList("Greeting.groovy", "Greeter.groovy")));
+        assertEquals(loadGreeting(targetDir), "goodbye world");
+        assertTrue(Files.exists(targetDir.resolve("Unrelated.class")));
+        assertTrue(Files.exists(targetDir.resolve("Unrelated$_run_closure1.class")));
+
+        // an unchanged revision compiles nothing
+        compiledEntries.clear();
+        targetDir = compileRevision(compiler, sourceDir, 3);
+        assertTrue(compiledEntries.isEmpty(), compiledEntries.toString());
+        assertEquals(loadGreeting(targetDir), "goodbye world");
+
+        // recompiling the same revision, as for a changed dependency, compiles everything
+        compiledEntries.clear();
+        compileRevision(compiler, sourceDir, 3);
+        assertEquals(compiledEntries.size(), 3);
+    }
+
+    @Test
+    public void testConfigurationKeyCoversDependencies() throws Exception {
+        ScriptModuleSpec moduleSpec = new ScriptModuleSpec.Builder("incremental").build();
+        JBossModuleClassLoader classLoader1 = mock(JBossModuleClassLoader.class);
+        when(classLoader1.getModuleDependencyIdentifiers()).thenReturn(new TreeSet<String>(Arrays.asList("libA.1")));
+        JBossModuleClassLoader classLoader2 = mock(JBossModuleClassLoader.class);
+        when(classLoader2.getModuleDependencyIdentifiers()).thenReturn(new TreeSet<String>(Arrays.asList("libA.2")));
+
+        String key1 = Groovy2Compiler.getConfigurationKey(moduleSpec, classLoader1, false, false);
+        assertEquals(Groovy2Compiler.getConfigurationKey(moduleSpec, classLoader1, false, false), key1);
+        // classes compiled against another revision of a dependency are never reused
+        assertFalse(Groovy2Compiler.getConfigurationKey(moduleSpec, classLoader2, false, false).equals(key1));
+        assertFalse(Groovy2Compiler.getConfigurationKey(moduleSpec, classLoader1, true, false).equals(key1));
+        // compilations without a module class loader, like the warm up, have a key too
+        assertEquals(Groovy2Compiler.getConfigurationKey(moduleSpec, null, false, false),
+            Groovy2Compiler.getConfigurationKey(moduleSpec, null, false, false));
+    }
+
+    private static Path compileRevision(Groovy2Compiler compiler, Path sourceDir, long createTime) throws Exception {
+        PathScriptArchive scriptArchive = new PathScriptArchive.Builder(sourceDir)
+            .setModuleSpec(new ScriptModuleSpec.Builder("incremental").build())
+            .setCreateTime(createTime)
+            .build();
+        Path targetDir = Files.createTempDirectory("Groovy2CompilerTest");
+        compiler.compile(scriptArchive, null, targetDir);
+        return targetDir;
+    }
+
+    private static Object loadGreeting(Path targetDir) throws Exception {
+        URLClassLoader classLoader = new URLClassLoader(new URL[] {targetDir.toUri().toURL()},
+            Groovy2CompilerTest.class.getClassLoader());
+        Class<?> greeterClass = classLoader.loadClass("Greeter");
+        return greeterClass.getMethod("greet").invoke(greeterClass.newInstance());
+    }
+
+    /**
+     * Compile the fibonacci test script and load its class.
+     */
+    static Class<?> compileFibonacci(Groovy2Compiler compiler, String compileStatic, String indy) throws Exception {
+        Path targetDir = Files.createTempDirectory("Groovy2CompilerTest");
+        compiler.compile(createArchive(TestScript.FIBONACCI, compileStatic, indy), null, targetDir);
+        URLClassLoader classLoader = new URLClassLoader(new URL[] {targetDir.toUri().toURL()},
+            Groovy2CompilerTest.class.getClassLoader());
+        Class<?> fibonacciClass = classLoader.loadClass(TestScript.FIBONACCI.getClassName());
+        assertEquals(((Callable<?>)fibonacciClass.newInstance()).call(), 6765);
+        return fibonacciClass;
+    }
+
+    private static ScriptArchive createArchive(TestScript script, String compileStatic, String indy) throws Exception {
+        ScriptModuleSpec.Builder specBuilder = new ScriptModuleSpec.Builder(script.getModuleId());
+        if (compileStatic != null) {
+            specBuilder.addMetadata(Groovy2Compiler.GROOVY2_COMPILER_PARAMS_COMPILE_STATIC, compileStatic);
+        }
+        if (indy != null) {
+            specBuilder.addMetadata(Groovy2Compiler.GROOVY2_COMPILER_PARAMS_INDY, indy);
+        }
+        return new PathScriptArchive.Builder(GroovyTestResourceUtil.findRootPathForScript(script))
+            .setRecurseRoot(false)
+            .addFile(script.getScriptPath())
+            .setModuleSpec(specBuilder.build())
+            .build();
+    }
+
+    /**
+     * Check whether the fib method of the compiled fibonacci class invokes groovy call sites. Classes compiled
+     * statically or with invokedynamic still have the methods creating the call site array, but don't use them.
+     */
+    private static boolean fibCallsThroughCallSites(Class<?> fibonacciClass) throws IOException {
+        final boolean[] callsThroughCallSites = new boolean[1];
+        String classFile = fibonacciClass.getName().replace('.', '/') + ".class";
+        try (InputStream in = fibonacciClass.getClassLoader().getResourceAsStream(classFile)) {
+            new ClassReader(in).accept(new ClassVisitor(Opcodes.ASM5) {
+                @Override
+                public MethodVisitor visitMethod(int access, String name, String desc, String signature, String[] exceptions) {
+                    if (!name.equals("fib")) {
+                        return null;
+                    }
+                    return new MethodVisitor(Opcodes.ASM5) {
+                        @Override
+                        public void visitMethodInsn(int opcode, String owner, String name, String desc, boolean itf) {
+                            if (owner.equals(CALL_SITE_CLASS) && name.startsWith("call")) {
+                                callsThroughCallSites[0] = true;
+                            }
+                        }
+                    };
+                }
+            }, ClassReader.SKIP_DEBUG);
+        }
+        return callsThroughCallSites[0];
     }
 }
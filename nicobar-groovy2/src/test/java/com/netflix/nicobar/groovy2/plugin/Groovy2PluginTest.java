@@ -18,12 +18,14 @@
 package com.netflix.nicobar.groovy2.plugin;
 
 import com.netflix.nicobar.core.archive.JarScriptArchive;
+import com.netflix.nicobar.core.archive.ModuleId;
 import com.netflix.nicobar.core.archive.PathScriptArchive;
 import com.netflix.nicobar.core.archive.ScriptArchive;
 import com.netflix.nicobar.core.archive.ScriptModuleSpec;
 import com.netflix.nicobar.core.execution.HystrixScriptModuleExecutor;
 import com.netflix.nicobar.core.execution.ScriptModuleExecutable;
 import com.netflix.nicobar.core.module.ScriptModule;
+import com.netflix.nicobar.core.module.ScriptModuleEntryPoint;
 import com.netflix.nicobar.core.module.ScriptModuleLoader;
 import com.netflix.nicobar.core.module.ScriptModuleUtils;
 import com.netflix.nicobar.core.plugin.BytecodeLoadingPlugin;
@@ -35,12 +37,15 @@ import org.apache.commons.io.FileUtils;
 import org.testng.annotations.BeforeClass;
 import org.testng.annotations.Test;
 
+import java.lang.ref.WeakReference;
 import java.lang.reflect.Method;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.*;
 import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import static org.testng.Assert.*;
 
@@ -87,6 +92,26 @@ public class Groovy2PluginTest {
         assertGetMessage(clazz, "Hello, World!");
     }
 
+    @Test
+    public void testEntryPointOfGroovyClass() throws Exception {
+        ScriptModuleLoader moduleLoader = createGroovyModuleLoader().build();
+        Path scriptRootPath = GroovyTestResourceUtil.findRootPathForScript(TestScript.HELLO_WORLD);
+        ScriptArchive scriptArchive = new PathScriptArchive.Builder(scriptRootPath)
+            .setRecurseRoot(false)
+            .addFile(TestScript.HELLO_WORLD.getScriptPath())
+            .setModuleSpec(createGroovyModuleSpec(TestScript.HELLO_WORLD.getModuleId())
+                .addMetadata(ScriptModuleEntryPoint.METADATA_ENTRY_CLASS, TestScript.HELLO_WORLD.getClassName())
+                .build())
+            .build();
+        moduleLoader.updateScriptArchives(Collections.singleton(scriptArchive));
+
+        // the GroovyObject methods of the class aren't candidates for the entry method
+        ScriptModuleEntryPoint entryPoint = moduleLoader.getScriptModule(TestScript.HELLO_WORLD.getModuleId()).getEntryPoint();
+        assertNotNull(entryPoint);
+        assertEquals(entryPoint.getEntryMethod().getName(), "getMessage");
+        assertEquals(entryPoint.invoke(), "Hello, World!");
+    }
+
     @Test
     public void testLoadScriptWithInterface() throws Exception {
         ScriptModuleLoader moduleLoader = createGroovyModuleLoader().build();
@@ -312,10 +337,98 @@ public class Groovy2PluginTest {
         Class<?> clazz = findClassByName(scriptModule, TestScript.DEPENDS_ON_A);
         assertGetMessage(clazz, "DepondOnA: Called LibraryA and got message:'I'm LibraryA!'");
     }
+    @Test
+    public void testCompilerWarmup() throws Exception {
+        ScriptModuleLoader moduleLoader = createGroovyModuleLoader().build();
+        Future<?> warmup = moduleLoader.getCompilerWarmup(Groovy2CompilerPlugin.PLUGIN_ID);
+        assertNotNull(warmup);
+        // plugins which don't warm up their compilers have no warmup
+        assertNull(moduleLoader.getCompilerWarmup(BytecodeLoadingPlugin.PLUGIN_ID));
+
+        // modules compile while the compiler warms up
+        Path scriptRootPath = GroovyTestResourceUtil.findRootPathForScript(TestScript.HELLO_WORLD);
+        ScriptArchive scriptArchive = new PathScriptArchive.Builder(scriptRootPath)
+            .setRecurseRoot(false)
+            .addFile(TestScript.HELLO_WORLD.getScriptPath())
+            .setModuleSpec(createGroovyModuleSpec(TestScript.HELLO_WORLD.getModuleId()).build())
+            .build();
+        moduleLoader.updateScriptArchives(Collections.singleton(scriptArchive));
+        warmup.get(60, TimeUnit.SECONDS);
+        ScriptModule scriptModule = moduleLoader.getScriptModule(TestScript.HELLO_WORLD.getModuleId());
+        assertGetMessage(findClassByName(scriptModule, TestScript.HELLO_WORLD), "Hello, World!");
+    }
+
+    @Test
+    public void testCompilerWarmupDisabled() throws Exception {
+        ScriptModuleLoader moduleLoader = createGroovyModuleLoader(Collections.<String, Object>singletonMap(
+            Groovy2Compiler.GROOVY2_COMPILER_PARAMS_WARMUP_ITERATIONS, 0)).build();
+        assertNull(moduleLoader.getCompilerWarmup(Groovy2CompilerPlugin.PLUGIN_ID));
+        loadHelloWorldRevision(moduleLoader, 1);
+    }
+
+    @Test
+    public void testUnloadReleasesOldRevision() throws Exception {
+        ScriptModuleLoader moduleLoader = createGroovyModuleLoader().build();
+        WeakReference<ClassLoader> oldClassLoader = loadHelloWorldRevision(moduleLoader, 1);
+        loadHelloWorldRevision(moduleLoader, 2);
+        // the groovy runtime caches of the old revision were purged when it was unloaded
+        assertTrue(isCollected(oldClassLoader), "old revision is still reachable");
+
+        moduleLoader.removeScriptModule(ModuleId.fromString(TestScript.HELLO_WORLD.getModuleId()));
+        assertNull(moduleLoader.getScriptModule(TestScript.HELLO_WORLD.getModuleId()));
+    }
+
+    /**
+     * Load a revision of the hello world module, and run it through the groovy runtime.
+     * @return a weak reference to the class loader of the revision
+     */
+    static WeakReference<ClassLoader> loadHelloWorldRevision(ScriptModuleLoader moduleLoader, long revision) throws Exception {
+        Path scriptRootPath = GroovyTestResourceUtil.findRootPathForScript(TestScript.HELLO_WORLD);
+        ScriptArchive scriptArchive = new PathScriptArchive.Builder(scriptRootPath)
+            .setRecurseRoot(false)
+            .addFile(TestScript.HELLO_WORLD.getScriptPath())
+            .setModuleSpec(new ScriptModuleSpec.Builder(TestScript.HELLO_WORLD.getModuleId())
+                .addCompilerPluginId(Groovy2CompilerPlugin.PLUGIN_ID)
+                .build())
+            .setCreateTime(revision)
+            .build();
+        moduleLoader.updateScriptArchives(Collections.singleton(scriptArchive));
+        ScriptModule scriptModule = moduleLoader.getScriptModule(TestScript.HELLO_WORLD.getModuleId());
+        assertEquals(scriptModule.getCreateTime(), revision);
+        Class<?> targetClass = null;
+        for (Class<?> clazz : scriptModule.getLoadedClasses()) {
+            if (clazz.getName().equals(TestScript.HELLO_WORLD.getClassName())) {
+                targetClass = clazz;
+            }
+        }
+        assertNotNull(targetClass);
+        Object instance = targetClass.newInstance();
+        assertEquals(targetClass.getMethod("getMessage").invoke(instance), "Hello, World!");
+        return new WeakReference<ClassLoader>(targetClass.getClassLoader());
+    }
+
+    /**
+     * Collect garbage until the referent is collected, or give up.
+     */
+    static boolean isCollected(WeakReference<?> reference) throws InterruptedException {
+        for (int i = 0; i < 100 && reference.get() != null; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return reference.get() == null;
+    }
+
     /**
      * Create a module loader this is wired up with the groovy compiler plugin
      */
-    private ScriptModuleLoader.Builder createGroovyModuleLoader() throws Exception {
+    static ScriptModuleLoader.Builder createGroovyModuleLoader() throws Exception {
+        return createGroovyModuleLoader(Collections.<String, Object>emptyMap());
+    }
+
+    /**
+     * Create a module loader this is wired up with the groovy compiler plugin, configured with the given compiler params
+     */
+    static ScriptModuleLoader.Builder createGroovyModuleLoader(Map<String, Object> compilerParams) throws Exception {
         // create the groovy plugin spec. this plugin specified a new module and classloader called "Groovy2Runtime"
         // which contains the groovy-all-2.1.6.jar and the nicobar-groovy2 project.
         ScriptCompilerPluginSpec pluginSpec = new ScriptCompilerPluginSpec.Builder(Groovy2Compiler.GROOVY2_COMPILER_ID)
@@ -323,8 +436,9 @@ public class Groovy2PluginTest {
             .addRuntimeResource(GroovyTestResourceUtil.getGroovyPluginLocation())
             // hack to make the gradle build work. still doesn't seem to properly instrument the code
             // should probably add a classloader dependency on the system classloader instead
-            .addRuntimeResource(GroovyTestResourceUtil.getCoberturaJar(getClass().getClassLoader()))
+            .addRuntimeResource(GroovyTestResourceUtil.getCoberturaJar(Groovy2PluginTest.class.getClassLoader()))
             .withPluginClassName(GROOVY2_COMPILER_PLUGIN)
+            .addCompilerParams(compilerParams)
             .build();
 
         // create and start the builder with the plugin
@@ -0,0 +1,82 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.nicobar.groovy2.plugin;
+
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertTrue;
+
+import java.lang.management.ClassLoadingMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+
+import org.testng.annotations.Test;
+
+import com.netflix.nicobar.core.module.ScriptModuleLoader;
+
+/**
+ * Redeploys a groovy module many times, and checks that the unloaded revisions don't accumulate in Metaspace
+ * (or the permanent generation before Java 8), which they would as long as the groovy runtime caches hold them.
+ *
+ * Run with {@code gradle soak}.
+ */
+public class Groovy2RedeploySoak {
+    private static final int REDEPLOYS = 1000;
+    /** redeploys before the baseline is measured, which load the groovy runtime and the compiler */
+    private static final int WARMUP_REDEPLOYS = 100;
+    /** allowed growth over the measured redeploys, a fraction of what the unloaded revisions take when they leak */
+    private static final long MAX_GROWTH_BYTES = 4 * 1024 * 1024;
+
+    @Test(groups = "soak")
+    public void soakRedeploy() throws Exception {
+        MemoryPoolMXBean classMetadataPool = null;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getName().contains("Metaspace") || pool.getName().contains("Perm Gen")) {
+                classMetadataPool = pool;
+            }
+        }
+        assertNotNull(classMetadataPool, "no class metadata memory pool");
+        ClassLoadingMXBean classLoading = ManagementFactory.getClassLoadingMXBean();
+
+        ScriptModuleLoader moduleLoader = Groovy2PluginTest.createGroovyModuleLoader().build();
+        long baselineBytes = 0;
+        int baselineClasses = 0;
+        long startTime = System.nanoTime();
+        for (int revision = 1; revision <= REDEPLOYS; revision++) {
+            Groovy2PluginTest.loadHelloWorldRevision(moduleLoader, revision);
+            if (revision == WARMUP_REDEPLOYS) {
+                baselineBytes = getUsedAfterGc(classMetadataPool);
+                baselineClasses = classLoading.getLoadedClassCount();
+            }
+        }
+        long usedBytes = getUsedAfterGc(classMetadataPool);
+        int loadedClasses = classLoading.getLoadedClassCount();
+        System.out.println(String.format("%d redeploys in %d ms: %s %d KB -> %d KB, loaded classes %d -> %d",
+            REDEPLOYS, (System.nanoTime() - startTime) / 1000000, classMetadataPool.getName(),
+            baselineBytes / 1024, usedBytes / 1024, baselineClasses, loadedClasses));
+        assertTrue(usedBytes - baselineBytes < MAX_GROWTH_BYTES, classMetadataPool.getName() + " grew from " +
+            baselineBytes + " to " + usedBytes + " bytes");
+    }
+
+    private static long getUsedAfterGc(MemoryPoolMXBean pool) throws InterruptedException {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return pool.getUsage().getUsed();
+    }
+}
@@ -52,7 +52,9 @@ public class GroovyTestResourceUtil {
         DEPENDS_ON_A("dependsonA", "DependsOnA.groovy", "DependsOnA"),
         INTERNAL_DEPENDENCY_A("internaldependencies", "InternalDependencyA.groovy", "InternalDependencyA"),
         IMPLEMENTS_INTERFACE("implementsinterface", "MyCallable.groovy", "MyCallable"),
-        MIXED_MODULE("mixedmodule", "mixedmodule.jar", "com.netflix.nicobar.test.MixedModule");
+        MIXED_MODULE("mixedmodule", "mixedmodule.jar", "com.netflix.nicobar.test.MixedModule"),
+        FIBONACCI("staticcompile", "Fibonacci.groovy", "Fibonacci"),
+        DYNAMIC_DISPATCH("staticcompilefailure", "DynamicDispatch.groovy", "DynamicDispatch");
 
         private String moduleId;
         private final Path scriptPath;
@@ -0,0 +1,31 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+import java.util.concurrent.Callable
+
+/**
+ * Call heavy script which compiles both dynamically and statically
+ */
+class Fibonacci implements Callable<Integer> {
+    int fib(int n) {
+        n < 2 ? n : fib(n - 1) + fib(n - 2)
+    }
+
+    Integer call() {
+        fib(20)
+    }
+}
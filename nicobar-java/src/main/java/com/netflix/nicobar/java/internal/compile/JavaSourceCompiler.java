@@ -0,0 +1,235 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.nicobar.java.internal.compile;
+
+import java.io.IOException;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+import com.netflix.nicobar.core.archive.ModuleId;
+import com.netflix.nicobar.core.archive.ScriptArchive;
+import com.netflix.nicobar.core.archive.ScriptModuleSpec;
+import com.netflix.nicobar.core.compile.ScriptArchiveCompiler;
+import com.netflix.nicobar.core.compile.ScriptCompilationException;
+import com.netflix.nicobar.core.compile.WarmupScriptArchive;
+import com.netflix.nicobar.core.module.jboss.JBossModuleClassLoader;
+import com.netflix.nicobar.core.plugin.WarmableScriptCompilerPlugin;
+
+/**
+ * Java specific implementation of the {@link ScriptArchiveCompiler}, which compiles the .java sources of an archive
+ * with the system {@link JavaCompiler}, in the same process, and defines the classes straight into the module.
+ *
+ * The sources are read from the archive and the classes are compiled into memory by a {@link ModuleJavaFileManager},
+ * which resolves class names against the classes the module can load. The class files are also written into the
+ * compilation directory, so that modules which depend on the module can compile against them.
+ *
+ * The compiler options are given by the {@value #JAVA_COMPILER_PARAMS_OPTIONS} compiler param, as a list or as a
+ * whitespace separated string, and default to {@link #DEFAULT_OPTIONS}. The source encoding is given by the
+ * {@value #JAVA_COMPILER_PARAMS_ENCODING} compiler param, and defaults to UTF-8. The plugin warms the compiler up in the
+ * background with {@value #JAVA_COMPILER_PARAMS_WARMUP_ITERATIONS} iterations of {@link #warmup(int)},
+ * {@value WarmableScriptCompilerPlugin#DEFAULT_WARMUP_ITERATIONS} unless configured, and 0 disables it.
+ *
+ * The compiler requires a JDK. Compilations share the jar indexes of the standard file manager, which can't be used
+ * concurrently, so they run one at a time.
+ */
+public class JavaSourceCompiler implements ScriptArchiveCompiler {
+    public final static String JAVA_COMPILER_ID = "java";
+    public final static String JAVA_COMPILER_PARAMS_OPTIONS = "options";
+    public final static String JAVA_COMPILER_PARAMS_ENCODING = "encoding";
+    /** number of iterations of the background warmup, 0 to disable it. See {@link WarmableScriptCompilerPlugin}. */
+    public final static String JAVA_COMPILER_PARAMS_WARMUP_ITERATIONS = WarmableScriptCompilerPlugin.COMPILER_PARAMS_WARMUP_ITERATIONS;
+    /** options of the compilations when none are configured. Annotation processors are never looked up. */
+    public final static List<String> DEFAULT_OPTIONS = Collections.unmodifiableList(Arrays.asList("-proc:none"));
+
+    private final static ModuleId WARMUP_MODULE_ID = ModuleId.create("nicobar-java-warmup");
+
+    protected final JavaCompiler javaCompiler;
+    /** guarded by itself */
+    protected final StandardJavaFileManager standardFileManager;
+    protected final List<String> options;
+    protected final Charset charset;
+
+    public JavaSourceCompiler(Map<String, Object> compilerParams) {
+        javaCompiler = ToolProvider.getSystemJavaCompiler();
+        if (javaCompiler == null) {
+            throw new IllegalStateException("No system java compiler, which requires running on a JDK");
+        }
+        Object encoding = compilerParams.get(JAVA_COMPILER_PARAMS_ENCODING);
+        charset = encoding != null ? Charset.forName(encoding.toString()) : Charset.forName("UTF-8");
+        options = parseOptions(compilerParams.get(JAVA_COMPILER_PARAMS_OPTIONS));
+        standardFileManager = javaCompiler.getStandardFileManager(null, Locale.getDefault(), charset);
+    }
+
+    private static List<String> parseOptions(@Nullable Object options) {
+        if (options == null) {
+            return DEFAULT_OPTIONS;
+        }
+        List<String> parsedOptions = new ArrayList<String>();
+        if (options instanceof Collection) {
+            for (Object option : (Collection<?>)options) {
+                parsedOptions.add(option.toString());
+            }
+        } else {
+            for (String option : options.toString().trim().split("\\s+")) {
+                if (!option.isEmpty()) {
+                    parsedOptions.add(option);
+                }
+            }
+        }
+        return Collections.unmodifiableList(parsedOptions);
+    }
+
+    public String getCompilerId() {
+        return JAVA_COMPILER_ID;
+    }
+
+    @Override
+    public boolean shouldCompile(ScriptArchive archive) {
+        return archive.getModuleSpec().getCompilerPluginIds().contains(getCompilerId());
+    }
+
+    /**
+     * Compile the .java sources of an archive.
+     * @param moduleClassLoader class loader of the module, which the classes are defined into, or null to only
+     *        write the class files, compiled against the class path of the JVM
+     * @return the classes defined into the module class loader
+     */
+    @Override
+    public Set<Class<?>> compile(ScriptArchive archive, @Nullable JBossModuleClassLoader moduleClassLoader, Path targetDir)
+            throws ScriptCompilationException, IOException {
+        List<JavaFileObject> sources = new ArrayList<JavaFileObject>();
+        for (String entryName : archive.getArchiveEntryNames()) {
+            if (entryName.endsWith(JavaFileObject.Kind.SOURCE.extension)) {
+                URL entryUrl = archive.getEntry(entryName);
+                if (entryUrl == null) {
+                    throw new ScriptCompilationException("Unable to read archive entry " + entryName);
+                }
+                sources.add(ModuleJavaFileManager.createSourceInput(entryName, entryUrl, charset));
+            }
+        }
+        if (sources.isEmpty()) {
+            return Collections.emptySet();
+        }
+
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<JavaFileObject>();
+        Map<String, byte[]> classBytes;
+        synchronized (standardFileManager) {
+            ModuleJavaFileManager fileManager = new ModuleJavaFileManager(standardFileManager, moduleClassLoader);
+            boolean success;
+            try {
+                success = javaCompiler.getTask(null, fileManager, diagnostics, options, null, sources).call();
+            } catch (RuntimeException e) {
+                throw new ScriptCompilationException("Exception compiling module " +
+                    archive.getModuleSpec().getModuleId(), e);
+            }
+            if (!success) {
+                throw new ScriptCompilationException("Unable to compile module " +
+                    archive.getModuleSpec().getModuleId() + ":" + formatErrors(diagnostics));
+            }
+            classBytes = fileManager.getClassBytes();
+        }
+
+        for (Map.Entry<String, byte[]> entry : classBytes.entrySet()) {
+            Path classFile = targetDir.resolve(entry.getKey().replace('.', '/') + JavaFileObject.Kind.CLASS.extension);
+            Files.createDirectories(classFile.getParent());
+            Files.write(classFile, entry.getValue());
+        }
+        if (moduleClassLoader == null) {
+            return Collections.emptySet();
+        }
+        if (hasUnknownPackages(moduleClassLoader, classBytes.keySet())) {
+            // a class in a package which the module doesn't know yet, like a source outside of its package directory,
+            // can't be defined. The module loads the classes from the compilation directory once it is rescanned.
+            return Collections.emptySet();
+        }
+        try {
+            return moduleClassLoader.addClassBytes(classBytes);
+        } catch (LinkageError e) {
+            throw new ScriptCompilationException("Unable to define the classes of module " +
+                archive.getModuleSpec().getModuleId(), e);
+        }
+    }
+
+    /**
+     * @return true if one of the classes is in a package which has no resources in the module
+     */
+    private static boolean hasUnknownPackages(JBossModuleClassLoader moduleClassLoader, Set<String> classNames)
+            throws IOException {
+        Set<String> packagePaths = new HashSet<String>();
+        for (String className : classNames) {
+            int packageEnd = className.lastIndexOf('.');
+            packagePaths.add(packageEnd < 0 ? "" : className.substring(0, packageEnd).replace('.', '/'));
+        }
+        for (String packagePath : packagePaths) {
+            if (moduleClassLoader.getModuleResourcePaths(packagePath).isEmpty()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String formatErrors(DiagnosticCollector<JavaFileObject> diagnostics) {
+        StringBuilder errors = new StringBuilder();
+        for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics()) {
+            if (diagnostic.getKind() != Diagnostic.Kind.ERROR) {
+                continue;
+            }
+            errors.append("\n");
+            if (diagnostic.getSource() != null) {
+                errors.append(diagnostic.getSource().getName()).append(":").append(diagnostic.getLineNumber()).append(": ");
+            }
+            errors.append(diagnostic.getMessage(Locale.getDefault()));
+        }
+        return errors.toString();
+    }
+
+    /**
+     * Warm up the compiler by compiling synthetic sources, with the options of the compiler, against the class path
+     * of the JVM. The compiled classes are discarded.
+     * @param iterations number of times to compile the sources
+     */
+    public void warmup(int iterations) throws ScriptCompilationException, IOException {
+        ScriptModuleSpec moduleSpec = new ScriptModuleSpec.Builder(WARMUP_MODULE_ID)
+            .addCompilerPluginId(getCompilerId())
+            .build();
+        try (WarmupScriptArchive warmupArchive = new WarmupScriptArchive(moduleSpec, JavaWarmupSources.SOURCES)) {
+            for (int i = 0; i < iterations; i++) {
+                compile(warmupArchive.getArchive(), null, warmupArchive.createTargetDir());
+            }
+        }
+    }
+}
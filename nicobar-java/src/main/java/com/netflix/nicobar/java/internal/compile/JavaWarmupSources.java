@@ -0,0 +1,101 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.nicobar.java.internal.compile;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Synthetic sources compiled by {@link JavaSourceCompiler#warmup(int)}, which use the language features scripts
+ * commonly use. They are kept in the code rather than in resources, so that any compiler plugin module can compile them.
+ */
+final class JavaWarmupSources {
+    private final static String WARMUP_SCRIPT =
+        "package nicobar.java.warmup;\n" +
+        "\n" +
+        "import java.util.ArrayList;\n" +
+        "import java.util.Collections;\n" +
+        "import java.util.Comparator;\n" +
+        "import java.util.HashMap;\n" +
+        "import java.util.List;\n" +
+        "import java.util.Map;\n" +
+        "import java.util.concurrent.Callable;\n" +
+        "\n" +
+        "/**\n" +
+        " * Synthetic source compiled to warm up the java compiler. Uses the language features scripts commonly use.\n" +
+        " */\n" +
+        "public class WarmupScript implements Callable<Map<String, Integer>> {\n" +
+        "    private final List<String> words = new ArrayList<String>();\n" +
+        "\n" +
+        "    public WarmupScript(String... words) {\n" +
+        "        Collections.addAll(this.words, words);\n" +
+        "    }\n" +
+        "\n" +
+        "    @Override\n" +
+        "    public Map<String, Integer> call() throws Exception {\n" +
+        "        Map<String, Integer> counts = new HashMap<String, Integer>();\n" +
+        "        for (String word : words) {\n" +
+        "            Integer count = counts.get(word);\n" +
+        "            counts.put(word, count == null ? 1 : count + 1);\n" +
+        "        }\n" +
+        "        return counts;\n" +
+        "    }\n" +
+        "\n" +
+        "    public List<String> sorted() {\n" +
+        "        List<String> sorted = new ArrayList<String>(words);\n" +
+        "        Collections.sort(sorted, new Comparator<String>() {\n" +
+        "            @Override\n" +
+        "            public int compare(String a, String b) {\n" +
+        "                return a.length() != b.length() ? a.length() - b.length() : a.compareTo(b);\n" +
+        "            }\n" +
+        "        });\n" +
+        "        return sorted;\n" +
+        "    }\n" +
+        "\n" +
+        "    public static String describe(Object value) {\n" +
+        "        switch (String.valueOf(value)) {\n" +
+        "        case \"\":\n" +
+        "            return \"empty\";\n" +
+        "        case \"null\":\n" +
+        "            return \"null\";\n" +
+        "        default:\n" +
+        "            return value.getClass().getSimpleName() + \":\" + value;\n" +
+        "        }\n" +
+        "    }\n" +
+        "\n" +
+        "    static class Counter<T extends Comparable<T>> {\n" +
+        "        private final Map<T, Integer> counts = new HashMap<T, Integer>();\n" +
+        "\n" +
+        "        void add(T value) {\n" +
+        "            Integer count = counts.get(value);\n" +
+        "            counts.put(value, count == null ? 1 : count + 1);\n" +
+        "        }\n" +
+        "\n" +
+        "        int get(T value) {\n" +
+        "            Integer count = counts.get(value);\n" +
+        "            return count != null ? count : 0;\n" +
+        "        }\n" +
+        "    }\n" +
+        "}\n";
+
+    /** map of the source file names to their content */
+    final static Map<String, String> SOURCES = Collections.singletonMap("WarmupScript.java", WARMUP_SCRIPT);
+
+    private JavaWarmupSources() {
+    }
+}
@@ -0,0 +1,230 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.nicobar.java.internal.compile;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import javax.annotation.Nullable;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.JavaFileObject.Kind;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.StandardLocation;
+
+import com.netflix.nicobar.core.module.jboss.JBossModuleClassLoader;
+
+/**
+ * {@link javax.tools.JavaFileManager} of the compilation of a single module, which reads the sources from the script
+ * archive and keeps the compiled classes in memory.
+ *
+ * The class path of the compilation is the set of classes the module class loader can load: the classes of the
+ * module and of the modules it depends on, and the application classes it imports. The module classes are listed
+ * through the module itself, while the imported application classes are listed from the class path of the standard
+ * file manager, which is the class path of the JVM unless configured otherwise. Either way, a class is only visible
+ * if the module class loader finds its class file, and its content is read from there. The JRE classes come from the
+ * platform class path of the standard file manager as usual.
+ *
+ * Instances are not thread safe, and the standard file manager can't be used concurrently by other compilations.
+ */
+public class ModuleJavaFileManager extends ForwardingJavaFileManager<StandardJavaFileManager> {
+    private final JBossModuleClassLoader moduleClassLoader;
+    private final Map<String, ClassOutput> classOutputs = new LinkedHashMap<String, ClassOutput>();
+
+    /**
+     * @param standardFileManager file manager of the platform classes and of the application class path
+     * @param moduleClassLoader class loader of the compiled module, or null to compile against the class path of
+     *        the standard file manager
+     */
+    public ModuleJavaFileManager(StandardJavaFileManager standardFileManager, @Nullable JBossModuleClassLoader moduleClassLoader) {
+        super(standardFileManager);
+        this.moduleClassLoader = moduleClassLoader;
+    }
+
+    @Override
+    public Iterable<JavaFileObject> list(Location location, String packageName, Set<Kind> kinds, boolean recurse)
+            throws IOException {
+        if (location != StandardLocation.CLASS_PATH || moduleClassLoader == null) {
+            return super.list(location, packageName, kinds, recurse);
+        }
+        if (!kinds.contains(Kind.CLASS)) {
+            return Collections.emptyList();
+        }
+        // the archive sources are passed to the compiler directly, and the class path has no sources
+        String packagePath = packageName.replace('.', '/');
+        Set<String> classPaths = new TreeSet<String>();
+        for (String resourcePath : moduleClassLoader.getModuleResourcePaths(packagePath)) {
+            if (resourcePath.endsWith(Kind.CLASS.extension)) {
+                classPaths.add(resourcePath);
+            }
+        }
+        for (JavaFileObject classFile : super.list(location, packageName, Collections.singleton(Kind.CLASS), false)) {
+            classPaths.add(super.inferBinaryName(location, classFile).replace('.', '/') + Kind.CLASS.extension);
+        }
+        List<JavaFileObject> classFiles = new ArrayList<JavaFileObject>(classPaths.size());
+        for (String classPath : classPaths) {
+            URL classUrl = moduleClassLoader.getResource(classPath);
+            if (classUrl != null) {
+                String binaryName = classPath.substring(0, classPath.length() - Kind.CLASS.extension.length()).replace('/', '.');
+                classFiles.add(new ClassInput(binaryName, classUrl));
+            }
+        }
+        return classFiles;
+    }
+
+    @Override
+    public String inferBinaryName(Location location, JavaFileObject file) {
+        if (file instanceof ClassInput) {
+            return ((ClassInput)file).binaryName;
+        }
+        return super.inferBinaryName(location, file);
+    }
+
+    @Override
+    public boolean isSameFile(FileObject a, FileObject b) {
+        if (a instanceof ClassInput || b instanceof ClassInput || a instanceof SourceInput || b instanceof SourceInput) {
+            return a.toUri().equals(b.toUri());
+        }
+        return super.isSameFile(a, b);
+    }
+
+    @Override
+    public JavaFileObject getJavaFileForOutput(Location location, String className, Kind kind, FileObject sibling)
+            throws IOException {
+        if (location == StandardLocation.CLASS_OUTPUT && kind == Kind.CLASS) {
+            ClassOutput classOutput = new ClassOutput(className);
+            classOutputs.put(className, classOutput);
+            return classOutput;
+        }
+        return super.getJavaFileForOutput(location, className, kind, sibling);
+    }
+
+    /**
+     * Create the compiler input of a source entry of an archive.
+     * @param entryName name of the entry, which is reported by the compiler diagnostics
+     * @param entryUrl URL of the entry
+     * @param charset encoding of the source
+     */
+    public static JavaFileObject createSourceInput(String entryName, URL entryUrl, Charset charset) {
+        return new SourceInput(entryName, entryUrl, charset);
+    }
+
+    /**
+     * @return map of the binary names of the compiled classes to their bytecode
+     */
+    public Map<String, byte[]> getClassBytes() {
+        Map<String, byte[]> classBytes = new LinkedHashMap<String, byte[]>(classOutputs.size() * 2);
+        for (ClassOutput classOutput : classOutputs.values()) {
+            classBytes.put(classOutput.binaryName, classOutput.bytes.toByteArray());
+        }
+        return classBytes;
+    }
+
+    private static URI createUri(String path, Kind kind) {
+        try {
+            return new URI("nicobar", null, "/" + path, null);
+        } catch (URISyntaxException e) {
+            throw new IllegalArgumentException("invalid " + kind + " path " + path, e);
+        }
+    }
+
+    /**
+     * Source entry of an archive.
+     */
+    private static class SourceInput extends SimpleJavaFileObject {
+        private final URL entryUrl;
+        private final Charset charset;
+
+        SourceInput(String entryName, URL entryUrl, Charset charset) {
+            super(createUri(entryName, Kind.SOURCE), Kind.SOURCE);
+            this.entryUrl = entryUrl;
+            this.charset = charset;
+        }
+
+        @Override
+        public CharSequence getCharContent(boolean ignoreEncodingErrors) throws IOException {
+            try (InputStream in = entryUrl.openStream()) {
+                ByteArrayOutputStream content = new ByteArrayOutputStream();
+                byte[] buffer = new byte[8192];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    content.write(buffer, 0, read);
+                }
+                return new String(content.toByteArray(), charset);
+            }
+        }
+
+        @Override
+        public InputStream openInputStream() throws IOException {
+            return entryUrl.openStream();
+        }
+    }
+
+    /**
+     * Class file the module class loader can load.
+     */
+    private static class ClassInput extends SimpleJavaFileObject {
+        private final String binaryName;
+        private final URL classUrl;
+
+        ClassInput(String binaryName, URL classUrl) {
+            super(createUri(binaryName.replace('.', '/') + Kind.CLASS.extension, Kind.CLASS), Kind.CLASS);
+            this.binaryName = binaryName;
+            this.classUrl = classUrl;
+        }
+
+        @Override
+        public InputStream openInputStream() throws IOException {
+            return classUrl.openStream();
+        }
+    }
+
+    /**
+     * Class compiled into memory.
+     */
+    private static class ClassOutput extends SimpleJavaFileObject {
+        private final String binaryName;
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        ClassOutput(String binaryName) {
+            super(createUri(binaryName.replace('.', '/') + Kind.CLASS.extension, Kind.CLASS), Kind.CLASS);
+            this.binaryName = binaryName;
+        }
+
+        @Override
+        public OutputStream openOutputStream() {
+            bytes.reset();
+            return bytes;
+        }
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.nicobar.java.plugin;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+
+import com.netflix.nicobar.core.compile.ScriptArchiveCompiler;
+import com.netflix.nicobar.core.plugin.WarmableScriptCompilerPlugin;
+import com.netflix.nicobar.java.internal.compile.JavaSourceCompiler;
+
+/**
+ * Factory class for the Java language plug-in, which compiles .java sources in process.
+ */
+public class JavaCompilerPlugin implements WarmableScriptCompilerPlugin {
+
+    public static final String PLUGIN_ID = "java";
+
+    public JavaCompilerPlugin() {
+    }
+
+    @Override
+    public Set<? extends ScriptArchiveCompiler> getCompilers(Map<String, Object> compilerParams) {
+        return Collections.singleton(new JavaSourceCompiler(compilerParams));
+    }
+
+    /**
+     * Compile synthetic sources with each compiler. See {@link JavaSourceCompiler#warmup(int)}.
+     */
+    @Override
+    public void warmup(Set<? extends ScriptArchiveCompiler> compilers, int iterations) throws Exception {
+        for (ScriptArchiveCompiler compiler : compilers) {
+            if (compiler instanceof JavaSourceCompiler) {
+                ((JavaSourceCompiler)compiler).warmup(iterations);
+            }
+        }
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.nicobar.java.plugin;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.fail;
+
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.testng.annotations.Test;
+
+import com.netflix.nicobar.core.archive.PathScriptArchive;
+import com.netflix.nicobar.core.archive.ScriptArchive;
+import com.netflix.nicobar.core.archive.ScriptModuleSpec;
+import com.netflix.nicobar.core.module.ScriptModule;
+import com.netflix.nicobar.core.module.ScriptModuleLoader;
+import com.netflix.nicobar.core.module.jboss.JBossScriptModule;
+import com.netflix.nicobar.core.plugin.ScriptCompilerPluginSpec;
+import com.netflix.nicobar.core.utils.ClassPathUtils;
+import com.netflix.nicobar.java.internal.compile.JavaSourceCompiler;
+
+/**
+ * Integration tests for the Java language plugin
+ */
+public class JavaPluginTest {
+
+    @Test
+    public void testLoadModule() throws Exception {
+        ScriptModuleLoader moduleLoader = createJavaModuleLoader().build();
+        moduleLoader.updateScriptArchives(Collections.singleton(createHelloArchive()));
+
+        ScriptModule scriptModule = moduleLoader.getScriptModule("hellojava");
+        assertNotNull(scriptModule);
+        Class<?> helloClass = findClassByName(scriptModule, "testmodule.hello.HelloJava");
+        // the classes are defined by the module itself, including the superclass and the nested class
+        ClassLoader moduleClassLoader = ((JBossScriptModule)scriptModule).getModuleClassLoader();
+        assertSame(helloClass.getClassLoader(), moduleClassLoader);
+        assertSame(findClassByName(scriptModule, "testmodule.hello.Greeter").getClassLoader(), moduleClassLoader);
+        assertSame(findClassByName(scriptModule, "testmodule.hello.Greeter$Punctuation").getClassLoader(), moduleClassLoader);
+        assertEquals(((Callable<?>)helloClass.newInstance()).call(), "Hello, Java!");
+    }
+
+    @Test
+    public void testLoadModuleWithDependencies() throws Exception {
+        ScriptModuleLoader moduleLoader = createJavaModuleLoader()
+            .addAppPackages(Collections.singleton("org/apache/commons/lang"))
+            .build();
+        ScriptArchive dependentArchive = new PathScriptArchive.Builder(findRootPath("dependentjava"))
+            .setModuleSpec(new ScriptModuleSpec.Builder("dependentjava")
+                .addCompilerPluginId(JavaCompilerPlugin.PLUGIN_ID)
+                .addModuleDependency("hellojava")
+                .build())
+            .build();
+        // load them in reverse dependency order to make sure that the dependency is compiled first
+        moduleLoader.updateScriptArchives(new LinkedHashSet<ScriptArchive>(Arrays.asList(dependentArchive, createHelloArchive())));
+
+        ScriptModule scriptModule = moduleLoader.getScriptModule("dependentjava");
+        assertNotNull(scriptModule);
+        Class<?> dependentClass = findClassByName(scriptModule, "testmodule.dependent.DependentJava");
+        assertEquals(((Callable<?>)dependentClass.newInstance()).call(), "HELLO, JAVA!");
+    }
+
+    @Test
+    public void testCompileFailure() throws Exception {
+        Path sourceDir = Files.createTempDirectory(JavaPluginTest.class.getSimpleName());
+        try {
+            Files.write(sourceDir.resolve("Broken.java"), "public class Broken { int x = missing(); }".getBytes(Charset.forName("UTF-8")));
+            ScriptArchive archive = new PathScriptArchive.Builder(sourceDir)
+                .setModuleSpec(new ScriptModuleSpec.Builder("broken")
+                    .addCompilerPluginId(JavaCompilerPlugin.PLUGIN_ID)
+                    .build())
+                .build();
+            ScriptModuleLoader moduleLoader = createJavaModuleLoader().build();
+            moduleLoader.updateScriptArchives(Collections.singleton(archive));
+            assertNull(moduleLoader.getScriptModule("broken"));
+        } finally {
+            FileUtils.deleteQuietly(sourceDir.toFile());
+        }
+    }
+
+    @Test
+    public void testSourceOutsideOfPackageDirectory() throws Exception {
+        Path sourceDir = Files.createTempDirectory(JavaPluginTest.class.getSimpleName());
+        try {
+            Files.write(sourceDir.resolve("Elsewhere.java"), ("package elsewhere; public class Elsewhere " +
+                "implements java.util.concurrent.Callable<String> { public String call() { return \"elsewhere\"; } }")
+                .getBytes(Charset.forName("UTF-8")));
+            ScriptArchive archive = new PathScriptArchive.Builder(sourceDir)
+                .setModuleSpec(new ScriptModuleSpec.Builder("elsewhere")
+                    .addCompilerPluginId(JavaCompilerPlugin.PLUGIN_ID)
+                    .build())
+                .build();
+            ScriptModuleLoader moduleLoader = createJavaModuleLoader().build();
+            moduleLoader.updateScriptArchives(Collections.singleton(archive));
+
+            // the module doesn't know the package when the class is compiled, and loads it from the compilation directory
+            ScriptModule scriptModule = moduleLoader.getScriptModule("elsewhere");
+            assertNotNull(scriptModule);
+            Class<?> elsewhereClass = scriptModule.getModuleClassLoader().loadClass("elsewhere.Elsewhere");
+            assertSame(elsewhereClass.getClassLoader(), scriptModule.getModuleClassLoader());
+            assertEquals(((Callable<?>)elsewhereClass.newInstance()).call(), "elsewhere");
+        } finally {
+            FileUtils.deleteQuietly(sourceDir.toFile());
+        }
+    }
+
+    @Test
+    public void testCompilerWarmup() throws Exception {
+        ScriptModuleLoader moduleLoader = createJavaModuleLoader().build();
+        Future<?> warmup = moduleLoader.getCompilerWarmup(JavaCompilerPlugin.PLUGIN_ID);
+        assertNotNull(warmup);
+        warmup.get(60, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void testCompilerWarmupDisabled() throws Exception {
+        ScriptModuleLoader moduleLoader = createJavaModuleLoader(Collections.<String, Object>singletonMap(
+            JavaSourceCompiler.JAVA_COMPILER_PARAMS_WARMUP_ITERATIONS, "0")).build();
+        assertNull(moduleLoader.getCompilerWarmup(JavaCompilerPlugin.PLUGIN_ID));
+    }
+
+    /**
+     * Create a module loader that is wired up with the java compiler plugin
+     */
+    private static ScriptModuleLoader.Builder createJavaModuleLoader() throws Exception {
+        return createJavaModuleLoader(Collections.<String, Object>emptyMap());
+    }
+
+    /**
+     * Create a module loader that is wired up with the java compiler plugin, configured with the given compiler params
+     */
+    private static ScriptModuleLoader.Builder createJavaModuleLoader(Map<String, Object> compilerParams) throws Exception {
+        ScriptCompilerPluginSpec pluginSpec = new ScriptCompilerPluginSpec.Builder(JavaSourceCompiler.JAVA_COMPILER_ID)
+            .addRuntimeResource(ClassPathUtils.findRootPathForClass(JavaCompilerPlugin.class))
+            .withPluginClassName(JavaCompilerPlugin.class.getName())
+            .addCompilerParams(compilerParams)
+            .build();
+        return new ScriptModuleLoader.Builder().addPluginSpec(pluginSpec);
+    }
+
+    private static ScriptArchive createHelloArchive() throws Exception {
+        return new PathScriptArchive.Builder(findRootPath("hellojava"))
+            .setModuleSpec(new ScriptModuleSpec.Builder("hellojava")
+                .addCompilerPluginId(JavaCompilerPlugin.PLUGIN_ID)
+                .build())
+            .build();
+    }
+
+    private static Path findRootPath(String moduleName) throws Exception {
+        URL rootUrl = JavaPluginTest.class.getClassLoader().getResource("testmodules/" + moduleName);
+        assertNotNull(rootUrl, "missing test module " + moduleName);
+        return Paths.get(rootUrl.toURI());
+    }
+
+    private static Class<?> findClassByName(ScriptModule scriptModule, String className) {
+        for (Class<?> clazz : scriptModule.getLoadedClasses()) {
+            if (clazz.getName().equals(className)) {
+                return clazz;
+            }
+        }
+        fail("couldn't find class " + className);
+        return null;
+    }
+}
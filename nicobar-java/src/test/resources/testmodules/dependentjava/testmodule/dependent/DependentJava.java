@@ -0,0 +1,14 @@
+package testmodule.dependent;
+
+import java.util.concurrent.Callable;
+
+import org.apache.commons.lang.StringUtils;
+
+import testmodule.hello.HelloJava;
+
+public class DependentJava implements Callable<String> {
+    @Override
+    public String call() {
+        return StringUtils.upperCase(new HelloJava().call());
+    }
+}
@@ -0,0 +1,11 @@
+package testmodule.hello;
+
+public abstract class Greeter {
+    protected String greet(String name) {
+        return "Hello, " + name + Punctuation.MARK;
+    }
+
+    static class Punctuation {
+        static final String MARK = "!";
+    }
+}
@@ -0,0 +1,10 @@
+package testmodule.hello;
+
+import java.util.concurrent.Callable;
+
+public class HelloJava extends Greeter implements Callable<String> {
+    @Override
+    public String call() {
+        return greet("Java");
+    }
+}
@@ -43,10 +43,7 @@ public class MixGroovy2CompilerHelper extends Groovy2CompilerHelper{
     @Override
     @SuppressWarnings("unchecked")
     public Set<GroovyClass> compile() throws ScriptCompilationException {
-        final CompilerConfiguration conf = this.getCompileConfig() != null ? this.getCompileConfig() : CompilerConfiguration.DEFAULT;
-        conf.setTolerance(0);
-        conf.setVerbose(true);
-        conf.setTargetDirectory(this.getTargetDir().toFile());
+        final CompilerConfiguration conf = createCompileConfig();
         final ClassLoader buildParentClassloader = this.getParentClassLoader() != null ?
                 this.getParentClassLoader() : Thread.currentThread().getContextClassLoader();
         GroovyClassLoader groovyClassLoader = AccessController.doPrivileged(new PrivilegedAction<GroovyClassLoader>() {
@@ -55,7 +52,7 @@ public class MixGroovy2CompilerHelper extends Groovy2CompilerHelper{
             }
         });
 
-        CompilationUnit unit = new CompilationUnit(conf, null, groovyClassLoader);
+        CompilationUnit unit = createCompilationUnit(conf, groovyClassLoader);
         try {
             for (ScriptArchive scriptArchive : this.getScriptArchives()) {
                 Set<String> entryNames = scriptArchive.getArchiveEntryNames();
@@ -1,7 +1,10 @@
 package com.netflix.nicobar.mix.groovy2.plugin;
 
+import com.netflix.nicobar.core.archive.ModuleId;
 import com.netflix.nicobar.core.compile.ScriptArchiveCompiler;
-import com.netflix.nicobar.core.plugin.ScriptCompilerPlugin;
+import com.netflix.nicobar.core.plugin.UnloadAwareScriptCompilerPlugin;
+import com.netflix.nicobar.core.plugin.WarmableScriptCompilerPlugin;
+import com.netflix.nicobar.groovy2.internal.runtime.GroovyClassCaches;
 import com.netflix.nicobar.mix.groovy2.internal.compile.MixGroovy2Compiler;
 import java.util.Collections;
 import java.util.Map;
@@ -10,7 +13,7 @@ import java.util.Set;
 /**
  *
  */
-public class MixGroovy2CompilerPlugin implements ScriptCompilerPlugin {
+public class MixGroovy2CompilerPlugin implements WarmableScriptCompilerPlugin, UnloadAwareScriptCompilerPlugin {
 
     public static final String MIX_PLUGIN_ID = "mix.groovy2";
 
@@ -18,4 +21,24 @@ public class MixGroovy2CompilerPlugin implements ScriptCompilerPlugin {
     public Set<? extends ScriptArchiveCompiler> getCompilers(Map<String, Object> compilerParams) {
         return Collections.singleton(new MixGroovy2Compiler(compilerParams));
     }
+
+    @Override
+    public void warmup(Set<? extends ScriptArchiveCompiler> compilers, int iterations) throws Exception {
+        for (ScriptArchiveCompiler compiler : compilers) {
+            if (compiler instanceof MixGroovy2Compiler) {
+                ((MixGroovy2Compiler)compiler).warmup(iterations);
+            }
+        }
+    }
+
+    @Override
+    public void moduleUnloaded(ModuleId moduleId, ClassLoader moduleClassLoader, Set<Class<?>> unloadedClasses,
+            Set<? extends ScriptArchiveCompiler> compilers) throws Exception {
+        GroovyClassCaches.removeClasses(unloadedClasses);
+        for (ScriptArchiveCompiler compiler : compilers) {
+            if (compiler instanceof MixGroovy2Compiler) {
+                ((MixGroovy2Compiler)compiler).purgeClassLoader(moduleClassLoader);
+            }
+        }
+    }
 }
@@ -34,7 +34,9 @@ public class MixGroovy2PluginUtils {
      * @param target    -
      * @param overwrite -
      * @throws BuildException
+     * @deprecated the jars of an archive are resource roots of its module, and are no longer extracted
      */
+    @Deprecated
     public static void unJar(Path source, Path target, boolean overwrite) throws BuildException {
         Expand expand = new Expand();
         expand.setProject(new Project());
@@ -118,7 +120,7 @@ public class MixGroovy2PluginUtils {
         ScriptCompilerPluginSpec.Builder builder = new ScriptCompilerPluginSpec.Builder(Groovy2Compiler.GROOVY2_COMPILER_ID)
                 .addRuntimeResource(getGroovyRuntime(parentClassLoader))
                 .addRuntimeResource(getGroovyPluginLocation(parentClassLoader))
-                .addRuntimeResource(getByteCodeLoadingPluginPath())
+                .addRuntimeResource(getByteCodeLoadingPluginPath(parentClassLoader))
 
                 // hack to make the gradle build work. still doesn't seem to properly instrument the code
                 // should probably add a classloader dependency on the system classloader instead